@@ -0,0 +1,276 @@
+import lombok.Getter;
+import java.io.Serializable;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// One aggregate in a PICK egg list: COUNTFEATHER(*|egg), SWARM(egg), AVIANAVG(egg), MIN(egg),
+// MAX(egg), APPROXCOUNTFEATHER(egg) or APPROXPERCENTILE(egg, fraction), optionally named with AS.
+// Rows are grouped by the query's FLOCK BY eggs.
+//
+// The APPROX aggregates run on sketches: APPROXCOUNTFEATHER counts distinct values with a
+// HyperLogLog (about 1.6% error in 4 KB) and APPROXPERCENTILE estimates a quantile of INTEGER
+// values with a t-digest. Every state, sketches included, can be merged with another state of
+// the same aggregate, so partitions of a FLOCK BY can be aggregated separately and combined.
+public class Aggregate implements Serializable {
+    private static final long serialVersionUID = 1L;
+    public enum Function {
+        COUNTFEATHER,
+        SWARM,
+        AVIANAVG,
+        MIN,
+        MAX,
+        APPROXCOUNTFEATHER,
+        APPROXPERCENTILE;
+
+        // Whether a removed value can always be taken back out. MIN and MAX keep only the current
+        // extreme, and sketches can't forget a value at all.
+        public boolean isRetractable() {
+            return this == COUNTFEATHER || this == SWARM || this == AVIANAVG;
+        }
+
+        public boolean isApproximate() {
+            return this == APPROXCOUNTFEATHER || this == APPROXPERCENTILE;
+        }
+    }
+
+    private static final Pattern SYNTAX = Pattern.compile(
+        "(\\w+)\\s*\\(\\s*(\\*|\\w+)\\s*(?:,\\s*([0-9.]+)\\s*)?\\)(?:\\s+AS\\s+(\\w+))?",
+        Pattern.CASE_INSENSITIVE
+    );
+
+    @Getter private final Function function;
+    // null for COUNTFEATHER(*)
+    @Getter private final String eggName;
+    // The result's egg name: the AS alias, or e.g. swarm_weight
+    @Getter private final String name;
+    // APPROXPERCENTILE's quantile, between 0 and 1
+    @Getter private final double fraction;
+
+    public Aggregate(Function function, String eggName, String name) {
+        this(function, eggName, name, Double.NaN);
+    }
+
+    public Aggregate(Function function, String eggName, String name, double fraction) {
+        this.function = function;
+        this.eggName = eggName;
+        this.name = name;
+        this.fraction = fraction;
+    }
+
+    // The aggregate an egg-list item spells, or null if the item is a plain egg name
+    public static Aggregate parse(String item) {
+        Matcher matcher = SYNTAX.matcher(item.trim());
+        if (!matcher.matches()) {
+            return null;
+        }
+        Function function;
+        try {
+            function = Function.valueOf(matcher.group(1).toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown aggregate " + matcher.group(1) +
+                ". Expected: COUNTFEATHER, SWARM, AVIANAVG, MIN, MAX, APPROXCOUNTFEATHER or APPROXPERCENTILE");
+        }
+        String eggName = matcher.group(2).equals("*") ? null : matcher.group(2);
+        if (eggName == null && function != Function.COUNTFEATHER) {
+            throw new IllegalArgumentException(function + "(*) is not supported; only COUNTFEATHER counts clutches");
+        }
+        double fraction = Double.NaN;
+        if (function == Function.APPROXPERCENTILE) {
+            try {
+                fraction = Double.parseDouble(matcher.group(3) == null ? "" : matcher.group(3));
+            } catch (NumberFormatException e) {
+                fraction = Double.NaN;
+            }
+            if (!(fraction >= 0 && fraction <= 1)) {
+                throw new IllegalArgumentException("APPROXPERCENTILE needs a fraction between 0 and 1, e.g. APPROXPERCENTILE(" +
+                    eggName + ", 0.95)");
+            }
+        } else if (matcher.group(3) != null) {
+            throw new IllegalArgumentException(function + " takes a single egg");
+        }
+        String name = matcher.group(4) != null ? matcher.group(4) :
+            function.name().toLowerCase() + (eggName == null ? "" : "_" + eggName) +
+            (function == Function.APPROXPERCENTILE ? "_" + matcher.group(3).replaceAll("^0*\\.?|\\.", "") : "");
+        return new Aggregate(function, eggName, name, fraction);
+    }
+
+    // Data type of the result egg, given the aggregated egg's; null when it has no BDL type
+    public String resultDataType(String inputDataType) {
+        switch (function) {
+            case COUNTFEATHER:
+            case SWARM:
+            case APPROXCOUNTFEATHER:
+                return EggType.INTEGER.name();
+            case AVIANAVG:
+            case APPROXPERCENTILE:
+                return null;
+            default:
+                return inputDataType;
+        }
+    }
+
+    public State newState() {
+        return new State();
+    }
+
+    // The result straight from a nest's SKETCH index, for an aggregate over every clutch
+    public Object resultFrom(SketchEggIndex sketch) {
+        switch (function) {
+            case APPROXCOUNTFEATHER:
+                return sketch.getDistinct().estimate();
+            case APPROXPERCENTILE:
+                return sketch.getDigest().size() == 0 ? null : (Object) sketch.getDigest().quantile(fraction);
+            default:
+                throw new IllegalStateException(function + " can't be answered from a sketch");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return function + "(" + (eggName == null ? "*" : eggName) +
+            (function == Function.APPROXPERCENTILE ? ", " + fraction : "") + ") AS " + name;
+    }
+
+    // Running result for one group. Eggs are added as rows arrive and, for materialized views,
+    // removed again when a base clutch is updated or removed.
+    public class State {
+        private long count;
+        private long sum;
+        private Object extreme;
+        private HyperLogLog distinct;
+        private TDigest digest;
+
+        // egg is null for COUNTFEATHER(*)
+        public void add(Egg egg) {
+            if (eggName == null) {
+                count++;
+                return;
+            }
+            if (egg == null || egg.isNull()) {
+                return;
+            }
+            switch (function) {
+                case SWARM:
+                case AVIANAVG:
+                    sum = addExact(sum, integral(egg));
+                    break;
+                case MIN:
+                case MAX:
+                    Object value = egg.getValue();
+                    if (extreme == null) {
+                        extreme = value;
+                    } else {
+                        int compared = FindCondition.compareValues(value, extreme);
+                        if (function == Function.MIN ? compared < 0 : compared > 0) {
+                            extreme = value;
+                        }
+                    }
+                    break;
+                case APPROXCOUNTFEATHER:
+                    if (distinct == null) {
+                        distinct = new HyperLogLog();
+                    }
+                    distinct.add(egg.getValue());
+                    break;
+                case APPROXPERCENTILE:
+                    if (digest == null) {
+                        digest = new TDigest();
+                    }
+                    digest.add(integral(egg));
+                    break;
+                default:
+                    break;
+            }
+            count++;
+        }
+
+        // Folds in the state of the same aggregate over another partition of the rows
+        public void merge(State other) {
+            addSummary(other.count, other.sum, other.extreme);
+            if (other.distinct != null) {
+                if (distinct == null) {
+                    distinct = new HyperLogLog();
+                }
+                distinct.merge(other.distinct);
+            }
+            if (other.digest != null) {
+                if (digest == null) {
+                    digest = new TDigest();
+                }
+                digest.merge(other.digest);
+            }
+        }
+
+        // Folds in rows that were aggregated elsewhere (ColumnFlock's kernels): how many non-null
+        // values there were, their sum for SWARM and AVIANAVG, and their MIN or MAX
+        public void addSummary(long count, long sum, Object extreme) {
+            this.count += count;
+            this.sum = addExact(this.sum, sum);
+            if (extreme != null) {
+                int compared = this.extreme == null ? 0 : FindCondition.compareValues(extreme, this.extreme);
+                if (this.extreme == null || (function == Function.MIN ? compared < 0 : compared > 0)) {
+                    this.extreme = extreme;
+                }
+            }
+        }
+
+        // Takes a previously added egg back out; false when the result can no longer be
+        // corrected (MIN or MAX losing its extreme) and has to be recomputed from the rows
+        public boolean remove(Egg egg) {
+            if (eggName == null) {
+                count--;
+                return true;
+            }
+            if (egg == null || egg.isNull()) {
+                return true;
+            }
+            if (function.isApproximate()) {
+                return false;
+            }
+            if (!function.isRetractable()) {
+                if (FindCondition.compareValues(egg.getValue(), extreme) == 0) {
+                    return false;
+                }
+                count--;
+                return true;
+            }
+            if (function != Function.COUNTFEATHER) {
+                sum = addExact(sum, -integral(egg));
+            }
+            count--;
+            return true;
+        }
+
+        public Object result() {
+            switch (function) {
+                case COUNTFEATHER:
+                    return count;
+                case SWARM:
+                    return count == 0 ? null : (Object) sum;
+                case AVIANAVG:
+                    return count == 0 ? null : (Object) ((double) sum / count);
+                case APPROXCOUNTFEATHER:
+                    return distinct == null ? 0L : distinct.estimate();
+                case APPROXPERCENTILE:
+                    return digest == null ? null : (Object) digest.quantile(fraction);
+                default:
+                    return extreme;
+            }
+        }
+
+        private long integral(Egg egg) {
+            if (!egg.isIntegral()) {
+                throw new IllegalArgumentException(function + " needs INTEGER eggs: " + eggName + " holds " + egg.getValue());
+            }
+            return egg.getLong();
+        }
+
+        private long addExact(long left, long right) {
+            try {
+                return Math.addExact(left, right);
+            } catch (ArithmeticException e) {
+                throw new IllegalStateException("EGGBURSTEXCEPTION: " + function + "(" + eggName + ") overflowed");
+            }
+        }
+    }
+}
@@ -0,0 +1,99 @@
+import lombok.Getter;
+import java.util.Base64;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Argon2id cost parameters. Each hash carries the parameters it was made with, in the PHC
+// string format ($argon2id$v=19$m=65536,t=3,p=4$salt$hash), so the defaults can be tuned
+// without invalidating hashes made under the old ones.
+//
+// Hashes from before the parameters were stored are Base64 of a 16-byte salt followed by the
+// 32-byte hash, and were made with LEGACY.
+public class Argon2Params {
+    public static final Argon2Params LEGACY = new Argon2Params(65536, 3, 4);
+    public static final Argon2Params DEFAULT = LEGACY;
+
+    private static final Pattern PHC = Pattern.compile(
+        "\\$argon2id\\$v=19\\$m=(\\d+),t=(\\d+),p=(\\d+)\\$([A-Za-z0-9+/]+)\\$([A-Za-z0-9+/]+)");
+    private static final int LEGACY_SALT_LENGTH = 16;
+
+    @Getter private final int memoryKB;
+    @Getter private final int iterations;
+    @Getter private final int parallelism;
+
+    public Argon2Params(int memoryKB, int iterations, int parallelism) {
+        if (parallelism < 1 || iterations < 1 || memoryKB < 8 * parallelism) {
+            throw new IllegalArgumentException("Invalid Argon2 parameters: memory " + memoryKB + " KB, " +
+                iterations + " iteration(s), parallelism " + parallelism + " (memory must be at least 8 KB per lane)");
+        }
+        this.memoryKB = memoryKB;
+        this.iterations = iterations;
+        this.parallelism = parallelism;
+    }
+
+    // A stored hash split into its parameters, salt and hash bytes
+    public static class Stored {
+        @Getter private final Argon2Params params;
+        @Getter private final byte[] salt;
+        @Getter private final byte[] hash;
+
+        private Stored(Argon2Params params, byte[] salt, byte[] hash) {
+            this.params = params;
+            this.salt = salt;
+            this.hash = hash;
+        }
+    }
+
+    public String encode(byte[] salt, byte[] hash) {
+        Base64.Encoder encoder = Base64.getEncoder().withoutPadding();
+        return "$argon2id$v=19$m=" + memoryKB + ",t=" + iterations + ",p=" + parallelism +
+            "$" + encoder.encodeToString(salt) + "$" + encoder.encodeToString(hash);
+    }
+
+    public static Stored decode(String storedHash) {
+        try {
+            Matcher matcher = PHC.matcher(storedHash);
+            if (matcher.matches()) {
+                Argon2Params params = new Argon2Params(Integer.parseInt(matcher.group(1)),
+                    Integer.parseInt(matcher.group(2)), Integer.parseInt(matcher.group(3)));
+                Base64.Decoder decoder = Base64.getDecoder();
+                return new Stored(params, decoder.decode(matcher.group(4)), decoder.decode(matcher.group(5)));
+            }
+            byte[] combined = Base64.getDecoder().decode(storedHash);
+            if (combined.length <= LEGACY_SALT_LENGTH) {
+                throw new IllegalArgumentException("Stored password hash is too short");
+            }
+            byte[] salt = new byte[LEGACY_SALT_LENGTH];
+            byte[] hash = new byte[combined.length - LEGACY_SALT_LENGTH];
+            System.arraycopy(combined, 0, salt, 0, salt.length);
+            System.arraycopy(combined, salt.length, hash, 0, hash.length);
+            return new Stored(LEGACY, salt, hash);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Unreadable Argon2 parameters in stored hash", e);
+        }
+    }
+
+    // True when a hash made with these parameters should be redone with current ones
+    public boolean isWeakerThan(Argon2Params other) {
+        return memoryKB < other.memoryKB || iterations < other.iterations || parallelism < other.parallelism;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof Argon2Params)) {
+            return false;
+        }
+        Argon2Params other = (Argon2Params) o;
+        return memoryKB == other.memoryKB && iterations == other.iterations && parallelism == other.parallelism;
+    }
+
+    @Override
+    public int hashCode() {
+        return (memoryKB * 31 + iterations) * 31 + parallelism;
+    }
+
+    @Override
+    public String toString() {
+        return "m=" + memoryKB + "KB,t=" + iterations + ",p=" + parallelism;
+    }
+}
@@ -0,0 +1,244 @@
+import lombok.Getter;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+// Admission control for Argon2 hashing. Every hash holds its memory cost (64 MB by default) for
+// as long as it runs, so a burst of logins or a bulk HATCH could otherwise ask for gigabytes at
+// once. Hashes run on the caller's thread once admitted; until then they wait in a bounded
+// queue.
+//
+// Waiting hashes are queued per user and admitted round robin across users, so one user's burst
+// can't starve the others. The queue is admitted strictly in that order: a large hash at its
+// head is never overtaken by smaller ones behind it. A hash bigger than the whole budget runs
+// alone.
+public class Argon2Service {
+    public static final int DEFAULT_MAX_QUEUED = 64;
+    public static final long DEFAULT_MAX_WAIT_MILLIS = 30_000;
+
+    private static final Argon2Service SHARED = new Argon2Service(defaultBudgetKB(), DEFAULT_MAX_QUEUED, DEFAULT_MAX_WAIT_MILLIS);
+
+    @Getter private final long memoryBudgetKB;
+    @Getter private final int maxQueued;
+    @Getter private final long maxWaitMillis;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition admitted = lock.newCondition();
+    // Per-user FIFO of waiting hashes; iteration order is the round robin order
+    private final LinkedHashMap<String, ArrayDeque<Ticket>> waiting = new LinkedHashMap<>();
+    private int queued;
+    private long memoryInUseKB;
+    private int running;
+
+    @Getter private long completed;
+    @Getter private long rejected;
+    @Getter private long timedOut;
+    @Getter private long peakMemoryKB;
+    @Getter private int peakQueued;
+    private long totalWaitNanos;
+    private long maxWaitNanos;
+    private long totalHashNanos;
+    private long maxHashNanos;
+
+    private static class Ticket {
+        private final long memoryKB;
+        private boolean admitted;
+
+        private Ticket(long memoryKB) {
+            this.memoryKB = memoryKB;
+        }
+    }
+
+    // A quarter of the heap, and no more than eight default hashes
+    private static long defaultBudgetKB() {
+        long quarterHeapKB = Runtime.getRuntime().maxMemory() / 4 / 1024;
+        return Math.max(Argon2Params.DEFAULT.getMemoryKB(), Math.min(quarterHeapKB, 8L * Argon2Params.DEFAULT.getMemoryKB()));
+    }
+
+    public static Argon2Service getShared() {
+        return SHARED;
+    }
+
+    public Argon2Service(long memoryBudgetKB, int maxQueued, long maxWaitMillis) {
+        if (memoryBudgetKB <= 0 || maxQueued < 0 || maxWaitMillis <= 0) {
+            throw new IllegalArgumentException("Argon2 service needs a positive memory budget and wait, and a non-negative queue");
+        }
+        this.memoryBudgetKB = memoryBudgetKB;
+        this.maxQueued = maxQueued;
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    // Runs hash once memoryKB of the budget is free. user decides the fairness queue; null
+    // shares one queue with every other caller that has no user.
+    public <T> T run(String user, long memoryKB, Supplier<T> hash) {
+        long enqueued = System.nanoTime();
+        admit(user == null ? "" : user, memoryKB);
+        long started = System.nanoTime();
+        try {
+            return hash.get();
+        } finally {
+            release(memoryKB, true, started - enqueued, System.nanoTime() - started);
+        }
+    }
+
+    private void admit(String user, long memoryKB) {
+        lock.lock();
+        try {
+            if (queued == 0 && fits(memoryKB)) {
+                start(memoryKB);
+                return;
+            }
+            if (queued >= maxQueued) {
+                rejected++;
+                throw new IllegalStateException("Argon2 queue is full: " + queued + " hash(es) waiting for " +
+                    memoryInUseKB / 1024 + " of " + memoryBudgetKB / 1024 + " MB");
+            }
+            Ticket ticket = new Ticket(memoryKB);
+            waiting.computeIfAbsent(user, key -> new ArrayDeque<>()).addLast(ticket);
+            queued++;
+            peakQueued = Math.max(peakQueued, queued);
+
+            long remaining = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+            try {
+                while (!ticket.admitted) {
+                    if (remaining <= 0) {
+                        withdraw(user, ticket);
+                        timedOut++;
+                        throw new IllegalStateException("Argon2 hash waited more than " + maxWaitMillis + " ms for memory");
+                    }
+                    remaining = admitted.awaitNanos(remaining);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                if (ticket.admitted) {
+                    release(memoryKB, false, 0, 0);
+                } else {
+                    withdraw(user, ticket);
+                }
+                throw new IllegalStateException("Interrupted while waiting to hash a password", e);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean fits(long memoryKB) {
+        return memoryInUseKB + memoryKB <= memoryBudgetKB || running == 0;
+    }
+
+    private void start(long memoryKB) {
+        memoryInUseKB += memoryKB;
+        running++;
+        peakMemoryKB = Math.max(peakMemoryKB, memoryInUseKB);
+    }
+
+    private void withdraw(String user, Ticket ticket) {
+        ArrayDeque<Ticket> tickets = waiting.get(user);
+        if (tickets != null && tickets.remove(ticket)) {
+            queued--;
+            if (tickets.isEmpty()) {
+                waiting.remove(user);
+            }
+        }
+        // The withdrawn ticket may have been holding up smaller ones behind it
+        dispatch();
+    }
+
+    private void release(long memoryKB, boolean hashed, long waitNanos, long hashNanos) {
+        lock.lock();
+        try {
+            memoryInUseKB -= memoryKB;
+            running--;
+            if (hashed) {
+                completed++;
+                totalWaitNanos += waitNanos;
+                maxWaitNanos = Math.max(maxWaitNanos, waitNanos);
+                totalHashNanos += hashNanos;
+                maxHashNanos = Math.max(maxHashNanos, hashNanos);
+            }
+            dispatch();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Admits waiting tickets round robin: each user's first ticket in turn, the user then going
+    // to the back of the order, until the next one doesn't fit
+    private void dispatch() {
+        boolean any = false;
+        while (queued > 0) {
+            Iterator<Map.Entry<String, ArrayDeque<Ticket>>> users = waiting.entrySet().iterator();
+            Map.Entry<String, ArrayDeque<Ticket>> next = users.next();
+            Ticket ticket = next.getValue().peekFirst();
+            if (!fits(ticket.memoryKB)) {
+                break;
+            }
+            next.getValue().pollFirst();
+            users.remove();
+            if (!next.getValue().isEmpty()) {
+                waiting.put(next.getKey(), next.getValue());
+            }
+            queued--;
+            start(ticket.memoryKB);
+            ticket.admitted = true;
+            any = true;
+        }
+        if (any) {
+            admitted.signalAll();
+        }
+    }
+
+    public long getMemoryInUseKB() {
+        lock.lock();
+        try {
+            return memoryInUseKB;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getQueued() {
+        lock.lock();
+        try {
+            return queued;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public double getAverageWaitMillis() {
+        lock.lock();
+        try {
+            return completed == 0 ? 0 : totalWaitNanos / 1e6 / completed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public double getAverageHashMillis() {
+        lock.lock();
+        try {
+            return completed == 0 ? 0 : totalHashNanos / 1e6 / completed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        lock.lock();
+        try {
+            return String.format("Argon2Service[memory=%d/%d MB (peak %d), running=%d, queued=%d/%d (peak %d), " +
+                    "completed=%d, rejected=%d, timedOut=%d, wait avg/max=%.1f/%.1f ms, hash avg/max=%.1f/%.1f ms]",
+                memoryInUseKB / 1024, memoryBudgetKB / 1024, peakMemoryKB / 1024, running, queued, maxQueued, peakQueued,
+                completed, rejected, timedOut, getAverageWaitMillis(), maxWaitNanos / 1e6, getAverageHashMillis(), maxHashNanos / 1e6);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -8,6 +8,8 @@ import java.util.List;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.awt.event.WindowAdapter;
@@ -24,6 +26,13 @@ public class BDLTerminal extends JFrame {
     private int historyIndex = -1;
 
     private CommandProcessor commandProcessor;
+    // Statements run here rather than on the Swing event thread, so the terminal stays responsive
+    // and a CANCEL typed while one is running can reach it
+    private final ExecutorService statementRunner = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "bdl-statement");
+        thread.setDaemon(true);
+        return thread;
+    });
     private Set<String> keywords;
     private Style keywordStyle;
     private Style stringStyle;
@@ -89,9 +98,8 @@ public class BDLTerminal extends JFrame {
                         historyIndex = commandHistory.size();
                         appendOutput("> " + command + "\n");
 
-                        // Process command and display result
-                        String result = commandProcessor.processCommand(command);
-                        appendOutput(result + "\n");
+                        // Process command and display result as it streams in
+                        runStatement(command);
 
                         inputField.setText("");
                     }
@@ -218,6 +226,7 @@ public class BDLTerminal extends JFrame {
             if (commandProcessor != null) {
                 commandProcessor.shutdown();
             }
+            statementRunner.shutdownNow();
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -234,12 +243,24 @@ public class BDLTerminal extends JFrame {
             return;
         }
 
-        try {
-            String result = commandProcessor.processCommand(command);
-            appendOutput(result + "\n");
-        } catch (Exception e) {
-            appendOutput("Error: " + e.getMessage() + "\n");
+        runStatement(command);
+    }
+
+    // CANCEL is answered right away; everything else queues on the statement thread and streams
+    // its output back onto the event thread
+    private void runStatement(String command) {
+        if (command.trim().matches("(?i)CANCEL\\s*;?")) {
+            appendOutput(commandProcessor.processCommand(command) + "\n\n");
+            return;
         }
+        statementRunner.submit(() -> {
+            try {
+                commandProcessor.processCommand(command, text -> SwingUtilities.invokeLater(() -> appendOutput(text)));
+            } catch (Exception e) {
+                SwingUtilities.invokeLater(() -> appendOutput("Error: " + e.getMessage()));
+            }
+            SwingUtilities.invokeLater(() -> appendOutput("\n"));
+        });
     }
 
     private void displayHelp() {
@@ -250,6 +271,20 @@ public class BDLTerminal extends JFrame {
         help.append("3. GRANT CHICK username PERMISSION type TO nest DURATION time\n");
         help.append("4. REVOKE PERMISSION type FROM 'username' DURATION time\n");
         help.append("5. CREATE ROLE 'role_name' hierarchy_number\n");
+        help.append("6. PICK EGG egg1,egg2 FROM nest [FIND condition] [FLOCK BY egg] [SORT BY egg ASCO|DESCO] [LIMIT BY offset, count [AFTER 'token']]\n");
+        help.append("   (with SORT BY, each page ends with Next page: AFTER 'token'; a CREATE NEW INDEX on the SORT BY egg makes deep pages as cheap as the first)\n");
+        help.append("   (aggregates: COUNTFEATHER(*|egg), SWARM(egg), AVIANAVG(egg), MIN(egg), MAX(egg) [AS name])\n");
+        help.append("   (approximate: APPROXCOUNTFEATHER(egg), APPROXPERCENTILE(egg, 0.99); CREATE NEW INDEX i ON nest (egg) USING SKETCH answers them without a scan)\n");
+        help.append("7. REMOVE EGG FROM nest [WHILE condition]\n");
+        help.append("8. EXPLAIN [ANALYZE] PICK ... | LAY ... | UPDATE ...\n");
+        help.append("9. ANALYZE NEST nest\n");
+        help.append("10. CANCEL (stops the running statement; see also --perch-timeout=seconds)\n");
+        help.append("11. CREATE NEW NEST nest { egg TYPE [CONSTRAINT NOT NULL|SOLITARY|ROOSTKEY], ... } [IN 'branch']\n");
+        help.append("12. CHANGE NEST nest ADD egg TYPE [CONSTRAINT ...] | DROP EGG egg | MODIFY EGG egg, TYPE [CONSTRAINT ...]\n");
+        help.append("13. WATCH [NEST nest] [FROM sequence] (streams changes until CANCEL; UPDATE ... -w shows the feed position)\n");
+        help.append("14. CREATE MATERIALIZED VIEW view [IN 'branch'] AS PICK ... | REFRESH MATERIALIZED VIEW view | DROP MATERIALIZED VIEW view | SHOW MATERIALIZED VIEWS\n");
+        help.append("15. ENCRYPT TREE 'tree' 'key' | DECRYPT TREE 'tree' 'key' (admin or tree owner; run it again to resume after CANCEL)\n");
+        help.append("16. ROTATE TREE KEY 'tree' 'old key' 'new key' [--reencrypt[=eggs_per_second]] | SHOW TREE KEYS 'tree'\n");
         help.append("\nFor detailed documentation, please refer to the BDL manual.\n");
         appendOutput(help.toString());
     }
@@ -0,0 +1,120 @@
+import lombok.Getter;
+import java.io.Serializable;
+import java.util.concurrent.atomic.LongAdder;
+
+// Blocked bloom filter used to answer "definitely absent" before a real lookup. Every key maps to
+// one 512-bit block and sets all of its bits inside that block, so a probe touches a single cache
+// line. Callers report lookups the filter let through that turned out to miss, which gives the
+// measured false-positive rate next to the configured one.
+public class BloomFilter implements Serializable {
+    private static final long serialVersionUID = 1L;
+    public static final double DEFAULT_FALSE_POSITIVE_RATE = 0.01;
+
+    private static final int BLOCK_BITS = 512;
+    private static final int BLOCK_LONGS = BLOCK_BITS / Long.SIZE;
+    private static final int MAX_HASHES = 16;
+
+    private final long[] bits;
+    private final int blockCount;
+    private final int hashCount;
+    @Getter private final long expectedInsertions;
+    @Getter private final double falsePositiveRate;
+    @Getter private long insertions;
+
+    private final LongAdder negatives = new LongAdder();
+    private final LongAdder falsePositives = new LongAdder();
+
+    public BloomFilter(long expectedInsertions, double falsePositiveRate) {
+        if (!(falsePositiveRate > 0 && falsePositiveRate < 1)) {
+            throw new IllegalArgumentException("Bloom filter false-positive rate must be between 0 and 1");
+        }
+        this.expectedInsertions = Math.max(1, expectedInsertions);
+        this.falsePositiveRate = falsePositiveRate;
+
+        double bitsNeeded = -this.expectedInsertions * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2));
+        this.blockCount = (int) Math.max(1, Math.min(Integer.MAX_VALUE / BLOCK_LONGS, Math.ceil(bitsNeeded / BLOCK_BITS)));
+        this.hashCount = (int) Math.max(1, Math.min(MAX_HASHES, Math.round(bitsNeeded / this.expectedInsertions * Math.log(2))));
+        this.bits = new long[blockCount * BLOCK_LONGS];
+    }
+
+    public void put(Object key) {
+        long hash = hash(key);
+        int base = block(hash);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        for (int i = 0; i < hashCount; i++) {
+            int bit = (h1 + i * h2) & (BLOCK_BITS - 1);
+            bits[base + (bit >>> 6)] |= 1L << bit;
+        }
+        insertions++;
+    }
+
+    // False means the key was never put; true means it probably was
+    public boolean mightContain(Object key) {
+        long hash = hash(key);
+        int base = block(hash);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        for (int i = 0; i < hashCount; i++) {
+            int bit = (h1 + i * h2) & (BLOCK_BITS - 1);
+            if ((bits[base + (bit >>> 6)] & (1L << bit)) == 0) {
+                negatives.increment();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Called when mightContain said yes but the real lookup found nothing
+    public void recordFalsePositive() {
+        falsePositives.increment();
+    }
+
+    // Share of absent keys the filter failed to reject, as observed so far
+    public double getMeasuredFalsePositiveRate() {
+        long wrong = falsePositives.sum();
+        long total = wrong + negatives.sum();
+        return total == 0 ? 0.0 : (double) wrong / total;
+    }
+
+    // Rate the filter should show at its current fill
+    public double getExpectedFalsePositiveRate() {
+        double perBit = 1 - Math.exp(-(double) hashCount * insertions / ((double) blockCount * BLOCK_BITS));
+        return Math.pow(perBit, hashCount);
+    }
+
+    // Past its sizing, so the false-positive rate is drifting above the configured one
+    public boolean isSaturated() {
+        return insertions > expectedInsertions;
+    }
+
+    private int block(long hash) {
+        return (int) (((hash >>> 32) ^ (hash & 0xFFFFFFFFL)) * blockCount >>> 32) * BLOCK_LONGS;
+    }
+
+    // Numbers hash by their long value and everything else by its text, mirroring how
+    // FindCondition.compareValues decides two values are equal
+    static long hash(Object key) {
+        if (key == null) {
+            return mix(0x9E3779B97F4A7C15L);
+        }
+        String text = key instanceof Number ? Long.toString(((Number) key).longValue()) : key.toString();
+        long hash = 0xCBF29CE484222325L;
+        for (int i = 0; i < text.length(); i++) {
+            hash = (hash ^ text.charAt(i)) * 0x100000001B3L;
+        }
+        return mix(hash);
+    }
+
+    private static long mix(long hash) {
+        hash = (hash ^ (hash >>> 33)) * 0xFF51AFD7ED558CCDL;
+        hash = (hash ^ (hash >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return hash ^ (hash >>> 33);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("BloomFilter[insertions=%d, expected=%d, configuredFpp=%.4f, expectedFpp=%.4f, measuredFpp=%.4f]",
+            insertions, expectedInsertions, falsePositiveRate, getExpectedFalsePositiveRate(), getMeasuredFalsePositiveRate());
+    }
+}
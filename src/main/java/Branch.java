@@ -5,6 +5,7 @@ import java.io.Serializable;
 import java.time.LocalDateTime;
 
 public class Branch implements Serializable {
+    private static final long serialVersionUID = 7475976928106025649L;
     @Getter @Setter private String name;
     @Getter @Setter private Branch parentBranch;
     @Getter @Setter private List<Branch> subBranches;
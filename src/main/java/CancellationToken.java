@@ -0,0 +1,83 @@
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// Per-statement cancellation flag. CANCEL and --perch-timeout set it from another thread; the
+// statement's own thread polls it between batches and unwinds with a CancellationException, so
+// its try-with-resources blocks close cursors and operators and release what they hold.
+public class CancellationToken implements AutoCloseable {
+    // One daemon thread enforces every statement's timeout
+    private static final ScheduledThreadPoolExecutor TIMEOUTS = createTimer();
+
+    private final String statement;
+    private final CountDownLatch cancelled = new CountDownLatch(1);
+    private volatile String reason;
+    private ScheduledFuture<?> timeout;
+
+    public CancellationToken(String statement) {
+        this.statement = statement;
+    }
+
+    public String getStatement() {
+        return statement;
+    }
+
+    public void cancel(String reason) {
+        if (this.reason == null) {
+            this.reason = reason;
+        }
+        cancelled.countDown();
+    }
+
+    public boolean isCancelled() {
+        return reason != null;
+    }
+
+    public void throwIfCancelled() {
+        String why = reason;
+        if (why != null) {
+            throw new CancellationException("QUERYCANCELLEDEXCEPTION: " + why);
+        }
+    }
+
+    // Cancels the statement if it is still running after the given time
+    public synchronized void cancelAfter(long millis) {
+        if (millis <= 0) {
+            throw new IllegalArgumentException("Perch timeout must be positive");
+        }
+        if (timeout != null) {
+            timeout.cancel(false);
+        }
+        timeout = TIMEOUTS.schedule(() -> cancel("Statement exceeded --perch-timeout of " + millis + " ms"),
+            millis, TimeUnit.MILLISECONDS);
+    }
+
+    // Sleeps like Thread.sleep but wakes as soon as the statement is cancelled
+    public void sleep(long millis) throws InterruptedException {
+        if (cancelled.await(millis, TimeUnit.MILLISECONDS)) {
+            throwIfCancelled();
+        }
+    }
+
+    private static ScheduledThreadPoolExecutor createTimer() {
+        ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "bdl-perch-timeout");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Finished statements cancel their timeouts; don't keep those queued until they expire
+        timer.setRemoveOnCancelPolicy(true);
+        return timer;
+    }
+
+    // Statement finished: drop its pending timeout so the timer doesn't keep it alive
+    @Override
+    public synchronized void close() {
+        if (timeout != null) {
+            timeout.cancel(false);
+            timeout = null;
+        }
+    }
+}
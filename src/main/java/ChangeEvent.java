@@ -0,0 +1,41 @@
+import lombok.Getter;
+import java.util.Collections;
+import java.util.List;
+
+// One entry of a tree's change feed: what changed, where, and the feed-wide sequence number a
+// watcher can resume from
+public class ChangeEvent {
+    public enum Type {
+        CLUTCHES_LAID,
+        CLUTCHES_UPDATED,
+        CLUTCHES_REMOVED,
+        SCHEMA_CHANGED,
+        NEST_ADDED,
+        NEST_REMOVED,
+        BRANCH_ADDED,
+        BRANCH_MOVED
+    }
+
+    @Getter private final long sequence;
+    @Getter private final long timestamp;
+    @Getter private final Type type;
+    // The nest for clutch, schema and nest events; the branch path for branch events
+    @Getter private final String target;
+    // The clutches a clutch event touched. UPDATE rewrites eggs in place, so these show the
+    // values as they are now, not as they were when the event was recorded.
+    @Getter private final List<Clutch> clutches;
+
+    public ChangeEvent(long sequence, Type type, String target, List<Clutch> clutches) {
+        this.sequence = sequence;
+        this.timestamp = System.currentTimeMillis();
+        this.type = type;
+        this.target = target;
+        this.clutches = clutches == null ? Collections.emptyList() : Collections.unmodifiableList(clutches);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("#%d %s %s%s", sequence, type, target,
+            clutches.isEmpty() ? "" : " (" + clutches.size() + " clutch(es))");
+    }
+}
@@ -0,0 +1,185 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Change-data-capture feed for a tree (-w/--watch). Every mutation of a nest or branch is
+// appended to a bounded journal under the next sequence number, and subscribers read the
+// journal at their own pace: each subscription keeps its own cursor and is only sent as many
+// events as it has requested. Writers never wait for subscribers. A subscriber that falls more
+// than the journal's capacity behind is failed with EGGBURSTEXCEPTION and has to re-scan before
+// resuming from a newer sequence number.
+public class ChangeFeed implements Flow.Publisher<ChangeEvent> {
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    // Delivery threads, shared by every feed; idle ones exit after a minute
+    private static final ExecutorService DELIVERY = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "bdl-change-feed");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final ChangeEvent[] journal;
+    private final Executor executor;
+    private final Set<FeedSubscription> subscriptions = new CopyOnWriteArraySet<>();
+    // Sequence number the next event will get; the first event is 1
+    private long nextSequence = 1;
+
+    public ChangeFeed() {
+        this(DEFAULT_CAPACITY, DELIVERY);
+    }
+
+    public ChangeFeed(int capacity, Executor executor) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Change feed capacity must be positive");
+        }
+        this.journal = new ChangeEvent[capacity];
+        this.executor = executor;
+    }
+
+    // Records a change and wakes subscribers; returns the event's sequence number
+    public long publish(ChangeEvent.Type type, String target, List<Clutch> clutches) {
+        ChangeEvent event;
+        synchronized (this) {
+            event = new ChangeEvent(nextSequence, type, target, clutches);
+            journal[(int) (nextSequence % journal.length)] = event;
+            nextSequence++;
+        }
+        for (FeedSubscription subscription : subscriptions) {
+            subscription.signal();
+        }
+        return event.getSequence();
+    }
+
+    public synchronized long getLastSequence() {
+        return nextSequence - 1;
+    }
+
+    // Oldest sequence number still in the journal; resuming from anything older fails
+    public synchronized long getOldestSequence() {
+        return Math.max(1, nextSequence - journal.length);
+    }
+
+    // The event with this sequence number, or null if it hasn't happened yet
+    public synchronized ChangeEvent get(long sequence) {
+        if (sequence >= nextSequence) {
+            return null;
+        }
+        if (sequence < getOldestSequence()) {
+            throw new IllegalStateException("EGGBURSTEXCEPTION: Change #" + sequence +
+                " is no longer retained; the oldest is #" + getOldestSequence());
+        }
+        return journal[(int) (sequence % journal.length)];
+    }
+
+    // Retained events from fromSequence on, oldest first
+    public synchronized List<ChangeEvent> since(long fromSequence) {
+        List<ChangeEvent> events = new ArrayList<>();
+        for (long sequence = Math.max(fromSequence, getOldestSequence()); sequence < nextSequence; sequence++) {
+            events.add(journal[(int) (sequence % journal.length)]);
+        }
+        return events;
+    }
+
+    // New changes only
+    @Override
+    public void subscribe(Flow.Subscriber<? super ChangeEvent> subscriber) {
+        subscribe(subscriber, getLastSequence() + 1);
+    }
+
+    // Resumes a watcher: the first event delivered is fromSequence
+    public void subscribe(Flow.Subscriber<? super ChangeEvent> subscriber, long fromSequence) {
+        FeedSubscription subscription = new FeedSubscription(subscriber, Math.max(1, fromSequence));
+        subscriptions.add(subscription);
+        subscriber.onSubscribe(subscription);
+        subscription.signal();
+    }
+
+    public int getSubscriberCount() {
+        return subscriptions.size();
+    }
+
+    private class FeedSubscription implements Flow.Subscription {
+        private final Flow.Subscriber<? super ChangeEvent> subscriber;
+        private final AtomicLong demand = new AtomicLong();
+        // Drain requests; only the caller that raises it from zero schedules a drain
+        private final AtomicInteger pending = new AtomicInteger();
+        private long cursor;
+        private volatile boolean cancelled;
+        private volatile Throwable failure;
+
+        FeedSubscription(Flow.Subscriber<? super ChangeEvent> subscriber, long cursor) {
+            this.subscriber = subscriber;
+            this.cursor = cursor;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                failure = new IllegalArgumentException("Subscribers must request a positive number of changes");
+            } else {
+                demand.getAndUpdate(current -> current + n < 0 ? Long.MAX_VALUE : current + n);
+            }
+            signal();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            subscriptions.remove(this);
+        }
+
+        void signal() {
+            if (pending.getAndIncrement() == 0) {
+                executor.execute(this::drain);
+            }
+        }
+
+        // Runs on a delivery thread, never on a writer's
+        private void drain() {
+            int missed = 1;
+            do {
+                while (!cancelled) {
+                    if (failure != null) {
+                        fail(failure);
+                        return;
+                    }
+                    if (demand.get() == 0) {
+                        break;
+                    }
+                    ChangeEvent event;
+                    try {
+                        event = get(cursor);
+                    } catch (IllegalStateException e) {
+                        fail(e);
+                        return;
+                    }
+                    if (event == null) {
+                        break;
+                    }
+                    cursor++;
+                    demand.decrementAndGet();
+                    try {
+                        subscriber.onNext(event);
+                    } catch (RuntimeException e) {
+                        // A subscriber that throws has broken the protocol; stop sending to it
+                        cancel();
+                        return;
+                    }
+                }
+                missed = pending.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void fail(Throwable error) {
+            cancel();
+            subscriber.onError(error);
+        }
+    }
+}
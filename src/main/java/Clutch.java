@@ -0,0 +1,64 @@
+import java.io.Serializable;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+
+// A clutch is one row of a nest: the eggs laid together, positioned to match the nest's egg definitions
+//
+// Slots are read with acquire and written with release semantics (as AtomicReferenceArray does,
+// without copying the array), so an egg swapped in by setEgg is seen fully built. Writers that
+// read an egg and write back something derived from it (UPDATE NEST, ENCRYPT TREE / DECRYPT
+// TREE, background re-encryption) hold the clutch's monitor around the read and the write, so
+// none of them loses another's change; readers never lock.
+public class Clutch implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private static final VarHandle SLOTS = MethodHandles.arrayElementVarHandle(Egg[].class);
+
+    private final Egg[] eggs;
+
+    public Clutch(Egg... eggs) {
+        this.eggs = eggs;
+    }
+
+    public int size() {
+        return eggs.length;
+    }
+
+    public Egg getEgg(int position) {
+        return (Egg) SLOTS.getAcquire(eggs, position);
+    }
+
+    // Callers that derive the new egg from the old one hold the clutch's monitor
+    public void setEgg(int position, Egg egg) {
+        SLOTS.setRelease(eggs, position, egg);
+    }
+
+    // A copy of the slots as they are now
+    public Egg[] getEggs() {
+        Egg[] copy = new Egg[eggs.length];
+        for (int i = 0; i < copy.length; i++) {
+            copy[i] = getEgg(i);
+        }
+        return copy;
+    }
+
+    public Egg getEgg(String eggName) {
+        for (int i = 0; i < eggs.length; i++) {
+            Egg egg = getEgg(i);
+            if (egg.getName().equals(eggName)) {
+                return egg;
+            }
+        }
+        return null;
+    }
+
+    public Object getValue(int position) {
+        Egg egg = getEgg(position);
+        return egg == null ? null : egg.getValue();
+    }
+
+    @Override
+    public String toString() {
+        return "Clutch" + Arrays.toString(getEggs());
+    }
+}
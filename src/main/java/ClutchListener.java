@@ -0,0 +1,9 @@
+import java.util.List;
+
+// Told about every change to a nest's clutches or schema as it happens, on the writer's thread
+// and before the change feed hears of it. Materialized views use this to stay in step with
+// their base nest; anything that can fall behind should subscribe to the ChangeFeed instead.
+public interface ClutchListener {
+    // clutches is empty for SCHEMA_CHANGED
+    void clutchesChanged(Nest nest, ChangeEvent.Type type, List<Clutch> clutches);
+}
@@ -0,0 +1,72 @@
+import lombok.Getter;
+import lombok.Setter;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+// Bulk ingestion for LAY EGG: pulls clutches from an iterator and lays them into a nest in
+// batches of batchSize, pausing incubateMillis between batches (--batch-size / --incubate)
+public class ClutchLoader {
+    public static final int DEFAULT_BATCH_SIZE = 10_000;
+
+    @Getter private final int batchSize;
+    @Getter private final long incubateMillis;
+    @Getter private long clutchesLaid;
+    @Getter private int batchesLaid;
+    // Checked between batches; a cancelled load keeps the batches it already laid
+    @Getter @Setter private CancellationToken cancellationToken;
+
+    public ClutchLoader() {
+        this(DEFAULT_BATCH_SIZE, 0);
+    }
+
+    public ClutchLoader(int batchSize, long incubateMillis) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Batch size must be positive");
+        }
+        if (incubateMillis < 0) {
+            throw new IllegalArgumentException("Incubate delay cannot be negative");
+        }
+        this.batchSize = batchSize;
+        this.incubateMillis = incubateMillis;
+    }
+
+    public long load(Nest nest, List<Clutch> clutches) throws InterruptedException {
+        nest.ensureCapacity(clutches.size());
+        return load(nest, clutches.iterator());
+    }
+
+    // Each batch is all-or-nothing; batches laid before a failing one stay in the nest
+    public long load(Nest nest, Iterator<Clutch> clutches) throws InterruptedException {
+        List<Clutch> batch = new ArrayList<>(Math.min(batchSize, DEFAULT_BATCH_SIZE));
+        long laid = 0;
+        while (clutches.hasNext()) {
+            batch.add(clutches.next());
+            if (batch.size() == batchSize) {
+                laid += layBatch(nest, batch);
+                batch.clear();
+                if (incubateMillis > 0 && clutches.hasNext()) {
+                    if (cancellationToken != null) {
+                        cancellationToken.sleep(incubateMillis);
+                    } else {
+                        Thread.sleep(incubateMillis);
+                    }
+                }
+            }
+        }
+        if (!batch.isEmpty()) {
+            laid += layBatch(nest, batch);
+        }
+        return laid;
+    }
+
+    private int layBatch(Nest nest, List<Clutch> batch) {
+        if (cancellationToken != null) {
+            cancellationToken.throwIfCancelled();
+        }
+        nest.layClutches(batch);
+        clutchesLaid += batch.size();
+        batchesLaid++;
+        return batch.size();
+    }
+}
@@ -0,0 +1,10 @@
+// The WHILE clause of a FIND/PERCH or UPDATE reduced to one yes/no question per clutch.
+// PredicateCompiler hands out either an interpreted or a generated implementation.
+public interface ClutchPredicate {
+    boolean test(Clutch clutch);
+
+    // False for the interpreter; EXPLAIN uses it to show which one a plan got
+    default boolean isCompiled() {
+        return false;
+    }
+}
@@ -5,6 +5,12 @@ import java.util.List;
 import java.util.ArrayList;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -14,6 +20,92 @@ public class CommandProcessor {
     private Timer debugTimer;
     private Encryptor encryptor = new Encryptor();
     private Tree currentTree;
+    private QueryCache queryCache = new QueryCache();
+    private QueryPlanner queryPlanner = new QueryPlanner(queryCache);
+    private UpdateExecutor updateExecutor = new UpdateExecutor(queryPlanner.getPredicateCompiler());
+    // The statement this session is running, for CANCEL (which arrives from another thread)
+    private volatile CancellationToken runningStatement;
+
+    private static final Pattern CREATE_INDEX_PATTERN = Pattern.compile(
+        "CREATE\\s+NEW\\s+INDEX\\s+'?(\\w+)'?\\s+ON\\s+'?(\\w+)'?\\s*\\(([^)]*)\\)(?:\\s+USING\\s+(\\w+))?\\s*;?",
+        Pattern.CASE_INSENSITIVE
+    );
+
+    private static final Pattern DELETE_INDEX_PATTERN = Pattern.compile(
+        "DELETE\\s+INDEX\\s+'?(\\w+)'?\\s+ON\\s+'?(\\w+)'?\\s*;?",
+        Pattern.CASE_INSENSITIVE
+    );
+
+    private static final Pattern EXPLAIN_PATTERN = Pattern.compile(
+        "\\s*EXPLAIN(\\s+ANALYZE)?\\s+(.+)",
+        Pattern.CASE_INSENSITIVE | Pattern.DOTALL
+    );
+
+    private static final Pattern ANALYZE_NEST_PATTERN = Pattern.compile(
+        "\\s*ANALYZE\\s+NEST\\s+'?(\\w+)'?\\s*;?",
+        Pattern.CASE_INSENSITIVE
+    );
+
+    private static final Pattern CANCEL_PATTERN = Pattern.compile(
+        "\\s*CANCEL\\s*;?",
+        Pattern.CASE_INSENSITIVE
+    );
+
+    private static final Pattern PERCH_TIMEOUT_PATTERN = Pattern.compile(
+        "--perch-timeout=(\\d+)",
+        Pattern.CASE_INSENSITIVE
+    );
+
+    private static final Pattern REMOVE_PATTERN = Pattern.compile(
+        "REMOVE\\s+EGGS?\\s+FROM\\s+'?(\\w+)'?(?:\\s+(?:WHILE|PERCH|WHERE)\\s+(.+?))?\\s*;?",
+        Pattern.CASE_INSENSITIVE | Pattern.DOTALL
+    );
+
+    private static final Pattern CREATE_NEST_PATTERN = Pattern.compile(
+        "\\s*CREATE\\s+NEW\\s+NEST\\s+'?(\\w+)'?\\s*(?:\\{(.*)\\}|\\((.*)\\))(?:\\s+IN\\s+'([^']+)')?\\s*;?",
+        Pattern.CASE_INSENSITIVE | Pattern.DOTALL
+    );
+
+    private static final Pattern CHANGE_NEST_PATTERN = Pattern.compile(
+        "\\s*CHANGE\\s+NEST\\s+'?(\\w+)'?\\s+(ADD|DROP|MODIFY)(?:\\s+EGG)?\\s+(.+?)\\s*;?",
+        Pattern.CASE_INSENSITIVE | Pattern.DOTALL
+    );
+
+    private static final Pattern WATCH_PATTERN = Pattern.compile(
+        "\\s*WATCH(?:\\s+NEST\\s+'?(\\w+)'?)?(?:\\s+FROM\\s+#?(\\d+))?(?:\\s+--[\\w-]+(?:=\\S+)?)*\\s*;?",
+        Pattern.CASE_INSENSITIVE
+    );
+
+    private static final Pattern CREATE_VIEW_PATTERN = Pattern.compile(
+        "\\s*CREATE\\s+MATERIALIZED\\s+VIEW\\s+'?(\\w+)'?(?:\\s+IN\\s+'([^']+)')?\\s+AS\\s+(PICK\\s+.+?)\\s*;?",
+        Pattern.CASE_INSENSITIVE | Pattern.DOTALL
+    );
+
+    private static final Pattern VIEW_PATTERN = Pattern.compile(
+        "\\s*(REFRESH|DROP)\\s+MATERIALIZED\\s+VIEW\\s+'?(\\w+)'?\\s*;?",
+        Pattern.CASE_INSENSITIVE
+    );
+
+    private static final Pattern SHOW_VIEWS_PATTERN = Pattern.compile(
+        "\\s*SHOW\\s+MATERIALIZED\\s+VIEWS\\s*;?",
+        Pattern.CASE_INSENSITIVE
+    );
+
+    private static final Pattern TREE_ENCRYPTION_PATTERN = Pattern.compile(
+        "\\s*(ENCRYPT|DECRYPT)\\s+TREE\\s+'([^']+)'\\s+'([^']*)'(?:\\s+--[\\w-]+(?:=\\S+)?)*\\s*;?",
+        Pattern.CASE_INSENSITIVE
+    );
+    private static final Pattern TREE_KEY_ROTATION_PATTERN = Pattern.compile(
+        "\\s*ROTATE\\s+TREE\\s+KEY\\s+'([^']+)'\\s+'([^']*)'\\s+'([^']*)'(\\s+--reencrypt(?:=(\\d+))?)?\\s*;?",
+        Pattern.CASE_INSENSITIVE
+    );
+    private static final Pattern TREE_KEYS_PATTERN = Pattern.compile(
+        "\\s*SHOW\\s+TREE\\s+KEYS\\s+'([^']+)'\\s*;?",
+        Pattern.CASE_INSENSITIVE
+    );
+
+    // How many changes a streaming WATCH asks the feed for at a time
+    private static final int WATCH_BATCH = 64;
 
     // Add new command patterns
     private static final Pattern BRANCH_CREATE_PATTERN = Pattern.compile(
@@ -35,16 +127,46 @@ public class CommandProcessor {
         this.currentUser = user;
     }
 
+    // Hit/miss/eviction statistics for PICK results; null when caching is disabled
+    public QueryCache getQueryCache() {
+        return queryPlanner.getQueryCache();
+    }
+
+    public void setQueryCacheEnabled(boolean enabled) {
+        queryPlanner.setQueryCache(enabled ? queryCache : null);
+    }
+
     // Add new method to set current tree context
     public void setCurrentTree(Tree tree) {
         this.currentTree = tree;
+        if (tree != null) {
+            // Start the change feed now so WATCH ... FROM can replay everything done in this session
+            tree.getChangeFeed();
+        }
     }
 
     public String processCommand(String command) {
         if (command == null || command.trim().isEmpty()) {
             return "Error: Empty command";
         }
+        if (CANCEL_PATTERN.matcher(command).matches()) {
+            return processCancelCommand();
+        }
+
+        CancellationToken token;
+        try {
+            token = beginStatement(command);
+        } catch (IllegalArgumentException e) {
+            return "Error: " + e.getMessage();
+        }
+        try {
+            return executeStatement(command);
+        } finally {
+            endStatement(token);
+        }
+    }
 
+    private String executeStatement(String command) {
         try {
             // Check for branch-related commands first
             Matcher branchCreateMatcher = BRANCH_CREATE_PATTERN.matcher(command);
@@ -63,6 +185,83 @@ public class CommandProcessor {
                 );
             }
 
+            Matcher explainMatcher = EXPLAIN_PATTERN.matcher(command);
+            if (explainMatcher.matches()) {
+                return processExplainCommand(explainMatcher.group(2).trim(), explainMatcher.group(1) != null);
+            }
+
+            Matcher analyzeMatcher = ANALYZE_NEST_PATTERN.matcher(command);
+            if (analyzeMatcher.matches()) {
+                return processAnalyzeNestCommand(analyzeMatcher.group(1));
+            }
+
+            Matcher watchMatcher = WATCH_PATTERN.matcher(command);
+            if (watchMatcher.matches()) {
+                return processWatchCommand(watchMatcher.group(1), watchMatcher.group(2));
+            }
+
+            Matcher createNestMatcher = CREATE_NEST_PATTERN.matcher(command);
+            if (createNestMatcher.matches()) {
+                String definitions = createNestMatcher.group(2) != null ? createNestMatcher.group(2) : createNestMatcher.group(3);
+                return processCreateNestCommand(createNestMatcher.group(1), definitions, createNestMatcher.group(4));
+            }
+
+            Matcher createViewMatcher = CREATE_VIEW_PATTERN.matcher(command);
+            if (createViewMatcher.matches()) {
+                return processCreateViewCommand(createViewMatcher.group(1), createViewMatcher.group(2), createViewMatcher.group(3));
+            }
+
+            Matcher viewMatcher = VIEW_PATTERN.matcher(command);
+            if (viewMatcher.matches()) {
+                return processViewCommand(viewMatcher.group(1), viewMatcher.group(2));
+            }
+
+            if (SHOW_VIEWS_PATTERN.matcher(command).matches()) {
+                return processShowViewsCommand();
+            }
+
+            Matcher treeEncryptionMatcher = TREE_ENCRYPTION_PATTERN.matcher(command);
+            if (treeEncryptionMatcher.matches()) {
+                return processTreeEncryptionCommand(treeEncryptionMatcher.group(1), treeEncryptionMatcher.group(2),
+                    treeEncryptionMatcher.group(3), null);
+            }
+
+            Matcher keyRotationMatcher = TREE_KEY_ROTATION_PATTERN.matcher(command);
+            if (keyRotationMatcher.matches()) {
+                return processTreeKeyRotationCommand(keyRotationMatcher.group(1), keyRotationMatcher.group(2),
+                    keyRotationMatcher.group(3), keyRotationMatcher.group(4) != null, keyRotationMatcher.group(5));
+            }
+
+            Matcher treeKeysMatcher = TREE_KEYS_PATTERN.matcher(command);
+            if (treeKeysMatcher.matches()) {
+                return processShowTreeKeysCommand(treeKeysMatcher.group(1));
+            }
+
+            Matcher changeNestMatcher = CHANGE_NEST_PATTERN.matcher(command);
+            if (changeNestMatcher.matches()) {
+                return processChangeNestCommand(changeNestMatcher.group(1), changeNestMatcher.group(2), changeNestMatcher.group(3));
+            }
+
+            Matcher createIndexMatcher = CREATE_INDEX_PATTERN.matcher(command.trim());
+            if (createIndexMatcher.matches()) {
+                return processCreateIndexCommand(
+                    createIndexMatcher.group(1),
+                    createIndexMatcher.group(2),
+                    createIndexMatcher.group(3),
+                    createIndexMatcher.group(4)
+                );
+            }
+
+            Matcher deleteIndexMatcher = DELETE_INDEX_PATTERN.matcher(command.trim());
+            if (deleteIndexMatcher.matches()) {
+                return processDeleteIndexCommand(deleteIndexMatcher.group(1), deleteIndexMatcher.group(2));
+            }
+
+            Matcher removeMatcher = REMOVE_PATTERN.matcher(command.trim());
+            if (removeMatcher.matches()) {
+                return processRemoveCommand(removeMatcher.group(1), removeMatcher.group(2));
+            }
+
             // Process existing commands
             List<String> tokens = parseCommand(command);
             String[] tokenArray = tokens.toArray(new String[0]);
@@ -77,6 +276,12 @@ public class CommandProcessor {
                     return processGrantCommand(tokenArray);
                 case "REVOKE":
                     return processRevokeCommand(tokenArray);
+                case "PICK":
+                    return processPickCommand(tokenArray);
+                case "LAY":
+                    return processLayCommand(command);
+                case "UPDATE":
+                    return processUpdateCommand(command);
                 case "CREATE":
                     if (tokenArray[1].equalsIgnoreCase("ROLE")) {
                         return processCreateRoleCommand(tokenArray);
@@ -96,6 +301,106 @@ public class CommandProcessor {
         }
     }
 
+    // Streaming variant of processCommand: PICK results are handed to the output one fetch batch
+    // at a time instead of being formatted into a single string first
+    public void processCommand(String command, Consumer<String> output) {
+        Matcher watch = command == null ? null : WATCH_PATTERN.matcher(command);
+        if (watch != null && watch.matches()) {
+            CancellationToken token = beginStatement(command);
+            try {
+                streamWatch(watch.group(1), watch.group(2), token, output);
+            } catch (Exception e) {
+                output.accept("Error: " + e.getMessage());
+            } finally {
+                endStatement(token);
+            }
+            return;
+        }
+        Matcher treeEncryption = command == null ? null : TREE_ENCRYPTION_PATTERN.matcher(command);
+        if (treeEncryption != null && treeEncryption.matches()) {
+            CancellationToken token = beginStatement(command);
+            try {
+                output.accept(processTreeEncryptionCommand(treeEncryption.group(1), treeEncryption.group(2),
+                    treeEncryption.group(3), output));
+            } catch (Exception e) {
+                output.accept("Error: " + e.getMessage());
+            } finally {
+                endStatement(token);
+            }
+            return;
+        }
+        if (command == null || !command.trim().toUpperCase().startsWith("PICK")) {
+            output.accept(processCommand(command));
+            return;
+        }
+
+        CancellationToken token = null;
+        try {
+            token = beginStatement(command);
+            List<String> tokens = parseCommand(command.trim());
+            String[] tokenArray = tokens.toArray(new String[0]);
+            validateTokens(tokenArray);
+            PickQuery query = PickQuery.parse(tokenArray);
+            if (query.hasFlag("--dry-run")) {
+                output.accept(explainPick(query, false));
+                return;
+            }
+            try (EggCursor cursor = openCursor(query)) {
+                writeCursor(cursor, output);
+            }
+        } catch (Exception e) {
+            output.accept("Error: " + e.getMessage());
+        } finally {
+            if (token != null) {
+                endStatement(token);
+            }
+        }
+    }
+
+    // Registers the session's running statement so CANCEL can reach it, and arms its
+    // --perch-timeout=N (seconds) if one was given
+    private CancellationToken beginStatement(String command) {
+        CancellationToken token = new CancellationToken(command.trim());
+        Matcher timeout = PERCH_TIMEOUT_PATTERN.matcher(command);
+        if (timeout.find()) {
+            token.cancelAfter(Long.parseLong(timeout.group(1)) * 1000);
+        }
+        runningStatement = token;
+        return token;
+    }
+
+    private void endStatement(CancellationToken token) {
+        token.close();
+        if (runningStatement == token) {
+            runningStatement = null;
+        }
+    }
+
+    private String processCancelCommand() {
+        // Format: CANCEL
+        CancellationToken running = runningStatement;
+        if (running == null) {
+            return "No running statement to cancel";
+        }
+        running.cancel("Statement cancelled by CANCEL command");
+        return "Cancel requested for: " + running.getStatement();
+    }
+
+    // Opens a cursor over a PICK EGG command for programmatic clients
+    public EggCursor openCursor(String command) {
+        List<String> tokens = parseCommand(command.trim());
+        String[] tokenArray = tokens.toArray(new String[0]);
+        validateTokens(tokenArray);
+        return openCursor(PickQuery.parse(tokenArray));
+    }
+
+    private EggCursor openCursor(PickQuery query) {
+        if (currentTree == null) {
+            throw new IllegalStateException("No tree context set");
+        }
+        return queryPlanner.plan(query, currentTree, runningStatement);
+    }
+
     private List<String> parseCommand(String command) {
         List<String> tokens = new ArrayList<>();
         StringBuilder currentToken = new StringBuilder();
@@ -177,6 +482,24 @@ public class CommandProcessor {
                 }
                 break;
 
+            case "PICK":
+                if (tokens.length < 5 || !tokens[1].equalsIgnoreCase("EGG")) {
+                    throw new IllegalArgumentException("Invalid PICK command format. Expected: PICK EGG egg1,egg2 FROM nest_name");
+                }
+                break;
+
+            case "LAY":
+                if (tokens.length < 5 || !tokens[1].equalsIgnoreCase("EGG") || !tokens[2].equalsIgnoreCase("INTO")) {
+                    throw new IllegalArgumentException("Invalid LAY command format. Expected: LAY EGG INTO nest_name (egg1,egg2) EGGS(value1,value2)");
+                }
+                break;
+
+            case "UPDATE":
+                if (tokens.length < 5 || !tokens[1].equalsIgnoreCase("NEST")) {
+                    throw new IllegalArgumentException("Invalid UPDATE command format. Expected: UPDATE NEST nest_name SET egg1 = value1 [WHILE condition]");
+                }
+                break;
+
             case "CREATE":
                 if (tokens.length < 4 || !tokens[1].equalsIgnoreCase("ROLE")) {
                     throw new IllegalArgumentException("Invalid CREATE ROLE command format. Expected: CREATE ROLE 'role_name' hierarchy_number");
@@ -217,7 +540,7 @@ public class CommandProcessor {
         switch (authType) {
             case "password":
                 // Generate a temporary password that the user must change on first login
-                password = encryptor.hashPassword(generateTempPassword());
+                password = encryptor.hashPassword(generateTempPassword(), username);
                 break;
 
             case "auth_key":
@@ -230,7 +553,7 @@ public class CommandProcessor {
                 // 1. Generate a temporary password
                 // 2. Get the user's phone number (this would typically be done through UI interaction)
                 // 3. Send verification code
-                password = encryptor.hashPassword(generateTempPassword());
+                password = encryptor.hashPassword(generateTempPassword(), username);
                 // Note: In a real implementation, you would need to prompt for the phone number
                 // and handle the verification process through the UI
                 phoneNumber = "+1234567890"; // This should come from user input
@@ -374,6 +697,497 @@ public class CommandProcessor {
         return "Debug mode initialized for " + timeLength + " seconds";
     }
 
+    private String processPickCommand(String[] tokens) {
+        // Format: PICK EGG [SPECIFIC] egg1,egg2 FROM nest_name [FIND condition] [SORT BY egg] [LIMIT BY offset, count]
+        PickQuery query = PickQuery.parse(tokens);
+        if (query.hasFlag("--dry-run")) {
+            return explainPick(query, false);
+        }
+        StringBuilder result = new StringBuilder();
+        try (EggCursor cursor = openCursor(query)) {
+            writeCursor(cursor, result::append);
+        }
+        return result.toString();
+    }
+
+    private String processLayCommand(String command) throws InterruptedException {
+        // Format: LAY EGG INTO nest_name [--batch-size=N] [--incubate=N] (egg1,egg2) EGGS(v1,v2)[, (v3,v4) ...]
+        LayStatement statement = LayStatement.parse(command);
+        if (statement.getFlags().contains("--dry-run")) {
+            return explainLay(statement, false);
+        }
+        Nest nest = requireWritableNest(statement.getNestName());
+
+        ClutchLoader loader = new ClutchLoader(statement.getBatchSize(), statement.getIncubateMillis());
+        loader.setCancellationToken(runningStatement);
+        nest.ensureCapacity(statement.getRows().size());
+        long laid = loader.load(nest, statement.clutches(nest));
+        return String.format("Successfully laid %d clutch(es) into %s in %d batch(es)",
+            laid, nest.getName(), loader.getBatchesLaid());
+    }
+
+    private String processUpdateCommand(String command) {
+        // Format: UPDATE NEST nest_name [FLAGS] SET egg1 = value1, egg2 = value2 [WHILE condition]
+        UpdateStatement statement = UpdateStatement.parse(command);
+        Nest nest = requireWritableNest(statement.getNestName());
+        if (statement.hasFlag("--dry-run")) {
+            // One pass over the targets gives both the count and the plan's actual figures
+            PlanNode plan = updateExecutor.dryRun(statement, nest, runningStatement);
+            return String.format("Dry run: %d clutch(es) in %s would be updated%n", plan.getActualRows(), nest.getName()) +
+                   "Query plan:\n" + plan.render();
+        }
+
+        int updated = updateExecutor.execute(statement, nest, false, runningStatement);
+        String result = String.format("Successfully updated %d clutch(es) in %s", updated, nest.getName());
+        if (statement.hasFlag("-w") || statement.hasFlag("--watch")) {
+            long sequence = currentTree.getChangeFeed().getLastSequence();
+            result += String.format("%nRecorded as change #%d; WATCH NEST %s FROM %d replays it", sequence, nest.getName(), sequence);
+        }
+        return result;
+    }
+
+    private String processWatchCommand(String nestName, String from) {
+        // Format: WATCH [NEST nest_name] [FROM sequence]
+        // Without a terminal to stream to, lists the retained changes and returns
+        if (currentTree == null) {
+            throw new IllegalStateException("No tree context set");
+        }
+        if (nestName != null) {
+            requireNest(nestName);
+        }
+        ChangeFeed feed = currentTree.getChangeFeed();
+        long start = from == null ? feed.getOldestSequence() : Long.parseLong(from);
+        if (start < feed.getOldestSequence()) {
+            return "Error: EGGBURSTEXCEPTION: Change #" + start + " is no longer retained; the oldest is #" + feed.getOldestSequence();
+        }
+        StringBuilder result = new StringBuilder();
+        int shown = 0;
+        for (ChangeEvent event : feed.since(start)) {
+            if (nestName == null || nestName.equals(event.getTarget())) {
+                result.append(event).append("\n");
+                shown++;
+            }
+        }
+        result.append(String.format("%d change(s); feed at #%d", shown, feed.getLastSequence()));
+        return result.toString();
+    }
+
+    // Streaming WATCH: prints changes as they happen until CANCEL or --perch-timeout stops it.
+    // The feed sends at most WATCH_BATCH changes ahead of what has been printed.
+    private void streamWatch(String nestName, String from, CancellationToken token, Consumer<String> output)
+            throws InterruptedException {
+        if (currentTree == null) {
+            throw new IllegalStateException("No tree context set");
+        }
+        if (nestName != null) {
+            requireNest(nestName);
+        }
+        ChangeFeed feed = currentTree.getChangeFeed();
+        BlockingQueue<ChangeEvent> inbox = new ArrayBlockingQueue<>(WATCH_BATCH);
+        Throwable[] failure = new Throwable[1];
+        Flow.Subscription[] subscription = new Flow.Subscription[1];
+        Flow.Subscriber<ChangeEvent> subscriber = new Flow.Subscriber<ChangeEvent>() {
+            @Override
+            public void onSubscribe(Flow.Subscription s) {
+                subscription[0] = s;
+                s.request(WATCH_BATCH);
+            }
+
+            @Override
+            public void onNext(ChangeEvent event) {
+                inbox.offer(event);
+            }
+
+            @Override
+            public void onError(Throwable error) {
+                failure[0] = error;
+                token.cancel(error.getMessage());
+            }
+
+            @Override
+            public void onComplete() {
+            }
+        };
+        long start = from == null ? feed.getLastSequence() + 1 : Long.parseLong(from);
+        feed.subscribe(subscriber, start);
+        output.accept(String.format("Watching %s from #%d (CANCEL to stop)", nestName == null ? "tree " + currentTree.getName() : nestName, start));
+
+        long next = start;
+        int consumed = 0;
+        try {
+            while (true) {
+                token.throwIfCancelled();
+                ChangeEvent event = inbox.poll(200, TimeUnit.MILLISECONDS);
+                if (event == null) {
+                    continue;
+                }
+                next = event.getSequence() + 1;
+                if (nestName == null || nestName.equals(event.getTarget())) {
+                    output.accept(event.toString());
+                }
+                if (++consumed == WATCH_BATCH / 2) {
+                    subscription[0].request(consumed);
+                    consumed = 0;
+                }
+            }
+        } catch (CancellationException e) {
+            if (failure[0] != null) {
+                output.accept("Error: " + failure[0].getMessage());
+            } else {
+                output.accept(String.format("Watch stopped; resume with WATCH%s FROM %d",
+                    nestName == null ? "" : " NEST " + nestName, next));
+            }
+        } finally {
+            subscription[0].cancel();
+        }
+    }
+
+    private String processTreeEncryptionCommand(String operation, String treeName, String passphrase,
+                                                Consumer<String> progress) throws Exception {
+        // Format: ENCRYPT TREE 'tree_name' 'encryption_key' | DECRYPT TREE 'tree_name' 'encryption_key'
+        // The streaming variant passes progress lines to the output while the nests are rewritten
+        requireTreeAdmin(treeName, operation.toLowerCase() + " a tree");
+        TreeEncryption.Direction direction = TreeEncryption.Direction.valueOf(operation.toUpperCase());
+        TreeEncryption encryption = TreeEncryption.prepare(currentTree, direction, passphrase, encryptor);
+        encryption.setCancellationToken(runningStatement);
+        encryption.setProgressListener(progress);
+        try {
+            return encryption.run().toString();
+        } catch (CancellationException e) {
+            return "Error: " + e.getMessage() + "; the eggs done so far stay " +
+                (direction == TreeEncryption.Direction.ENCRYPT ? "encrypted" : "decrypted") +
+                ", run the same statement again to finish";
+        }
+    }
+
+    private String processTreeKeyRotationCommand(String treeName, String oldPassphrase, String newPassphrase,
+                                                 boolean reencrypt, String eggsPerSecond) throws Exception {
+        // Format: ROTATE TREE KEY 'tree_name' 'old_key' 'new_key' [--reencrypt[=eggs_per_second]]
+        // Re-wraps the nests' data keys only; --reencrypt also replaces them in the background
+        requireTreeAdmin(treeName, "rotate a tree's key");
+        int keys = TreeEncryption.rotate(currentTree, oldPassphrase, newPassphrase, encryptor);
+        String result = "Rotated the key of tree '" + treeName + "': re-wrapped " + keys + " data key(s)";
+        if (!reencrypt) {
+            return result;
+        }
+        long rate = eggsPerSecond == null ? TreeEncryption.DEFAULT_REENCRYPT_EGGS_PER_SECOND : Long.parseLong(eggsPerSecond);
+        TreeEncryption.startReencryption(currentTree, encryptor, rate);
+        return result + "; re-encrypting the eggs under new data keys in the background" +
+            (rate > 0 ? " at up to " + rate + " eggs/s" : "") + " (SHOW TREE KEYS '" + treeName + "' for progress)";
+    }
+
+    private String processShowTreeKeysCommand(String treeName) {
+        // Format: SHOW TREE KEYS 'tree_name'
+        requireTreeAdmin(treeName, "see a tree's keys");
+        KeyRing keyRing = currentTree.getKeyRing();
+        if (keyRing == null) {
+            return "Tree '" + treeName + "' is not encrypted";
+        }
+        StringBuilder result = new StringBuilder();
+        result.append("Tree '").append(treeName).append("': ").append(keyRing).append("\n");
+        for (Nest nest : currentTree.getNests()) {
+            if (nest.getDataKeyId() != 0) {
+                result.append("  ").append(nest.getName()).append(": data key #").append(nest.getDataKeyId()).append("\n");
+            }
+        }
+        if (currentTree.getReencryption() != null) {
+            result.append("Last ").append(currentTree.getReencryption().progressLine()).append("\n");
+        }
+        return result.toString();
+    }
+
+    // Tree-wide key operations are for administrators and the tree's own admins
+    private void requireTreeAdmin(String treeName, String action) {
+        if (currentUser == null) {
+            throw new SecurityException("NOACCESSEXCEPTION: Log in to " + action);
+        }
+        if (currentTree == null || !currentTree.getName().equals(treeName)) {
+            throw new IllegalArgumentException("Tree not found: " + treeName);
+        }
+        if (!hasAdminPermissions() && !currentTree.getAdminUsers().contains(currentUser.getUsername())) {
+            throw new SecurityException("FAULTYPERMISSIONEXCEPTION: Only an administrator or the tree owner can " + action);
+        }
+    }
+
+    private String processAnalyzeNestCommand(String nestName) {
+        // Format: ANALYZE NEST nest_name
+        Nest nest = requireNest(nestName);
+        NestStatistics statistics = nest.analyze();
+        StringBuilder result = new StringBuilder();
+        result.append(String.format("Analyzed %s: %d clutch(es)%n", nest.getName(), statistics.getRowCount()));
+        for (EggStatistics egg : statistics.getEggs().values()) {
+            result.append("  ").append(egg).append("\n");
+        }
+        return result.toString();
+    }
+
+    private String processCreateNestCommand(String nestName, String definitions, String branchPath) {
+        // Format: CREATE NEW NEST nest_name { egg1 TYPE [CONSTRAINT constraints], egg2 TYPE ... } [IN 'branch_path']
+        // (parentheses work in place of the braces)
+        if (currentTree == null) {
+            throw new IllegalStateException("No tree context set");
+        }
+        if (!hasAdminPermissions()) {
+            return "Error: Admin permissions required to create nests";
+        }
+        if (currentTree.hasNest(nestName)) {
+            return "Error: DUPLICATENESTEXCEPTION: Nest already exists: " + nestName;
+        }
+        List<Egg> eggs = new ArrayList<>();
+        java.util.Set<String> names = new java.util.HashSet<>();
+        for (String definition : NestSchema.splitDefinitions(definitions)) {
+            if (definition.trim().isEmpty()) {
+                continue;
+            }
+            Egg egg = NestSchema.parseDefinition(definition);
+            if (!names.add(egg.getName())) {
+                return "Error: Egg defined twice: " + egg.getName();
+            }
+            eggs.add(egg);
+        }
+        if (eggs.size() > currentTree.getMaxEggsPerNest()) {
+            return "Error: Tree " + currentTree.getName() + " allows at most " + currentTree.getMaxEggsPerNest() + " eggs per nest";
+        }
+
+        Nest nest = new Nest(nestName, currentUser.getUsername());
+        nest.setEggs(eggs);
+        // Compile the validator chain now so the first LAY doesn't pay for it
+        NestSchema schema = nest.getSchema();
+        currentTree.addNest(branchPath == null ? "/" : branchPath, nest);
+        return String.format("Successfully created nest '%s' with %d egg(s) and %d schema check(s)",
+            nestName, eggs.size(), schema.getCheckCount());
+    }
+
+    private String processChangeNestCommand(String nestName, String action, String argument) {
+        // Format: CHANGE NEST nest_name ADD [EGG] egg TYPE [CONSTRAINT constraints] | DROP EGG egg | MODIFY EGG egg, TYPE [CONSTRAINT constraints]
+        Nest nest = requireNestOwner(requireWritableNest(nestName), "change a nest");
+        String change;
+        switch (action.toUpperCase()) {
+            case "ADD":
+                if (nest.getEggs().size() >= currentTree.getMaxEggsPerNest()) {
+                    return "Error: Tree " + currentTree.getName() + " allows at most " + currentTree.getMaxEggsPerNest() + " eggs per nest";
+                }
+                Egg added = NestSchema.parseDefinition(argument);
+                nest.addEgg(added);
+                change = "added egg '" + added.getName() + "'";
+                break;
+            case "DROP":
+                String eggName = argument.trim().replace("'", "");
+                if (nest.getEggPosition(eggName) < 0) {
+                    return "Error: EGGNOTFOUNDEXCEPTION: Egg " + eggName + " not found in nest " + nestName;
+                }
+                nest.removeEgg(eggName);
+                change = "dropped egg '" + eggName + "'";
+                break;
+            default:
+                Egg modified = NestSchema.parseDefinition(argument.replaceFirst(",", " "));
+                nest.modifyEgg(modified.getName(), modified.getDataType(), modified.getConstraints());
+                change = "modified egg '" + modified.getName() + "'";
+                break;
+        }
+        return String.format("Successfully changed nest '%s': %s (%d schema check(s))",
+            nestName, change, nest.getSchema().getCheckCount());
+    }
+
+    private String processCreateViewCommand(String viewName, String branchPath, String pick) {
+        // Format: CREATE MATERIALIZED VIEW view_name [IN 'branch_path'] AS PICK EGG ... FROM nest_name [FIND ...] [FLOCK BY ...]
+        if (currentTree == null) {
+            throw new IllegalStateException("No tree context set");
+        }
+        if (currentTree.hasNest(viewName)) {
+            return "Error: DUPLICATENESTEXCEPTION: Nest already exists: " + viewName;
+        }
+        String[] tokens = parseCommand(pick).toArray(new String[0]);
+        validateTokens(tokens);
+        MaterializedView view = new MaterializedView(viewName, tokens, currentTree);
+        currentTree.addMaterializedView(branchPath == null ? "/" : branchPath, view);
+        return String.format("Successfully created materialized view '%s' over %s with %d clutch(es); %s",
+            viewName, view.getBaseNestName(), view.getNest().getClutchCount(),
+            view.isIncremental() ? "maintained incrementally" : "SORT BY/LIMIT BY views need REFRESH MATERIALIZED VIEW after changes");
+    }
+
+    private String processViewCommand(String action, String viewName) {
+        // Format: REFRESH MATERIALIZED VIEW view_name | DROP MATERIALIZED VIEW view_name
+        Nest viewNest = requireNest(viewName);
+        MaterializedView view = currentTree.getMaterializedView(viewName);
+        if (view == null) {
+            return "Error: Nest " + viewName + " is not a materialized view";
+        }
+        if (action.equalsIgnoreCase("DROP")) {
+            // A view takes the owner of its base nest
+            requireNestOwner(viewNest, "drop materialized views");
+            currentTree.removeMaterializedView(viewName);
+            return String.format("Successfully dropped materialized view '%s'", viewName);
+        }
+        int rows = view.refresh(currentTree);
+        return String.format("Successfully refreshed materialized view '%s': %d clutch(es)", viewName, rows);
+    }
+
+    private String processShowViewsCommand() {
+        // Format: SHOW MATERIALIZED VIEWS
+        if (currentTree == null) {
+            throw new IllegalStateException("No tree context set");
+        }
+        if (currentTree.getMaterializedViews().isEmpty()) {
+            return "No materialized views";
+        }
+        StringBuilder result = new StringBuilder();
+        for (MaterializedView view : currentTree.getMaterializedViews()) {
+            result.append(view).append("\n");
+        }
+        return result.toString();
+    }
+
+    private String processExplainCommand(String statement, boolean analyze) throws InterruptedException {
+        // Format: EXPLAIN [ANALYZE] PICK ... | LAY ... | UPDATE ...
+        // ANALYZE runs the statement, so an analyzed LAY or UPDATE really writes
+        String keyword = statement.split("\\s+")[0].toUpperCase();
+        switch (keyword) {
+            case "PICK":
+                String[] tokens = parseCommand(statement).toArray(new String[0]);
+                validateTokens(tokens);
+                return explainPick(PickQuery.parse(tokens), analyze);
+            case "LAY":
+                return explainLay(LayStatement.parse(statement), analyze);
+            case "UPDATE":
+                UpdateStatement update = UpdateStatement.parse(statement);
+                Nest nest = requireWritableNest(update.getNestName());
+                if (analyze && update.hasFlag("--dry-run")) {
+                    // Analyzed but not applied: the targets are found and nothing is written
+                    return planHeader(true) + updateExecutor.dryRun(update, nest, runningStatement).render();
+                }
+                return planHeader(analyze) + updateExecutor.explain(update, nest, analyze, runningStatement).render();
+            default:
+                return "Error: EXPLAIN supports PICK, LAY and UPDATE statements";
+        }
+    }
+
+    private String explainPick(PickQuery query, boolean analyze) {
+        if (currentTree == null) {
+            throw new IllegalStateException("No tree context set");
+        }
+        return planHeader(analyze) + queryPlanner.explain(query, currentTree, analyze, runningStatement).render();
+    }
+
+    private String explainLay(LayStatement statement, boolean analyze) throws InterruptedException {
+        Nest nest = requireWritableNest(statement.getNestName());
+        int rows = statement.getRows().size();
+        int batchSize = statement.getBatchSize();
+        List<String> maintained = new ArrayList<>(nest.getIndexes().keySet());
+
+        PlanNode values = new PlanNode(String.format("Values (%d row(s) of %d egg(s))", rows, statement.getEggNames().size()), rows);
+        PlanNode lay = new PlanNode(String.format("Lay into %s in %d batch(es) of up to %d%s", nest.getName(),
+            (rows + batchSize - 1) / batchSize, batchSize,
+            maintained.isEmpty() ? "" : " (maintains " + String.join(", ", maintained) + ")"), rows, values);
+
+        if (analyze) {
+            long startBytes = PlanNode.currentThreadAllocatedBytes();
+            long startNanos = System.nanoTime();
+            ClutchLoader loader = new ClutchLoader(batchSize, statement.getIncubateMillis());
+            loader.setCancellationToken(runningStatement);
+            nest.ensureCapacity(rows);
+            long laid = loader.load(nest, statement.clutches(nest));
+            lay.record(laid, System.nanoTime() - startNanos,
+                startBytes < 0 ? -1 : PlanNode.currentThreadAllocatedBytes() - startBytes);
+        }
+        return planHeader(analyze) + lay.render();
+    }
+
+    private static String planHeader(boolean analyze) {
+        return analyze ? "Query plan (executed):\n" : "Query plan:\n";
+    }
+
+    private String processRemoveCommand(String nestName, String whileClause) {
+        // Format: REMOVE EGG FROM nest_name [WHILE condition]
+        Nest nest = requireNestOwner(requireWritableNest(nestName), "remove clutches");
+        List<FindCondition> conditions = whileClause == null ? new ArrayList<>() : FindCondition.parseAll(whileClause);
+        int removed = updateExecutor.remove(nest, conditions, runningStatement);
+        return String.format("Successfully removed %d clutch(es) from %s", removed, nest.getName());
+    }
+
+    private String processCreateIndexCommand(String indexName, String nestName, String eggList, String using) {
+        // Format: CREATE NEW INDEX index_name ON nest_name (egg1) [USING SORTED|TRIGRAM|FULLTEXT|SKETCH]
+        Nest nest = requireNestOwner(requireNest(nestName), "create indexes");
+        String[] eggNames = eggList.trim().split("\\s*,\\s*");
+        if (eggNames.length != 1 || eggNames[0].isEmpty()) {
+            return "Error: Indexes cover exactly one egg. Expected: CREATE NEW INDEX index_name ON nest_name (egg1)";
+        }
+        EggIndex.Kind kind;
+        try {
+            kind = using == null ? EggIndex.Kind.SORTED : EggIndex.Kind.valueOf(using.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return "Error: Unknown index type " + using + ". Expected: USING SORTED, TRIGRAM, FULLTEXT or SKETCH";
+        }
+        EggIndex index = nest.createIndex(indexName, eggNames[0], kind);
+        return String.format("Successfully created index '%s' on %s(%s) with %d entries",
+            indexName, nestName, eggNames[0], index.getSize());
+    }
+
+    private String processDeleteIndexCommand(String indexName, String nestName) {
+        // Format: DELETE INDEX index_name ON nest_name
+        requireNestOwner(requireNest(nestName), "delete indexes").dropIndex(indexName);
+        return String.format("Successfully deleted index '%s' from %s", indexName, nestName);
+    }
+
+    private Nest requireNest(String nestName) {
+        if (currentTree == null) {
+            throw new IllegalStateException("No tree context set");
+        }
+        Nest nest = currentTree.getNest(nestName);
+        if (nest == null) {
+            throw new IllegalArgumentException("NESTNOTFOUNDEXCEPTION: Nest not found: " + nestName);
+        }
+        return nest;
+    }
+
+    // For statements that write: materialized views and UNALTERABLE nests only change on their own
+    private Nest requireWritableNest(String nestName) {
+        Nest nest = requireNest(nestName);
+        if (currentTree.getMaterializedView(nest.getName()) != null) {
+            throw new IllegalStateException("NESTUNALTERABLEEXCEPTION: " + nestName +
+                " is a materialized view; it follows its base nest or REFRESH MATERIALIZED VIEW");
+        }
+        if ("UNALTERABLE".equalsIgnoreCase(nest.getStatus())) {
+            throw new IllegalStateException("NESTUNALTERABLEEXCEPTION: Nest " + nestName + " is unalterable");
+        }
+        return nest;
+    }
+
+    // Statements that drop data or structure from a nest: administrators and the nest's owner
+    private Nest requireNestOwner(Nest nest, String action) {
+        if (currentUser == null) {
+            throw new SecurityException("NOACCESSEXCEPTION: Log in to " + action);
+        }
+        if (!hasAdminPermissions() && !currentUser.getUsername().equals(nest.getOwner())) {
+            throw new SecurityException("FAULTYPERMISSIONEXCEPTION: Only an administrator or the owner of nest " +
+                nest.getName() + " can " + action);
+        }
+        return nest;
+    }
+
+    // Formats a cursor as a header line followed by one line per clutch
+    private void writeCursor(EggCursor cursor, Consumer<String> output) {
+        StringBuilder batch = new StringBuilder(String.join(" | ", cursor.getEggNames()));
+        while (cursor.next()) {
+            batch.append('\n');
+            Clutch clutch = cursor.getClutch();
+            for (int i = 0; i < clutch.size(); i++) {
+                if (i > 0) batch.append(" | ");
+                batch.append(clutch.getValue(i));
+            }
+            if (cursor.isEndOfBatch()) {
+                output.accept(batch.toString());
+                batch.setLength(0);
+            }
+        }
+        batch.append('\n').append(cursor.getRowNumber()).append(" clutch(es) picked");
+        String continuationToken = cursor.getContinuationToken();
+        if (continuationToken != null) {
+            batch.append("\nNext page: AFTER '").append(continuationToken).append('\'');
+        }
+        output.accept(batch.toString());
+    }
+
     private String processCreateBranchCommand(String branchName, String parentPath) {
         if (currentTree == null) {
             return "Error: No tree context set";
@@ -422,6 +1236,7 @@ public class CommandProcessor {
             // Update branch index
             currentTree.getBranchIndex().remove(branchPath);
             currentTree.getBranchIndex().put(branch.getFullPath(), branch);
+            currentTree.getChangeFeed().publish(ChangeEvent.Type.BRANCH_MOVED, branch.getFullPath(), null);
 
             return String.format("Successfully moved branch '%s' to '%s'", branchPath, newParentPath);
         } catch (Exception e) {
@@ -454,6 +1269,11 @@ public class CommandProcessor {
 
     public void shutdown() {
         try {
+            CancellationToken running = runningStatement;
+            if (running != null) {
+                running.cancel("Session shut down");
+            }
+
             // Cancel any running debug timers
             if (debugTimer != null) {
                 debugTimer.cancel();
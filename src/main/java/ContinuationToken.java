@@ -0,0 +1,90 @@
+import lombok.Getter;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.zip.CRC32;
+
+// Where a page of a sorted, limited PICK stopped: the SORT BY value of its last clutch and how
+// many clutches with that value have been returned so far, counting earlier pages. PICK ...
+// AFTER 'token' resumes right behind that clutch by seeking to the value instead of skipping
+// LIMIT BY's offset, so a deep page costs what the first one does.
+//
+// Clutches with the same value come back in laying order. A token stays usable while the nest
+// changes; only clutches sharing the boundary value can then be skipped or repeated.
+public class ContinuationToken {
+    private static final String VERSION = "k1";
+
+    // null when the page ended among clutches with no value for the SORT BY egg
+    @Getter private final Object key;
+    @Getter private final long duplicates;
+
+    public ContinuationToken(Object key, long duplicates) {
+        this.key = key;
+        this.duplicates = duplicates;
+    }
+
+    // Null when the key's type can't be written into a token
+    public String encode(PickQuery query) {
+        String typedKey;
+        if (key == null) {
+            typedKey = "n|";
+        } else if (key instanceof Integer) {
+            typedKey = "i|" + key;
+        } else if (key instanceof Long) {
+            typedKey = "l|" + key;
+        } else if (key instanceof Boolean) {
+            typedKey = "b|" + key;
+        } else if (key instanceof String) {
+            typedKey = "s|" + key;
+        } else {
+            return null;
+        }
+        String text = VERSION + "|" + fingerprint(query) + "|" + duplicates + "|" + typedKey;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static ContinuationToken decode(String token, PickQuery query) {
+        String[] parts;
+        try {
+            parts = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8).split("\\|", 5);
+        } catch (IllegalArgumentException e) {
+            throw invalid(token);
+        }
+        if (parts.length != 5 || !parts[0].equals(VERSION)) {
+            throw invalid(token);
+        }
+        if (!parts[1].equals(fingerprint(query))) {
+            throw new IllegalArgumentException("Continuation token " + token + " belongs to a different query; " +
+                "the egg list, nest, FIND and SORT BY must stay the same from page to page");
+        }
+        try {
+            long duplicates = Long.parseLong(parts[2]);
+            switch (parts[3]) {
+                case "n": return new ContinuationToken(null, duplicates);
+                case "i": return new ContinuationToken(Integer.parseInt(parts[4]), duplicates);
+                case "l": return new ContinuationToken(Long.parseLong(parts[4]), duplicates);
+                case "b": return new ContinuationToken(Boolean.parseBoolean(parts[4]), duplicates);
+                case "s": return new ContinuationToken(parts[4], duplicates);
+                default: throw invalid(token);
+            }
+        } catch (NumberFormatException e) {
+            throw invalid(token);
+        }
+    }
+
+    // Identifies the pages of one query: everything but LIMIT BY and AFTER
+    private static String fingerprint(PickQuery query) {
+        CRC32 crc = new CRC32();
+        crc.update(query.getPagedText().getBytes(StandardCharsets.UTF_8));
+        return Long.toHexString(crc.getValue());
+    }
+
+    private static IllegalArgumentException invalid(String token) {
+        return new IllegalArgumentException("Invalid continuation token: " + token);
+    }
+
+    @Override
+    public String toString() {
+        return (key instanceof String ? "'" + key + "'" : String.valueOf(key)) +
+            (duplicates > 1 ? " (+" + (duplicates - 1) + " more with that value)" : "");
+    }
+}
@@ -0,0 +1,155 @@
+import lombok.Getter;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Size-bounded, time-expiring LRU cache of PBKDF2-derived AES keys, so Encryptor only pays the
+// 65,536 iterations once per (key material, salt) instead of on every getUser.
+//
+// Entries are keyed by a SHA-256 of the key material and salt, never the material itself. The
+// cache keeps its own copy of each key's bytes and zeroes it when the entry expires, is evicted
+// or invalidated; callers get a fresh SecretKeySpec they are free to hold on to.
+public class DerivedKeyCache {
+    public static final int DEFAULT_MAX_ENTRIES = 1024;
+    public static final long DEFAULT_TTL_MILLIS = 10 * 60 * 1000; // 10 minutes
+
+    @Getter private final int maxEntries;
+    @Getter private final long ttlMillis;
+    private final LinkedHashMap<String, Entry> entries;
+
+    @Getter private long hits;
+    @Getter private long misses;
+    @Getter private long evictions;
+    @Getter private long expirations;
+    @Getter private long invalidations;
+
+    private static class Entry {
+        private final byte[] salt;
+        private final byte[] key;
+        private final long expiresAt;
+
+        private Entry(byte[] salt, byte[] key, long expiresAt) {
+            this.salt = salt;
+            this.key = key;
+            this.expiresAt = expiresAt;
+        }
+
+        private void destroy() {
+            Arrays.fill(key, (byte) 0);
+        }
+    }
+
+    public DerivedKeyCache() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_TTL_MILLIS);
+    }
+
+    public DerivedKeyCache(int maxEntries, long ttlMillis) {
+        if (maxEntries <= 0 || ttlMillis <= 0) {
+            throw new IllegalArgumentException("Derived key cache needs a positive size and lifetime");
+        }
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttlMillis;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() > DerivedKeyCache.this.maxEntries) {
+                    eldest.getValue().destroy();
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public static String keyFor(String keyMaterial, byte[] salt) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(keyMaterial.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(salt);
+            return Base64.getEncoder().encodeToString(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    // A copy of the cached key bytes, or null on a miss or when the entry has expired
+    public synchronized byte[] get(String cacheKey) {
+        Entry entry = entries.get(cacheKey);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        if (entry.expiresAt <= System.currentTimeMillis()) {
+            entries.remove(cacheKey);
+            entry.destroy();
+            expirations++;
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.key.clone();
+    }
+
+    // Keeps its own copy of key, so the caller may zero theirs
+    public synchronized void put(String cacheKey, byte[] salt, byte[] key) {
+        purgeExpired();
+        Entry previous = entries.put(cacheKey,
+            new Entry(salt.clone(), key.clone(), System.currentTimeMillis() + ttlMillis));
+        if (previous != null) {
+            previous.destroy();
+        }
+    }
+
+    // Drops every key derived with this salt, e.g. when the user it belongs to is removed
+    public synchronized void invalidate(byte[] salt) {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (Arrays.equals(entry.salt, salt)) {
+                entry.destroy();
+                iterator.remove();
+                invalidations++;
+            }
+        }
+    }
+
+    // For key rotation: nothing derived before this call is handed out again
+    public synchronized void invalidateAll() {
+        for (Entry entry : entries.values()) {
+            entry.destroy();
+        }
+        invalidations += entries.size();
+        entries.clear();
+    }
+
+    // Zeroes and drops the expired entries without waiting for a lookup to find them
+    public synchronized void purgeExpired() {
+        long now = System.currentTimeMillis();
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (entry.expiresAt <= now) {
+                entry.destroy();
+                iterator.remove();
+                expirations++;
+            }
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("DerivedKeyCache[entries=%d/%d, ttl=%ds, hits=%d, misses=%d, evictions=%d, expirations=%d, invalidations=%d]",
+            entries.size(), maxEntries, ttlMillis / 1000, hits, misses, evictions, expirations, invalidations);
+    }
+}
@@ -1,79 +1,275 @@
 import lombok.Getter;
 import lombok.Setter;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
 
 public class Egg implements Serializable {
+    // Eggs are serialized in their original form (a boxed value and an ISO-8601 local timestamp),
+    // under the UID that form was computed to, so nests saved before the typed storage still load
+    private static final long serialVersionUID = 3472844837849894314L;
+    private static final ObjectStreamField[] serialPersistentFields = {
+        new ObjectStreamField("name", String.class),
+        new ObjectStreamField("value", Object.class),
+        new ObjectStreamField("dataType", String.class),
+        new ObjectStreamField("constraints", String[].class),
+        new ObjectStreamField("isEncrypted", boolean.class),
+        new ObjectStreamField("creatorId", String.class),
+        new ObjectStreamField("lastModified", String.class),
+    };
+
+    // How the current value is held. Integers and booleans live unboxed in bits, so storing and
+    // comparing them never allocates; everything else is kept in reference.
+    public enum ValueKind { NULL, INT, LONG, BOOLEAN, REFERENCE }
+
     @Getter @Setter private String name;
-    @Getter @Setter private Object value;
-    @Getter @Setter private String dataType;
+    // The kind of a laid egg never changes; UPDATE writes same-kind values in place (update) and
+    // lays a replacement egg for the rest, so a reader that checked isIntegral() can call getLong()
+    @Getter private ValueKind valueKind = ValueKind.NULL;
+    private volatile long bits;
+    private volatile Object reference;
+    @Getter private String dataType;
+    @Getter private EggType type;
     @Getter @Setter private String[] constraints;
     @Getter @Setter private boolean isEncrypted;
     @Getter @Setter private String creatorId;
-    @Getter @Setter private String lastModified;
+    @Getter @Setter private volatile long lastModified; // epoch millis
 
     public Egg(String name, Object value, String dataType, String[] constraints) {
         this.name = name;
-        this.value = value;
-        this.dataType = dataType;
+        store(value);
+        setDataType(dataType);
         this.constraints = constraints;
         this.isEncrypted = false;
-        this.lastModified = java.time.LocalDateTime.now().toString();
+        this.lastModified = System.currentTimeMillis();
     }
 
     public Egg(String name, Object value) {
         this(name, value, inferDataType(value), new String[0]);
     }
 
+    // In-place write used by UPDATE NEST: keeps the Egg object and just refreshes its timestamp.
+    // The value is one volatile store, so a concurrent reader sees the old value or the new one.
+    // Returns false, changing nothing, for a value of another kind or when this egg holds
+    // ciphertext (ENCRYPT TREE); use withValue for those.
+    public boolean update(Object newValue) {
+        ValueKind kind = kindOf(newValue);
+        if (kind != valueKind || isEncrypted) {
+            return false;
+        }
+        switch (kind) {
+            case INT: bits = (Integer) newValue; break;
+            case LONG: bits = (Long) newValue; break;
+            case BOOLEAN: bits = (Boolean) newValue ? 1 : 0; break;
+            case REFERENCE: reference = newValue; break;
+            default: break;
+        }
+        this.lastModified = System.currentTimeMillis();
+        return true;
+    }
+
+    // A fresh plaintext egg like this one holding newValue, for updates update() turns down
+    public Egg withValue(Object newValue) {
+        Egg copy = new Egg(name, newValue, dataType, constraints);
+        copy.creatorId = creatorId;
+        return copy;
+    }
+
+    public static ValueKind kindOf(Object value) {
+        if (value instanceof Integer) return ValueKind.INT;
+        if (value instanceof Long) return ValueKind.LONG;
+        if (value instanceof Boolean) return ValueKind.BOOLEAN;
+        return value == null ? ValueKind.NULL : ValueKind.REFERENCE;
+    }
+
+    public void setDataType(String dataType) {
+        this.dataType = dataType;
+        this.type = EggType.of(dataType);
+    }
+
+    // Boxes int, long and boolean values on the way out; prefer the primitive getters in hot code
+    public Object getValue() {
+        switch (valueKind) {
+            case INT: return (int) bits;
+            case LONG: return bits;
+            case BOOLEAN: return bits != 0;
+            case REFERENCE: return reference;
+            default: return null;
+        }
+    }
+
+    // The setters may change the kind, so they are for eggs not yet laid in a clutch
+    public void setValue(Object value) {
+        store(value);
+    }
+
+    public void setInt(int value) {
+        valueKind = ValueKind.INT;
+        bits = value;
+        reference = null;
+    }
+
+    public void setLong(long value) {
+        valueKind = ValueKind.LONG;
+        bits = value;
+        reference = null;
+    }
+
+    public void setBoolean(boolean value) {
+        valueKind = ValueKind.BOOLEAN;
+        bits = value ? 1 : 0;
+        reference = null;
+    }
+
+    private void store(Object value) {
+        if (value instanceof Integer) {
+            setInt((Integer) value);
+        } else if (value instanceof Long) {
+            setLong((Long) value);
+        } else if (value instanceof Boolean) {
+            setBoolean((Boolean) value);
+        } else {
+            valueKind = value == null ? ValueKind.NULL : ValueKind.REFERENCE;
+            bits = 0;
+            reference = value;
+        }
+    }
+
+    public boolean isNull() {
+        return valueKind == ValueKind.NULL;
+    }
+
+    // INT or LONG: getLong() works without boxing
+    public boolean isIntegral() {
+        return valueKind == ValueKind.INT || valueKind == ValueKind.LONG;
+    }
+
+    public boolean isBoolean() {
+        return valueKind == ValueKind.BOOLEAN;
+    }
+
+    public int getInt() {
+        if (valueKind != ValueKind.INT) {
+            throw new IllegalStateException("Egg " + name + " does not hold an INTEGER value");
+        }
+        return (int) bits;
+    }
+
+    public long getLong() {
+        if (!isIntegral()) {
+            throw new IllegalStateException("Egg " + name + " does not hold an integral value");
+        }
+        return bits;
+    }
+
+    public boolean getBoolean() {
+        if (valueKind != ValueKind.BOOLEAN) {
+            throw new IllegalStateException("Egg " + name + " does not hold a FLIGHTMODE value");
+        }
+        return bits != 0;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("name", name);
+        fields.put("value", getValue());
+        fields.put("dataType", dataType);
+        fields.put("constraints", constraints);
+        fields.put("isEncrypted", isEncrypted);
+        fields.put("creatorId", creatorId);
+        fields.put("lastModified", LocalDateTime.ofInstant(Instant.ofEpochMilli(lastModified), ZoneId.systemDefault()).toString());
+        out.writeFields();
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        name = (String) fields.get("name", null);
+        store(fields.get("value", null));
+        setDataType((String) fields.get("dataType", null));
+        constraints = (String[]) fields.get("constraints", null);
+        isEncrypted = fields.get("isEncrypted", false);
+        creatorId = (String) fields.get("creatorId", null);
+        String modified = (String) fields.get("lastModified", null);
+        try {
+            lastModified = modified == null ? 0 : LocalDateTime.parse(modified).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            lastModified = 0;
+        }
+    }
+
     private static String inferDataType(Object value) {
-        if (value instanceof Integer) return "INTEGER";
-        if (value instanceof String) return "STRINGLIT";
-        if (value instanceof java.util.Date || value instanceof java.time.LocalDateTime) return "MIGRATIONDATE";
-        if (value instanceof Boolean) return "FLIGHTMODE";
-        return "STRINGLIT"; // default type
+        return EggType.infer(value).name();
     }
 
     public boolean validateConstraints() {
         if (constraints == null || constraints.length == 0) return true;
 
+        // Nests validate through their compiled NestSchema; this is the single-egg form
         for (String constraint : constraints) {
-            switch (constraint.toUpperCase()) {
-                case "NOT NULL":
-                case "!NULL":
-                    if (value == null) return false;
-                    break;
-                case "UNIQUE":
-                case "SOLITARY":
-                    // Uniqueness should be checked at the Nest level
-                    break;
-                case "ROOSTKEY":
-                    // Primary key constraint should be checked at the Nest level
-                    break;
+            if (NestSchema.Constraint.of(constraint) == NestSchema.Constraint.NOT_NULL && isNull()) {
+                return false;
             }
         }
         return true;
     }
 
     public boolean matches(String pattern) {
+        return containsFolded(getValue(), foldCase(pattern));
+    }
+
+    // Lower-cases a search pattern once so it can be tested against many values
+    public static String foldCase(String pattern) {
+        return pattern.toLowerCase(java.util.Locale.ROOT);
+    }
+
+    // Case-insensitive substring test against an already folded pattern. Compares in place
+    // instead of lower-casing a copy of every value.
+    public static boolean containsFolded(Object value, String foldedPattern) {
         if (value == null) return false;
-        String stringValue = value.toString().toLowerCase();
-        return stringValue.contains(pattern.toLowerCase());
+        String text = value instanceof String ? (String) value : value.toString();
+        int length = foldedPattern.length();
+        if (length == 0) return true;
+
+        char first = foldedPattern.charAt(0);
+        for (int i = 0, last = text.length() - length; i <= last; i++) {
+            if (Character.toLowerCase(text.charAt(i)) == first &&
+                text.regionMatches(true, i, foldedPattern, 0, length)) {
+                return true;
+            }
+        }
+        return false;
     }
 
     @Override
     public String toString() {
-        return String.format("%s: %s (%s)", name, value, dataType);
+        return String.format("%s: %s (%s)", name, getValue(), dataType);
     }
 
     @Override
     public boolean equals(Object obj) {
         if (!(obj instanceof Egg)) return false;
         Egg other = (Egg) obj;
-        return name.equals(other.name) &&
-               (value == null ? other.value == null : value.equals(other.value));
+        if (!name.equals(other.name) || valueKind != other.valueKind) return false;
+        return valueKind == ValueKind.REFERENCE ? reference.equals(other.reference) : bits == other.bits;
     }
 
+    // Same hash as Objects.hash(name, getValue()), computed without boxing
     @Override
     public int hashCode() {
-        return java.util.Objects.hash(name, value);
+        int valueHash;
+        switch (valueKind) {
+            case INT: valueHash = Integer.hashCode((int) bits); break;
+            case LONG: valueHash = Long.hashCode(bits); break;
+            case BOOLEAN: valueHash = Boolean.hashCode(bits != 0); break;
+            case REFERENCE: valueHash = reference.hashCode(); break;
+            default: valueHash = 0;
+        }
+        return 31 * (31 + (name == null ? 0 : name.hashCode())) + valueHash;
     }
 }
@@ -0,0 +1,313 @@
+import lombok.Getter;
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.UnaryOperator;
+
+// Bounded cache of decoded eggs (decrypted/deserialized copies of stored eggs), one per tree.
+//
+// Reads never lock: a hit is a ConcurrentHashMap lookup plus a racy bump of the frequency sketch
+// and the entry's referenced bit. Writes take the eviction lock and follow W-TinyLFU: new entries
+// land in a small window, and an entry leaving the window only enters the main area if the
+// sketch says it is accessed more often than the main area's eviction victim. Capacity is
+// measured in estimated bytes of the decoded values, not in entry count.
+public class EggCache {
+    public static final long DEFAULT_MAX_WEIGHT = 64L * 1024 * 1024; // 64MB
+    private static final double WINDOW_FRACTION = 0.01;
+
+    @Getter private final long maxWeight;
+    private final long windowMaxWeight;
+    private final long mainMaxWeight;
+    private final ConcurrentHashMap<EggKey, Node> data = new ConcurrentHashMap<>();
+    private final FrequencySketch sketch;
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private final ArrayDeque<Node> window = new ArrayDeque<>();
+    private final ArrayDeque<Node> main = new ArrayDeque<>();
+    private long windowWeight;
+    private long mainWeight;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder rejections = new LongAdder();
+
+    // Stored eggs are keyed by identity; Egg.equals compares values, which is what the cache decodes
+    private static final class EggKey {
+        private final Egg egg;
+
+        private EggKey(Egg egg) {
+            this.egg = egg;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof EggKey && ((EggKey) obj).egg == egg;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(egg);
+        }
+    }
+
+    private static final class Node {
+        private final EggKey key;
+        private final Object storedValue;
+        private final Egg decoded;
+        private final int weight;
+        private volatile boolean referenced;
+        private boolean inWindow;
+        private boolean removed;
+
+        private Node(EggKey key, Object storedValue, Egg decoded, int weight) {
+            this.key = key;
+            this.storedValue = storedValue;
+            this.decoded = decoded;
+            this.weight = weight;
+        }
+    }
+
+    public EggCache() {
+        this(DEFAULT_MAX_WEIGHT);
+    }
+
+    public EggCache(long maxWeight) {
+        if (maxWeight <= 0) {
+            throw new IllegalArgumentException("Cache weight must be positive");
+        }
+        this.maxWeight = maxWeight;
+        this.windowMaxWeight = Math.max(1, (long) (maxWeight * WINDOW_FRACTION));
+        this.mainMaxWeight = maxWeight - windowMaxWeight;
+        // Size the sketch for roughly one entry per 64 bytes of budget, within sane bounds
+        this.sketch = new FrequencySketch((int) Math.min(1 << 22, Math.max(1 << 10, maxWeight / 64)));
+    }
+
+    // Returns the decoded form of a stored egg, decoding and caching it on a miss. An entry is
+    // only reused while the stored egg still holds the value it was decoded from.
+    public Egg get(Egg stored, UnaryOperator<Egg> decoder) {
+        EggKey key = new EggKey(stored);
+        sketch.increment(key.hashCode());
+
+        Node node = data.get(key);
+        Object storedValue = stored.getValue();
+        if (node != null && node.storedValue == storedValue) {
+            node.referenced = true;
+            hits.increment();
+            return node.decoded;
+        }
+
+        misses.increment();
+        Egg decoded = decoder.apply(stored);
+        put(new Node(key, storedValue, decoded, weigh(decoded)));
+        return decoded;
+    }
+
+    private void put(Node node) {
+        evictionLock.lock();
+        try {
+            Node previous = data.put(node.key, node);
+            if (previous != null) {
+                discard(previous);
+            }
+            node.inWindow = true;
+            window.addLast(node);
+            windowWeight += node.weight;
+            evict();
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    // Caller holds evictionLock
+    private void evict() {
+        while (windowWeight > windowMaxWeight) {
+            Node candidate = window.pollFirst();
+            if (candidate == null) break;
+            if (candidate.removed) continue;
+            windowWeight -= candidate.weight;
+            candidate.inWindow = false;
+            admit(candidate);
+        }
+    }
+
+    // Caller holds evictionLock. TinyLFU admission: the window's candidate has to beat the main
+    // area's victim on estimated frequency; recently referenced victims get a second chance.
+    private void admit(Node candidate) {
+        if (candidate.weight > mainMaxWeight) {
+            reject(candidate);
+            return;
+        }
+        int secondChances = main.size();
+        while (mainWeight + candidate.weight > mainMaxWeight) {
+            Node victim = main.pollFirst();
+            if (victim == null) break;
+            if (victim.removed) continue;
+            if (victim.referenced && secondChances-- > 0) {
+                victim.referenced = false;
+                main.addLast(victim);
+                continue;
+            }
+            if (sketch.frequency(candidate.key.hashCode()) > sketch.frequency(victim.key.hashCode())) {
+                mainWeight -= victim.weight;
+                victim.removed = true;
+                data.remove(victim.key, victim);
+                evictions.increment();
+            } else {
+                main.addFirst(victim);
+                reject(candidate);
+                return;
+            }
+        }
+        main.addLast(candidate);
+        mainWeight += candidate.weight;
+    }
+
+    private void reject(Node candidate) {
+        candidate.removed = true;
+        data.remove(candidate.key, candidate);
+        rejections.increment();
+    }
+
+    // Caller holds evictionLock. Queued copies are skipped lazily when they reach the head.
+    private void discard(Node node) {
+        node.removed = true;
+        if (node.inWindow) {
+            windowWeight -= node.weight;
+        } else {
+            mainWeight -= node.weight;
+        }
+    }
+
+    public void invalidate(Egg stored) {
+        evictionLock.lock();
+        try {
+            Node node = data.remove(new EggKey(stored));
+            if (node != null) {
+                discard(node);
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    public void clear() {
+        evictionLock.lock();
+        try {
+            data.clear();
+            window.clear();
+            main.clear();
+            windowWeight = 0;
+            mainWeight = 0;
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    // Rough retained size of a decoded egg's value in bytes
+    static int weigh(Egg egg) {
+        Object value = egg.getValue();
+        if (value == null) return 16;
+        if (value instanceof String) return 40 + 2 * ((String) value).length();
+        if (value instanceof byte[]) return 16 + ((byte[]) value).length;
+        return 16;
+    }
+
+    public int size() {
+        return data.size();
+    }
+
+    public long getWeightedSize() {
+        evictionLock.lock();
+        try {
+            return windowWeight + mainWeight;
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public long getRejections() {
+        return rejections.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("EggCache[entries=%d, weight=%d/%d, hits=%d, misses=%d, evictions=%d, rejections=%d]",
+            size(), getWeightedSize(), maxWeight, getHits(), getMisses(), getEvictions(), getRejections());
+    }
+
+    // Count-min sketch of 4-bit counters, four per key, halved periodically so old popularity fades.
+    // Increments are deliberately unsynchronized: a lost update only makes an estimate slightly low.
+    static final class FrequencySketch {
+        private static final long[] SEEDS = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L
+        };
+        private static final long RESET_MASK = 0x7777777777777777L;
+
+        private final long[] table;
+        private final int tableMask;
+        private final int sampleSize;
+        private int additions;
+
+        FrequencySketch(int expectedEntries) {
+            int size = Integer.highestOneBit(Math.max(expectedEntries, 16) - 1) << 1;
+            this.table = new long[size];
+            this.tableMask = size - 1;
+            this.sampleSize = 10 * size;
+        }
+
+        int frequency(int hash) {
+            int frequency = Integer.MAX_VALUE;
+            for (int i = 0; i < 4; i++) {
+                frequency = Math.min(frequency, (int) ((table[indexOf(hash, i)] >>> offsetOf(hash, i)) & 0xfL));
+            }
+            return frequency;
+        }
+
+        void increment(int hash) {
+            boolean added = false;
+            for (int i = 0; i < 4; i++) {
+                int index = indexOf(hash, i);
+                int offset = offsetOf(hash, i);
+                long mask = 0xfL << offset;
+                if ((table[index] & mask) != mask) {
+                    table[index] += 1L << offset;
+                    added = true;
+                }
+            }
+            if (added && ++additions >= sampleSize) {
+                reset();
+            }
+        }
+
+        private void reset() {
+            for (int i = 0; i < table.length; i++) {
+                table[i] = (table[i] >>> 1) & RESET_MASK;
+            }
+            additions /= 2;
+        }
+
+        private int indexOf(int hash, int i) {
+            long h = (hash + SEEDS[i]) * SEEDS[i];
+            h += h >>> 32;
+            return (int) h & tableMask;
+        }
+
+        // Each row uses a different 4-bit lane of the long
+        private int offsetOf(int hash, int i) {
+            return (((hash >>> (i << 3)) & 3) << 2) + (i << 4);
+        }
+    }
+}
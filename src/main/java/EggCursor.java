@@ -0,0 +1,137 @@
+import lombok.Getter;
+import lombok.Setter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// ResultSet-style view over a running PICK. Rows are pulled from the plan in batches of
+// fetchSize, so a caller only ever holds one batch in memory no matter how large the result is.
+public class EggCursor implements AutoCloseable {
+    public static final int DEFAULT_FETCH_SIZE = 100;
+
+    private final QueryOperator root;
+    // Checked before every fetch batch; null for cursors that can't be cancelled
+    @Getter @Setter private CancellationToken cancellationToken;
+    @Getter private final List<String> eggNames;
+    @Getter private int fetchSize = DEFAULT_FETCH_SIZE;
+    @Getter private long rowNumber;
+    private final List<Clutch> buffer = new ArrayList<>();
+    private int bufferIndex;
+    private Clutch current;
+    private boolean exhausted;
+    @Getter private boolean closed;
+    // Set by the planner for PICKs that can be paged with AFTER
+    @Setter private QueryOperator.Continuation continuation;
+
+    public EggCursor(QueryOperator root, List<String> eggNames) {
+        this.root = root;
+        this.eggNames = Collections.unmodifiableList(eggNames);
+    }
+
+    public void setFetchSize(int fetchSize) {
+        if (fetchSize <= 0) {
+            throw new IllegalArgumentException("Fetch size must be positive");
+        }
+        this.fetchSize = fetchSize;
+    }
+
+    public boolean next() {
+        if (closed) {
+            throw new IllegalStateException("Cursor is closed");
+        }
+        if (bufferIndex >= buffer.size() && !fetch()) {
+            current = null;
+            return false;
+        }
+        current = buffer.get(bufferIndex++);
+        rowNumber++;
+        return true;
+    }
+
+    private boolean fetch() {
+        buffer.clear();
+        bufferIndex = 0;
+        if (exhausted) {
+            return false;
+        }
+        if (cancellationToken != null) {
+            cancellationToken.throwIfCancelled();
+        }
+        while (buffer.size() < fetchSize) {
+            Clutch clutch = root.next();
+            if (clutch == null) {
+                exhausted = true;
+                break;
+            }
+            buffer.add(clutch);
+        }
+        return !buffer.isEmpty();
+    }
+
+    // The AFTER token for the next page once this one has been read to the end; null when this
+    // was the last page or the query can't be paged
+    public String getContinuationToken() {
+        return continuation == null || !exhausted ? null : continuation.getToken();
+    }
+
+    // True when the current row is the last one of the batch already pulled from the plan
+    public boolean isEndOfBatch() {
+        return bufferIndex >= buffer.size();
+    }
+
+    public Clutch getClutch() {
+        if (current == null) {
+            throw new IllegalStateException("Cursor is not positioned on a clutch");
+        }
+        return current;
+    }
+
+    public Egg getEgg(String eggName) {
+        return getClutch().getEgg(findPosition(eggName));
+    }
+
+    public Object getObject(int position) {
+        return getClutch().getValue(position);
+    }
+
+    public Object getObject(String eggName) {
+        return getObject(findPosition(eggName));
+    }
+
+    public String getString(String eggName) {
+        Object value = getObject(eggName);
+        return value == null ? null : value.toString();
+    }
+
+    public int getInt(String eggName) {
+        Object value = getObject(eggName);
+        if (value == null) return 0;
+        if (value instanceof Number) return ((Number) value).intValue();
+        return Integer.parseInt(value.toString());
+    }
+
+    public boolean getBoolean(String eggName) {
+        Object value = getObject(eggName);
+        if (value == null) return false;
+        if (value instanceof Boolean) return (Boolean) value;
+        return Boolean.parseBoolean(value.toString());
+    }
+
+    private int findPosition(String eggName) {
+        int position = eggNames.indexOf(eggName);
+        if (position < 0) {
+            throw new IllegalArgumentException("EGGNOTFOUNDEXCEPTION: Egg not picked: " + eggName);
+        }
+        return position;
+    }
+
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            buffer.clear();
+            current = null;
+            root.close();
+        }
+    }
+}
@@ -0,0 +1,121 @@
+import lombok.Getter;
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.UnaryOperator;
+
+// Secondary index over one egg of a nest. Nests keep every index current as clutches are laid
+// and updated; the planner asks supports() and lookup() to narrow a scan to candidate clutches.
+// Values are always filed in plaintext: eggs sealed by ENCRYPT TREE are opened with the tree's
+// decoder first, so lookups, removals and moves see the same keys whether or not the nest is
+// encrypted.
+public abstract class EggIndex implements Serializable {
+    private static final long serialVersionUID = 1L;
+    public enum Kind {
+        SORTED,   // equality and range conditions
+        TRIGRAM,  // MATCHES substring conditions on STRINGLIT eggs
+        FULLTEXT, // SEARCH word conditions on STRINGLIT eggs, ranked by BM25
+        SKETCH    // APPROXCOUNTFEATHER and APPROXPERCENTILE over the whole nest
+    }
+
+    @Getter protected final String name;
+    @Getter protected final String eggName;
+    @Getter protected final int position;
+    @Getter protected long size;
+    // Used by indexes that keep a bloom filter of their values
+    @Getter protected double falsePositiveRate = BloomFilter.DEFAULT_FALSE_POSITIVE_RATE;
+    // Set by the nest from its tree; null while nothing in the tree is encrypted
+    protected transient UnaryOperator<Egg> eggDecoder;
+
+    protected EggIndex(String name, String eggName, int position) {
+        this.name = name;
+        this.eggName = eggName;
+        this.position = position;
+    }
+
+    public static EggIndex create(Kind kind, String name, String eggName, int position) {
+        switch (kind) {
+            case FULLTEXT:
+                return new FullTextEggIndex(name, eggName, position);
+            case TRIGRAM:
+                return new TrigramEggIndex(name, eggName, position);
+            case SKETCH:
+                return new SketchEggIndex(name, eggName, position);
+            case SORTED:
+            default:
+                return new SortedEggIndex(name, eggName, position);
+        }
+    }
+
+    public abstract Kind getKind();
+
+    public void setEggDecoder(UnaryOperator<Egg> eggDecoder) {
+        this.eggDecoder = eggDecoder;
+    }
+
+    // The clutch's egg as the index files it: opened when it is stored encrypted
+    protected Egg eggOf(Clutch clutch) {
+        return decode(clutch.getEgg(position), eggDecoder);
+    }
+
+    // The value the clutch is filed under. Take it before the clutch changes and pass it to
+    // remove() or move().
+    public Object keyOf(Clutch clutch) {
+        Egg egg = eggOf(clutch);
+        return egg == null ? null : egg.getValue();
+    }
+
+    static Egg decode(Egg egg, UnaryOperator<Egg> eggDecoder) {
+        if (egg == null || !egg.isEncrypted()) {
+            return egg;
+        }
+        if (eggDecoder == null) {
+            throw new IllegalStateException("Egg " + egg.getName() + " is encrypted but its tree's key is not unlocked");
+        }
+        return eggDecoder.apply(egg);
+    }
+
+    public abstract void add(Clutch clutch);
+
+    // The clutch must still be filed under oldValue, i.e. call this before or instead of the write
+    public abstract void remove(Object oldValue, Clutch clutch);
+
+    public abstract void clear();
+
+    public abstract boolean supports(FindCondition condition);
+
+    // Clutches that may satisfy the condition; callers still verify every condition
+    public abstract List<Clutch> lookup(FindCondition condition);
+
+    public abstract int getDistinctValues();
+
+    // False only when the index can prove no clutch holds the value
+    public boolean mightContain(Object value) {
+        return true;
+    }
+
+    // Null for index kinds without a value filter
+    public BloomFilter getValueFilter() {
+        return null;
+    }
+
+    public void setFalsePositiveRate(double falsePositiveRate) {
+        this.falsePositiveRate = falsePositiveRate;
+    }
+
+    public void addAll(Collection<Clutch> clutches) {
+        for (Clutch clutch : clutches) {
+            add(clutch);
+        }
+    }
+
+    public void move(Object oldValue, Clutch clutch) {
+        remove(oldValue, clutch);
+        add(clutch);
+    }
+
+    public void rebuild(List<Clutch> clutches) {
+        clear();
+        addAll(clutches);
+    }
+}
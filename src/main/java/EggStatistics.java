@@ -0,0 +1,114 @@
+import lombok.Getter;
+import java.io.Serializable;
+import java.util.Arrays;
+
+// What ANALYZE NEST learned about one egg: row and null counts, a distinct-value sketch and an
+// equi-depth histogram (every bucket holds about the same number of sampled values). The
+// optimizer turns these into selectivity estimates for FIND conditions.
+public class EggStatistics implements Serializable {
+    private static final long serialVersionUID = 1L;
+    public static final int DEFAULT_BUCKETS = 32;
+
+    @Getter private final String eggName;
+    @Getter private final long rowCount;
+    @Getter private final long nullCount;
+    @Getter private final long distinctValues;
+    // bucketBounds[0] is the smallest sampled value and bucketBounds[buckets] the largest
+    private final Object[] bucketBounds;
+
+    public EggStatistics(String eggName, long rowCount, long nullCount, HyperLogLog distinct, Object[] sortedSample, int buckets) {
+        this.eggName = eggName;
+        this.rowCount = rowCount;
+        this.nullCount = nullCount;
+        long nonNull = rowCount - nullCount;
+        this.distinctValues = Math.max(nonNull > 0 ? 1 : 0, Math.min(distinct.estimate(), nonNull));
+
+        if (sortedSample.length == 0) {
+            this.bucketBounds = new Object[0];
+        } else {
+            int bucketCount = Math.max(1, Math.min(buckets, sortedSample.length));
+            this.bucketBounds = new Object[bucketCount + 1];
+            for (int i = 0; i <= bucketCount; i++) {
+                int index = (int) Math.min(sortedSample.length - 1, (long) i * sortedSample.length / bucketCount);
+                bucketBounds[i] = sortedSample[i == bucketCount ? sortedSample.length - 1 : index];
+            }
+        }
+    }
+
+    public double getNullFraction() {
+        return rowCount == 0 ? 0 : (double) nullCount / rowCount;
+    }
+
+    public int getBucketCount() {
+        return Math.max(0, bucketBounds.length - 1);
+    }
+
+    // Fraction of rows expected to satisfy the condition
+    public double selectivity(FindCondition condition) {
+        if (rowCount == 0) {
+            return 0;
+        }
+        double nonNull = 1 - getNullFraction();
+        Object literal = condition.getLiteral();
+        switch (condition.getOperator()) {
+            case "=":
+                if (literal == null) {
+                    return getNullFraction();
+                }
+                return outOfRange(literal) ? 1.0 / rowCount : nonNull / Math.max(1, distinctValues);
+            case "!=":
+                if (literal == null) {
+                    return nonNull;
+                }
+                return Math.max(0, nonNull - nonNull / Math.max(1, distinctValues));
+            case "<":
+            case "<=":
+                return literal == null ? 0 : nonNull * fractionBelow(literal);
+            case ">":
+            case ">=":
+                return literal == null ? 0 : nonNull * (1 - fractionBelow(literal));
+            default:
+                // MATCHES and SEARCH: the histogram says nothing about substrings or words
+                return 0.1 * nonNull;
+        }
+    }
+
+    private boolean outOfRange(Object literal) {
+        return bucketBounds.length > 0 &&
+               (FindCondition.compareValues(literal, bucketBounds[0]) < 0 ||
+                FindCondition.compareValues(literal, bucketBounds[bucketBounds.length - 1]) > 0);
+    }
+
+    // Share of non-null values below the literal, interpolating inside the bucket it falls in
+    private double fractionBelow(Object literal) {
+        int buckets = getBucketCount();
+        if (buckets == 0) {
+            return 1.0 / 3;
+        }
+        if (FindCondition.compareValues(literal, bucketBounds[0]) <= 0) {
+            return 0;
+        }
+        if (FindCondition.compareValues(literal, bucketBounds[buckets]) > 0) {
+            return 1;
+        }
+        int bucket = 0;
+        while (bucket < buckets - 1 && FindCondition.compareValues(literal, bucketBounds[bucket + 1]) > 0) {
+            bucket++;
+        }
+        Object low = bucketBounds[bucket];
+        Object high = bucketBounds[bucket + 1];
+        double within = 0.5;
+        if (low instanceof Number && high instanceof Number && literal instanceof Number) {
+            double span = ((Number) high).doubleValue() - ((Number) low).doubleValue();
+            within = span <= 0 ? 0.5 : (((Number) literal).doubleValue() - ((Number) low).doubleValue()) / span;
+        }
+        return (bucket + Math.max(0, Math.min(1, within))) / buckets;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: rows=%d, nulls=%.1f%%, distinct~%d, histogram=%d bucket(s)%s",
+            eggName, rowCount, getNullFraction() * 100, distinctValues, getBucketCount(),
+            bucketBounds.length == 0 ? "" : " " + Arrays.asList(bucketBounds[0], bucketBounds[bucketBounds.length - 1]));
+    }
+}
@@ -0,0 +1,29 @@
+// The data types an egg can be declared with. Egg keeps the declared name as a string for
+// compatibility; this is the parsed form code should switch on.
+public enum EggType {
+    INTEGER,
+    STRINGLIT,
+    MIGRATIONDATE,
+    FLIGHTMODE;
+
+    // The type with this name, ignoring case, or null for a name BDL doesn't know
+    public static EggType of(String name) {
+        if (name == null) {
+            return null;
+        }
+        for (EggType type : values()) {
+            if (type.name().equalsIgnoreCase(name)) {
+                return type;
+            }
+        }
+        return null;
+    }
+
+    public static EggType infer(Object value) {
+        if (value instanceof Integer) return INTEGER;
+        if (value instanceof String) return STRINGLIT;
+        if (value instanceof java.util.Date || value instanceof java.time.LocalDateTime) return MIGRATIONDATE;
+        if (value instanceof Boolean) return FLIGHTMODE;
+        return STRINGLIT; // default type
+    }
+}
@@ -1,3 +1,5 @@
+import lombok.Getter;
+import lombok.Setter;
 import org.bouncycastle.crypto.generators.Argon2BytesGenerator;
 import org.bouncycastle.crypto.params.Argon2Parameters;
 import com.twilio.Twilio;
@@ -12,7 +14,6 @@ import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.security.*;
 import java.security.spec.InvalidKeySpecException;
-import java.security.spec.KeySpec;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
 
@@ -31,59 +32,69 @@ public class Encryptor {
         TWO_FACTOR
     }
 
+    // Parameters for new password hashes; existing hashes keep the ones stored with them
+    @Getter @Setter private Argon2Params argon2Params = Argon2Params.DEFAULT;
+    // Limits how much memory concurrent hashes may take; shared by every Encryptor by default
+    @Getter @Setter private Argon2Service argon2Service = Argon2Service.getShared();
+
     // Password handling
     public String hashPassword(String password) {
+        return hashPassword(password, null);
+    }
+
+    // user only decides which fairness queue the hash waits in
+    public String hashPassword(String password, String user) {
         try {
             // Generate a random salt
             byte[] salt = new byte[16];
-            SecureRandom random = new SecureRandom();
-            random.nextBytes(salt);
-
-            // Configure Argon2 parameters
-            Argon2Parameters.Builder builder = new Argon2Parameters.Builder(Argon2Parameters.ARGON2_id)
-                .withSalt(salt)
-                .withParallelism(4)
-                .withMemoryAsKB(65536) // 64MB
-                .withIterations(3);
+            RANDOM.nextBytes(salt);
 
-            // Generate the hash
-            Argon2BytesGenerator generator = new Argon2BytesGenerator();
-            generator.init(builder.build());
-            byte[] hash = new byte[32];
-            generator.generateBytes(password.getBytes(StandardCharsets.UTF_8), hash);
-
-            // Combine salt and hash
-            byte[] combined = new byte[salt.length + hash.length];
-            System.arraycopy(salt, 0, combined, 0, salt.length);
-            System.arraycopy(hash, 0, combined, salt.length, hash.length);
-
-            return Base64.getEncoder().encodeToString(combined);
+            Argon2Params params = argon2Params;
+            byte[] hash = argon2(password, salt, params, 32, user);
+            return params.encode(salt, hash);
+        } catch (IllegalStateException e) {
+            throw e;
         } catch (Exception e) {
             throw new RuntimeException("Error hashing password", e);
         }
     }
 
     public boolean verifyPassword(String password, String storedHash) {
+        return verifyPassword(password, storedHash, null);
+    }
+
+    public boolean verifyPassword(String password, String storedHash, String user) {
         try {
-            byte[] combined = Base64.getDecoder().decode(storedHash);
-            byte[] salt = Arrays.copyOfRange(combined, 0, 16);
-            byte[] hash = Arrays.copyOfRange(combined, 16, combined.length);
+            Argon2Params.Stored stored = Argon2Params.decode(storedHash);
+            byte[] checkHash = argon2(password, stored.getSalt(), stored.getParams(), stored.getHash().length, user);
+            return MessageDigest.isEqual(stored.getHash(), checkHash);
+        } catch (IllegalStateException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException("Error verifying password", e);
+        }
+    }
+
+    // True when the stored hash was made with weaker parameters than argon2Params, so it should
+    // be replaced the next time the password is at hand
+    public boolean needsRehash(String storedHash) {
+        return Argon2Params.decode(storedHash).getParams().isWeakerThan(argon2Params);
+    }
 
+    private byte[] argon2(String password, byte[] salt, Argon2Params params, int hashLength, String user) {
+        return argon2Service.run(user, params.getMemoryKB(), () -> {
             Argon2Parameters.Builder builder = new Argon2Parameters.Builder(Argon2Parameters.ARGON2_id)
                 .withSalt(salt)
-                .withParallelism(4)
-                .withMemoryAsKB(65536)
-                .withIterations(3);
+                .withParallelism(params.getParallelism())
+                .withMemoryAsKB(params.getMemoryKB())
+                .withIterations(params.getIterations());
 
             Argon2BytesGenerator generator = new Argon2BytesGenerator();
             generator.init(builder.build());
-            byte[] checkHash = new byte[32];
-            generator.generateBytes(password.getBytes(StandardCharsets.UTF_8), checkHash);
-
-            return Arrays.equals(hash, checkHash);
-        } catch (Exception e) {
-            throw new RuntimeException("Error verifying password", e);
-        }
+            byte[] hash = new byte[hashLength];
+            generator.generateBytes(password.getBytes(StandardCharsets.UTF_8), hash);
+            return hash;
+        });
     }
 
     // Auth key handling
@@ -137,10 +148,9 @@ public class Encryptor {
     }
 
     private String generateVerificationCode() {
-        SecureRandom random = new SecureRandom();
         StringBuilder code = new StringBuilder();
         for (int i = 0; i < 6; i++) {
-            code.append(random.nextInt(10));
+            code.append(RANDOM.nextInt(10));
         }
         return code.toString();
     }
@@ -159,6 +169,8 @@ public class Encryptor {
     private static final String AES_ALGORITHM = "AES";
     private static final String AES_GCM_ALGO = "AES/GCM/NoPadding";
     private static final String AES_CBC_ALGO = "AES/CBC/PKCS5Padding";
+    // One strong RNG for salts, nonces and IVs; SecureRandom is thread-safe
+    private static final SecureRandom RANDOM = new SecureRandom();
 
     // Generate a secure AES key
     public SecretKey generateAESKey() throws NoSuchAlgorithmException {
@@ -167,101 +179,177 @@ public class Encryptor {
         return keyGen.generateKey();
     }
 
-    // Generate a key from password using PBKDF2
+    // Keys derived by getAESKeyFromPassword, so repeated lookups skip PBKDF2
+    @Getter private final DerivedKeyCache derivedKeyCache = new DerivedKeyCache();
+
+    // Generate a key from password using PBKDF2, or take it from the derived key cache
     public SecretKey getAESKeyFromPassword(String password, byte[] salt)
             throws NoSuchAlgorithmException, InvalidKeySpecException {
+        String cacheKey = DerivedKeyCache.keyFor(password, salt);
+        byte[] encoded = derivedKeyCache.get(cacheKey);
+        if (encoded == null) {
+            encoded = deriveAESKey(password, salt);
+            derivedKeyCache.put(cacheKey, salt, encoded);
+        }
+        try {
+            return new SecretKeySpec(encoded, AES_ALGORITHM);
+        } finally {
+            Arrays.fill(encoded, (byte) 0);
+        }
+    }
+
+    private byte[] deriveAESKey(String password, byte[] salt)
+            throws NoSuchAlgorithmException, InvalidKeySpecException {
         SecretKeyFactory factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256");
-        KeySpec spec = new PBEKeySpec(
+        PBEKeySpec spec = new PBEKeySpec(
             password.toCharArray(),
             salt,
             65536,
             AES_KEY_SIZE
         );
-        return new SecretKeySpec(factory.generateSecret(spec).getEncoded(), AES_ALGORITHM);
+        try {
+            return factory.generateSecret(spec).getEncoded();
+        } finally {
+            spec.clearPassword();
+        }
     }
 
-    // AES-GCM encryption
-    public String encryptGCM(String plaintext, SecretKey key) throws Exception {
-        byte[] salt = new byte[SALT_LENGTH];
-        byte[] nonce = new byte[GCM_NONCE_LENGTH];
-        new SecureRandom().nextBytes(salt);
-        new SecureRandom().nextBytes(nonce);
+    // Salt + nonce in front of every GCM frame; the salt is authenticated as AAD
+    private static final int GCM_HEADER_LENGTH = SALT_LENGTH + GCM_NONCE_LENGTH;
+    private static final int CBC_HEADER_LENGTH = SALT_LENGTH + 16;
 
-        Cipher cipher = Cipher.getInstance(AES_GCM_ALGO);
-        GCMParameterSpec parameterSpec = new GCMParameterSpec(GCM_TAG_LENGTH * 8, nonce);
-        cipher.init(Cipher.ENCRYPT_MODE, key, parameterSpec);
-        cipher.updateAAD(salt);
+    // Cipher.getInstance is a provider lookup every time, so each thread keeps one Cipher per
+    // transformation and re-inits it with a fresh nonce or IV per message
+    private static final ThreadLocal<Cipher> GCM_CIPHER = ThreadLocal.withInitial(() -> newCipher(AES_GCM_ALGO));
+    private static final ThreadLocal<Cipher> CBC_CIPHER = ThreadLocal.withInitial(() -> newCipher(AES_CBC_ALGO));
 
-        byte[] cipherText = cipher.doFinal(plaintext.getBytes(StandardCharsets.UTF_8));
+    private static Cipher newCipher(String transformation) {
+        try {
+            return Cipher.getInstance(transformation);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(transformation + " is not available", e);
+        }
+    }
 
-        // Combine salt + nonce + ciphertext
-        ByteBuffer buffer = ByteBuffer.allocate(salt.length + nonce.length + cipherText.length);
-        buffer.put(salt);
-        buffer.put(nonce);
-        buffer.put(cipherText);
+    // Bytes a GCM frame takes for a plaintext of this length: salt + nonce + ciphertext + tag
+    public static int gcmFrameLength(int plaintextLength) {
+        return GCM_HEADER_LENGTH + plaintextLength + GCM_TAG_LENGTH;
+    }
 
-        return Base64.getEncoder().encodeToString(buffer.array());
+    // AES-GCM encryption
+    public String encryptGCM(String plaintext, SecretKey key) throws Exception {
+        byte[] header = new byte[GCM_HEADER_LENGTH];
+        RANDOM.nextBytes(header);
+        return Base64.getEncoder().encodeToString(sealGCM(GCM_CIPHER.get(), key, header, 0, plaintext));
     }
 
     // AES-GCM decryption
     public String decryptGCM(String encryptedData, SecretKey key) throws Exception {
-        byte[] decoded = Base64.getDecoder().decode(encryptedData);
-        ByteBuffer buffer = ByteBuffer.wrap(decoded);
+        return openGCM(GCM_CIPHER.get(), key, Base64.getDecoder().decode(encryptedData));
+    }
+
+    // Encrypts plaintext's remaining bytes into output as one frame, the same bytes encryptGCM
+    // Base64-encodes, without either of them being copied into an intermediate array. Both
+    // buffers advance; returns the number of bytes written.
+    public int encryptGCM(ByteBuffer plaintext, ByteBuffer output, SecretKey key) throws GeneralSecurityException {
+        int frameLength = gcmFrameLength(plaintext.remaining());
+        if (output.remaining() < frameLength) {
+            throw new ShortBufferException("GCM frame needs " + frameLength + " bytes, output has " + output.remaining());
+        }
+        byte[] header = new byte[GCM_HEADER_LENGTH];
+        RANDOM.nextBytes(header);
+        Cipher cipher = GCM_CIPHER.get();
+        initGCM(cipher, Cipher.ENCRYPT_MODE, key, header, 0);
+        output.put(header);
+        return GCM_HEADER_LENGTH + cipher.doFinal(plaintext, output);
+    }
 
-        byte[] salt = new byte[SALT_LENGTH];
-        byte[] nonce = new byte[GCM_NONCE_LENGTH];
-        buffer.get(salt);
-        buffer.get(nonce);
+    // Decrypts one frame, the frame's remaining bytes, into output; returns the plaintext length
+    public int decryptGCM(ByteBuffer frame, ByteBuffer output, SecretKey key) throws GeneralSecurityException {
+        if (frame.remaining() < GCM_HEADER_LENGTH + GCM_TAG_LENGTH) {
+            throw new AEADBadTagException("GCM frame is too short: " + frame.remaining() + " bytes");
+        }
+        byte[] header = new byte[GCM_HEADER_LENGTH];
+        frame.get(header);
+        Cipher cipher = GCM_CIPHER.get();
+        initGCM(cipher, Cipher.DECRYPT_MODE, key, header, 0);
+        return cipher.doFinal(frame, output);
+    }
 
-        byte[] cipherText = new byte[buffer.remaining()];
-        buffer.get(cipherText);
+    // Many small plaintexts under one key, e.g. a batch of log entries: one Cipher and one draw
+    // from the RNG for the whole batch rather than one per message
+    public List<String> encryptGCMBatch(List<String> plaintexts, SecretKey key) throws GeneralSecurityException {
+        byte[] headers = new byte[plaintexts.size() * GCM_HEADER_LENGTH];
+        RANDOM.nextBytes(headers);
+        Cipher cipher = GCM_CIPHER.get();
+        Base64.Encoder encoder = Base64.getEncoder();
+        List<String> encrypted = new ArrayList<>(plaintexts.size());
+        for (int i = 0; i < plaintexts.size(); i++) {
+            encrypted.add(encoder.encodeToString(sealGCM(cipher, key, headers, i * GCM_HEADER_LENGTH, plaintexts.get(i))));
+        }
+        return encrypted;
+    }
 
-        Cipher cipher = Cipher.getInstance(AES_GCM_ALGO);
-        GCMParameterSpec spec = new GCMParameterSpec(GCM_TAG_LENGTH * 8, nonce);
-        cipher.init(Cipher.DECRYPT_MODE, key, spec);
-        cipher.updateAAD(salt);
+    public List<String> decryptGCMBatch(List<String> encryptedData, SecretKey key) throws GeneralSecurityException {
+        Cipher cipher = GCM_CIPHER.get();
+        Base64.Decoder decoder = Base64.getDecoder();
+        List<String> decrypted = new ArrayList<>(encryptedData.size());
+        for (String data : encryptedData) {
+            decrypted.add(openGCM(cipher, key, decoder.decode(data)));
+        }
+        return decrypted;
+    }
 
-        return new String(cipher.doFinal(cipherText), StandardCharsets.UTF_8);
+    // The frame for plaintext, using the header at headers[offset]
+    private static byte[] sealGCM(Cipher cipher, SecretKey key, byte[] headers, int offset, String plaintext)
+            throws GeneralSecurityException {
+        byte[] plain = plaintext.getBytes(StandardCharsets.UTF_8);
+        byte[] frame = new byte[gcmFrameLength(plain.length)];
+        System.arraycopy(headers, offset, frame, 0, GCM_HEADER_LENGTH);
+        initGCM(cipher, Cipher.ENCRYPT_MODE, key, headers, offset);
+        cipher.doFinal(plain, 0, plain.length, frame, GCM_HEADER_LENGTH);
+        return frame;
+    }
+
+    private static String openGCM(Cipher cipher, SecretKey key, byte[] frame) throws GeneralSecurityException {
+        if (frame.length < GCM_HEADER_LENGTH + GCM_TAG_LENGTH) {
+            throw new AEADBadTagException("GCM frame is too short: " + frame.length + " bytes");
+        }
+        initGCM(cipher, Cipher.DECRYPT_MODE, key, frame, 0);
+        byte[] plain = new byte[frame.length - GCM_HEADER_LENGTH - GCM_TAG_LENGTH];
+        cipher.doFinal(frame, GCM_HEADER_LENGTH, frame.length - GCM_HEADER_LENGTH, plain, 0);
+        return new String(plain, StandardCharsets.UTF_8);
+    }
+
+    // header holds the salt, then the nonce
+    private static void initGCM(Cipher cipher, int mode, SecretKey key, byte[] header, int offset) throws GeneralSecurityException {
+        cipher.init(mode, key, new GCMParameterSpec(GCM_TAG_LENGTH * 8, header, offset + SALT_LENGTH, GCM_NONCE_LENGTH));
+        cipher.updateAAD(header, offset, SALT_LENGTH);
     }
 
     // AES-CBC encryption
     public String encryptCBC(String plaintext, SecretKey key) throws Exception {
-        byte[] salt = new byte[SALT_LENGTH];
-        byte[] iv = new byte[16];
-        new SecureRandom().nextBytes(salt);
-        new SecureRandom().nextBytes(iv);
-
-        Cipher cipher = Cipher.getInstance(AES_CBC_ALGO);
-        cipher.init(Cipher.ENCRYPT_MODE, key, new IvParameterSpec(iv));
+        byte[] plain = plaintext.getBytes(StandardCharsets.UTF_8);
+        byte[] header = new byte[CBC_HEADER_LENGTH];
+        RANDOM.nextBytes(header);
 
-        byte[] cipherText = cipher.doFinal(plaintext.getBytes(StandardCharsets.UTF_8));
+        Cipher cipher = CBC_CIPHER.get();
+        cipher.init(Cipher.ENCRYPT_MODE, key, new IvParameterSpec(header, SALT_LENGTH, 16));
 
         // Combine salt + iv + ciphertext
-        ByteBuffer buffer = ByteBuffer.allocate(salt.length + iv.length + cipherText.length);
-        buffer.put(salt);
-        buffer.put(iv);
-        buffer.put(cipherText);
-
-        return Base64.getEncoder().encodeToString(buffer.array());
+        byte[] frame = Arrays.copyOf(header, CBC_HEADER_LENGTH + cipher.getOutputSize(plain.length));
+        int length = CBC_HEADER_LENGTH + cipher.doFinal(plain, 0, plain.length, frame, CBC_HEADER_LENGTH);
+        return Base64.getEncoder().encodeToString(length == frame.length ? frame : Arrays.copyOf(frame, length));
     }
 
     // AES-CBC decryption
     public String decryptCBC(String encryptedData, SecretKey key) throws Exception {
-        byte[] decoded = Base64.getDecoder().decode(encryptedData);
-        ByteBuffer buffer = ByteBuffer.wrap(decoded);
-
-        byte[] salt = new byte[SALT_LENGTH];
-        byte[] iv = new byte[16];
-        buffer.get(salt);
-        buffer.get(iv);
-
-        byte[] cipherText = new byte[buffer.remaining()];
-        buffer.get(cipherText);
+        byte[] frame = Base64.getDecoder().decode(encryptedData);
 
-        Cipher cipher = Cipher.getInstance(AES_CBC_ALGO);
-        cipher.init(Cipher.DECRYPT_MODE, key, new IvParameterSpec(iv));
+        Cipher cipher = CBC_CIPHER.get();
+        cipher.init(Cipher.DECRYPT_MODE, key, new IvParameterSpec(frame, SALT_LENGTH, 16));
 
-        return new String(cipher.doFinal(cipherText), StandardCharsets.UTF_8);
+        return new String(cipher.doFinal(frame, CBC_HEADER_LENGTH, frame.length - CBC_HEADER_LENGTH), StandardCharsets.UTF_8);
     }
 
     // Utility method to encrypt sensitive user data
@@ -19,6 +19,7 @@ import com.google.api.client.util.store.FileDataStoreFactory;
 import java.io.*;
 import java.security.GeneralSecurityException;
 import java.util.*;
+import java.util.List;
 
 public class Exporter {
     private static final String APPLICATION_NAME = "BirdNest Database Language";
@@ -26,7 +27,32 @@ public class Exporter {
     private static final String GOOGLE_CREDENTIALS_FILE = "/google-credentials.json";
 
     private enum FileType {
-        PDF, WORD, EXCEL, GDOC, GSHEET
+        PDF, WORD, EXCEL, CSV, GDOC, GSHEET
+    }
+
+    // Header row: one column per egg in the nest's schema
+    private static List<String> header(Nest nest) {
+        List<String> header = new ArrayList<>();
+        for (Egg egg : nest.getEggs()) {
+            header.add(egg.getName());
+        }
+        return header;
+    }
+
+    // One row per clutch, values in schema order; encrypted eggs are decoded through the tree
+    private static List<List<String>> rows(Nest nest, Tree tree) {
+        int width = nest.getEggs().size();
+        List<List<String>> rows = new ArrayList<>();
+        for (Clutch clutch : new ArrayList<>(nest.getClutches())) {
+            Clutch decoded = tree == null ? clutch : tree.decode(clutch, true);
+            List<String> row = new ArrayList<>(width);
+            for (int i = 0; i < width; i++) {
+                Object value = decoded.getValue(i);
+                row.add(value == null ? "" : value.toString());
+            }
+            rows.add(row);
+        }
+        return rows;
     }
 
     // Get Google credentials
@@ -56,22 +82,32 @@ public class Exporter {
 
     // Export a nest to various file formats
     public void exportNest(Nest nest, String destination, String fileType) throws IOException, DocumentException {
+        exportNest(nest, null, destination, fileType);
+    }
+
+    // With the nest's tree, eggs encrypted by ENCRYPT TREE are exported as their plaintext
+    public void exportNest(Nest nest, Tree tree, String destination, String fileType) throws IOException, DocumentException {
         FileType type = FileType.valueOf(fileType.toUpperCase());
+        List<String> header = header(nest);
+        List<List<String>> rows = rows(nest, tree);
         switch (type) {
             case PDF:
-                exportToPDF(nest, destination);
+                exportToPDF(nest, header, rows, destination);
                 break;
             case EXCEL:
-                exportToExcel(nest, destination);
+                exportToExcel(nest, header, rows, destination);
                 break;
             case WORD:
-                exportToWord(nest, destination);
+                exportToWord(nest, header, rows, destination);
+                break;
+            case CSV:
+                exportToCSV(header, rows, destination);
                 break;
             case GDOC:
-                exportToGoogleDoc(nest, destination);
+                exportToGoogleDoc(nest, header, rows, destination);
                 break;
             case GSHEET:
-                exportToGoogleSheet(nest, destination);
+                exportToGoogleSheet(nest, header, rows, destination);
                 break;
             default:
                 throw new IllegalArgumentException("Unsupported file type: " + fileType);
@@ -79,7 +115,8 @@ public class Exporter {
     }
 
     // Export to PDF using iText
-    private void exportToPDF(Nest nest, String destination) throws IOException, DocumentException {
+    private void exportToPDF(Nest nest, List<String> header, List<List<String>> rows, String destination)
+            throws IOException, DocumentException {
         com.itextpdf.text.Document document = new com.itextpdf.text.Document();
         PdfWriter.getInstance(document, new FileOutputStream(destination));
         document.open();
@@ -88,45 +125,50 @@ public class Exporter {
         document.add(new com.itextpdf.text.Paragraph("Nest Name: " + nest.getName()));
         document.add(new com.itextpdf.text.Paragraph("Created: " + nest.getCreationDate()));
 
-        // Create table for eggs
-        PdfPTable table = new PdfPTable(nest.getEggs().size());
-        // Add headers
-        for (Egg egg : nest.getEggs()) {
-            table.addCell(egg.getName());
-        }
+        // Create table for eggs; a table needs at least one column
+        if (!header.isEmpty()) {
+            PdfPTable table = new PdfPTable(header.size());
+            table.setHeaderRows(1);
+            // Add headers
+            for (String name : header) {
+                table.addCell(name);
+            }
 
-        // Add data rows
-        for (Egg egg : nest.getEggs()) {
-            table.addCell(String.valueOf(egg.getValue()));
-        }
+            // Add data rows
+            for (List<String> row : rows) {
+                for (String value : row) {
+                    table.addCell(value);
+                }
+            }
 
-        document.add(table);
+            document.add(table);
+        }
         document.close();
     }
 
     // Export to Excel using Apache POI
-    private void exportToExcel(Nest nest, String destination) throws IOException {
+    private void exportToExcel(Nest nest, List<String> header, List<List<String>> rows, String destination) throws IOException {
         XSSFWorkbook workbook = new XSSFWorkbook();
         XSSFSheet sheet = workbook.createSheet(nest.getName());
 
         // Create header row
         Row headerRow = sheet.createRow(0);
-        java.util.List<Egg> eggs = nest.getEggs();
-        for (int i = 0; i < eggs.size(); i++) {
+        for (int i = 0; i < header.size(); i++) {
             Cell cell = headerRow.createCell(i);
-            cell.setCellValue(eggs.get(i).getName());
+            cell.setCellValue(header.get(i));
         }
 
         // Add data rows
         int rowNum = 1;
-        for (Egg egg : nest.getEggs()) {
+        for (List<String> values : rows) {
             Row row = sheet.createRow(rowNum++);
-            Cell cell = row.createCell(0);
-            cell.setCellValue(String.valueOf(egg.getValue()));
+            for (int i = 0; i < values.size(); i++) {
+                row.createCell(i).setCellValue(values.get(i));
+            }
         }
 
         // Auto-size columns
-        for (int i = 0; i < eggs.size(); i++) {
+        for (int i = 0; i < header.size(); i++) {
             sheet.autoSizeColumn(i);
         }
 
@@ -137,7 +179,7 @@ public class Exporter {
     }
 
     // Export to Word using Apache POI
-    private void exportToWord(Nest nest, String destination) throws IOException {
+    private void exportToWord(Nest nest, List<String> header, List<List<String>> rows, String destination) throws IOException {
         XWPFDocument document = new XWPFDocument();
 
         // Add title
@@ -150,16 +192,21 @@ public class Exporter {
         XWPFTable table = document.createTable();
         // Add headers
         XWPFTableRow headerRow = table.getRow(0);
-        for (int i = 0; i < nest.getEggs().size(); i++) {
+        for (int i = 0; i < header.size(); i++) {
             if (i == 0) {
-                headerRow.getCell(0).setText(nest.getEggs().get(i).getName());
+                headerRow.getCell(0).setText(header.get(i));
             } else {
-                headerRow.addNewTableCell().setText(nest.getEggs().get(i).getName());
+                headerRow.addNewTableCell().setText(header.get(i));
             }
         }
 
         // Add data rows
-        // Implementation depends on how data is stored in eggs
+        for (List<String> values : rows) {
+            XWPFTableRow row = table.createRow();
+            for (int i = 0; i < values.size(); i++) {
+                row.getCell(i).setText(values.get(i));
+            }
+        }
 
         try (FileOutputStream out = new FileOutputStream(destination)) {
             document.write(out);
@@ -167,8 +214,33 @@ public class Exporter {
         document.close();
     }
 
+    // Export to CSV (RFC 4180): header line, then one line per clutch
+    private void exportToCSV(List<String> header, List<List<String>> rows, String destination) throws IOException {
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(destination),
+                java.nio.charset.StandardCharsets.UTF_8))) {
+            writeCSVLine(writer, header);
+            for (List<String> row : rows) {
+                writeCSVLine(writer, row);
+            }
+        }
+    }
+
+    private static void writeCSVLine(Writer writer, List<String> values) throws IOException {
+        for (int i = 0; i < values.size(); i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            String value = values.get(i);
+            if (value.indexOf(',') >= 0 || value.indexOf('"') >= 0 || value.indexOf('\n') >= 0 || value.indexOf('\r') >= 0) {
+                value = '"' + value.replace("\"", "\"\"") + '"';
+            }
+            writer.write(value);
+        }
+        writer.write("\r\n");
+    }
+
     // Export to Google Docs
-    private void exportToGoogleDoc(Nest nest, String destination) throws IOException {
+    private void exportToGoogleDoc(Nest nest, List<String> header, List<List<String>> rows, String destination) throws IOException {
         try {
             Docs docsService = new Docs.Builder(
                 GoogleNetHttpTransport.newTrustedTransport(),
@@ -188,23 +260,17 @@ public class Exporter {
             // Prepare content
             java.util.List<com.google.api.services.docs.v1.model.Request> requests = new ArrayList<>();
 
-            // Add title
+            // Title, header line and one tab-separated line per clutch, inserted as one text run
+            StringBuilder text = new StringBuilder("Nest: " + nest.getName() + "\n");
+            text.append(String.join("\t", header)).append('\n');
+            for (List<String> row : rows) {
+                text.append(String.join("\t", row)).append('\n');
+            }
             requests.add(new com.google.api.services.docs.v1.model.Request()
                 .setInsertText(new com.google.api.services.docs.v1.model.InsertTextRequest()
-                    .setText("Nest: " + nest.getName() + "\n")
+                    .setText(text.toString())
                     .setLocation(new com.google.api.services.docs.v1.model.Location().setIndex(1))));
 
-            // Add content for each egg
-            int currentIndex = nest.getName().length() + 7;
-            for (Egg egg : nest.getEggs()) {
-                requests.add(new com.google.api.services.docs.v1.model.Request()
-                    .setInsertText(new com.google.api.services.docs.v1.model.InsertTextRequest()
-                        .setText(egg.getName() + ": " + egg.getValue() + "\n")
-                        .setLocation(new com.google.api.services.docs.v1.model.Location()
-                            .setIndex(currentIndex))));
-                currentIndex += egg.getName().length() + egg.getValue().toString().length() + 3;
-            }
-
             // Execute the requests
             docsService.documents()
                 .batchUpdate(documentId, new com.google.api.services.docs.v1.model.BatchUpdateDocumentRequest()
@@ -224,7 +290,7 @@ public class Exporter {
     }
 
     // Export to Google Sheets
-    private void exportToGoogleSheet(Nest nest, String destination) throws IOException {
+    private void exportToGoogleSheet(Nest nest, List<String> header, List<List<String>> rows, String destination) throws IOException {
         try {
             Sheets sheetsService = new Sheets.Builder(
                 GoogleNetHttpTransport.newTrustedTransport(),
@@ -245,18 +311,12 @@ public class Exporter {
             java.util.List<java.util.List<Object>> values = new ArrayList<>();
 
             // Add headers
-            java.util.List<Object> headers = new ArrayList<>();
-            for (Egg egg : nest.getEggs()) {
-                headers.add(egg.getName());
-            }
-            values.add(headers);
+            values.add(new ArrayList<>(header));
 
             // Add data
-            java.util.List<Object> dataRow = new ArrayList<>();
-            for (Egg egg : nest.getEggs()) {
-                dataRow.add(egg.getValue());
+            for (List<String> row : rows) {
+                values.add(new ArrayList<>(row));
             }
-            values.add(dataRow);
 
             ValueRange body = new ValueRange()
                 .setValues(values);
@@ -280,14 +340,18 @@ public class Exporter {
 
     // Method to handle recursive exports for sub-nests
     public void exportNestRecursively(Nest nest, String destination, String fileType) throws IOException, DocumentException {
-        exportNest(nest, destination, fileType);
+        exportNestRecursively(nest, null, destination, fileType);
+    }
+
+    private void exportNestRecursively(Nest nest, Tree tree, String destination, String fileType) throws IOException, DocumentException {
+        exportNest(nest, tree, destination, fileType);
 
         // Export each sub-nest
         for (Nest subNest : nest.getSubNests()) {
             String subDestination = destination.substring(0, destination.lastIndexOf('.'))
                 + "_" + subNest.getName()
                 + destination.substring(destination.lastIndexOf('.'));
-            exportNestRecursively(subNest, subDestination, fileType);
+            exportNestRecursively(subNest, tree, subDestination, fileType);
         }
     }
 
@@ -302,7 +366,7 @@ public class Exporter {
         // Export each nest in the tree
         for (Nest nest : tree.getNests()) {
             String nestDestination = dirPath + File.separator + nest.getName() + "." + fileType.toLowerCase();
-            exportNestRecursively(nest, nestDestination, fileType);
+            exportNestRecursively(nest, tree, nestDestination, fileType);
         }
 
         // Create index/summary file
@@ -0,0 +1,139 @@
+import lombok.Getter;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// A single "egg op value" comparison from a FIND/PERCH clause
+public class FindCondition {
+    @Getter private final String eggName;
+    @Getter private final String operator;
+    @Getter private final Object literal;
+    // MATCHES patterns are case-folded once here rather than on every row
+    private final String foldedLiteral;
+    // SEARCH literals are split into words the same way FullTextEggIndex splits values
+    @Getter private final List<String> searchTerms;
+
+    private static final Pattern CONDITION_PATTERN = Pattern.compile(
+        "\\s*(\\w+)\\s*(<=|>=|!=|<>|=|<|>|\\bMATCHES\\b|\\bSEARCH\\b)\\s*('[^']*'|[^\\s']+)\\s*",
+        Pattern.CASE_INSENSITIVE
+    );
+
+    private static final Pattern AND_PATTERN = Pattern.compile("\\s*AND\\s*", Pattern.CASE_INSENSITIVE);
+
+    public FindCondition(String eggName, String operator, Object literal) {
+        this.eggName = eggName;
+        this.operator = operator.toUpperCase();
+        this.literal = literal;
+        this.foldedLiteral = literal == null ? null : Egg.foldCase(literal.toString());
+        this.searchTerms = this.operator.equals("SEARCH")
+            ? new ArrayList<>(new LinkedHashSet<>(FullTextEggIndex.tokenize(literal)))
+            : new ArrayList<>();
+    }
+
+    // Parses "egg1 = 'value' AND egg2 > 5" into its conjuncts
+    public static List<FindCondition> parseAll(String text) {
+        List<FindCondition> conditions = new ArrayList<>();
+        Matcher matcher = CONDITION_PATTERN.matcher(text);
+        Matcher andMatcher = AND_PATTERN.matcher(text);
+        int position = 0;
+
+        while (position < text.length()) {
+            matcher.region(position, text.length());
+            if (!matcher.lookingAt()) {
+                throw new IllegalArgumentException("Invalid FIND condition near: " + text.substring(position));
+            }
+            String operator = matcher.group(2).equals("<>") ? "!=" : matcher.group(2);
+            conditions.add(new FindCondition(matcher.group(1), operator, parseLiteral(matcher.group(3))));
+            position = matcher.end();
+
+            if (position < text.length()) {
+                andMatcher.region(position, text.length());
+                if (!andMatcher.lookingAt()) {
+                    throw new IllegalArgumentException("Expected AND in FIND condition near: " + text.substring(position));
+                }
+                position = andMatcher.end();
+            }
+        }
+        return conditions;
+    }
+
+    public static Object parseLiteral(String token) {
+        if (token.length() >= 2 && token.startsWith("'") && token.endsWith("'")) {
+            return token.substring(1, token.length() - 1);
+        }
+        if (token.equalsIgnoreCase("true") || token.equalsIgnoreCase("false")) {
+            return Boolean.parseBoolean(token);
+        }
+        if (token.equalsIgnoreCase("null")) {
+            return null;
+        }
+        try {
+            return Integer.parseInt(token);
+        } catch (NumberFormatException e) {
+            return token;
+        }
+    }
+
+    // Same answer as test(egg.getValue()), but int and long eggs are compared with number
+    // literals unboxed
+    public boolean test(Egg egg) {
+        if (egg == null) {
+            return test((Object) null);
+        }
+        if (egg.isIntegral() && literal instanceof Number) {
+            int comparison = Long.compare(egg.getLong(), ((Number) literal).longValue());
+            switch (operator) {
+                case "=": return comparison == 0;
+                case "!=": return comparison != 0;
+                case "<": return comparison < 0;
+                case "<=": return comparison <= 0;
+                case ">": return comparison > 0;
+                case ">=": return comparison >= 0;
+                default: break;
+            }
+        }
+        return test(egg.getValue());
+    }
+
+    public boolean test(Object value) {
+        switch (operator) {
+            case "=":
+                return value == null ? literal == null : literal != null && compareValues(value, literal) == 0;
+            case "!=":
+                return value == null ? literal != null : literal == null || compareValues(value, literal) != 0;
+            case "<":
+                return value != null && literal != null && compareValues(value, literal) < 0;
+            case "<=":
+                return value != null && literal != null && compareValues(value, literal) <= 0;
+            case ">":
+                return value != null && literal != null && compareValues(value, literal) > 0;
+            case ">=":
+                return value != null && literal != null && compareValues(value, literal) >= 0;
+            case "MATCHES":
+                return foldedLiteral != null && Egg.containsFolded(value, foldedLiteral);
+            case "SEARCH":
+                // Every word of the search text must appear as a word of the value
+                return value != null && FullTextEggIndex.tokenize(value).containsAll(searchTerms);
+            default:
+                throw new IllegalStateException("Unsupported operator: " + operator);
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public static int compareValues(Object left, Object right) {
+        if (left instanceof Number && right instanceof Number) {
+            return Long.compare(((Number) left).longValue(), ((Number) right).longValue());
+        }
+        if (left instanceof Comparable && left.getClass() == right.getClass()) {
+            return ((Comparable) left).compareTo(right);
+        }
+        return left.toString().compareTo(right.toString());
+    }
+
+    @Override
+    public String toString() {
+        return eggName + " " + operator + " " + (literal instanceof String ? "'" + literal + "'" : literal);
+    }
+}
@@ -0,0 +1,329 @@
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+// Inverted word index over one STRINGLIT egg (CREATE NEW INDEX ... USING FULLTEXT). Serves
+// "FIND egg SEARCH 'words'" by intersecting per-word posting lists and returns the matching
+// clutches ranked by BM25. Posting lists are delta/varint encoded with skip pointers, and removed
+// clutches are tombstoned until enough of them pile up to be worth a rebuild.
+public class FullTextEggIndex extends EggIndex {
+    private static final long serialVersionUID = 1L;
+    // BM25 tuning, the usual defaults
+    public static final double K1 = 1.2;
+    public static final double B = 0.75;
+
+    // Rebuild once tombstones outnumber live documents (and there are enough to matter)
+    private static final int MIN_TOMBSTONES_FOR_COMPACTION = 1024;
+
+    private final Map<String, PostingList> postings = new HashMap<>();
+    // Document ids are handed out in lay order; a removed clutch leaves a null behind
+    private final List<Clutch> documents = new ArrayList<>();
+    private final IdentityHashMap<Clutch, Integer> documentIds = new IdentityHashMap<>();
+    private int[] documentLengths = new int[16];
+    private long totalLength;
+    private int tombstones;
+
+    public FullTextEggIndex(String name, String eggName, int position) {
+        super(name, eggName, position);
+    }
+
+    // Lower-cased runs of letters and digits
+    public static List<String> tokenize(Object value) {
+        List<String> tokens = new ArrayList<>();
+        if (value == null) {
+            return tokens;
+        }
+        String text = value.toString();
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                tokens.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    @Override
+    public Kind getKind() {
+        return Kind.FULLTEXT;
+    }
+
+    @Override
+    public void add(Clutch clutch) {
+        compactIfNeeded();
+        index(clutch);
+        size++;
+    }
+
+    private void index(Clutch clutch) {
+        List<String> tokens = tokenize(keyOf(clutch));
+        int documentId = documents.size();
+        documents.add(clutch);
+        documentIds.put(clutch, documentId);
+        if (documentId == documentLengths.length) {
+            documentLengths = Arrays.copyOf(documentLengths, documentId * 2);
+        }
+        documentLengths[documentId] = tokens.size();
+        totalLength += tokens.size();
+
+        Map<String, Integer> frequencies = new HashMap<>();
+        for (String token : tokens) {
+            frequencies.merge(token, 1, Integer::sum);
+        }
+        for (Map.Entry<String, Integer> entry : frequencies.entrySet()) {
+            postings.computeIfAbsent(entry.getKey(), t -> new PostingList()).append(documentId, entry.getValue());
+        }
+    }
+
+    @Override
+    public void remove(Object oldValue, Clutch clutch) {
+        Integer documentId = documentIds.remove(clutch);
+        if (documentId == null) {
+            return;
+        }
+        documents.set(documentId, null);
+        totalLength -= documentLengths[documentId];
+        for (String token : new LinkedHashSet<>(tokenize(oldValue))) {
+            PostingList posting = postings.get(token);
+            if (posting != null) {
+                posting.live--;
+            }
+        }
+        tombstones++;
+        size--;
+    }
+
+    @Override
+    public void clear() {
+        postings.clear();
+        documents.clear();
+        documentIds.clear();
+        documentLengths = new int[16];
+        totalLength = 0;
+        tombstones = 0;
+        size = 0;
+    }
+
+    // Re-encodes the live documents so dead postings stop costing lookup time and space
+    private void compactIfNeeded() {
+        if (tombstones < MIN_TOMBSTONES_FOR_COMPACTION || tombstones < size) {
+            return;
+        }
+        List<Clutch> live = new ArrayList<>((int) size);
+        for (Clutch clutch : documents) {
+            if (clutch != null) {
+                live.add(clutch);
+            }
+        }
+        long liveCount = size;
+        clear();
+        for (Clutch clutch : live) {
+            index(clutch);
+        }
+        size = liveCount;
+    }
+
+    @Override
+    public boolean supports(FindCondition condition) {
+        return condition.getEggName().equals(eggName) &&
+               condition.getOperator().equals("SEARCH") &&
+               !condition.getSearchTerms().isEmpty();
+    }
+
+    // Clutches holding every search word, best BM25 score first
+    @Override
+    public List<Clutch> lookup(FindCondition condition) {
+        if (!supports(condition)) {
+            throw new IllegalArgumentException("Index " + name + " cannot serve condition " + condition);
+        }
+        compactIfNeeded();
+        List<String> terms = condition.getSearchTerms();
+        PostingList[] lists = new PostingList[terms.size()];
+        for (int i = 0; i < lists.length; i++) {
+            lists[i] = postings.get(terms.get(i));
+            if (lists[i] == null || lists[i].live == 0) {
+                return new ArrayList<>();
+            }
+        }
+        // Drive the intersection from the rarest word
+        Arrays.sort(lists, (left, right) -> Integer.compare(left.count, right.count));
+
+        double averageLength = size == 0 ? 0 : (double) totalLength / size;
+        double[] idf = new double[lists.length];
+        PostingList.Cursor[] cursors = new PostingList.Cursor[lists.length];
+        for (int i = 0; i < lists.length; i++) {
+            idf[i] = Math.log(1 + (size - lists[i].live + 0.5) / (lists[i].live + 0.5));
+            cursors[i] = lists[i].cursor();
+        }
+
+        List<ScoredClutch> hits = new ArrayList<>();
+        PostingList.Cursor lead = cursors[0];
+        outer:
+        while (lead.next()) {
+            int documentId = lead.document;
+            for (int i = 1; i < cursors.length; i++) {
+                if (!cursors[i].advance(documentId)) {
+                    break outer;
+                }
+                if (cursors[i].document != documentId) {
+                    continue outer;
+                }
+            }
+            Clutch clutch = documents.get(documentId);
+            if (clutch == null) {
+                continue;
+            }
+            double norm = K1 * (1 - B + B * documentLengths[documentId] / Math.max(averageLength, 1e-9));
+            double score = 0;
+            for (int i = 0; i < cursors.length; i++) {
+                int frequency = cursors[i].frequency;
+                score += idf[i] * frequency * (K1 + 1) / (frequency + norm);
+            }
+            hits.add(new ScoredClutch(clutch, documentId, score));
+        }
+
+        hits.sort((left, right) -> left.score != right.score
+            ? Double.compare(right.score, left.score)
+            : Integer.compare(left.documentId, right.documentId));
+        List<Clutch> result = new ArrayList<>(hits.size());
+        for (ScoredClutch hit : hits) {
+            result.add(hit.clutch);
+        }
+        return result;
+    }
+
+    // Number of distinct words
+    @Override
+    public int getDistinctValues() {
+        return postings.size();
+    }
+
+    private static class ScoredClutch {
+        final Clutch clutch;
+        final int documentId;
+        final double score;
+
+        ScoredClutch(Clutch clutch, int documentId, double score) {
+            this.clutch = clutch;
+            this.documentId = documentId;
+            this.score = score;
+        }
+    }
+
+    // Ascending (document id, frequency) pairs, each id stored as a varint delta from the one
+    // before it. Every SKIP_INTERVAL postings a skip entry records where the next block starts so
+    // advance() can jump over blocks that end before its target.
+    static class PostingList implements Serializable {
+        private static final long serialVersionUID = 1L;
+        static final int SKIP_INTERVAL = 64;
+
+        private byte[] data = new byte[8];
+        private int length;
+        private int count;
+        private int lastDocument = -1;
+        // Postings whose document is still live, i.e. the word's document frequency
+        private int live;
+        private int[] skipDocuments = new int[0];
+        private int[] skipOffsets = new int[0];
+        private int skipCount;
+
+        void append(int documentId, int frequency) {
+            if (count > 0 && count % SKIP_INTERVAL == 0) {
+                if (skipCount == skipDocuments.length) {
+                    skipDocuments = Arrays.copyOf(skipDocuments, Math.max(4, skipCount * 2));
+                    skipOffsets = Arrays.copyOf(skipOffsets, skipDocuments.length);
+                }
+                skipDocuments[skipCount] = lastDocument;
+                skipOffsets[skipCount++] = length;
+            }
+            writeVarint(documentId - lastDocument);
+            writeVarint(frequency);
+            lastDocument = documentId;
+            count++;
+            live++;
+        }
+
+        private void writeVarint(int value) {
+            if (length + 5 > data.length) {
+                data = Arrays.copyOf(data, data.length * 2);
+            }
+            while ((value & ~0x7F) != 0) {
+                data[length++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            data[length++] = (byte) value;
+        }
+
+        Cursor cursor() {
+            return new Cursor();
+        }
+
+        class Cursor {
+            int document = -1;
+            int frequency;
+            private int offset;
+            private int read;
+            private int nextSkip;
+
+            boolean next() {
+                if (read == count) {
+                    return false;
+                }
+                document += readVarint();
+                frequency = readVarint();
+                read++;
+                return true;
+            }
+
+            // Moves to the first posting at or after target; false once the list runs out
+            boolean advance(int target) {
+                if (read > 0 && document >= target) {
+                    return true;
+                }
+                while (nextSkip < skipCount && skipDocuments[nextSkip] < target) {
+                    int blockStart = (nextSkip + 1) * SKIP_INTERVAL;
+                    if (blockStart > read) {
+                        offset = skipOffsets[nextSkip];
+                        document = skipDocuments[nextSkip];
+                        read = blockStart;
+                    }
+                    nextSkip++;
+                }
+                while (next()) {
+                    if (document >= target) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+
+            private int readVarint() {
+                int value = 0;
+                for (int shift = 0; ; shift += 7) {
+                    byte b = data[offset++];
+                    value |= (b & 0x7F) << shift;
+                    if (b >= 0) {
+                        return value;
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("FullTextEggIndex[name=%s, egg=%s, entries=%d, words=%d]",
+            name, eggName, size, getDistinctValues());
+    }
+}
@@ -0,0 +1,77 @@
+import java.io.Serializable;
+
+// Distinct-value sketch: 2^precision one-byte registers, each remembering the longest run of
+// leading zeros seen among the hashes routed to it. Estimates are within about
+// 1.04 / sqrt(2^precision) of the true count (1.6% at the default precision) in 4 KB.
+public class HyperLogLog implements Serializable {
+    private static final long serialVersionUID = 1L;
+    public static final int DEFAULT_PRECISION = 12;
+
+    private final int precision;
+    private final byte[] registers;
+
+    public HyperLogLog() {
+        this(DEFAULT_PRECISION);
+    }
+
+    public HyperLogLog(int precision) {
+        if (precision < 4 || precision > 18) {
+            throw new IllegalArgumentException("HyperLogLog precision must be between 4 and 18");
+        }
+        this.precision = precision;
+        this.registers = new byte[1 << precision];
+    }
+
+    // Values that FindCondition treats as equal hash the same (see BloomFilter.hash)
+    public void add(Object value) {
+        addHash(BloomFilter.hash(value));
+    }
+
+    public void addHash(long hash) {
+        int register = (int) (hash >>> (64 - precision));
+        int rank = Long.numberOfLeadingZeros((hash << precision) | (1L << (precision - 1))) + 1;
+        if (rank > registers[register]) {
+            registers[register] = (byte) rank;
+        }
+    }
+
+    public long estimate() {
+        int m = registers.length;
+        double sum = 0;
+        int zeros = 0;
+        for (byte register : registers) {
+            sum += 1.0 / (1L << register);
+            if (register == 0) {
+                zeros++;
+            }
+        }
+        double alpha = m == 16 ? 0.673 : m == 32 ? 0.697 : m == 64 ? 0.709 : 0.7213 / (1 + 1.079 / m);
+        double estimate = alpha * m * m / sum;
+        // Small cardinalities: linear counting over the empty registers is more accurate
+        if (estimate <= 2.5 * m && zeros > 0) {
+            estimate = m * Math.log((double) m / zeros);
+        }
+        return Math.round(estimate);
+    }
+
+    // Folds another sketch of the same precision into this one
+    public void merge(HyperLogLog other) {
+        if (other.precision != precision) {
+            throw new IllegalArgumentException("Cannot merge HyperLogLog sketches of different precision");
+        }
+        for (int i = 0; i < registers.length; i++) {
+            if (other.registers[i] > registers[i]) {
+                registers[i] = other.registers[i];
+            }
+        }
+    }
+
+    public int getPrecision() {
+        return precision;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("HyperLogLog[precision=%d, estimate=%d]", precision, estimate());
+    }
+}
@@ -0,0 +1,335 @@
+import javax.crypto.SecretKey;
+import javax.security.auth.Destroyable;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Envelope encryption. Data is encrypted under random data keys (DEKs), and the ring stores the
+// DEKs only wrapped, i.e. encrypted under a key-encryption key (KEK) derived from a secret with
+// PBKDF2. Rotating the secret re-wraps the DEKs and leaves the data alone, so it costs one
+// small frame per key however much data the keys protect.
+//
+// The KEK and unwrapped DEKs live only in memory; after the ring is loaded it has to be
+// unlocked with the secret again. A check frame turns a wrong secret away. Like DerivedKeyCache,
+// the ring zeroes the key bytes it holds once it is done with them: a retired DEK, the KEK and
+// every DEK on lock(), and the plaintext of every unwrap. A DEK pinned with acquireDataKey is
+// zeroed only when its last reader releases it, so retiring a key never pulls it out from under
+// a decrypt already under way.
+public class KeyRing implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private static final byte[] CHECK_PLAINTEXT = "BDL key ring check".getBytes(StandardCharsets.UTF_8);
+    private static final SecureRandom RANDOM = new SecureRandom();
+    private static final int KEY_BYTES = 32;
+
+    private byte[] salt;
+    private byte[] check;
+    // DEK id -> DEK wrapped under the KEK, in a GCM frame
+    private final Map<Integer, byte[]> wrappedKeys = new LinkedHashMap<>();
+    private int nextId = 1;
+    private long rotations;
+
+    private transient RawKey kek;
+    // Unwrapped DEKs; read without the ring's lock, since every decrypted egg looks one up
+    private transient volatile Map<Integer, RawKey> dataKeys;
+
+    private KeyRing() {
+    }
+
+    public static KeyRing create(String secret, Encryptor encryptor) throws GeneralSecurityException {
+        KeyRing ring = new KeyRing();
+        ring.setKek(secret, encryptor);
+        return ring;
+    }
+
+    // Derives the KEK; IllegalArgumentException when secret isn't the one the ring was made with
+    public synchronized void unlock(String secret, Encryptor encryptor) throws GeneralSecurityException {
+        if (secret == null) {
+            throw new IllegalArgumentException("No secret to unlock the key ring with");
+        }
+        RawKey candidate = new RawKey(encryptor.getAESKeyFromPassword(secret, salt));
+        byte[] opened;
+        try {
+            opened = open(encryptor, candidate, check);
+        } catch (GeneralSecurityException e) {
+            candidate.destroy();
+            throw new IllegalArgumentException("Wrong key for this key ring");
+        }
+        if (!MessageDigest.isEqual(CHECK_PLAINTEXT, opened)) {
+            candidate.destroy();
+            throw new IllegalArgumentException("Wrong key for this key ring");
+        }
+        if (kek != null) {
+            kek.destroy();
+        }
+        kek = candidate;
+    }
+
+    // Zeroes the KEK and every unwrapped DEK; keys handed out before are destroyed with them.
+    // unlock() brings the ring back.
+    public synchronized void lock() {
+        if (kek != null) {
+            kek.destroy();
+            kek = null;
+        }
+        if (dataKeys != null) {
+            for (RawKey key : dataKeys.values()) {
+                key.retire();
+            }
+            dataKeys.clear();
+        }
+    }
+
+    public synchronized boolean isUnlocked() {
+        return kek != null;
+    }
+
+    // A fresh random DEK, stored wrapped; returns its id
+    public synchronized int newDataKey(Encryptor encryptor) throws GeneralSecurityException {
+        requireUnlocked();
+        byte[] key = new byte[KEY_BYTES];
+        RANDOM.nextBytes(key);
+        try {
+            int id = nextId++;
+            wrappedKeys.put(id, seal(encryptor, kek, key));
+            dataKeys().put(id, new RawKey(key));
+            return id;
+        } finally {
+            Arrays.fill(key, (byte) 0);
+        }
+    }
+
+    public SecretKey getDataKey(int id, Encryptor encryptor) throws GeneralSecurityException {
+        SecretKey key = dataKeys().get(id);
+        return key != null ? key : unwrap(id, encryptor);
+    }
+
+    // Pins the DEK: retire() and lock() leave its bytes alone until release(key). The id must be
+    // read where a concurrent retire can't have happened yet, e.g. under the lock it is swapped in.
+    public SecretKey acquireDataKey(int id, Encryptor encryptor) throws GeneralSecurityException {
+        RawKey key = (RawKey) getDataKey(id, encryptor);
+        if (!key.pin()) {
+            throw new IllegalStateException("Data key #" + id + " has been retired");
+        }
+        return key;
+    }
+
+    public void release(SecretKey key) {
+        ((RawKey) key).unpin();
+    }
+
+    private synchronized SecretKey unwrap(int id, Encryptor encryptor) throws GeneralSecurityException {
+        RawKey key = dataKeys().get(id);
+        if (key != null) {
+            return key;
+        }
+        requireUnlocked();
+        byte[] wrapped = wrappedKeys.get(id);
+        if (wrapped == null) {
+            throw new IllegalStateException("Unknown data key #" + id);
+        }
+        byte[] bytes = open(encryptor, kek, wrapped);
+        try {
+            key = new RawKey(bytes);
+        } finally {
+            Arrays.fill(bytes, (byte) 0);
+        }
+        dataKeys().put(id, key);
+        return key;
+    }
+
+    // Re-wraps every DEK under a KEK derived from newSecret with a new salt; the data the DEKs
+    // protect is untouched. Returns the number of keys re-wrapped.
+    public synchronized int rewrap(String newSecret, Encryptor encryptor) throws GeneralSecurityException {
+        requireUnlocked();
+        Map<Integer, byte[]> unwrapped = new HashMap<>();
+        try {
+            for (Map.Entry<Integer, byte[]> entry : wrappedKeys.entrySet()) {
+                unwrapped.put(entry.getKey(), open(encryptor, kek, entry.getValue()));
+            }
+            setKek(newSecret, encryptor);
+            for (Map.Entry<Integer, byte[]> entry : unwrapped.entrySet()) {
+                wrappedKeys.put(entry.getKey(), seal(encryptor, kek, entry.getValue()));
+            }
+        } finally {
+            for (byte[] key : unwrapped.values()) {
+                Arrays.fill(key, (byte) 0);
+            }
+        }
+        rotations++;
+        return unwrapped.size();
+    }
+
+    // Forgets a DEK no data is encrypted under any more. It can't be looked up from here on, and
+    // it is zeroed at once, or when the last reader that acquired it releases it.
+    public synchronized void retire(int id) {
+        wrappedKeys.remove(id);
+        if (dataKeys != null) {
+            RawKey key = dataKeys.remove(id);
+            if (key != null) {
+                key.retire();
+            }
+        }
+    }
+
+    public synchronized List<Integer> getKeyIds() {
+        return new ArrayList<>(wrappedKeys.keySet());
+    }
+
+    public synchronized int size() {
+        return wrappedKeys.size();
+    }
+
+    public synchronized long getRotations() {
+        return rotations;
+    }
+
+    private void setKek(String secret, Encryptor encryptor) throws GeneralSecurityException {
+        if (secret == null || secret.isEmpty()) {
+            throw new IllegalArgumentException("Key ring secret cannot be empty");
+        }
+        byte[] newSalt = new byte[16];
+        RANDOM.nextBytes(newSalt);
+        RawKey newKek = new RawKey(encryptor.getAESKeyFromPassword(secret, newSalt));
+        check = seal(encryptor, newKek, CHECK_PLAINTEXT);
+        salt = newSalt;
+        if (kek != null) {
+            kek.destroy();
+        }
+        kek = newKek;
+    }
+
+    private void requireUnlocked() {
+        if (kek == null) {
+            throw new IllegalStateException("Key ring is locked");
+        }
+    }
+
+    private Map<Integer, RawKey> dataKeys() {
+        Map<Integer, RawKey> keys = dataKeys;
+        if (keys == null) {
+            synchronized (this) {
+                if (dataKeys == null) {
+                    dataKeys = new ConcurrentHashMap<>();
+                }
+                keys = dataKeys;
+            }
+        }
+        return keys;
+    }
+
+    private static byte[] seal(Encryptor encryptor, SecretKey key, byte[] plaintext) throws GeneralSecurityException {
+        ByteBuffer frame = ByteBuffer.allocate(Encryptor.gcmFrameLength(plaintext.length));
+        encryptor.encryptGCM(ByteBuffer.wrap(plaintext), frame, key);
+        return frame.array();
+    }
+
+    private static byte[] open(Encryptor encryptor, SecretKey key, byte[] frame) throws GeneralSecurityException {
+        ByteBuffer plain = ByteBuffer.allocate(frame.length);
+        try {
+            encryptor.decryptGCM(ByteBuffer.wrap(frame), plain, key);
+            return Arrays.copyOf(plain.array(), plain.position());
+        } finally {
+            Arrays.fill(plain.array(), (byte) 0);
+        }
+    }
+
+    // An AES key whose bytes the ring owns and can zero. SecretKeySpec can't be destroyed, and
+    // Cipher.init copies the bytes through getEncoded(), so a cipher set up before destroy()
+    // keeps working. getEncoded and destroy share the key's monitor, so a copy is never taken of
+    // half-zeroed bytes.
+    private static final class RawKey implements SecretKey, Destroyable {
+        private static final long serialVersionUID = 1L;
+        private static final int RETIRED = 1 << 30;
+        private final byte[] bytes;
+        private boolean destroyed;
+        // Readers holding the key, plus RETIRED once the ring has let go of it; whoever leaves
+        // it retired with no readers destroys it
+        private final AtomicInteger state = new AtomicInteger();
+
+        private RawKey(byte[] bytes) {
+            this.bytes = bytes.clone();
+        }
+
+        private RawKey(SecretKey key) {
+            this.bytes = key.getEncoded();
+        }
+
+        @Override
+        public String getAlgorithm() {
+            return "AES";
+        }
+
+        @Override
+        public String getFormat() {
+            return "RAW";
+        }
+
+        private boolean pin() {
+            while (true) {
+                int current = state.get();
+                if ((current & RETIRED) != 0) {
+                    return false;
+                }
+                if (state.compareAndSet(current, current + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        private void unpin() {
+            if (state.decrementAndGet() == RETIRED) {
+                destroy();
+            }
+        }
+
+        private void retire() {
+            int previous = state.getAndUpdate(current -> current | RETIRED);
+            if (previous == 0) {
+                destroy();
+            }
+        }
+
+        @Override
+        public synchronized byte[] getEncoded() {
+            if (destroyed) {
+                throw new IllegalStateException("Data key has been destroyed");
+            }
+            return bytes.clone();
+        }
+
+        @Override
+        public synchronized void destroy() {
+            destroyed = true;
+            Arrays.fill(bytes, (byte) 0);
+        }
+
+        @Override
+        public synchronized boolean isDestroyed() {
+            return destroyed;
+        }
+
+        // Key bytes never leave the process in the clear
+        private void writeObject(ObjectOutputStream out) throws IOException {
+            throw new NotSerializableException("Unwrapped keys are not serializable");
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("KeyRing[keys=%d, rotations=%d, %s]", wrappedKeys.size(), rotations, kek == null ? "locked" : "unlocked");
+    }
+}
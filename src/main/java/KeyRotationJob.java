@@ -0,0 +1,328 @@
+import lombok.Getter;
+import lombok.Setter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+// Bulk key rotation: gives every user a new data key, in parallel batches on an executor.
+//
+// The job works on a snapshot of the usernames taken at start, in sorted order, so users added
+// or removed while it runs don't disturb it (new users already have fresh keys; removed ones are
+// skipped). Batches finish out of order; the job tracks the longest run of finished batches from
+// the start and checkpoints the last username of that run to a file. A job started after a crash
+// reads the checkpoint and only snapshots the users after it, so it resumes where the last one
+// got to, give or take the batches that were in flight. Users whose rotation failed are listed
+// in the checkpoint and not counted as done, so the next job retries them. The checkpoint is
+// deleted once a job gets through every user without failures.
+//
+// The checkpoint records progress against the user database in memory; save the database at
+// least as often, or a crash can leave users marked done that were saved with their old keys.
+public class KeyRotationJob {
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+    public static final long DEFAULT_CHECKPOINT_INTERVAL_MILLIS = 1000;
+    public static final Path DEFAULT_CHECKPOINT = Paths.get("security_logs", "key_rotation.checkpoint");
+    private static final String RETRY_PREFIX = "retry.";
+
+    private final UserDatabase userDatabase;
+    private final ExecutorService executor;
+    private final SecurityLogger securityLogger;
+    @Getter private final Path checkpointFile;
+
+    @Getter @Setter private int batchSize = DEFAULT_BATCH_SIZE;
+    @Getter @Setter private long checkpointIntervalMillis = DEFAULT_CHECKPOINT_INTERVAL_MILLIS;
+    // Gets a progress line at every checkpoint
+    @Setter private Consumer<String> progressListener;
+
+    private List<String> usernames;
+    private final List<Future<?>> batches = new ArrayList<>();
+    private boolean[] batchDone;
+    private int finishedPrefix;
+    private long lastCheckpointMillis;
+    private volatile boolean cancelled;
+
+    // Users done by an earlier job this one resumed from, and the last user it got to
+    @Getter private long resumedFrom;
+    private String resumeAfter;
+    private final AtomicLong rotated = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong gone = new AtomicLong();
+    private final List<String> failedUsers = Collections.synchronizedList(new ArrayList<>());
+    private long startNanos;
+    private volatile long endNanos;
+
+    public KeyRotationJob(UserDatabase userDatabase, ExecutorService executor, SecurityLogger securityLogger,
+                          Path checkpointFile) {
+        this.userDatabase = userDatabase;
+        this.executor = executor;
+        this.securityLogger = securityLogger;
+        this.checkpointFile = checkpointFile;
+    }
+
+    // Snapshots the users left to do and queues them on the executor; returns at once
+    public synchronized KeyRotationJob start() throws IOException {
+        if (usernames != null) {
+            throw new IllegalStateException("Key rotation job already started");
+        }
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Key rotation batch size must be positive");
+        }
+        List<String> retry = readCheckpoint();
+        List<String> snapshot;
+        synchronized (userDatabase) {
+            snapshot = new ArrayList<>(userDatabase.getUsers().keySet());
+        }
+        Collections.sort(snapshot);
+        if (resumeAfter != null) {
+            int from = Collections.binarySearch(snapshot, resumeAfter);
+            List<String> left = new ArrayList<>();
+            // Users that failed last time and are still there sort before the rest
+            for (String username : retry) {
+                if (Collections.binarySearch(snapshot, username) >= 0) {
+                    left.add(username);
+                }
+            }
+            Collections.sort(left);
+            left.addAll(snapshot.subList(from >= 0 ? from + 1 : -from - 1, snapshot.size()));
+            snapshot = left;
+        }
+        usernames = snapshot;
+        batchDone = new boolean[(usernames.size() + batchSize - 1) / batchSize];
+        startNanos = System.nanoTime();
+        lastCheckpointMillis = System.currentTimeMillis();
+        securityLogger.logSecurityEvent("SYSTEM", "KEY_ROTATION_STARTED", "Rotating the data keys of " + usernames.size() +
+            " user(s) in " + batchDone.length + " batch(es)" + (resumeAfter == null ? "" : ", resuming after " + resumedFrom + " done"));
+        for (int batch = 0; batch < batchDone.length; batch++) {
+            int index = batch;
+            batches.add(executor.submit(() -> rotateBatch(index)));
+        }
+        if (batchDone.length == 0) {
+            finish();
+        }
+        return this;
+    }
+
+    private void rotateBatch(int batch) {
+        int from = batch * batchSize;
+        int to = Math.min(usernames.size(), from + batchSize);
+        long batchFailures = 0;
+        for (int i = from; i < to; i++) {
+            if (cancelled) {
+                throw new CancellationException("QUERYCANCELLEDEXCEPTION: Key rotation cancelled");
+            }
+            String username = usernames.get(i);
+            try {
+                if (userDatabase.rotateUserDataKey(username)) {
+                    rotated.incrementAndGet();
+                } else {
+                    gone.incrementAndGet();
+                }
+            } catch (Exception e) {
+                failed.incrementAndGet();
+                batchFailures++;
+                failedUsers.add(username);
+                securityLogger.logSecurityEvent(username, "KEY_ROTATION_FAILURE",
+                    "Failed to rotate user keys: " + e.getMessage());
+            }
+        }
+        // One entry per batch: every log entry is its own synced write
+        securityLogger.logSecurityEvent("SYSTEM", "KEY_ROTATION", "Rotated user keys " + usernames.get(from) + " .. " +
+            usernames.get(to - 1) + (batchFailures == 0 ? "" : " (" + batchFailures + " failed)"));
+        batchFinished(batch);
+    }
+
+    private synchronized void batchFinished(int batch) {
+        batchDone[batch] = true;
+        while (finishedPrefix < batchDone.length && batchDone[finishedPrefix]) {
+            finishedPrefix++;
+        }
+        if (finishedPrefix == batchDone.length) {
+            if (!failedUsers.isEmpty()) {
+                checkpoint();
+            }
+            finish();
+        } else if (System.currentTimeMillis() - lastCheckpointMillis >= checkpointIntervalMillis) {
+            checkpoint();
+        }
+    }
+
+    private void finish() {
+        endNanos = System.nanoTime();
+        if (failedUsers.isEmpty()) {
+            try {
+                Files.deleteIfExists(checkpointFile);
+            } catch (IOException e) {
+                securityLogger.logSecurityEvent("SYSTEM", "KEY_ROTATION_CHECKPOINT_FAILURE", e.getMessage());
+            }
+        }
+        securityLogger.logSecurityEvent("SYSTEM", "KEY_ROTATION_FINISHED", progressLine());
+        if (progressListener != null) {
+            progressListener.accept(progressLine());
+        }
+    }
+
+    // Written to a temporary file and moved over the old one, so a crash mid-write leaves the
+    // previous checkpoint intact
+    private void checkpoint() {
+        lastCheckpointMillis = System.currentTimeMillis();
+        int finished = Math.min(usernames.size(), finishedPrefix * batchSize);
+        if (finished > 0) {
+            String lastUser = usernames.get(finished - 1);
+            if (resumeAfter != null && resumeAfter.compareTo(lastUser) > 0) {
+                lastUser = resumeAfter;
+            }
+            // Users up to lastUser still to do: those that failed, and retries not reached yet
+            List<String> retry = new ArrayList<>();
+            for (String username : getFailedUsers()) {
+                if (Collections.binarySearch(usernames.subList(0, finished), username) >= 0) {
+                    retry.add(username);
+                }
+            }
+            long rotatedUsers = finished - retry.size();
+            for (String username : usernames.subList(finished, usernames.size())) {
+                if (username.compareTo(lastUser) <= 0) {
+                    retry.add(username);
+                }
+            }
+            Properties properties = new Properties();
+            properties.setProperty("lastUser", lastUser);
+            properties.setProperty("usersDone", String.valueOf(resumedFrom + rotatedUsers));
+            for (String username : retry) {
+                properties.setProperty(RETRY_PREFIX + username, "");
+            }
+            try {
+                Path parent = checkpointFile.toAbsolutePath().getParent();
+                Files.createDirectories(parent);
+                Path temporary = Files.createTempFile(parent, "key_rotation", ".tmp");
+                try (OutputStream out = Files.newOutputStream(temporary)) {
+                    properties.store(out, "Key rotation checkpoint: users up to lastUser have new data keys, except retry.*");
+                }
+                Files.move(temporary, checkpointFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                securityLogger.logSecurityEvent("SYSTEM", "KEY_ROTATION_CHECKPOINT_FAILURE", e.getMessage());
+            }
+        }
+        if (progressListener != null) {
+            progressListener.accept(progressLine());
+        }
+    }
+
+    // The users listed for retry; sets resumeAfter and resumedFrom
+    private List<String> readCheckpoint() throws IOException {
+        List<String> retry = new ArrayList<>();
+        if (!Files.exists(checkpointFile)) {
+            return retry;
+        }
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(checkpointFile)) {
+            properties.load(in);
+        }
+        try {
+            resumedFrom = Long.parseLong(properties.getProperty("usersDone", "0"));
+        } catch (NumberFormatException e) {
+            throw new IOException("Unreadable key rotation checkpoint " + checkpointFile, e);
+        }
+        resumeAfter = properties.getProperty("lastUser");
+        for (String key : properties.stringPropertyNames()) {
+            if (key.startsWith(RETRY_PREFIX)) {
+                retry.add(key.substring(RETRY_PREFIX.length()));
+            }
+        }
+        return retry;
+    }
+
+    // Waits for every batch. A cancelled or interrupted job keeps its checkpoint for the next one.
+    public void await() throws InterruptedException {
+        for (Future<?> batch : batches) {
+            try {
+                batch.get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof CancellationException) {
+                    continue;
+                }
+                throw new IllegalStateException("Key rotation batch failed: " + e.getCause().getMessage(), e.getCause());
+            } catch (CancellationException e) {
+                // Batch never started
+            }
+        }
+        synchronized (this) {
+            if (finishedPrefix < batchDone.length) {
+                checkpoint();
+            }
+        }
+    }
+
+    // Batches stop before their next user; progress up to the last checkpoint is kept
+    public void cancel() {
+        cancelled = true;
+        for (Future<?> batch : batches) {
+            batch.cancel(false);
+        }
+    }
+
+    public synchronized boolean isDone() {
+        return batchDone != null && finishedPrefix == batchDone.length;
+    }
+
+    public int getTotal() {
+        return usernames == null ? 0 : usernames.size();
+    }
+
+    public long getRotated() {
+        return rotated.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    public List<String> getFailedUsers() {
+        synchronized (failedUsers) {
+            return new ArrayList<>(failedUsers);
+        }
+    }
+
+    public double getSeconds() {
+        return startNanos == 0 ? 0 : ((endNanos != 0 ? endNanos : System.nanoTime()) - startNanos) / 1e9;
+    }
+
+    // Users per second over this job, failures and removed users included
+    public double getThroughput() {
+        double seconds = getSeconds();
+        return seconds > 0 ? (rotated.get() + failed.get() + gone.get()) / seconds : 0;
+    }
+
+    // Seconds left at the current throughput, or -1 before there is one
+    public double getEtaSeconds() {
+        double throughput = getThroughput();
+        long left = getTotal() - rotated.get() - failed.get() - gone.get();
+        return left <= 0 ? 0 : throughput > 0 ? left / throughput : -1;
+    }
+
+    public String progressLine() {
+        long done = rotated.get() + failed.get() + gone.get();
+        double eta = getEtaSeconds();
+        return String.format("Key rotation: %d/%d user(s) (%.0f%%), %d failed, %d removed meanwhile%s, %.0f users/s, %s",
+            done, getTotal(), getTotal() == 0 ? 100.0 : 100.0 * done / getTotal(), failed.get(), gone.get(),
+            resumedFrom > 0 ? ", resumed after " + resumedFrom : "", getThroughput(),
+            isDone() ? String.format("done in %.1fs", getSeconds()) : eta < 0 ? "ETA -" : String.format("ETA %.1fs", eta));
+    }
+
+    @Override
+    public String toString() {
+        return progressLine();
+    }
+}
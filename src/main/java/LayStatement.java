@@ -0,0 +1,218 @@
+import lombok.Getter;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Parsed form of: LAY EGG INTO nest_name [FLAGS] (egg1,egg2) EGGS(v1,v2)[, (v3,v4) ...]
+public class LayStatement {
+    @Getter private final String nestName;
+    @Getter private final List<String> eggNames;
+    @Getter private final List<Object[]> rows;
+    @Getter private final Set<String> flags;
+
+    private static final Pattern PREFIX_PATTERN = Pattern.compile(
+        "\\s*LAY\\s+EGG\\s+INTO\\s+'?(\\w+)'?", Pattern.CASE_INSENSITIVE);
+    private static final Pattern VALUES_KEYWORD = Pattern.compile("(EGGS|CLUTCH)\\s*", Pattern.CASE_INSENSITIVE);
+
+    public LayStatement(String nestName, List<String> eggNames, List<Object[]> rows, Set<String> flags) {
+        this.nestName = nestName;
+        this.eggNames = eggNames;
+        this.rows = rows;
+        this.flags = flags;
+    }
+
+    public int getBatchSize() {
+        return (int) numericFlag("--batch-size=", ClutchLoader.DEFAULT_BATCH_SIZE);
+    }
+
+    public long getIncubateMillis() {
+        return numericFlag("--incubate=", 0);
+    }
+
+    private long numericFlag(String prefix, long defaultValue) {
+        for (String flag : flags) {
+            if (flag.startsWith(prefix)) {
+                try {
+                    return Long.parseLong(flag.substring(prefix.length()));
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid value for " + prefix.substring(0, prefix.length() - 1));
+                }
+            }
+        }
+        return defaultValue;
+    }
+
+    // Builds the clutches lazily so a large statement never holds two copies of its rows
+    public Iterator<Clutch> clutches(Nest nest) {
+        int[] positions = new int[eggNames.size()];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = nest.getEggs().isEmpty() ? i : nest.getEggPosition(eggNames.get(i));
+            if (positions[i] < 0) {
+                throw new IllegalArgumentException("EGGNOTFOUNDEXCEPTION: Egg " + eggNames.get(i) + " not found in nest " + nestName);
+            }
+        }
+        int width = nest.getEggs().isEmpty() ? eggNames.size() : nest.getEggs().size();
+
+        return new Iterator<Clutch>() {
+            private int row;
+
+            @Override
+            public boolean hasNext() {
+                return row < rows.size();
+            }
+
+            @Override
+            public Clutch next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Object[] values = rows.get(row++);
+                Egg[] eggs = new Egg[width];
+                for (int i = 0; i < positions.length; i++) {
+                    eggs[positions[i]] = layEgg(nest, eggNames.get(i), positions[i], values[i]);
+                }
+                // Eggs not named in the statement are laid empty
+                for (int i = 0; i < width; i++) {
+                    if (eggs[i] == null) {
+                        eggs[i] = layEgg(nest, nest.getEggs().get(i).getName(), i, null);
+                    }
+                }
+                return new Clutch(eggs);
+            }
+        };
+    }
+
+    private static Egg layEgg(Nest nest, String eggName, int position, Object value) {
+        if (nest.getEggs().isEmpty()) {
+            return new Egg(eggName, value);
+        }
+        Egg definition = nest.getEggs().get(position);
+        return new Egg(eggName, coerce(value, definition.getDataType()), definition.getDataType(), definition.getConstraints());
+    }
+
+    private static Object coerce(Object value, String dataType) {
+        EggType type = EggType.of(dataType);
+        if (!(value instanceof String) || type == null) {
+            return value;
+        }
+        switch (type) {
+            case INTEGER:
+                try {
+                    return Integer.parseInt((String) value);
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Value '" + value + "' is not an INTEGER");
+                }
+            case FLIGHTMODE:
+                return Boolean.parseBoolean((String) value);
+            default:
+                return value;
+        }
+    }
+
+    public static LayStatement parse(String command) {
+        Matcher prefix = PREFIX_PATTERN.matcher(command);
+        if (!prefix.lookingAt()) {
+            throw new IllegalArgumentException("Invalid LAY command format. Expected: LAY EGG INTO nest_name (egg1,egg2) EGGS(value1,value2)");
+        }
+        String nestName = prefix.group(1);
+        Set<String> flags = new LinkedHashSet<>();
+        List<String> eggNames = null;
+        List<Object[]> rows = new ArrayList<>();
+        int[] position = {prefix.end()};
+
+        while (true) {
+            skipWhitespace(command, position);
+            if (position[0] >= command.length()) break;
+            char c = command.charAt(position[0]);
+
+            if (c == '-') {
+                int end = position[0];
+                while (end < command.length() && !Character.isWhitespace(command.charAt(end)) && command.charAt(end) != '(') {
+                    end++;
+                }
+                flags.add(command.substring(position[0], end).toLowerCase());
+                position[0] = end;
+            } else if (c == '(' && eggNames == null) {
+                eggNames = new ArrayList<>();
+                for (String eggName : readGroup(command, position)) {
+                    eggNames.add(eggName.trim());
+                }
+            } else if (eggNames != null && rows.isEmpty() && VALUES_KEYWORD.matcher(command).region(position[0], command.length()).lookingAt()) {
+                Matcher keyword = VALUES_KEYWORD.matcher(command).region(position[0], command.length());
+                keyword.lookingAt();
+                position[0] = keyword.end();
+                readRows(command, position, eggNames.size(), rows);
+            } else {
+                throw new IllegalArgumentException("Unexpected input in LAY command near: " + command.substring(position[0]));
+            }
+        }
+
+        if (eggNames == null || eggNames.isEmpty() || rows.isEmpty()) {
+            throw new IllegalArgumentException("Invalid LAY command format. Expected: LAY EGG INTO nest_name (egg1,egg2) EGGS(value1,value2)");
+        }
+        return new LayStatement(nestName, eggNames, rows, flags);
+    }
+
+    // (v1,v2), (v3,v4), ... up to the first token that isn't another row
+    private static void readRows(String command, int[] position, int width, List<Object[]> rows) {
+        while (true) {
+            skipWhitespace(command, position);
+            if (position[0] >= command.length() || command.charAt(position[0]) != '(') {
+                throw new IllegalArgumentException("Expected (value1,value2) in LAY command");
+            }
+            List<String> items = readGroup(command, position);
+            if (items.size() != width) {
+                throw new IllegalArgumentException("Expected " + width + " values but found " + items.size() + " in LAY command");
+            }
+            Object[] values = new Object[width];
+            for (int i = 0; i < width; i++) {
+                values[i] = FindCondition.parseLiteral(items.get(i).trim());
+            }
+            rows.add(values);
+
+            skipWhitespace(command, position);
+            if (position[0] < command.length() && command.charAt(position[0]) == ',') {
+                position[0]++;
+            } else {
+                return;
+            }
+        }
+    }
+
+    // Reads "( a, 'b,c', d )" starting at the opening parenthesis and splits it on top-level commas
+    private static List<String> readGroup(String command, int[] position) {
+        List<String> items = new ArrayList<>();
+        StringBuilder item = new StringBuilder();
+        boolean inQuotes = false;
+        int i = position[0] + 1;
+
+        for (; i < command.length(); i++) {
+            char c = command.charAt(i);
+            if (c == '\'') {
+                inQuotes = !inQuotes;
+                item.append(c);
+            } else if (!inQuotes && c == ',') {
+                items.add(item.toString());
+                item.setLength(0);
+            } else if (!inQuotes && c == ')') {
+                items.add(item.toString());
+                position[0] = i + 1;
+                return items;
+            } else {
+                item.append(c);
+            }
+        }
+        throw new IllegalArgumentException("Unclosed parenthesis in LAY command");
+    }
+
+    private static void skipWhitespace(String command, int[] position) {
+        while (position[0] < command.length() && Character.isWhitespace(command.charAt(position[0]))) {
+            position[0]++;
+        }
+    }
+}
@@ -0,0 +1,384 @@
+import lombok.Getter;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// CREATE MATERIALIZED VIEW name AS PICK ...: the result of a PICK kept in a nest of its own and
+// brought up to date from each LAY, UPDATE and REMOVE on the base nest instead of being
+// recomputed. Grouped views (aggregates, FLOCK BY or SPECIFIC) keep a running state per group;
+// projection views keep one row per matching base clutch. Either way the view remembers what
+// each base clutch contributed, so an update or removal takes exactly that back out.
+//
+// SORT BY and LIMIT BY views, MIN/MAX views once the current extreme is updated or removed, and any
+// view whose base nest changes its eggs can't be maintained this way. They go stale, keep
+// their last rows, and are rebuilt by REFRESH MATERIALIZED VIEW.
+public class MaterializedView implements ClutchListener, Serializable {
+    private static final long serialVersionUID = 1L;
+    @Getter private final String name;
+    // The tokens of the defining PICK; reparsed after the tree is reloaded
+    private final String[] tokens;
+    // Holds the view's rows; PICK, FIND and CREATE NEW INDEX work on it like on any nest
+    @Getter private final Nest nest;
+    @Getter private final boolean incremental;
+    @Getter private boolean stale;
+    @Getter private String staleReason;
+    // Base nest changes applied without a refresh
+    @Getter private long maintainedChanges;
+
+    private transient PickQuery query;
+    private transient Tree tree;
+    private transient Nest base;
+    private transient ClutchPredicate predicate;
+    // Base positions of the group key (grouped views) or of the picked eggs (projection views)
+    private transient int[] keyPositions;
+    // Base position of each aggregate's egg; -1 for COUNTFEATHER(*)
+    private transient int[] aggregatePositions;
+    // For each view egg: index into the key when >= 0, otherwise aggregate -(layout + 1)
+    private transient int[] layout;
+    private transient Map<List<Object>, Group> groups;
+    // Base clutch -> its Contribution (grouped views) or its row in the view (projection views)
+    private transient Map<Clutch, Object> contributions;
+
+    public MaterializedView(String name, String[] tokens, Tree tree) {
+        this.name = name;
+        this.tokens = tokens.clone();
+        this.query = PickQuery.parse(tokens);
+        this.incremental = query.getSortEgg() == null && query.getOffset() == 0 &&
+            query.getLimit() == Integer.MAX_VALUE && !(query.isSpecific() && query.isAggregate());
+        Nest source = requireBase(tree);
+        this.nest = new Nest(name, source.getOwner());
+        nest.setEggs(defineEggs(source));
+        // Only maintenance and REFRESH write to a view
+        nest.setStatus("UNALTERABLE");
+    }
+
+    public String getBaseNestName() {
+        return query().getNestName();
+    }
+
+    public String getDefinition() {
+        return query().getNormalizedText();
+    }
+
+    // Rebuilds the view from its base nest and resumes incremental maintenance
+    public synchronized int refresh(Tree tree) {
+        query();
+        this.tree = tree;
+        Nest source = requireBase(tree);
+        if (base != null && base != source) {
+            base.removeListener(this);
+        }
+        base = source;
+        resolve();
+
+        List<Clutch> rows = new ArrayList<>();
+        if (incremental) {
+            groups = new LinkedHashMap<>();
+            contributions = new IdentityHashMap<>();
+            Set<Group> dirty = Collections.newSetFromMap(new IdentityHashMap<>());
+            for (Clutch clutch : new ArrayList<>(base.getClutches())) {
+                contribute(clutch, dirty, rows);
+            }
+            // Without FLOCK BY there is always exactly one group, even over no clutches
+            if (isGrouped() && keyPositions.length == 0 && groups.isEmpty()) {
+                groups.put(Collections.emptyList(), new Group(Collections.emptyList()));
+            }
+            for (Group group : groups.values()) {
+                group.row = row(group.key, group.states);
+                rows.add(group.row);
+            }
+        } else {
+            try (EggCursor cursor = new QueryPlanner(null).plan(query, tree)) {
+                while (cursor.next()) {
+                    rows.add(row(cursor.getClutch()));
+                }
+            }
+        }
+        nest.removeClutches(new ArrayList<>(nest.getClutches()));
+        nest.layClutches(rows);
+        base.addListener(this);
+        stale = false;
+        staleReason = null;
+        maintainedChanges = 0;
+        return rows.size();
+    }
+
+    // DROP MATERIALIZED VIEW
+    public synchronized void detach() {
+        if (base != null) {
+            base.removeListener(this);
+        }
+        groups = null;
+        contributions = null;
+    }
+
+    @Override
+    public synchronized void clutchesChanged(Nest changed, ChangeEvent.Type type, List<Clutch> clutches) {
+        if (stale || changed != base) {
+            return;
+        }
+        if (type == ChangeEvent.Type.SCHEMA_CHANGED) {
+            markStale("base nest " + base.getName() + " changed its eggs");
+            return;
+        }
+        if (!incremental) {
+            markStale("SORT BY and LIMIT BY views are refreshed manually");
+            return;
+        }
+        try {
+            Set<Group> dirty = Collections.newSetFromMap(new IdentityHashMap<>());
+            List<Clutch> doomed = new ArrayList<>();
+            List<Clutch> laid = new ArrayList<>();
+            for (Clutch clutch : clutches) {
+                if (type != ChangeEvent.Type.CLUTCHES_LAID && !retract(clutch, dirty, doomed)) {
+                    markStale("MIN or MAX lost its current extreme");
+                    return;
+                }
+                if (type != ChangeEvent.Type.CLUTCHES_REMOVED) {
+                    contribute(clutch, dirty, laid);
+                }
+            }
+            for (Group group : dirty) {
+                if (group.row != null) {
+                    doomed.add(group.row);
+                    group.row = null;
+                }
+                if (group.clutches > 0 || keyPositions.length == 0) {
+                    group.row = row(group.key, group.states);
+                    laid.add(group.row);
+                } else {
+                    groups.remove(group.key);
+                }
+            }
+            nest.removeClutches(doomed);
+            nest.layClutches(laid);
+            maintainedChanges++;
+        } catch (RuntimeException e) {
+            // Never fail the base nest's write; the view just needs a REFRESH
+            markStale(e.getMessage());
+        }
+    }
+
+    // Adds a base clutch that passes the FIND to its group, or to rows for a projection view
+    private void contribute(Clutch stored, Set<Group> dirty, List<Clutch> rows) {
+        Clutch clutch = tree.decode(stored, false);
+        if (predicate != null && !predicate.test(clutch)) {
+            return;
+        }
+        if (!isGrouped()) {
+            Clutch row = project(clutch);
+            contributions.put(stored, row);
+            rows.add(row);
+            return;
+        }
+        Object[] key = new Object[keyPositions.length];
+        for (int i = 0; i < key.length; i++) {
+            key[i] = clutch.getValue(keyPositions[i]);
+        }
+        Group group = groups.computeIfAbsent(Arrays.asList(key), Group::new);
+        // Copies, since UPDATE rewrites the base eggs in place before the view hears of it
+        Egg[] inputs = new Egg[aggregatePositions.length];
+        for (int i = 0; i < inputs.length; i++) {
+            Egg egg = aggregatePositions[i] < 0 ? null : clutch.getEgg(aggregatePositions[i]);
+            inputs[i] = egg == null ? null : new Egg(egg.getName(), egg.getValue(), egg.getDataType(), null);
+            group.states[i].add(inputs[i]);
+        }
+        group.clutches++;
+        contributions.put(stored, new Contribution(group, inputs));
+        dirty.add(group);
+    }
+
+    // Takes back what a base clutch contributed; false if an aggregate can't be corrected
+    private boolean retract(Clutch stored, Set<Group> dirty, List<Clutch> doomed) {
+        Object contributed = contributions.remove(stored);
+        if (contributed == null) {
+            return true;
+        }
+        if (contributed instanceof Clutch) {
+            doomed.add((Clutch) contributed);
+            return true;
+        }
+        Contribution contribution = (Contribution) contributed;
+        for (int i = 0; i < contribution.inputs.length; i++) {
+            if (!contribution.group.states[i].remove(contribution.inputs[i])) {
+                return false;
+            }
+        }
+        contribution.group.clutches--;
+        dirty.add(contribution.group);
+        return true;
+    }
+
+    private void markStale(String reason) {
+        stale = true;
+        staleReason = reason;
+        groups = null;
+        contributions = null;
+    }
+
+    private boolean isGrouped() {
+        return query.isAggregate() || query.isSpecific();
+    }
+
+    private void resolve() {
+        List<FindCondition> conditions = query.getConditions();
+        int[] conditionPositions = new int[conditions.size()];
+        for (int i = 0; i < conditionPositions.length; i++) {
+            conditionPositions[i] = resolveEgg(conditions.get(i).getEggName());
+        }
+        // Maintenance sees one clutch at a time, so the interpreter is the right fit here
+        predicate = conditions.isEmpty() ? null : new PredicateCompiler().predicateFor(conditions, conditionPositions, 0);
+
+        List<String> keyEggs;
+        if (!isGrouped()) {
+            keyEggs = query.isPickAll() ? eggNames(base) : query.getEggNames();
+        } else {
+            keyEggs = query.isAggregate() ? query.getGroupEggs() : query.getEggNames();
+        }
+        keyPositions = new int[keyEggs.size()];
+        for (int i = 0; i < keyPositions.length; i++) {
+            keyPositions[i] = resolveEgg(keyEggs.get(i));
+        }
+        List<Aggregate> aggregates = query.getAggregates();
+        aggregatePositions = new int[aggregates.size()];
+        for (int i = 0; i < aggregatePositions.length; i++) {
+            String eggName = aggregates.get(i).getEggName();
+            aggregatePositions[i] = eggName == null ? -1 : resolveEgg(eggName);
+        }
+        // Aggregates appear in the egg list in the same order as in getAggregates()
+        List<String> items = query.isPickAll() ? keyEggs : query.getEggNames();
+        layout = new int[items.size()];
+        int aggregate = 0;
+        for (int i = 0; i < layout.length; i++) {
+            layout[i] = Aggregate.parse(items.get(i)) == null ? keyEggs.indexOf(items.get(i)) : -(++aggregate);
+        }
+    }
+
+    // A grouped view's row for one group, in the view's egg order
+    private Clutch row(List<Object> key, Aggregate.State[] states) {
+        List<Egg> definitions = nest.getEggs();
+        Egg[] eggs = new Egg[layout.length];
+        for (int i = 0; i < eggs.length; i++) {
+            Object value = layout[i] >= 0 ? key.get(layout[i]) : states[-layout[i] - 1].result();
+            eggs[i] = new Egg(definitions.get(i).getName(), value, definitions.get(i).getDataType(), new String[0]);
+        }
+        return new Clutch(eggs);
+    }
+
+    // A projection view's row for one base clutch
+    private Clutch project(Clutch clutch) {
+        Object[] values = new Object[keyPositions.length];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = clutch.getValue(keyPositions[i]);
+        }
+        return row(Arrays.asList(values), null);
+    }
+
+    // A copy of a result row from the query planner (non-incremental views)
+    private Clutch row(Clutch result) {
+        List<Egg> definitions = nest.getEggs();
+        Egg[] eggs = new Egg[result.size()];
+        for (int i = 0; i < eggs.length; i++) {
+            eggs[i] = new Egg(definitions.get(i).getName(), result.getValue(i), definitions.get(i).getDataType(), new String[0]);
+        }
+        return new Clutch(eggs);
+    }
+
+    private List<Egg> defineEggs(Nest source) {
+        List<Egg> definitions = new ArrayList<>();
+        List<String> outputNames = query.isPickAll() ? eggNames(source) : query.getOutputNames();
+        for (int i = 0; i < outputNames.size(); i++) {
+            Aggregate aggregate = query.isPickAll() ? null : Aggregate.parse(query.getEggNames().get(i));
+            String eggName = aggregate == null ? outputNames.get(i) : aggregate.getEggName();
+            Egg egg = eggName == null ? null : source.getEgg(eggName);
+            if (eggName != null && egg == null && !source.getEggs().isEmpty()) {
+                throw new IllegalArgumentException("EGGNOTFOUNDEXCEPTION: Egg " + eggName + " not found in nest " + source.getName());
+            }
+            String dataType = egg == null ? null : egg.getDataType();
+            definitions.add(new Egg(outputNames.get(i), null,
+                aggregate == null ? dataType : aggregate.resultDataType(dataType), new String[0]));
+        }
+        return definitions;
+    }
+
+    private static List<String> eggNames(Nest source) {
+        List<String> names = new ArrayList<>();
+        for (Egg egg : source.getEggs()) {
+            names.add(egg.getName());
+        }
+        return names;
+    }
+
+    private Nest requireBase(Tree tree) {
+        Nest source = tree.getNest(query().getNestName());
+        if (source == null) {
+            throw new IllegalArgumentException("NESTNOTFOUNDEXCEPTION: Nest not found: " + query().getNestName());
+        }
+        return source;
+    }
+
+    private int resolveEgg(String eggName) {
+        int position = base.getEggPosition(eggName);
+        if (position < 0) {
+            throw new IllegalArgumentException("EGGNOTFOUNDEXCEPTION: Egg " + eggName + " not found in nest " + base.getName());
+        }
+        return position;
+    }
+
+    private PickQuery query() {
+        if (query == null) {
+            query = PickQuery.parse(tokens);
+        }
+        return query;
+    }
+
+    // Maintenance state isn't serialized; a reloaded view waits for REFRESH
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        stale = true;
+        staleReason = "tree was reloaded";
+    }
+
+    @Override
+    public String toString() {
+        String state = stale ? "STALE (" + staleReason + ")" : incremental ? "INCREMENTAL" : "MANUAL";
+        return String.format("%s: %s [%s, %d clutch(es)]", name, getDefinition(), state, nest.getClutchCount());
+    }
+
+    // One FLOCK BY group of a grouped view
+    private class Group {
+        final List<Object> key;
+        final Aggregate.State[] states;
+        // Base clutches in the group; the group's row goes once this reaches zero
+        long clutches;
+        Clutch row;
+
+        Group(List<Object> key) {
+            this.key = key;
+            List<Aggregate> aggregates = query.getAggregates();
+            this.states = new Aggregate.State[aggregates.size()];
+            for (int i = 0; i < states.length; i++) {
+                states[i] = aggregates.get(i).newState();
+            }
+        }
+    }
+
+    // What one base clutch put into a group, kept so it can be taken back out
+    private static class Contribution {
+        final Group group;
+        final Egg[] inputs;
+
+        Contribution(Group group, Egg[] inputs) {
+            this.group = group;
+            this.inputs = inputs;
+        }
+    }
+}
@@ -1,50 +1,503 @@
 import lombok.Getter;
 import lombok.Setter;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.UnaryOperator;
 import java.time.LocalDateTime;
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 
 public class Nest implements Serializable {
+    private static final long serialVersionUID = 6643396937470602919L;
     @Getter @Setter private String name;
     @Getter @Setter private String creationDate;
-    @Getter @Setter private List<Egg> eggs;
+    @Getter private List<Egg> eggs;
+    @Getter @Setter private List<Clutch> clutches;
+    @Getter @Setter private Map<String, EggIndex> indexes;
     @Getter @Setter private List<Nest> subNests;
     @Getter @Setter private String owner;
     @Getter @Setter private String[] permissions;
     @Getter @Setter private boolean isLocked;
     @Getter @Setter private String status;
+    // Id of the data key in the tree's KeyRing that ENCRYPT TREE seals this nest's eggs with; 0 for none
+    @Getter @Setter private int dataKeyId;
+    // Bumped on every change to the nest's eggs or clutches so cached reads can tell they are stale
+    @Getter private long version;
+    // False-positive rate for the egg-name filter and for filters on this nest's sorted indexes
+    @Getter private double bloomFalsePositiveRate = BloomFilter.DEFAULT_FALSE_POSITIVE_RATE;
+    // Rejects unknown egg names before the egg definitions are scanned; rebuilt on demand
+    private transient BloomFilter eggFilter;
+    // Egg definitions compiled for validation; rebuilt on demand after the definitions change
+    private transient NestSchema schema;
+    // INTEGER and MIGRATIONDATE eggs as columns for the vector kernels, by egg position; built on
+    // demand, null for an egg that can't be one, all dropped once version moves on
+    private transient Map<Integer, NumericColumn> numericColumns;
+    private transient long numericColumnsVersion;
+    // The owning tree's change feed (-w/--watch); attached by Tree, null for a detached nest
+    @Setter private transient ChangeFeed changeFeed;
+    // The tree's decoder for eggs sealed by ENCRYPT TREE, handed on to every index
+    private transient UnaryOperator<Egg> eggDecoder;
+    // Told of every change as it happens (materialized views); null until one is added
+    private transient CopyOnWriteArrayList<ClutchListener> listeners;
+    // Collected by ANALYZE NEST and refreshed once autoAnalyzeFraction of the rows have changed
+    @Getter private NestStatistics statistics;
+    @Getter @Setter private double autoAnalyzeFraction = DEFAULT_AUTO_ANALYZE_FRACTION;
+    @Getter private long modifiedRows;
+
+    public static final double DEFAULT_AUTO_ANALYZE_FRACTION = 0.2;
+    // Nests this small are cheap to scan, so they aren't analyzed automatically
+    private static final long AUTO_ANALYZE_MIN_ROWS = 1000;
 
     public Nest(String name, String owner) {
         this.name = name;
         this.owner = owner;
         this.creationDate = LocalDateTime.now().toString();
         this.eggs = new ArrayList<>();
+        this.clutches = new ArrayList<>();
+        this.indexes = new LinkedHashMap<>();
         this.subNests = new ArrayList<>();
         this.permissions = new String[]{"OWNER"};
         this.isLocked = false;
         this.status = "ACTIVE";
     }
 
+    public void setEggs(List<Egg> eggs) {
+        this.eggs = eggs;
+        eggFilter = null;
+        schema = null;
+    }
+
+    public synchronized NestSchema getSchema() {
+        if (schema == null) {
+            schema = NestSchema.compile(eggs);
+        }
+        return schema;
+    }
+
+    // The column of an INTEGER or MIGRATIONDATE egg as the nest is now, or null when the egg
+    // has another type or holds a value the column can't (see NumericColumn.build)
+    public synchronized NumericColumn getNumericColumn(int position) {
+        if (position < 0 || position >= eggs.size()) {
+            return null;
+        }
+        if (numericColumns == null || numericColumnsVersion != version) {
+            numericColumns = new HashMap<>();
+            numericColumnsVersion = version;
+        }
+        if (!numericColumns.containsKey(position)) {
+            numericColumns.put(position, NumericColumn.build(clutches, position, eggs.get(position).getType(), version));
+        }
+        return numericColumns.get(position);
+    }
+
+    // Columns for several eggs, all of one version of the nest; a negative position gets a null
+    // entry. Null when any of the eggs can't be a column.
+    public synchronized NumericColumn[] getNumericColumns(int[] positions) {
+        NumericColumn[] columns = new NumericColumn[positions.length];
+        for (int i = 0; i < positions.length; i++) {
+            if (positions[i] >= 0 && (columns[i] = getNumericColumn(positions[i])) == null) {
+                return null;
+            }
+        }
+        return columns;
+    }
+
+    // Appends an egg definition. Clutches already in the nest get a null egg in the new position,
+    // so a NOT NULL egg can only be added to an empty nest.
     public void addEgg(Egg egg) {
         if (isLocked) {
             throw new IllegalStateException("Cannot modify locked nest");
         }
+        if (getEggPosition(egg.getName()) >= 0) {
+            throw new IllegalArgumentException("Egg already exists in nest " + name + ": " + egg.getName());
+        }
+        List<Egg> widened = new ArrayList<>(eggs);
+        widened.add(egg);
+        NestSchema candidate = NestSchema.compile(widened);
+        List<Clutch> migrated = new ArrayList<>(clutches.size());
+        for (Clutch clutch : clutches) {
+            Egg[] copy = Arrays.copyOf(clutch.getEggs(), clutch.size() + 1);
+            copy[clutch.size()] = new Egg(egg.getName(), null, egg.getDataType(), egg.getConstraints());
+            migrated.add(new Clutch(copy));
+        }
+        candidate.validateAll(migrated);
+
         eggs.add(egg);
+        if (eggFilter != null) {
+            eggFilter.put(egg.getName());
+        }
+        replaceClutches(migrated);
+        schema = candidate;
+        version++;
+        publish(ChangeEvent.Type.SCHEMA_CHANGED, null);
     }
 
     public void removeEgg(String eggName) {
         if (isLocked) {
             throw new IllegalStateException("Cannot modify locked nest");
         }
-        eggs.removeIf(egg -> egg.getName().equals(eggName));
+        int position = getEggPosition(eggName);
+        if (position < 0) {
+            return;
+        }
+        List<Clutch> migrated = new ArrayList<>(clutches.size());
+        for (Clutch clutch : clutches) {
+            Egg[] copy = new Egg[clutch.size() - 1];
+            System.arraycopy(clutch.getEggs(), 0, copy, 0, position);
+            System.arraycopy(clutch.getEggs(), position + 1, copy, position, copy.length - position);
+            migrated.add(new Clutch(copy));
+        }
+        eggs.remove(position);
+        indexes.values().removeIf(index -> index.getEggName().equals(eggName));
+        // Indexes on later eggs now point one position too far; recreate them where they belong
+        for (Map.Entry<String, EggIndex> entry : indexes.entrySet()) {
+            EggIndex index = entry.getValue();
+            if (index.getPosition() > position) {
+                EggIndex moved = EggIndex.create(index.getKind(), index.getName(), index.getEggName(), index.getPosition() - 1);
+                moved.setFalsePositiveRate(bloomFalsePositiveRate);
+                moved.setEggDecoder(eggDecoder);
+                entry.setValue(moved);
+            }
+        }
+        replaceClutches(migrated);
+        eggFilter = null;
+        schema = null;
+        version++;
+        publish(ChangeEvent.Type.SCHEMA_CHANGED, null);
+    }
+
+    // CHANGE NEST ... MODIFY EGG: new data type and constraints for an existing egg. Every stored
+    // clutch must satisfy the recompiled schema, otherwise nothing changes.
+    public void modifyEgg(String eggName, String dataType, String[] constraints) {
+        if (isLocked) {
+            throw new IllegalStateException("Cannot modify locked nest");
+        }
+        int position = getEggPosition(eggName);
+        if (position < 0) {
+            throw new IllegalArgumentException("EGGNOTFOUNDEXCEPTION: Egg " + eggName + " not found in nest " + name);
+        }
+        List<Egg> modified = new ArrayList<>(eggs);
+        modified.set(position, new Egg(eggName, null, dataType, constraints));
+        NestSchema candidate = NestSchema.compile(modified);
+        candidate.validateAll(clutches);
+
+        eggs.set(position, modified.get(position));
+        for (Clutch clutch : clutches) {
+            Egg egg = clutch.getEgg(position);
+            if (egg != null) {
+                egg.setDataType(dataType);
+                egg.setConstraints(constraints);
+            }
+        }
+        schema = candidate;
+        version++;
+        publish(ChangeEvent.Type.SCHEMA_CHANGED, null);
+    }
+
+    // Swaps in rewritten copies of every clutch, refiling them in every index
+    private void replaceClutches(List<Clutch> migrated) {
+        clutches.clear();
+        clutches.addAll(migrated);
+        for (EggIndex index : indexes.values()) {
+            index.rebuild(clutches);
+        }
     }
 
     public Egg getEgg(String eggName) {
-        return eggs.stream()
-                  .filter(egg -> egg.getName().equals(eggName))
-                  .findFirst()
-                  .orElse(null);
+        int position = getEggPosition(eggName);
+        return position < 0 ? null : eggs.get(position);
+    }
+
+    public int getEggPosition(String eggName) {
+        BloomFilter filter = getEggFilter();
+        if (!filter.mightContain(eggName)) {
+            return -1;
+        }
+        for (int i = 0; i < eggs.size(); i++) {
+            if (eggs.get(i).getName().equals(eggName)) {
+                return i;
+            }
+        }
+        filter.recordFalsePositive();
+        return -1;
+    }
+
+    public synchronized BloomFilter getEggFilter() {
+        if (eggFilter == null || eggFilter.isSaturated()) {
+            BloomFilter rebuilt = new BloomFilter(Math.max(16, eggs.size() * 2L), bloomFalsePositiveRate);
+            for (Egg egg : eggs) {
+                rebuilt.put(egg.getName());
+            }
+            eggFilter = rebuilt;
+        }
+        return eggFilter;
+    }
+
+    public void setBloomFalsePositiveRate(double bloomFalsePositiveRate) {
+        this.bloomFalsePositiveRate = bloomFalsePositiveRate;
+        eggFilter = null;
+        for (EggIndex index : indexes.values()) {
+            index.setFalsePositiveRate(bloomFalsePositiveRate);
+        }
+    }
+
+    // Existence probe for a value of an egg (e.g. the inner side of a join): false when an
+    // index's filter proves no clutch holds it, true when it might
+    public boolean mightContainValue(String eggName, Object value) {
+        for (EggIndex index : indexes.values()) {
+            if (index.getEggName().equals(eggName) && !index.mightContain(value)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public void layClutch(Clutch clutch) {
+        if (isLocked) {
+            throw new IllegalStateException("Cannot modify locked nest");
+        }
+        adoptLayout(clutch);
+        validateClutch(clutch);
+        clutches.add(clutch);
+        for (EggIndex index : indexes.values()) {
+            index.add(clutch);
+        }
+        modifiedRows++;
+        version++;
+        publish(ChangeEvent.Type.CLUTCHES_LAID, Collections.singletonList(clutch));
+    }
+
+    // Bulk form of layClutch: the whole batch is validated before any of it is stored, and the
+    // lock check, capacity growth and version bump happen once per batch instead of per clutch
+    public void layClutches(List<Clutch> batch) {
+        if (isLocked) {
+            throw new IllegalStateException("Cannot modify locked nest");
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        adoptLayout(batch.get(0));
+        for (Clutch clutch : batch) {
+            checkWidth(clutch);
+        }
+        getSchema().validateAll(batch);
+        ensureCapacity(batch.size());
+        clutches.addAll(batch);
+        for (EggIndex index : indexes.values()) {
+            index.addAll(batch);
+        }
+        modifiedRows += batch.size();
+        version++;
+        publish(ChangeEvent.Type.CLUTCHES_LAID, new ArrayList<>(batch));
+    }
+
+    // Takes the given clutches out of the nest and out of every index
+    public void removeClutches(List<Clutch> removed) {
+        if (isLocked) {
+            throw new IllegalStateException("Cannot modify locked nest");
+        }
+        if (removed.isEmpty()) {
+            return;
+        }
+        Set<Clutch> doomed = Collections.newSetFromMap(new IdentityHashMap<>());
+        doomed.addAll(removed);
+        // Every key first, so an egg that can't be opened fails the removal before anything changes
+        List<EggIndex> affected = new ArrayList<>(indexes.values());
+        List<Clutch> doomedList = new ArrayList<>(doomed);
+        Object[][] keys = new Object[affected.size()][doomedList.size()];
+        for (int i = 0; i < keys.length; i++) {
+            for (int c = 0; c < doomedList.size(); c++) {
+                keys[i][c] = affected.get(i).keyOf(doomedList.get(c));
+            }
+        }
+        clutches.removeIf(doomed::contains);
+        for (int i = 0; i < keys.length; i++) {
+            for (int c = 0; c < doomedList.size(); c++) {
+                affected.get(i).remove(keys[i][c], doomedList.get(c));
+            }
+        }
+        modifiedRows += doomed.size();
+        version++;
+        publish(ChangeEvent.Type.CLUTCHES_REMOVED, new ArrayList<>(doomed));
+    }
+
+    // Pre-sizes clutch storage ahead of a load of known size
+    public void ensureCapacity(int additionalClutches) {
+        if (clutches instanceof ArrayList) {
+            ((ArrayList<Clutch>) clutches).ensureCapacity(clutches.size() + additionalClutches);
+        }
+    }
+
+    // A nest without egg definitions takes its layout from the first clutch laid into it
+    private void adoptLayout(Clutch clutch) {
+        if (eggs.isEmpty()) {
+            for (Egg egg : clutch.getEggs()) {
+                eggs.add(new Egg(egg.getName(), null, egg.getDataType(), egg.getConstraints()));
+            }
+            eggFilter = null;
+            schema = null;
+        }
+    }
+
+    private void validateClutch(Clutch clutch) {
+        checkWidth(clutch);
+        getSchema().validate(clutch);
+    }
+
+    private void checkWidth(Clutch clutch) {
+        if (clutch.size() != eggs.size()) {
+            throw new IllegalArgumentException("Clutch has " + clutch.size() + " eggs but nest " + name + " defines " + eggs.size());
+        }
+    }
+
+    public EggIndex createIndex(String indexName, String eggName) {
+        return createIndex(indexName, eggName, EggIndex.Kind.SORTED);
+    }
+
+    public EggIndex createIndex(String indexName, String eggName, EggIndex.Kind kind) {
+        if (indexes.containsKey(indexName)) {
+            throw new IllegalArgumentException("Index already exists: " + indexName);
+        }
+        int position = getEggPosition(eggName);
+        if (position < 0) {
+            throw new IllegalArgumentException("EGGNOTFOUNDEXCEPTION: Egg " + eggName + " not found in nest " + name);
+        }
+        String dataType = eggs.isEmpty() ? null : eggs.get(position).getDataType();
+        if ((kind == EggIndex.Kind.TRIGRAM || kind == EggIndex.Kind.FULLTEXT) && dataType != null && !dataType.equalsIgnoreCase("STRINGLIT")) {
+            throw new IllegalArgumentException(kind + " indexes require a STRINGLIT egg: " + eggName);
+        }
+        EggIndex index = EggIndex.create(kind, indexName, eggName, position);
+        index.setFalsePositiveRate(bloomFalsePositiveRate);
+        index.setEggDecoder(eggDecoder);
+        index.rebuild(clutches);
+        indexes.put(indexName, index);
+        return index;
+    }
+
+    public void setEggDecoder(UnaryOperator<Egg> eggDecoder) {
+        this.eggDecoder = eggDecoder;
+        for (EggIndex index : indexes.values()) {
+            index.setEggDecoder(eggDecoder);
+        }
+    }
+
+    // The plaintext of one egg of a clutch, opening it if it is stored encrypted
+    public Object valueOf(Clutch clutch, int position) {
+        Egg egg = EggIndex.decode(clutch.getEgg(position), eggDecoder);
+        return egg == null ? null : egg.getValue();
+    }
+
+    // The clutch with its encrypted eggs opened, for writers matching WHILE conditions; plain
+    // clutches are returned as they are
+    public Clutch decode(Clutch clutch) {
+        Egg[] decoded = null;
+        for (int i = 0; i < clutch.size(); i++) {
+            Egg egg = decoded == null ? clutch.getEgg(i) : decoded[i];
+            if (egg == null || !egg.isEncrypted()) {
+                continue;
+            }
+            if (decoded == null) {
+                decoded = clutch.getEggs();
+                egg = decoded[i];
+            }
+            decoded[i] = EggIndex.decode(egg, eggDecoder);
+        }
+        return decoded == null ? clutch : new Clutch(decoded);
+    }
+
+    // Refiles every clutch in every index, after ENCRYPT TREE or DECRYPT TREE rewrote the stored eggs
+    public void rebuildIndexes() {
+        for (EggIndex index : indexes.values()) {
+            index.rebuild(clutches);
+        }
+    }
+
+    public void dropIndex(String indexName) {
+        if (indexes.remove(indexName) == null) {
+            throw new IllegalArgumentException("Index not found: " + indexName);
+        }
+    }
+
+    // Any index on the egg that can narrow the condition, or null
+    public EggIndex findIndex(FindCondition condition) {
+        for (EggIndex index : indexes.values()) {
+            if (index.supports(condition)) {
+                return index;
+            }
+        }
+        return null;
+    }
+
+    // For callers that change stored eggs in place (e.g. UPDATE NEST)
+    public void markModified() {
+        version++;
+    }
+
+    public void markModified(long rows) {
+        modifiedRows += rows;
+        version++;
+    }
+
+    // UPDATE NEST rewrote these clutches' eggs in place
+    public void markUpdated(List<Clutch> updated) {
+        markModified(updated.size());
+        publish(ChangeEvent.Type.CLUTCHES_UPDATED, new ArrayList<>(updated));
+    }
+
+    public synchronized void addListener(ClutchListener listener) {
+        if (listeners == null) {
+            listeners = new CopyOnWriteArrayList<>();
+        }
+        listeners.addIfAbsent(listener);
+    }
+
+    public synchronized void removeListener(ClutchListener listener) {
+        if (listeners != null) {
+            listeners.remove(listener);
+        }
+    }
+
+    private void publish(ChangeEvent.Type type, List<Clutch> changed) {
+        CopyOnWriteArrayList<ClutchListener> current = listeners;
+        if (current != null) {
+            List<Clutch> clutches = changed == null ? Collections.emptyList() : changed;
+            for (ClutchListener listener : current) {
+                listener.clutchesChanged(this, type, clutches);
+            }
+        }
+        if (changeFeed != null) {
+            changeFeed.publish(type, name, changed);
+        }
+    }
+
+    // ANALYZE NEST
+    public synchronized NestStatistics analyze() {
+        statistics = NestStatistics.collect(this);
+        modifiedRows = 0;
+        return statistics;
+    }
+
+    // Statistics for planning, re-analyzing first when enough rows changed since the last
+    // ANALYZE. Null while a small nest has never been analyzed.
+    public synchronized NestStatistics getFreshStatistics() {
+        long baseline = statistics == null ? 0 : statistics.getRowCount();
+        if (modifiedRows >= AUTO_ANALYZE_MIN_ROWS && modifiedRows > autoAnalyzeFraction * baseline) {
+            analyze();
+        }
+        return statistics;
+    }
+
+    public int getClutchCount() {
+        return clutches.size();
     }
 
     public void addSubNest(Nest nest) {
@@ -95,9 +548,35 @@ public class Nest implements Serializable {
         this.permissions = newPermissions;
     }
 
+    // A nest saved before clutches existed held one row of values in its eggs: those become
+    // null-valued definitions and, when any value was set, the nest's only clutch
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        if (clutches != null) {
+            return;
+        }
+        clutches = new ArrayList<>();
+        indexes = new LinkedHashMap<>();
+        bloomFalsePositiveRate = BloomFilter.DEFAULT_FALSE_POSITIVE_RATE;
+        autoAnalyzeFraction = DEFAULT_AUTO_ANALYZE_FRACTION;
+        if (eggs == null) {
+            eggs = new ArrayList<>();
+        }
+        List<Egg> definitions = new ArrayList<>(eggs.size());
+        boolean hasValues = false;
+        for (Egg egg : eggs) {
+            definitions.add(new Egg(egg.getName(), null, egg.getDataType(), egg.getConstraints()));
+            hasValues |= !egg.isNull();
+        }
+        if (hasValues) {
+            clutches.add(new Clutch(eggs.toArray(new Egg[0])));
+        }
+        eggs = definitions;
+    }
+
     @Override
     public String toString() {
-        return String.format("Nest[name=%s, eggs=%d, subNests=%d, owner=%s, status=%s]",
-            name, eggs.size(), subNests.size(), owner, status);
+        return String.format("Nest[name=%s, eggs=%d, clutches=%d, subNests=%d, owner=%s, status=%s]",
+            name, eggs.size(), clutches.size(), subNests.size(), owner, status);
     }
 }
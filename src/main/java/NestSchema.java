@@ -0,0 +1,213 @@
+import java.util.ArrayList;
+import java.util.List;
+
+// A nest's egg definitions compiled into a chain of checks. Constraint strings and data type
+// names are parsed once here, when the nest is created or CHANGE NEST alters it, instead of on
+// every validation; checking a clutch is then a walk over the chain with no string handling.
+public class NestSchema {
+    public enum Constraint {
+        NOT_NULL,
+        SOLITARY,  // uniqueness; enforced at the nest level, not per clutch
+        ROOSTKEY;  // primary key; likewise
+
+        // The constraint a CREATE NEW NEST / CHANGE NEST keyword names, or null
+        public static Constraint of(String text) {
+            switch (text.trim().toUpperCase()) {
+                case "NOT NULL":
+                case "!NULL":
+                    return NOT_NULL;
+                case "UNIQUE":
+                case "SOLITARY":
+                    return SOLITARY;
+                case "ROOSTKEY":
+                    return ROOSTKEY;
+                default:
+                    return null;
+            }
+        }
+    }
+
+    private final int width;
+    private final Check[] checks;
+
+    private NestSchema(int width, Check[] checks) {
+        this.width = width;
+        this.checks = checks;
+    }
+
+    public static NestSchema compile(List<Egg> definitions) {
+        List<Check> checks = new ArrayList<>();
+        for (int position = 0; position < definitions.size(); position++) {
+            Egg definition = definitions.get(position);
+            if (definition.getConstraints() != null) {
+                for (String text : definition.getConstraints()) {
+                    if (Constraint.of(text) == Constraint.NOT_NULL) {
+                        checks.add(new NotNull(position, definition.getName()));
+                        break;
+                    }
+                }
+            }
+            EggType type = definition.getType();
+            if (type == EggType.INTEGER || type == EggType.FLIGHTMODE) {
+                checks.add(new TypeCheck(position, definition.getName(), type));
+            }
+        }
+        return new NestSchema(definitions.size(), checks.toArray(new Check[0]));
+    }
+
+    // Splits the body of CREATE NEW NEST into egg definitions at commas and line breaks, leaving
+    // anything inside single quotes whole
+    public static List<String> splitDefinitions(String text) {
+        return split(text, ",\n", true);
+    }
+
+    // Parses "egg_name TYPE [CONSTRAINT] [constraint ...]" from CREATE NEW NEST or CHANGE NEST
+    public static Egg parseDefinition(String text) {
+        String[] words = split(text, " \t\r\n", false).toArray(new String[0]);
+        if (words.length < 2 || !words[0].matches("\\w+")) {
+            throw new IllegalArgumentException("Invalid egg definition: '" + text.trim() + "'. Expected: egg_name TYPE [constraints]");
+        }
+        EggType type = EggType.of(words[1]);
+        if (type == null) {
+            throw new IllegalArgumentException("Unknown data type " + words[1] + " for egg " + words[0] +
+                ". Expected: INTEGER, STRINGLIT, MIGRATIONDATE or FLIGHTMODE");
+        }
+        List<String> constraints = new ArrayList<>();
+        for (int i = 2; i < words.length; i++) {
+            String word = words[i];
+            if (word.equalsIgnoreCase("CONSTRAINT")) {
+                continue;
+            }
+            if (word.equalsIgnoreCase("NOT") && i + 1 < words.length) {
+                word = word + " " + words[++i];
+            }
+            if (Constraint.of(word) == null) {
+                throw new IllegalArgumentException("Unknown constraint " + word + " on egg " + words[0] +
+                    ". Expected: NOT NULL, !NULL, SOLITARY, UNIQUE or ROOSTKEY");
+            }
+            constraints.add(word.toUpperCase());
+        }
+        return new Egg(words[0], null, type.name(), constraints.toArray(new String[0]));
+    }
+
+    // Splits at any of the separator characters outside single quotes; quoted text, quotes
+    // included, stays in its piece
+    private static List<String> split(String text, String separators, boolean keepEmpty) {
+        List<String> pieces = new ArrayList<>();
+        StringBuilder piece = new StringBuilder();
+        boolean inQuotes = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '\'') {
+                inQuotes = !inQuotes;
+            } else if (!inQuotes && separators.indexOf(c) >= 0) {
+                if (keepEmpty || piece.length() > 0) {
+                    pieces.add(piece.toString());
+                }
+                piece.setLength(0);
+                continue;
+            }
+            piece.append(c);
+        }
+        if (inQuotes) {
+            throw new IllegalArgumentException("Unterminated quote in egg definitions: " + text.trim());
+        }
+        if (keepEmpty || piece.length() > 0) {
+            pieces.add(piece.toString());
+        }
+        return pieces;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getCheckCount() {
+        return checks.length;
+    }
+
+    public void validate(Clutch clutch) {
+        for (Check check : checks) {
+            if (!check.accepts(clutch.getEgg(check.position))) {
+                throw check.violation();
+            }
+        }
+    }
+
+    // Checks a whole batch one check at a time rather than one clutch at a time, so each pass is
+    // a tight loop over a single egg position with a single, monomorphic test
+    public void validateAll(List<Clutch> batch) {
+        for (Check check : checks) {
+            int position = check.position;
+            for (Clutch clutch : batch) {
+                if (!check.accepts(clutch.getEgg(position))) {
+                    throw check.violation();
+                }
+            }
+        }
+    }
+
+    // For UPDATE NEST: would storing value at position break the schema?
+    public void validateValue(int position, Object value) {
+        Egg probe = new Egg("", value);
+        for (Check check : checks) {
+            if (check.position == position && !check.accepts(probe)) {
+                throw check.violation();
+            }
+        }
+    }
+
+    private abstract static class Check {
+        final int position;
+        final String eggName;
+
+        Check(int position, String eggName) {
+            this.position = position;
+            this.eggName = eggName;
+        }
+
+        abstract boolean accepts(Egg egg);
+
+        abstract IllegalArgumentException violation();
+    }
+
+    private static class NotNull extends Check {
+        NotNull(int position, String eggName) {
+            super(position, eggName);
+        }
+
+        @Override
+        boolean accepts(Egg egg) {
+            return egg != null && !egg.isNull();
+        }
+
+        @Override
+        IllegalArgumentException violation() {
+            return new IllegalArgumentException("Constraint violation on egg: " + eggName);
+        }
+    }
+
+    // INTEGER eggs hold whole numbers and FLIGHTMODE eggs booleans. Nulls are left to NotNull, and
+    // encrypted eggs hold ciphertext, so neither is checked here.
+    private static class TypeCheck extends Check {
+        private final EggType type;
+
+        TypeCheck(int position, String eggName, EggType type) {
+            super(position, eggName);
+            this.type = type;
+        }
+
+        @Override
+        boolean accepts(Egg egg) {
+            if (egg == null || egg.isNull() || egg.isEncrypted()) {
+                return true;
+            }
+            return type == EggType.INTEGER ? egg.isIntegral() : egg.isBoolean();
+        }
+
+        @Override
+        IllegalArgumentException violation() {
+            return new IllegalArgumentException("Type violation on egg: " + eggName + " expects " + type);
+        }
+    }
+}
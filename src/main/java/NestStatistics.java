@@ -0,0 +1,92 @@
+import lombok.Getter;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+// Statistics gathered by ANALYZE NEST: one EggStatistics per egg, built in a single pass over the
+// nest. Histograms come from a reservoir sample so analyzing a large nest stays bounded in memory.
+public class NestStatistics implements Serializable {
+    private static final long serialVersionUID = 1L;
+    public static final int DEFAULT_SAMPLE_SIZE = 10_000;
+
+    @Getter private final long rowCount;
+    @Getter private final long analyzedAt;
+    @Getter private final Map<String, EggStatistics> eggs;
+
+    public NestStatistics(long rowCount, Map<String, EggStatistics> eggs) {
+        this.rowCount = rowCount;
+        this.analyzedAt = System.currentTimeMillis();
+        this.eggs = eggs;
+    }
+
+    public EggStatistics getEgg(String eggName) {
+        return eggs.get(eggName);
+    }
+
+    public static NestStatistics collect(Nest nest) {
+        return collect(nest, DEFAULT_SAMPLE_SIZE, EggStatistics.DEFAULT_BUCKETS);
+    }
+
+    public static NestStatistics collect(Nest nest, int sampleSize, int buckets) {
+        List<Egg> definitions = nest.getEggs();
+        List<Clutch> clutches = nest.getClutches();
+        int width = definitions.size();
+
+        long[] nulls = new long[width];
+        HyperLogLog[] distinct = new HyperLogLog[width];
+        Object[][] samples = new Object[width][sampleSize];
+        long[] seen = new long[width];
+        for (int i = 0; i < width; i++) {
+            distinct[i] = new HyperLogLog();
+        }
+
+        // Fixed seed: analyzing an unchanged nest twice gives the same histograms
+        Random random = new Random(42);
+        for (Clutch clutch : clutches) {
+            for (int i = 0; i < width; i++) {
+                Object value = nest.valueOf(clutch, i);
+                if (value == null) {
+                    nulls[i]++;
+                    continue;
+                }
+                distinct[i].add(value);
+                long position = seen[i]++;
+                if (position < sampleSize) {
+                    samples[i][(int) position] = value;
+                } else {
+                    long slot = (long) (random.nextDouble() * (position + 1));
+                    if (slot < sampleSize) {
+                        samples[i][(int) slot] = value;
+                    }
+                }
+            }
+        }
+
+        Map<String, EggStatistics> eggs = new LinkedHashMap<>();
+        for (int i = 0; i < width; i++) {
+            Object[] sample = Arrays.copyOf(samples[i], (int) Math.min(seen[i], sampleSize));
+            try {
+                Arrays.sort(sample, FindCondition::compareValues);
+            } catch (IllegalArgumentException e) {
+                // Mixed value types can make compareValues inconsistent; text order still works
+                Arrays.sort(sample, (left, right) -> left.toString().compareTo(right.toString()));
+            }
+            String eggName = definitions.get(i).getName();
+            eggs.put(eggName, new EggStatistics(eggName, clutches.size(), nulls[i], distinct[i], sample, buckets));
+        }
+        return new NestStatistics(clutches.size(), eggs);
+    }
+
+    @Override
+    public String toString() {
+        List<String> lines = new ArrayList<>();
+        for (EggStatistics egg : eggs.values()) {
+            lines.add("  " + egg);
+        }
+        return String.format("NestStatistics[rows=%d]%n%s", rowCount, String.join(System.lineSeparator(), lines));
+    }
+}
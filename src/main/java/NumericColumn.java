@@ -0,0 +1,160 @@
+import lombok.Getter;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+import java.util.regex.Pattern;
+
+// One INTEGER or MIGRATIONDATE egg of every clutch in a nest, copied into an int array for the
+// NumericKernels. Row i is clutch i of the nest at the version the column was built for, which
+// is why Nest hands columns out and drops them as soon as the nest changes.
+//
+// MIGRATIONDATE eggs hold yyyy-MM-dd strings and FIND compares them as strings; for such strings
+// that is date order, so the column holds them as epoch days and compares those instead.
+public class NumericColumn {
+    private static final Pattern ISO_DATE = Pattern.compile("\\d{4}-\\d{2}-\\d{2}");
+
+    @Getter private final EggType type;
+    @Getter private final long version;
+    @Getter private final int size;
+    // 0 for null eggs, which present leaves unset
+    private final int[] values;
+    private final long[] present;
+
+    private NumericColumn(EggType type, long version, int[] values, long[] present) {
+        this.type = type;
+        this.version = version;
+        this.size = values.length;
+        this.values = values;
+        this.present = present;
+    }
+
+    // Null when some egg can't be held: an encrypted egg, an integer outside int range, or a
+    // MIGRATIONDATE that isn't a plain yyyy-MM-dd date
+    public static NumericColumn build(List<Clutch> clutches, int position, EggType type, long version) {
+        if (type != EggType.INTEGER && type != EggType.MIGRATIONDATE) {
+            return null;
+        }
+        int[] values = new int[clutches.size()];
+        long[] present = new long[NumericKernels.words(values.length)];
+        for (int i = 0; i < values.length; i++) {
+            Egg egg = clutches.get(i).getEgg(position);
+            if (egg == null || egg.isNull()) {
+                continue;
+            }
+            if (egg.isEncrypted()) {
+                return null;
+            }
+            Integer value = type == EggType.INTEGER ? encodeInteger(egg) : encodeDate(egg.getValue());
+            if (value == null) {
+                return null;
+            }
+            values[i] = value;
+            present[i >>> 6] |= 1L << i;
+        }
+        return new NumericColumn(type, version, values, present);
+    }
+
+    // The int a FIND literal compares as, or null when the column can't evaluate a comparison
+    // with it the way FindCondition would
+    public Integer encode(Object literal) {
+        if (type == EggType.MIGRATIONDATE) {
+            return encodeDate(literal);
+        }
+        if (literal instanceof Integer) {
+            return (Integer) literal;
+        }
+        return null;
+    }
+
+    // The egg value an encoded int stands for, as MIN and MAX return it
+    public Object decode(int value) {
+        return type == EggType.MIGRATIONDATE ? LocalDate.ofEpochDay(value).toString() : (Object) value;
+    }
+
+    // Rows where condition holds, into mask; a null egg only passes !=, as in FindCondition
+    public void compare(NumericKernels kernels, FindCondition condition, long[] mask) {
+        NumericKernels.Comparison comparison = NumericKernels.Comparison.of(condition.getOperator());
+        Integer operand = encode(condition.getLiteral());
+        if (comparison == null || operand == null) {
+            throw new IllegalArgumentException("Condition " + condition + " can't run on a column");
+        }
+        kernels.compare(values, size, comparison, operand, mask);
+        for (int w = 0; w < present.length; w++) {
+            mask[w] = comparison == NumericKernels.Comparison.NE ? mask[w] | ~present[w] : mask[w] & present[w];
+        }
+        if ((size & 63) != 0) {
+            mask[present.length - 1] &= (1L << size) - 1;
+        }
+    }
+
+    // Rows that pass every condition, conditions[i] being on columns[i]
+    public static long[] select(NumericKernels kernels, FindCondition[] conditions, NumericColumn[] columns,
+                                CancellationToken token) {
+        long[] selected = null;
+        long[] matches = null;
+        for (int i = 0; i < conditions.length; i++) {
+            if (token != null) {
+                token.throwIfCancelled();
+            }
+            if (selected == null) {
+                selected = new long[NumericKernels.words(columns[i].size)];
+                columns[i].compare(kernels, conditions[i], selected);
+                continue;
+            }
+            if (matches == null) {
+                matches = new long[selected.length];
+            }
+            columns[i].compare(kernels, conditions[i], matches);
+            for (int w = 0; w < selected.length; w++) {
+                selected[w] &= matches[w];
+            }
+        }
+        return selected;
+    }
+
+    // selected, or every row when it is null, narrowed to the rows whose egg isn't null
+    public long[] presentIn(long[] selected) {
+        long[] mask = present.clone();
+        if (selected != null) {
+            for (int w = 0; w < mask.length; w++) {
+                mask[w] &= selected[w];
+            }
+        }
+        return mask;
+    }
+
+    public long count(NumericKernels kernels, long[] mask) {
+        return kernels.count(mask, size);
+    }
+
+    public long sum(NumericKernels kernels, long[] mask) {
+        return kernels.sum(values, mask, size);
+    }
+
+    // MIN or MAX of the masked rows, decoded; null when the mask is empty
+    public Object extreme(NumericKernels kernels, long[] mask, boolean max) {
+        if (kernels.count(mask, size) == 0) {
+            return null;
+        }
+        return decode(max ? kernels.max(values, mask, size) : kernels.min(values, mask, size));
+    }
+
+    private static Integer encodeInteger(Egg egg) {
+        if (!egg.isIntegral()) {
+            return null;
+        }
+        long value = egg.getLong();
+        return value == (int) value ? (Integer) (int) value : null;
+    }
+
+    private static Integer encodeDate(Object value) {
+        if (!(value instanceof String) || !ISO_DATE.matcher((String) value).matches()) {
+            return null;
+        }
+        try {
+            return (int) LocalDate.parse((String) value).toEpochDay();
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+}
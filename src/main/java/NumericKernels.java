@@ -0,0 +1,142 @@
+// Column kernels behind ColumnScan and ColumnFlock: comparisons that turn an int column into a
+// bitmask (bit i of word i / 64 is clutch i), and count, sum, min and max over the set bits.
+//
+// get() picks the implementation once per JVM. VectorKernels uses the jdk.incubator.vector API
+// and is only loadable when the JVM runs with --add-modules jdk.incubator.vector; without it,
+// with -Dbdl.simd=false, or on hardware with no vector shape worth using, the plain loops in
+// Scalar are used instead. Both give identical results.
+public abstract class NumericKernels {
+    public enum Comparison {
+        EQ, NE, LT, LE, GT, GE;
+
+        // The comparison a FIND operator spells, or null for MATCHES, SEARCH and the like
+        public static Comparison of(String operator) {
+            switch (operator) {
+                case "=": return EQ;
+                case "!=": return NE;
+                case "<": return LT;
+                case "<=": return LE;
+                case ">": return GT;
+                case ">=": return GE;
+                default: return null;
+            }
+        }
+
+        boolean test(int value, int operand) {
+            switch (this) {
+                case EQ: return value == operand;
+                case NE: return value != operand;
+                case LT: return value < operand;
+                case LE: return value <= operand;
+                case GT: return value > operand;
+                default: return value >= operand;
+            }
+        }
+    }
+
+    private static final NumericKernels SELECTED = select();
+
+    public static NumericKernels get() {
+        return SELECTED;
+    }
+
+    private static NumericKernels select() {
+        if (!Boolean.parseBoolean(System.getProperty("bdl.simd", "true"))) {
+            return new Scalar();
+        }
+        try {
+            return (NumericKernels) Class.forName("VectorKernels").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            // jdk.incubator.vector isn't in the module graph, or VectorKernels turned the CPU down
+            return new Scalar();
+        }
+    }
+
+    public static int words(int length) {
+        return (length + 63) >>> 6;
+    }
+
+    // For EXPLAIN, e.g. "scalar" or "vector, 16 lanes"
+    public abstract String getName();
+
+    // Overwrites the first words(length) words of mask with the rows where value op operand holds
+    public abstract void compare(int[] values, int length, Comparison comparison, int operand, long[] mask);
+
+    // Exact sum of the values whose bit is set; length must be below 2^31, so it can't overflow
+    public abstract long sum(int[] values, long[] mask, int length);
+
+    // Least and greatest value whose bit is set; Integer.MAX_VALUE / MIN_VALUE when none is
+    public abstract int min(int[] values, long[] mask, int length);
+
+    public abstract int max(int[] values, long[] mask, int length);
+
+    public long count(long[] mask, int length) {
+        long count = 0;
+        for (int w = 0, words = words(length); w < words; w++) {
+            count += Long.bitCount(mask[w]);
+        }
+        return count;
+    }
+
+    public static class Scalar extends NumericKernels {
+        @Override
+        public String getName() {
+            return "scalar";
+        }
+
+        @Override
+        public void compare(int[] values, int length, Comparison comparison, int operand, long[] mask) {
+            for (int base = 0; base < length; base += 64) {
+                long word = 0;
+                for (int j = 0, end = Math.min(64, length - base); j < end; j++) {
+                    if (comparison.test(values[base + j], operand)) {
+                        word |= 1L << j;
+                    }
+                }
+                mask[base >>> 6] = word;
+            }
+        }
+
+        @Override
+        public long sum(int[] values, long[] mask, int length) {
+            long sum = 0;
+            for (int w = 0, words = words(length); w < words; w++) {
+                int base = w << 6;
+                if (mask[w] == -1L) {
+                    for (int j = 0; j < 64; j++) {
+                        sum += values[base + j];
+                    }
+                    continue;
+                }
+                for (long word = mask[w]; word != 0; word &= word - 1) {
+                    sum += values[base + Long.numberOfTrailingZeros(word)];
+                }
+            }
+            return sum;
+        }
+
+        @Override
+        public int min(int[] values, long[] mask, int length) {
+            int min = Integer.MAX_VALUE;
+            for (int w = 0, words = words(length); w < words; w++) {
+                int base = w << 6;
+                for (long word = mask[w]; word != 0; word &= word - 1) {
+                    min = Math.min(min, values[base + Long.numberOfTrailingZeros(word)]);
+                }
+            }
+            return min;
+        }
+
+        @Override
+        public int max(int[] values, long[] mask, int length) {
+            int max = Integer.MIN_VALUE;
+            for (int w = 0, words = words(length); w < words; w++) {
+                int base = w << 6;
+                for (long word = mask[w]; word != 0; word &= word - 1) {
+                    max = Math.max(max, values[base + Long.numberOfTrailingZeros(word)]);
+                }
+            }
+            return max;
+        }
+    }
+}
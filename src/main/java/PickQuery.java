@@ -0,0 +1,277 @@
+import lombok.Getter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+// Parsed form of: PICK EGG [SPECIFIC] egg1,egg2,... [FLAGS] FROM nest_name [FIND condition]
+//                 [FLOCK BY egg1,egg2] [SORT BY egg [ASCO|DESCO]] [LIMIT BY offset, count]
+//                 [AFTER 'token']
+// The egg list may mix in aggregates such as COUNTFEATHER(*) or SWARM(weight) AS total.
+// AFTER takes the continuation token of the previous page (see ContinuationToken).
+public class PickQuery {
+    @Getter private final List<String> eggNames;
+    @Getter private final String nestName;
+    @Getter private final List<FindCondition> conditions;
+    @Getter private final String sortEgg;
+    @Getter private final boolean sortDescending;
+    @Getter private final int offset;
+    @Getter private final int limit;
+    @Getter private final boolean specific;
+    @Getter private final Set<String> flags;
+    @Getter private final List<String> groupEggs;
+    // The aggregates in the egg list, in order; empty for a plain PICK
+    @Getter private final List<Aggregate> aggregates;
+    // Continuation token from AFTER; null for a first page
+    @Getter private final String after;
+
+    public PickQuery(List<String> eggNames, String nestName, List<FindCondition> conditions,
+                     String sortEgg, boolean sortDescending, int offset, int limit,
+                     boolean specific, Set<String> flags) {
+        this(eggNames, nestName, conditions, sortEgg, sortDescending, offset, limit, specific, flags, new ArrayList<>());
+    }
+
+    public PickQuery(List<String> eggNames, String nestName, List<FindCondition> conditions,
+                     String sortEgg, boolean sortDescending, int offset, int limit,
+                     boolean specific, Set<String> flags, List<String> groupEggs) {
+        this(eggNames, nestName, conditions, sortEgg, sortDescending, offset, limit, specific, flags, groupEggs, null);
+    }
+
+    public PickQuery(List<String> eggNames, String nestName, List<FindCondition> conditions,
+                     String sortEgg, boolean sortDescending, int offset, int limit,
+                     boolean specific, Set<String> flags, List<String> groupEggs, String after) {
+        this.eggNames = eggNames;
+        this.nestName = nestName;
+        this.conditions = conditions;
+        this.sortEgg = sortEgg;
+        this.sortDescending = sortDescending;
+        this.offset = offset;
+        this.limit = limit;
+        this.specific = specific;
+        this.flags = flags;
+        this.groupEggs = groupEggs;
+        this.after = after;
+        this.aggregates = new ArrayList<>();
+        List<String> plainEggs = new ArrayList<>();
+        for (String item : eggNames) {
+            Aggregate aggregate = Aggregate.parse(item);
+            if (aggregate != null) {
+                aggregates.add(aggregate);
+            } else {
+                plainEggs.add(item);
+            }
+        }
+        for (String item : plainEggs) {
+            if (isAggregate() && !groupEggs.contains(item) && !item.equals("*")) {
+                throw new IllegalArgumentException("Egg " + item + " must be in FLOCK BY or inside an aggregate");
+            }
+        }
+        if (isAggregate() && isPickAll()) {
+            throw new IllegalArgumentException("PICK EGG * can't be combined with FLOCK BY");
+        }
+        if (after != null && !isKeyset()) {
+            throw new IllegalArgumentException("AFTER needs SORT BY and LIMIT BY, and works without SPECIFIC, FLOCK BY or aggregates");
+        }
+    }
+
+    // Pages of this query come with a continuation token: a plain PICK sorted by one egg and
+    // limited to a page
+    public boolean isKeyset() {
+        return sortEgg != null && limit != Integer.MAX_VALUE && !specific && !isAggregate();
+    }
+
+    // FLOCK BY, or aggregates in the egg list
+    public boolean isAggregate() {
+        return !groupEggs.isEmpty() || !aggregates.isEmpty();
+    }
+
+    // Names of the result's eggs in egg-list order, with aggregates under their result names;
+    // null for PICK EGG *, whose names come from the nest
+    public List<String> getOutputNames() {
+        if (isPickAll()) {
+            return null;
+        }
+        List<String> names = new ArrayList<>(eggNames.size());
+        for (String item : eggNames) {
+            Aggregate aggregate = Aggregate.parse(item);
+            names.add(aggregate == null ? item : aggregate.getName());
+        }
+        return names;
+    }
+
+    public boolean isPickAll() {
+        return eggNames.size() == 1 && eggNames.get(0).equals("*");
+    }
+
+    public boolean hasFlag(String flag) {
+        return flags.contains(flag);
+    }
+
+    public static PickQuery parse(String[] tokens) {
+        if (tokens.length < 4 || !tokens[0].equalsIgnoreCase("PICK") || !tokens[1].equalsIgnoreCase("EGG")) {
+            throw new IllegalArgumentException("Invalid PICK command format. Expected: PICK EGG egg1,egg2 FROM nest_name");
+        }
+
+        Set<String> flags = new LinkedHashSet<>();
+        int i = 2;
+        boolean specific = false;
+        if (tokens[i].equalsIgnoreCase("SPECIFIC")) {
+            specific = true;
+            i++;
+        }
+
+        // Egg list runs up to FROM; flags may be mixed in anywhere
+        StringBuilder eggList = new StringBuilder();
+        while (i < tokens.length && !tokens[i].equalsIgnoreCase("FROM")) {
+            if (isFlag(tokens[i])) {
+                flags.add(tokens[i].toLowerCase());
+            } else {
+                eggList.append(' ').append(tokens[i]);
+            }
+            i++;
+        }
+        if (i >= tokens.length - 1 || eggList.length() == 0) {
+            throw new IllegalArgumentException("Invalid PICK command format. Expected: PICK EGG egg1,egg2 FROM nest_name");
+        }
+        List<String> eggNames = new ArrayList<>();
+        for (String eggName : splitItems(eggList.toString())) {
+            if (!eggName.trim().isEmpty()) {
+                eggNames.add(eggName.trim().replaceAll("\\s+", " "));
+            }
+        }
+        String nestName = tokens[++i].replace("'", "");
+        i++;
+
+        List<FindCondition> conditions = new ArrayList<>();
+        List<String> groupEggs = new ArrayList<>();
+        String sortEgg = null;
+        boolean sortDescending = false;
+        int offset = 0;
+        int limit = Integer.MAX_VALUE;
+        String after = null;
+
+        while (i < tokens.length) {
+            String keyword = tokens[i].toUpperCase();
+            if (isFlag(tokens[i])) {
+                flags.add(tokens[i].toLowerCase());
+                i++;
+            } else if (keyword.equals("FIND") || keyword.equals("PERCH") || keyword.equals("WHERE")) {
+                int end = nextClause(tokens, i + 1);
+                conditions.addAll(FindCondition.parseAll(String.join(" ", Arrays.copyOfRange(tokens, i + 1, end))));
+                i = end;
+            } else if ((keyword.equals("FLOCK") || keyword.equals("GROUP")) &&
+                       i + 2 < tokens.length && tokens[i + 1].equalsIgnoreCase("BY")) {
+                int end = nextClause(tokens, i + 2);
+                for (String eggName : String.join("", Arrays.copyOfRange(tokens, i + 2, end)).split(",")) {
+                    if (!eggName.isEmpty()) {
+                        groupEggs.add(eggName);
+                    }
+                }
+                i = end;
+            } else if ((keyword.equals("SORT") || keyword.equals("ARRANGE")) &&
+                       i + 2 < tokens.length && tokens[i + 1].equalsIgnoreCase("BY")) {
+                sortEgg = tokens[i + 2];
+                i += 3;
+                if (i < tokens.length && (tokens[i].equalsIgnoreCase("ASCO") || tokens[i].equalsIgnoreCase("DESCO"))) {
+                    sortDescending = tokens[i].equalsIgnoreCase("DESCO");
+                    i++;
+                }
+            } else if (keyword.equals("LIMIT") && i + 2 < tokens.length && tokens[i + 1].equalsIgnoreCase("BY")) {
+                int end = nextClause(tokens, i + 2);
+                String[] bounds = String.join("", Arrays.copyOfRange(tokens, i + 2, end)).split(",");
+                try {
+                    if (bounds.length == 1) {
+                        limit = Integer.parseInt(bounds[0]);
+                    } else {
+                        offset = Integer.parseInt(bounds[0]);
+                        limit = Integer.parseInt(bounds[1]);
+                    }
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid LIMIT BY format. Expected: LIMIT BY offset, count");
+                }
+                i = end;
+            } else if (isAfter(tokens, i)) {
+                after = tokens[i + 1].replace("'", "");
+                i += 2;
+            } else {
+                throw new IllegalArgumentException("Unexpected token in PICK command: " + tokens[i]);
+            }
+        }
+
+        return new PickQuery(eggNames, nestName, conditions, sortEgg, sortDescending,
+            offset, limit, specific, flags, groupEggs, after);
+    }
+
+    // Canonical form of the query: keyword case, spacing and flags don't change it, literals do
+    public String getNormalizedText() {
+        StringBuilder text = new StringBuilder(getPagedText());
+        if (offset > 0 || limit != Integer.MAX_VALUE) text.append(" LIMIT BY ").append(offset).append(',').append(limit);
+        if (after != null) text.append(" AFTER '").append(after).append('\'');
+        return text.toString();
+    }
+
+    // The normalized text without LIMIT BY and AFTER, which is the same for every page
+    public String getPagedText() {
+        StringBuilder text = new StringBuilder("PICK EGG ");
+        if (specific) text.append("SPECIFIC ");
+        text.append(String.join(",", eggNames)).append(" FROM ").append(nestName);
+        for (int i = 0; i < conditions.size(); i++) {
+            text.append(i == 0 ? " FIND " : " AND ").append(conditions.get(i));
+        }
+        if (!groupEggs.isEmpty()) text.append(" FLOCK BY ").append(String.join(",", groupEggs));
+        if (sortEgg != null) text.append(" SORT BY ").append(sortEgg).append(sortDescending ? " DESCO" : " ASCO");
+        return text.toString();
+    }
+
+    // Splits the egg list on commas outside parentheses, so APPROXPERCENTILE(egg, 0.9) stays whole
+    private static List<String> splitItems(String eggList) {
+        List<String> items = new ArrayList<>();
+        int depth = 0;
+        int start = 0;
+        for (int i = 0; i < eggList.length(); i++) {
+            char c = eggList.charAt(i);
+            if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            } else if (c == ',' && depth == 0) {
+                items.add(eggList.substring(start, i));
+                start = i + 1;
+            }
+        }
+        items.add(eggList.substring(start));
+        return items;
+    }
+
+    private static boolean isFlag(String token) {
+        return token.length() > 1 && token.startsWith("-") && !Character.isDigit(token.charAt(1));
+    }
+
+    // AFTER 'token'; the quotes keep an egg called after in a FIND from ending the clause
+    private static boolean isAfter(String[] tokens, int i) {
+        return tokens[i].equalsIgnoreCase("AFTER") && i + 1 < tokens.length && tokens[i + 1].startsWith("'");
+    }
+
+    private static int nextClause(String[] tokens, int from) {
+        int i = from;
+        while (i < tokens.length) {
+            String token = tokens[i].toUpperCase();
+            if (isFlag(tokens[i]) || isAfter(tokens, i) || token.equals("FIND") || token.equals("PERCH") || token.equals("WHERE") ||
+                ((token.equals("SORT") || token.equals("ARRANGE") || token.equals("LIMIT") ||
+                  token.equals("FLOCK") || token.equals("GROUP")) &&
+                 i + 1 < tokens.length && tokens[i + 1].equalsIgnoreCase("BY"))) {
+                break;
+            }
+            i++;
+        }
+        return i;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("PickQuery[eggs=%s, nest=%s, find=%s, flock=%s, sort=%s%s, offset=%d, limit=%d%s]",
+            eggNames, nestName, conditions, groupEggs, sortEgg, sortDescending ? " DESCO" : "", offset, limit,
+            after == null ? "" : ", after=" + after);
+    }
+}
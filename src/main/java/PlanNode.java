@@ -0,0 +1,106 @@
+import lombok.Getter;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// One step of an EXPLAIN plan: what the step does, how many clutches the planner expects from it
+// and, after EXPLAIN ANALYZE, how many it actually produced and the time and memory it took.
+// Time and memory are inclusive of children; render() also prints each step's own share.
+public class PlanNode {
+    @Getter private final String label;
+    @Getter private final long estimatedRows;
+    @Getter private final List<PlanNode> children;
+    @Getter private boolean analyzed;
+    @Getter private long actualRows;
+    @Getter private long nanos;
+    @Getter private long allocatedBytes;
+
+    private static final com.sun.management.ThreadMXBean THREADS = allocationBean();
+
+    public PlanNode(String label, long estimatedRows, PlanNode... children) {
+        this.label = label;
+        this.estimatedRows = estimatedRows;
+        this.children = new ArrayList<>(Arrays.asList(children));
+    }
+
+    public void record(long actualRows, long nanos, long allocatedBytes) {
+        this.analyzed = true;
+        this.actualRows = actualRows;
+        this.nanos = nanos;
+        this.allocatedBytes = allocatedBytes;
+    }
+
+    // Builds the plan from an operator tree, taking actual figures from any Profiled operators
+    public static PlanNode of(QueryOperator operator) {
+        PlanNode node = new PlanNode(operator.describe(), operator.getEstimatedRows());
+        if (operator instanceof QueryOperator.Profiled) {
+            QueryOperator.Profiled profiled = (QueryOperator.Profiled) operator;
+            if (profiled.isStarted()) {
+                node.record(profiled.getRows(), profiled.getNanos(), profiled.getAllocatedBytes());
+            }
+        }
+        for (QueryOperator child : operator.getChildren()) {
+            node.children.add(of(child));
+        }
+        return node;
+    }
+
+    // Bytes allocated so far by the calling thread, or -1 where the JVM can't tell
+    public static long currentThreadAllocatedBytes() {
+        return THREADS == null ? -1 : THREADS.getCurrentThreadAllocatedBytes();
+    }
+
+    private static com.sun.management.ThreadMXBean allocationBean() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return null;
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        if (!threads.isThreadAllocatedMemorySupported()) {
+            return null;
+        }
+        threads.setThreadAllocatedMemoryEnabled(true);
+        return threads;
+    }
+
+    public String render() {
+        StringBuilder out = new StringBuilder();
+        render(out, "");
+        return out.toString();
+    }
+
+    private void render(StringBuilder out, String indent) {
+        out.append(indent).append("-> ").append(label);
+        out.append("  (est. rows=").append(estimatedRows < 0 ? "?" : String.valueOf(estimatedRows)).append(")");
+        if (analyzed) {
+            long childNanos = 0;
+            long childBytes = 0;
+            for (PlanNode child : children) {
+                childNanos += child.nanos;
+                childBytes += child.allocatedBytes;
+            }
+            out.append(String.format("  (actual rows=%d, time=%.3f ms, self=%.3f ms",
+                actualRows, nanos / 1e6, Math.max(0, nanos - childNanos) / 1e6));
+            if (allocatedBytes >= 0) {
+                out.append(", memory=").append(formatBytes(allocatedBytes))
+                   .append(", self=").append(formatBytes(Math.max(0, allocatedBytes - childBytes)));
+            }
+            out.append(")");
+        }
+        out.append("\n");
+        for (PlanNode child : children) {
+            child.render(out, indent + "   ");
+        }
+    }
+
+    private static String formatBytes(long bytes) {
+        if (bytes < 1024) {
+            return bytes + " B";
+        }
+        if (bytes < 1024 * 1024) {
+            return String.format("%.1f KB", bytes / 1024.0);
+        }
+        return String.format("%.1f MB", bytes / (1024.0 * 1024));
+    }
+}
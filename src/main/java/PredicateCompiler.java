@@ -0,0 +1,303 @@
+import lombok.Getter;
+import lombok.Setter;
+import net.bytebuddy.ByteBuddy;
+import net.bytebuddy.asm.AsmVisitorWrapper;
+import net.bytebuddy.description.method.MethodDescription;
+import net.bytebuddy.dynamic.loading.ClassLoadingStrategy;
+import net.bytebuddy.implementation.Implementation;
+import net.bytebuddy.implementation.bytecode.ByteCodeAppender;
+import net.bytebuddy.jar.asm.ClassWriter;
+import net.bytebuddy.jar.asm.Label;
+import net.bytebuddy.jar.asm.MethodVisitor;
+import net.bytebuddy.jar.asm.Opcodes;
+import net.bytebuddy.jar.asm.Type;
+import net.bytebuddy.matcher.ElementMatchers;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Turns hot WHILE clauses into generated classes. A condition set runs through the interpreter
+// until it has been seen compileThreshold times (or targets a nest big enough that a single scan
+// pays for compiling), after which ByteBuddy emits a ClutchPredicate with its comparisons on
+// int, string and boolean literals inlined and type-specialized. Generated predicates are cached
+// by condition set and egg positions, so every plan with the same WHILE clause shares one class.
+public class PredicateCompiler {
+    public static final int DEFAULT_COMPILE_THRESHOLD = 3;
+    public static final long DEFAULT_COMPILE_ROWS = 100_000;
+    public static final int DEFAULT_MAX_ENTRIES = 256;
+
+    @Getter @Setter private int compileThreshold = DEFAULT_COMPILE_THRESHOLD;
+    @Getter @Setter private long compileRows = DEFAULT_COMPILE_ROWS;
+    @Getter @Setter private boolean enabled = true;
+
+    private final ByteBuddy byteBuddy = new ByteBuddy();
+    private final Map<String, Entry> entries;
+
+    private static final String CLUTCH = Type.getInternalName(Clutch.class);
+    private static final String EGG = Type.getInternalName(Egg.class);
+    private static final String COMPILED = Type.getInternalName(Compiled.class);
+    private static final String CONDITION = Type.getInternalName(FindCondition.class);
+
+    public PredicateCompiler() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    public PredicateCompiler(int maxEntries) {
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    // The predicate for conditions on the eggs at positions. expectedRows is how many clutches the
+    // caller is about to test; a large scan is compiled on first sight rather than after warming up.
+    public ClutchPredicate predicateFor(List<FindCondition> conditions, int[] positions, long expectedRows) {
+        FindCondition[] array = conditions.toArray(new FindCondition[0]);
+        if (!enabled || array.length == 0) {
+            return new Interpreted(array, positions);
+        }
+        String key = keyFor(array, positions);
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.computeIfAbsent(key, k -> new Entry());
+        }
+        synchronized (entry) {
+            entry.hits++;
+            if (entry.factory == null && !entry.failed &&
+                (entry.hits >= compileThreshold || expectedRows >= compileRows)) {
+                try {
+                    entry.factory = compile(array, positions);
+                } catch (RuntimeException | ReflectiveOperationException | LinkageError e) {
+                    // Never fail a query over this; the interpreter gives the same answers
+                    entry.failed = true;
+                }
+            }
+            if (entry.factory != null) {
+                try {
+                    return entry.factory.newInstance((Object) array);
+                } catch (ReflectiveOperationException e) {
+                    entry.failed = true;
+                    entry.factory = null;
+                }
+            }
+        }
+        return new Interpreted(array, positions);
+    }
+
+    public int getCompiledCount() {
+        synchronized (entries) {
+            int compiled = 0;
+            for (Entry entry : entries.values()) {
+                if (entry.factory != null) {
+                    compiled++;
+                }
+            }
+            return compiled;
+        }
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    // Literals are baked into the generated code, so they (and their types) are part of the key
+    private static String keyFor(FindCondition[] conditions, int[] positions) {
+        StringBuilder key = new StringBuilder();
+        for (int i = 0; i < conditions.length; i++) {
+            Object literal = conditions[i].getLiteral();
+            key.append(positions[i]).append('\u0000')
+               .append(conditions[i].getOperator()).append('\u0000')
+               .append(literal == null ? "null" : literal.getClass().getName()).append('\u0000')
+               .append(literal).append('\u0001');
+        }
+        return key.toString();
+    }
+
+    private java.lang.reflect.Constructor<? extends Compiled> compile(FindCondition[] conditions, int[] positions)
+            throws ReflectiveOperationException {
+        Class<? extends Compiled> type = byteBuddy
+            .subclass(Compiled.class)
+            .method(ElementMatchers.named("test"))
+            .intercept(new Implementation.Simple(new PredicateAppender(conditions, positions)))
+            .visit(new AsmVisitorWrapper.ForDeclaredMethods().writerFlags(ClassWriter.COMPUTE_FRAMES))
+            .make()
+            .load(Compiled.class.getClassLoader(), ClassLoadingStrategy.Default.WRAPPER)
+            .getLoaded();
+        return type.getConstructor(FindCondition[].class);
+    }
+
+    private static class Entry {
+        int hits;
+        boolean failed;
+        java.lang.reflect.Constructor<? extends Compiled> factory;
+    }
+
+    // Tests the conditions one after another through FindCondition.test
+    public static class Interpreted implements ClutchPredicate {
+        private final FindCondition[] conditions;
+        private final int[] positions;
+
+        public Interpreted(FindCondition[] conditions, int[] positions) {
+            this.conditions = conditions;
+            this.positions = positions;
+        }
+
+        @Override
+        public boolean test(Clutch clutch) {
+            for (int i = 0; i < conditions.length; i++) {
+                if (!conditions[i].test(clutch.getEgg(positions[i]))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    // Superclass of the generated predicates. Conditions the generator can't specialize (and
+    // values whose type doesn't match the literal's) still go through conditions[i].test.
+    public abstract static class Compiled implements ClutchPredicate {
+        protected final FindCondition[] conditions;
+
+        public Compiled(FindCondition[] conditions) {
+            this.conditions = conditions;
+        }
+
+        @Override
+        public boolean isCompiled() {
+            return true;
+        }
+    }
+
+    // Emits test(Clutch): for each condition load the egg into local 2, check it inline where the
+    // literal's type allows it, and jump to the shared "return false" on the first miss. Integer
+    // and boolean checks read the egg's unboxed value; string checks read its reference (local 3).
+    private static class PredicateAppender implements ByteCodeAppender {
+        private final FindCondition[] conditions;
+        private final int[] positions;
+
+        PredicateAppender(FindCondition[] conditions, int[] positions) {
+            this.conditions = conditions;
+            this.positions = positions;
+        }
+
+        @Override
+        public Size apply(MethodVisitor method, Implementation.Context context, MethodDescription instrumented) {
+            Label fail = new Label();
+            for (int i = 0; i < conditions.length; i++) {
+                method.visitVarInsn(Opcodes.ALOAD, 1);
+                method.visitLdcInsn(positions[i]);
+                method.visitMethodInsn(Opcodes.INVOKEVIRTUAL, CLUTCH, "getEgg", "(I)L" + EGG + ";", false);
+                method.visitVarInsn(Opcodes.ASTORE, 2);
+                emitCondition(method, i, fail);
+            }
+            method.visitInsn(Opcodes.ICONST_1);
+            method.visitInsn(Opcodes.IRETURN);
+            method.visitLabel(fail);
+            method.visitInsn(Opcodes.ICONST_0);
+            method.visitInsn(Opcodes.IRETURN);
+            return new Size(4, 4);
+        }
+
+        private void emitCondition(MethodVisitor method, int i, Label fail) {
+            FindCondition condition = conditions[i];
+            String operator = condition.getOperator();
+            Object literal = condition.getLiteral();
+
+            if (operator.equals("MATCHES") && literal != null) {
+                method.visitVarInsn(Opcodes.ALOAD, 2);
+                method.visitJumpInsn(Opcodes.IFNULL, fail);
+                method.visitVarInsn(Opcodes.ALOAD, 2);
+                method.visitMethodInsn(Opcodes.INVOKEVIRTUAL, EGG, "getValue", "()Ljava/lang/Object;", false);
+                method.visitLdcInsn(Egg.foldCase(literal.toString()));
+                method.visitMethodInsn(Opcodes.INVOKESTATIC, EGG, "containsFolded",
+                    "(Ljava/lang/Object;Ljava/lang/String;)Z", false);
+                method.visitJumpInsn(Opcodes.IFEQ, fail);
+                return;
+            }
+            int missOpcode = missOpcode(operator);
+            boolean specialized = missOpcode >= 0 &&
+                (literal instanceof Integer || literal instanceof String ||
+                 (literal instanceof Boolean && (operator.equals("=") || operator.equals("!="))));
+            if (!specialized) {
+                emitInterpreted(method, i, fail);
+                return;
+            }
+
+            // Fast path when the egg holds a value of the literal's type; anything else falls back below
+            Label generic = new Label();
+            Label next = new Label();
+            method.visitVarInsn(Opcodes.ALOAD, 2);
+            method.visitJumpInsn(Opcodes.IFNULL, generic);
+            if (literal instanceof Integer) {
+                method.visitVarInsn(Opcodes.ALOAD, 2);
+                method.visitMethodInsn(Opcodes.INVOKEVIRTUAL, EGG, "isIntegral", "()Z", false);
+                method.visitJumpInsn(Opcodes.IFEQ, generic);
+                method.visitVarInsn(Opcodes.ALOAD, 2);
+                method.visitMethodInsn(Opcodes.INVOKEVIRTUAL, EGG, "getLong", "()J", false);
+                method.visitLdcInsn(((Integer) literal).longValue());
+                method.visitInsn(Opcodes.LCMP);
+                method.visitJumpInsn(missOpcode, fail);
+            } else if (literal instanceof Boolean) {
+                method.visitVarInsn(Opcodes.ALOAD, 2);
+                method.visitMethodInsn(Opcodes.INVOKEVIRTUAL, EGG, "isBoolean", "()Z", false);
+                method.visitJumpInsn(Opcodes.IFEQ, generic);
+                method.visitVarInsn(Opcodes.ALOAD, 2);
+                method.visitMethodInsn(Opcodes.INVOKEVIRTUAL, EGG, "getBoolean", "()Z", false);
+                method.visitInsn((Boolean) literal ? Opcodes.ICONST_1 : Opcodes.ICONST_0);
+                method.visitJumpInsn(missOpcode + (Opcodes.IF_ICMPEQ - Opcodes.IFEQ), fail);
+            } else {
+                String string = Type.getInternalName(String.class);
+                method.visitVarInsn(Opcodes.ALOAD, 2);
+                method.visitMethodInsn(Opcodes.INVOKEVIRTUAL, EGG, "getValue", "()Ljava/lang/Object;", false);
+                method.visitVarInsn(Opcodes.ASTORE, 3);
+                method.visitVarInsn(Opcodes.ALOAD, 3);
+                method.visitTypeInsn(Opcodes.INSTANCEOF, string);
+                method.visitJumpInsn(Opcodes.IFEQ, generic);
+                method.visitVarInsn(Opcodes.ALOAD, 3);
+                method.visitTypeInsn(Opcodes.CHECKCAST, string);
+                method.visitLdcInsn(literal);
+                if (operator.equals("=") || operator.equals("!=")) {
+                    method.visitMethodInsn(Opcodes.INVOKEVIRTUAL, string, "equals", "(Ljava/lang/Object;)Z", false);
+                    // equals leaves 1 for a match, so "=" misses on 0 and "!=" on 1
+                    method.visitJumpInsn(operator.equals("=") ? Opcodes.IFEQ : Opcodes.IFNE, fail);
+                } else {
+                    method.visitMethodInsn(Opcodes.INVOKEVIRTUAL, string, "compareTo", "(Ljava/lang/String;)I", false);
+                    method.visitJumpInsn(missOpcode, fail);
+                }
+            }
+            method.visitJumpInsn(Opcodes.GOTO, next);
+            method.visitLabel(generic);
+            emitInterpreted(method, i, fail);
+            method.visitLabel(next);
+        }
+
+        // conditions[i].test(egg), exactly what the interpreter does
+        private void emitInterpreted(MethodVisitor method, int i, Label fail) {
+            method.visitVarInsn(Opcodes.ALOAD, 0);
+            method.visitFieldInsn(Opcodes.GETFIELD, COMPILED, "conditions", "[L" + CONDITION + ";");
+            method.visitLdcInsn(i);
+            method.visitInsn(Opcodes.AALOAD);
+            method.visitVarInsn(Opcodes.ALOAD, 2);
+            method.visitMethodInsn(Opcodes.INVOKEVIRTUAL, CONDITION, "test", "(L" + EGG + ";)Z", false);
+            method.visitJumpInsn(Opcodes.IFEQ, fail);
+        }
+
+        // The single-operand branch taken when "compare(value, literal) op 0" does NOT hold (LCMP
+        // and compareTo leave that comparison); the two-operand int form is IF_ICMPEQ - IFEQ further on
+        private static int missOpcode(String operator) {
+            switch (operator) {
+                case "=": return Opcodes.IFNE;
+                case "!=": return Opcodes.IFEQ;
+                case "<": return Opcodes.IFGE;
+                case "<=": return Opcodes.IFGT;
+                case ">": return Opcodes.IFLE;
+                case ">=": return Opcodes.IFLT;
+                default: return -1;
+            }
+        }
+    }
+}
@@ -0,0 +1,100 @@
+import lombok.Getter;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Size-bounded LRU cache of PICK EGG results. Each entry remembers the version of the nest it
+// was read from; a lookup against a nest that has been mutated since then drops the entry.
+public class QueryCache {
+    public static final int DEFAULT_MAX_ENTRIES = 128;
+    public static final int DEFAULT_MAX_CLUTCHES_PER_ENTRY = 10_000;
+
+    @Getter private final int maxEntries;
+    @Getter private final int maxClutchesPerEntry;
+    private final LinkedHashMap<String, Entry> entries;
+
+    @Getter private long hits;
+    @Getter private long misses;
+    @Getter private long evictions;
+    @Getter private long invalidations;
+
+    private static class Entry {
+        private final Nest nest;
+        private final long version;
+        private final List<Clutch> clutches;
+
+        private Entry(Nest nest, long version, List<Clutch> clutches) {
+            this.nest = nest;
+            this.version = version;
+            this.clutches = clutches;
+        }
+    }
+
+    public QueryCache() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_MAX_CLUTCHES_PER_ENTRY);
+    }
+
+    public QueryCache(int maxEntries, int maxClutchesPerEntry) {
+        this.maxEntries = maxEntries;
+        this.maxClutchesPerEntry = maxClutchesPerEntry;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() > QueryCache.this.maxEntries) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public static String keyFor(Tree tree, PickQuery query) {
+        return tree.getName() + "/" + query.getNormalizedText();
+    }
+
+    // Returns the cached result, or null on a miss or when the nest changed since it was cached
+    public synchronized List<Clutch> get(String key, Nest nest) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        if (entry.nest != nest || entry.version != nest.getVersion()) {
+            entries.remove(key);
+            invalidations++;
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.clutches;
+    }
+
+    // The version must be read before the query runs so a concurrent write is never masked
+    public synchronized void put(String key, Nest nest, long version, List<Clutch> clutches) {
+        if (nest.getVersion() != version || clutches.size() > maxClutchesPerEntry) {
+            return;
+        }
+        entries.put(key, new Entry(nest, version, Collections.unmodifiableList(clutches)));
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized double getHitRate() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0.0 : (double) hits / lookups;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("QueryCache[entries=%d/%d, hits=%d, misses=%d, evictions=%d, invalidations=%d, hitRate=%.2f]",
+            entries.size(), maxEntries, hits, misses, evictions, invalidations, getHitRate());
+    }
+}
@@ -0,0 +1,1030 @@
+import lombok.Getter;
+import lombok.Setter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+
+// Pull-based operators that make up a PICK plan. Each call to next() hands back one clutch,
+// or null once the operator is exhausted, so rows flow through the plan one at a time.
+public abstract class QueryOperator implements AutoCloseable {
+    // The planner's guess at how many clutches this operator returns; -1 when it has none
+    @Getter @Setter private long estimatedRows = -1;
+    // Operators poll the statement's token once every CANCEL_CHECK_INTERVAL rows they handle
+    public static final int CANCEL_CHECK_INTERVAL = 1024;
+    @Getter @Setter private CancellationToken cancellationToken;
+    private int rowsSinceCheck;
+
+    public abstract Clutch next();
+
+    @Override
+    public void close() {
+    }
+
+    protected void checkCancelled() {
+        if (cancellationToken != null && ++rowsSinceCheck >= CANCEL_CHECK_INTERVAL) {
+            rowsSinceCheck = 0;
+            cancellationToken.throwIfCancelled();
+        }
+    }
+
+    // One line describing the operator, for EXPLAIN
+    public String describe() {
+        return getClass().getSimpleName();
+    }
+
+    public List<QueryOperator> getChildren() {
+        return Collections.emptyList();
+    }
+
+    // Reads every clutch of a nest in laying order, decoding encrypted eggs on the way out
+    public static class NestScan extends QueryOperator {
+        private final Nest nest;
+        private final UnaryOperator<Clutch> decoder;
+        private int position;
+
+        public NestScan(Nest nest, UnaryOperator<Clutch> decoder) {
+            this.nest = nest;
+            this.decoder = decoder;
+        }
+
+        @Override
+        public String describe() {
+            return "NestScan on " + nest.getName();
+        }
+
+        @Override
+        public Clutch next() {
+            checkCancelled();
+            List<Clutch> clutches = nest.getClutches();
+            return position < clutches.size() ? decoder.apply(clutches.get(position++)) : null;
+        }
+    }
+
+    // Reads only the clutches an index returns for one condition; the Filter above still
+    // checks every condition, so the index just has to avoid false negatives
+    public static class IndexScan extends QueryOperator {
+        private final EggIndex index;
+        private final FindCondition condition;
+        private final UnaryOperator<Clutch> decoder;
+        private List<Clutch> candidates;
+        private int position;
+
+        public IndexScan(EggIndex index, FindCondition condition, UnaryOperator<Clutch> decoder) {
+            this.index = index;
+            this.condition = condition;
+            this.decoder = decoder;
+        }
+
+        @Override
+        public String describe() {
+            return index.getClass().getSimpleName() + " scan using " + index.getName() + " (" + condition + ")";
+        }
+
+        @Override
+        public Clutch next() {
+            if (candidates == null) {
+                candidates = index.lookup(condition);
+            }
+            checkCancelled();
+            return position < candidates.size() ? decoder.apply(candidates.get(position++)) : null;
+        }
+
+        @Override
+        public void close() {
+            candidates = null;
+        }
+    }
+
+    // Passes on only the clutches whose eggs satisfy every condition
+    public static class Filter extends QueryOperator {
+        private final QueryOperator child;
+        private final FindCondition[] conditions;
+        private final ClutchPredicate predicate;
+
+        public Filter(QueryOperator child, List<FindCondition> conditions, int[] positions) {
+            this(child, conditions, new PredicateCompiler.Interpreted(conditions.toArray(new FindCondition[0]), positions));
+        }
+
+        // predicate must test exactly conditions; they are kept only for describe()
+        public Filter(QueryOperator child, List<FindCondition> conditions, ClutchPredicate predicate) {
+            this.child = child;
+            this.conditions = conditions.toArray(new FindCondition[0]);
+            this.predicate = predicate;
+        }
+
+        @Override
+        public String describe() {
+            StringBuilder text = new StringBuilder("Filter");
+            for (int i = 0; i < conditions.length; i++) {
+                text.append(i == 0 ? " " : " AND ").append(conditions[i]);
+            }
+            if (predicate.isCompiled()) {
+                text.append(" [compiled]");
+            }
+            return text.toString();
+        }
+
+        @Override
+        public List<QueryOperator> getChildren() {
+            return Collections.singletonList(child);
+        }
+
+        @Override
+        public Clutch next() {
+            Clutch clutch;
+            while ((clutch = child.next()) != null) {
+                checkCancelled();
+                if (predicate.test(clutch)) {
+                    return clutch;
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public void close() {
+            child.close();
+        }
+    }
+
+    // Sorting needs every input row, so this is the one operator that buffers its child
+    public static class Sort extends QueryOperator {
+        private final QueryOperator child;
+        private final int position;
+        private final boolean descending;
+        private List<Clutch> sorted;
+        private int index;
+
+        public Sort(QueryOperator child, int position, boolean descending) {
+            this.child = child;
+            this.position = position;
+            this.descending = descending;
+        }
+
+        @Override
+        public String describe() {
+            return "Sort by egg #" + position + (descending ? " DESCO" : " ASCO");
+        }
+
+        @Override
+        public List<QueryOperator> getChildren() {
+            return Collections.singletonList(child);
+        }
+
+        @Override
+        public Clutch next() {
+            if (sorted == null) {
+                sorted = new ArrayList<>();
+                Clutch clutch;
+                while ((clutch = child.next()) != null) {
+                    checkCancelled();
+                    sorted.add(clutch);
+                }
+                Comparator<Clutch> comparator = (a, b) -> compareSortKeys(a.getEgg(position), b.getEgg(position));
+                sorted.sort(descending ? comparator.reversed() : comparator);
+            }
+            return index < sorted.size() ? sorted.get(index++) : null;
+        }
+
+        @Override
+        public void close() {
+            sorted = null;
+            child.close();
+        }
+    }
+
+    // SORT BY order of two eggs, ascending: null values first, integers compared unboxed
+    public static int compareSortKeys(Egg left, Egg right) {
+        boolean leftNull = left == null || left.isNull();
+        boolean rightNull = right == null || right.isNull();
+        if (leftNull || rightNull) {
+            return leftNull ? (rightNull ? 0 : -1) : 1;
+        }
+        if (left.isIntegral() && right.isIntegral()) {
+            return Long.compare(left.getLong(), right.getLong());
+        }
+        return FindCondition.compareValues(left.getValue(), right.getValue());
+    }
+
+    // Reads clutches in SORT BY order straight from a sorted index on the SORT BY egg, so no Sort
+    // is needed and a LIMIT BY above stops the walk after one page. With an AFTER token the walk
+    // starts at the token's value; a Seek above drops what was already returned.
+    public static class IndexOrderScan extends QueryOperator {
+        private final SortedEggIndex index;
+        private final boolean descending;
+        private final ContinuationToken after;
+        private final UnaryOperator<Clutch> decoder;
+        private Iterator<Clutch> clutches;
+
+        public IndexOrderScan(SortedEggIndex index, boolean descending, ContinuationToken after, UnaryOperator<Clutch> decoder) {
+            this.index = index;
+            this.descending = descending;
+            this.after = after;
+            this.decoder = decoder;
+        }
+
+        @Override
+        public String describe() {
+            return "IndexOrderScan using " + index.getName() + (descending ? " DESCO" : " ASCO") +
+                (after == null ? "" : " from " + after);
+        }
+
+        @Override
+        public Clutch next() {
+            if (clutches == null) {
+                clutches = index.inOrder(descending, after != null, after == null ? null : after.getKey());
+            }
+            checkCancelled();
+            return clutches.hasNext() ? decoder.apply(clutches.next()) : null;
+        }
+
+        @Override
+        public void close() {
+            clutches = null;
+        }
+    }
+
+    // PICK ... AFTER 'token': passes on only the clutches that sort behind the token, i.e. after
+    // its value, or with its value but beyond the first duplicates of them. Works on unsorted
+    // input too, so it can run before a Sort.
+    public static class Seek extends QueryOperator {
+        private final QueryOperator child;
+        private final int position;
+        private final boolean descending;
+        private final ContinuationToken after;
+        private final Egg key;
+        private long skipped;
+
+        public Seek(QueryOperator child, int position, boolean descending, ContinuationToken after) {
+            this.child = child;
+            this.position = position;
+            this.descending = descending;
+            this.after = after;
+            this.key = new Egg("", after.getKey());
+        }
+
+        @Override
+        public String describe() {
+            return "Seek egg #" + position + (descending ? " DESCO" : " ASCO") + " after " + after;
+        }
+
+        @Override
+        public List<QueryOperator> getChildren() {
+            return Collections.singletonList(child);
+        }
+
+        @Override
+        public Clutch next() {
+            Clutch clutch;
+            while ((clutch = child.next()) != null) {
+                checkCancelled();
+                int compared = compareSortKeys(clutch.getEgg(position), key);
+                if (descending ? compared < 0 : compared > 0) {
+                    return clutch;
+                }
+                if (compared == 0 && ++skipped > after.getDuplicates()) {
+                    return clutch;
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public void close() {
+            child.close();
+        }
+    }
+
+    // Sits on sorted input and remembers where the page ended: the SORT BY value of the last
+    // clutch that went through, and how many in a row had it. EggCursor asks it for the next
+    // page's token once the page is full.
+    public static class Continuation extends QueryOperator {
+        private final QueryOperator child;
+        private final int position;
+        private final PickQuery query;
+        // offset + count: fewer clutches than this means the last page
+        private final long pageEnd;
+        private Egg last;
+        private long run;
+        private long passed;
+
+        public Continuation(QueryOperator child, int position, PickQuery query, ContinuationToken after) {
+            this.child = child;
+            this.position = position;
+            this.query = query;
+            this.pageEnd = (long) query.getOffset() + query.getLimit();
+            if (after != null) {
+                last = new Egg("", after.getKey());
+                run = after.getDuplicates();
+            }
+        }
+
+        @Override
+        public String describe() {
+            return "Continuation on egg #" + position;
+        }
+
+        @Override
+        public List<QueryOperator> getChildren() {
+            return Collections.singletonList(child);
+        }
+
+        @Override
+        public Clutch next() {
+            Clutch clutch = child.next();
+            if (clutch != null) {
+                Egg egg = clutch.getEgg(position);
+                run = last != null && compareSortKeys(egg, last) == 0 ? run + 1 : 1;
+                last = egg;
+                passed++;
+            }
+            return clutch;
+        }
+
+        // Null on the last page, or when the value can't go into a token
+        public String getToken() {
+            if (passed < pageEnd || last == null) {
+                return null;
+            }
+            return new ContinuationToken(last.isNull() ? null : last.getValue(), run).encode(query);
+        }
+
+        @Override
+        public void close() {
+            child.close();
+        }
+    }
+
+    // LIMIT BY offset, count
+    public static class Limit extends QueryOperator {
+        private final QueryOperator child;
+        private final int offset;
+        private final int count;
+        private int skipped;
+        private int returned;
+
+        public Limit(QueryOperator child, int offset, int count) {
+            this.child = child;
+            this.offset = offset;
+            this.count = count;
+        }
+
+        @Override
+        public String describe() {
+            return "Limit offset=" + offset + " count=" + (count == Integer.MAX_VALUE ? "all" : String.valueOf(count));
+        }
+
+        @Override
+        public List<QueryOperator> getChildren() {
+            return Collections.singletonList(child);
+        }
+
+        @Override
+        public Clutch next() {
+            while (skipped < offset) {
+                checkCancelled();
+                if (child.next() == null) {
+                    return null;
+                }
+                skipped++;
+            }
+            if (returned >= count) {
+                return null;
+            }
+            Clutch clutch = child.next();
+            if (clutch != null) {
+                returned++;
+            }
+            return clutch;
+        }
+
+        @Override
+        public void close() {
+            child.close();
+        }
+    }
+
+    // Narrows each clutch down to the picked eggs, reusing the stored Egg objects
+    public static class Project extends QueryOperator {
+        private final QueryOperator child;
+        private final int[] positions;
+
+        public Project(QueryOperator child, int[] positions) {
+            this.child = child;
+            this.positions = positions;
+        }
+
+        @Override
+        public String describe() {
+            return "Project eggs #" + Arrays.toString(positions);
+        }
+
+        @Override
+        public List<QueryOperator> getChildren() {
+            return Collections.singletonList(child);
+        }
+
+        @Override
+        public Clutch next() {
+            Clutch clutch = child.next();
+            if (clutch == null) {
+                return null;
+            }
+            Egg[] eggs = new Egg[positions.length];
+            for (int i = 0; i < positions.length; i++) {
+                eggs[i] = clutch.getEgg(positions[i]);
+            }
+            return new Clutch(eggs);
+        }
+
+        @Override
+        public void close() {
+            child.close();
+        }
+    }
+
+    // FLOCK BY and aggregates. Reads its whole input into one running state per group, then
+    // returns a clutch per group: the FLOCK BY eggs followed by the aggregates' results. Without
+    // FLOCK BY every row falls into a single group, which is returned even when input is empty.
+    public static class Flock extends QueryOperator {
+        private final QueryOperator child;
+        protected final int[] groupPositions;
+        private final String[] groupNames;
+        protected final List<Aggregate> aggregates;
+        // Position of each aggregate's egg in the input; -1 for COUNTFEATHER(*)
+        protected final int[] aggregatePositions;
+        private final String[] resultDataTypes;
+        private List<Clutch> groups;
+        private int index;
+
+        public Flock(QueryOperator child, int[] groupPositions, String[] groupNames, List<Aggregate> aggregates,
+                     int[] aggregatePositions, String[] resultDataTypes) {
+            this.child = child;
+            this.groupPositions = groupPositions;
+            this.groupNames = groupNames;
+            this.aggregates = aggregates;
+            this.aggregatePositions = aggregatePositions;
+            this.resultDataTypes = resultDataTypes;
+        }
+
+        @Override
+        public String describe() {
+            return "Flock by eggs #" + Arrays.toString(groupPositions) + " computing " + aggregates;
+        }
+
+        @Override
+        public List<QueryOperator> getChildren() {
+            return Collections.singletonList(child);
+        }
+
+        @Override
+        public Clutch next() {
+            if (groups == null) {
+                Map<List<Object>, Aggregate.State[]> states = accumulate();
+                if (states.isEmpty() && groupPositions.length == 0) {
+                    states.put(Collections.emptyList(), newStates());
+                }
+                groups = new ArrayList<>(states.size());
+                for (Map.Entry<List<Object>, Aggregate.State[]> group : states.entrySet()) {
+                    groups.add(row(group.getKey(), group.getValue()));
+                }
+            }
+            return index < groups.size() ? groups.get(index++) : null;
+        }
+
+        // One state array per group, in order of each group's first row
+        protected Map<List<Object>, Aggregate.State[]> accumulate() {
+            Map<List<Object>, Aggregate.State[]> states = new LinkedHashMap<>();
+            Clutch clutch;
+            while ((clutch = child.next()) != null) {
+                checkCancelled();
+                add(states, clutch);
+            }
+            return states;
+        }
+
+        protected void add(Map<List<Object>, Aggregate.State[]> states, Clutch clutch) {
+            Object[] key = new Object[groupPositions.length];
+            for (int i = 0; i < key.length; i++) {
+                key[i] = clutch.getValue(groupPositions[i]);
+            }
+            Aggregate.State[] group = states.computeIfAbsent(Arrays.asList(key), k -> newStates());
+            for (int i = 0; i < group.length; i++) {
+                group[i].add(aggregatePositions[i] < 0 ? null : clutch.getEgg(aggregatePositions[i]));
+            }
+        }
+
+        protected Aggregate.State[] newStates() {
+            Aggregate.State[] states = new Aggregate.State[aggregates.size()];
+            for (int i = 0; i < states.length; i++) {
+                states[i] = aggregates.get(i).newState();
+            }
+            return states;
+        }
+
+        private Clutch row(List<Object> key, Aggregate.State[] states) {
+            Egg[] eggs = new Egg[key.size() + states.length];
+            for (int i = 0; i < key.size(); i++) {
+                eggs[i] = new Egg(groupNames[i], key.get(i));
+            }
+            for (int i = 0; i < states.length; i++) {
+                eggs[key.size() + i] = new Egg(aggregates.get(i).getName(), states[i].result(), resultDataTypes[i], new String[0]);
+            }
+            return new Clutch(eggs);
+        }
+
+        @Override
+        public void close() {
+            groups = null;
+            if (child != null) {
+                child.close();
+            }
+        }
+    }
+
+    // Scan, filter and Flock in one, over partitions of the nest on the common fork/join pool.
+    // Each partition aggregates its clutches into states of its own, which are merged at the end;
+    // that is why every Aggregate.State, sketches included, supports merge().
+    public static class ParallelFlock extends Flock {
+        private final Nest nest;
+        private final UnaryOperator<Clutch> decoder;
+        // null when the query has no FIND
+        private final ClutchPredicate predicate;
+        private final int partitions;
+
+        public ParallelFlock(Nest nest, UnaryOperator<Clutch> decoder, ClutchPredicate predicate, int partitions,
+                             int[] groupPositions, String[] groupNames, List<Aggregate> aggregates,
+                             int[] aggregatePositions, String[] resultDataTypes) {
+            super(null, groupPositions, groupNames, aggregates, aggregatePositions, resultDataTypes);
+            this.nest = nest;
+            this.decoder = decoder;
+            this.predicate = predicate;
+            this.partitions = partitions;
+        }
+
+        @Override
+        public String describe() {
+            return "ParallelFlock on " + nest.getName() + " in " + partitions + " partitions" +
+                (predicate == null ? "" : predicate.isCompiled() ? " [compiled filter]" : " [filter]") +
+                " by eggs #" + Arrays.toString(groupPositions) + " computing " + aggregates;
+        }
+
+        @Override
+        public List<QueryOperator> getChildren() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        protected Map<List<Object>, Aggregate.State[]> accumulate() {
+            List<Clutch> clutches = nest.getClutches();
+            int rows = clutches.size();
+            List<Callable<Map<List<Object>, Aggregate.State[]>>> tasks = new ArrayList<>(partitions);
+            for (int p = 0; p < partitions; p++) {
+                List<Clutch> partition = clutches.subList((int) ((long) rows * p / partitions), (int) ((long) rows * (p + 1) / partitions));
+                tasks.add(() -> accumulate(partition));
+            }
+            Map<List<Object>, Aggregate.State[]> merged = new LinkedHashMap<>();
+            for (Future<Map<List<Object>, Aggregate.State[]>> future : ForkJoinPool.commonPool().invokeAll(tasks)) {
+                Map<List<Object>, Aggregate.State[]> partial;
+                try {
+                    partial = future.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new CancellationException("QUERYCANCELLEDEXCEPTION: Interrupted while flocking " + nest.getName());
+                } catch (ExecutionException e) {
+                    throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : new IllegalStateException(e.getCause());
+                }
+                for (Map.Entry<List<Object>, Aggregate.State[]> group : partial.entrySet()) {
+                    Aggregate.State[] states = merged.putIfAbsent(group.getKey(), group.getValue());
+                    if (states != null) {
+                        for (int i = 0; i < states.length; i++) {
+                            states[i].merge(group.getValue()[i]);
+                        }
+                    }
+                }
+            }
+            return merged;
+        }
+
+        private Map<List<Object>, Aggregate.State[]> accumulate(List<Clutch> partition) {
+            Map<List<Object>, Aggregate.State[]> states = new LinkedHashMap<>();
+            CancellationToken token = getCancellationToken();
+            int sinceCheck = 0;
+            for (Clutch stored : partition) {
+                if (token != null && ++sinceCheck >= CANCEL_CHECK_INTERVAL) {
+                    sinceCheck = 0;
+                    token.throwIfCancelled();
+                }
+                Clutch clutch = decoder.apply(stored);
+                if (predicate == null || predicate.test(clutch)) {
+                    add(states, clutch);
+                }
+            }
+            return states;
+        }
+    }
+
+    // Answers aggregates over a whole nest from its SKETCH indexes without reading a clutch:
+    // COUNTFEATHER(*) from the clutch count, the APPROX aggregates from the kept sketches. A
+    // sketch left stale by an UPDATE or REMOVE is rebuilt from the nest first.
+    public static class SketchLookup extends QueryOperator {
+        private final Nest nest;
+        private final List<Aggregate> aggregates;
+        // The sketch for each aggregate; null for COUNTFEATHER(*)
+        private final SketchEggIndex[] sketches;
+        private final String[] resultDataTypes;
+        private boolean done;
+
+        public SketchLookup(Nest nest, List<Aggregate> aggregates, SketchEggIndex[] sketches, String[] resultDataTypes) {
+            this.nest = nest;
+            this.aggregates = aggregates;
+            this.sketches = sketches;
+            this.resultDataTypes = resultDataTypes;
+        }
+
+        @Override
+        public String describe() {
+            Set<String> names = new LinkedHashSet<>();
+            for (SketchEggIndex sketch : sketches) {
+                if (sketch != null) {
+                    names.add(sketch.getName() + (sketch.isStale() ? " (stale, rebuilds)" : ""));
+                }
+            }
+            return "SketchLookup on " + nest.getName() + (names.isEmpty() ? "" : " using " + String.join(", ", names)) +
+                " computing " + aggregates;
+        }
+
+        @Override
+        public Clutch next() {
+            if (done) {
+                return null;
+            }
+            done = true;
+            Egg[] eggs = new Egg[aggregates.size()];
+            for (int i = 0; i < eggs.length; i++) {
+                SketchEggIndex sketch = sketches[i];
+                if (sketch != null && sketch.isStale()) {
+                    sketch.rebuild(nest.getClutches());
+                }
+                Object result = sketch == null ? (Object) (long) nest.getClutchCount() : aggregates.get(i).resultFrom(sketch);
+                eggs[i] = new Egg(aggregates.get(i).getName(), result, resultDataTypes[i], new String[0]);
+            }
+            return new Clutch(eggs);
+        }
+    }
+
+    // Reads only the clutches that pass FIND conditions on INTEGER and MIGRATIONDATE eggs, by
+    // running the conditions over the eggs' NumericColumns into a bitmask before reading any
+    // clutch. Conditions that can't run on a column are left to a Filter above. Should the nest
+    // change after planning so that a column can't be built, the conditions are tested row by row.
+    public static class ColumnScan extends QueryOperator {
+        private final Nest nest;
+        private final FindCondition[] conditions;
+        private final int[] positions;
+        private final UnaryOperator<Clutch> decoder;
+        private final NumericKernels kernels;
+        private List<Clutch> clutches;
+        private long[] selected;
+        private int word;
+        private long bits;
+        private int position;
+
+        public ColumnScan(Nest nest, List<FindCondition> conditions, int[] positions, UnaryOperator<Clutch> decoder,
+                          NumericKernels kernels) {
+            this.nest = nest;
+            this.conditions = conditions.toArray(new FindCondition[0]);
+            this.positions = positions;
+            this.decoder = decoder;
+            this.kernels = kernels;
+        }
+
+        @Override
+        public String describe() {
+            StringBuilder text = new StringBuilder("ColumnScan on " + nest.getName());
+            for (int i = 0; i < conditions.length; i++) {
+                text.append(i == 0 ? " (" : " AND ").append(conditions[i]);
+            }
+            return text.append(") [").append(kernels.getName()).append("]").toString();
+        }
+
+        @Override
+        public Clutch next() {
+            if (clutches == null) {
+                clutches = nest.getClutches();
+                NumericColumn[] columns = nest.getNumericColumns(positions);
+                if (columns != null && columns[0].getSize() == clutches.size()) {
+                    selected = NumericColumn.select(kernels, conditions, columns, getCancellationToken());
+                    word = -1;
+                }
+            }
+            if (selected == null) {
+                while (position < clutches.size()) {
+                    checkCancelled();
+                    Clutch clutch = decoder.apply(clutches.get(position++));
+                    if (matches(clutch, conditions, positions)) {
+                        return clutch;
+                    }
+                }
+                return null;
+            }
+            while (bits == 0) {
+                if (word + 1 >= selected.length) {
+                    return null;
+                }
+                bits = selected[++word];
+            }
+            checkCancelled();
+            int row = (word << 6) + Long.numberOfTrailingZeros(bits);
+            bits &= bits - 1;
+            return decoder.apply(clutches.get(row));
+        }
+
+        @Override
+        public void close() {
+            clutches = null;
+            selected = null;
+        }
+    }
+
+    // COUNTFEATHER, SWARM, AVIANAVG, MIN and MAX without FLOCK BY, over INTEGER and MIGRATIONDATE
+    // eggs and filtered by FIND conditions on such eggs: computed on the eggs' NumericColumns by
+    // the NumericKernels without reading a clutch. Falls back to reading every clutch, as
+    // ColumnScan does, if the nest changed after planning so that a column can't be built.
+    public static class ColumnFlock extends Flock {
+        private final Nest nest;
+        private final UnaryOperator<Clutch> decoder;
+        private final FindCondition[] conditions;
+        private final int[] conditionPositions;
+        private final NumericKernels kernels;
+
+        public ColumnFlock(Nest nest, UnaryOperator<Clutch> decoder, List<FindCondition> conditions, int[] conditionPositions,
+                           List<Aggregate> aggregates, int[] aggregatePositions, String[] resultDataTypes,
+                           NumericKernels kernels) {
+            super(null, new int[0], new String[0], aggregates, aggregatePositions, resultDataTypes);
+            this.nest = nest;
+            this.decoder = decoder;
+            this.conditions = conditions.toArray(new FindCondition[0]);
+            this.conditionPositions = conditionPositions;
+            this.kernels = kernels;
+        }
+
+        @Override
+        public String describe() {
+            StringBuilder text = new StringBuilder("ColumnFlock on " + nest.getName());
+            for (int i = 0; i < conditions.length; i++) {
+                text.append(i == 0 ? " where " : " AND ").append(conditions[i]);
+            }
+            return text.append(" computing ").append(aggregates).append(" [").append(kernels.getName()).append("]").toString();
+        }
+
+        @Override
+        public List<QueryOperator> getChildren() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        protected Map<List<Object>, Aggregate.State[]> accumulate() {
+            Map<List<Object>, Aggregate.State[]> states = new LinkedHashMap<>();
+            Aggregate.State[] group = newStates();
+            states.put(Collections.emptyList(), group);
+
+            List<Clutch> clutches = nest.getClutches();
+            int[] positions = Arrays.copyOf(conditionPositions, conditionPositions.length + aggregatePositions.length);
+            System.arraycopy(aggregatePositions, 0, positions, conditionPositions.length, aggregatePositions.length);
+            NumericColumn[] columns = nest.getNumericColumns(positions);
+            if (columns == null || !sized(columns, clutches.size())) {
+                for (Clutch stored : clutches) {
+                    checkCancelled();
+                    Clutch clutch = decoder.apply(stored);
+                    if (matches(clutch, conditions, conditionPositions)) {
+                        add(states, clutch);
+                    }
+                }
+                return states;
+            }
+
+            CancellationToken token = getCancellationToken();
+            long[] selected = NumericColumn.select(kernels, conditions, columns, token);
+            for (int i = 0; i < group.length; i++) {
+                if (token != null) {
+                    token.throwIfCancelled();
+                }
+                NumericColumn column = columns[conditions.length + i];
+                if (column == null) {
+                    group[i].addSummary(selected == null ? clutches.size() : kernels.count(selected, clutches.size()), 0, null);
+                    continue;
+                }
+                long[] mask = column.presentIn(selected);
+                long count = column.count(kernels, mask);
+                switch (aggregates.get(i).getFunction()) {
+                    case SWARM:
+                    case AVIANAVG:
+                        group[i].addSummary(count, column.sum(kernels, mask), null);
+                        break;
+                    case MIN:
+                    case MAX:
+                        group[i].addSummary(count, 0, column.extreme(kernels, mask, aggregates.get(i).getFunction() == Aggregate.Function.MAX));
+                        break;
+                    default:
+                        group[i].addSummary(count, 0, null);
+                        break;
+                }
+            }
+            return states;
+        }
+
+        private static boolean sized(NumericColumn[] columns, int size) {
+            for (NumericColumn column : columns) {
+                if (column != null && column.getSize() != size) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static boolean matches(Clutch clutch, FindCondition[] conditions, int[] positions) {
+        for (int i = 0; i < conditions.length; i++) {
+            if (!conditions[i].test(clutch.getEgg(positions[i]))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // PICK EGG SPECIFIC: drops clutches whose picked values were already returned
+    public static class Specific extends QueryOperator {
+        private final QueryOperator child;
+        private final Set<List<Object>> seen = new HashSet<>();
+
+        public Specific(QueryOperator child) {
+            this.child = child;
+        }
+
+        @Override
+        public String describe() {
+            return "Specific (distinct)";
+        }
+
+        @Override
+        public List<QueryOperator> getChildren() {
+            return Collections.singletonList(child);
+        }
+
+        @Override
+        public Clutch next() {
+            Clutch clutch;
+            while ((clutch = child.next()) != null) {
+                checkCancelled();
+                List<Object> key = new ArrayList<>(clutch.size());
+                for (int i = 0; i < clutch.size(); i++) {
+                    key.add(clutch.getValue(i));
+                }
+                if (seen.add(key)) {
+                    return clutch;
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public void close() {
+            seen.clear();
+            child.close();
+        }
+    }
+
+    // Replays a previously materialized result, e.g. a query cache hit
+    public static class Replay extends QueryOperator {
+        private final List<Clutch> clutches;
+        private int position;
+
+        public Replay(List<Clutch> clutches) {
+            this.clutches = clutches;
+        }
+
+        @Override
+        public String describe() {
+            return "Replay of " + clutches.size() + " cached clutch(es)";
+        }
+
+        @Override
+        public Clutch next() {
+            return position < clutches.size() ? clutches.get(position++) : null;
+        }
+    }
+
+    // Copies clutches aside as they stream past and hands the full result over once the child
+    // is exhausted. Gives up (and keeps streaming) once the result grows beyond maxClutches.
+    public static class Recording extends QueryOperator {
+        private final QueryOperator child;
+        private final int maxClutches;
+        private final Consumer<List<Clutch>> onComplete;
+        private List<Clutch> recorded = new ArrayList<>();
+
+        public Recording(QueryOperator child, int maxClutches, Consumer<List<Clutch>> onComplete) {
+            this.child = child;
+            this.maxClutches = maxClutches;
+            this.onComplete = onComplete;
+        }
+
+        @Override
+        public String describe() {
+            return "Record into query cache (up to " + maxClutches + " clutches)";
+        }
+
+        @Override
+        public List<QueryOperator> getChildren() {
+            return Collections.singletonList(child);
+        }
+
+        @Override
+        public Clutch next() {
+            Clutch clutch = child.next();
+            if (recorded != null) {
+                if (clutch == null) {
+                    onComplete.accept(recorded);
+                    recorded = null;
+                } else if (recorded.size() < maxClutches) {
+                    recorded.add(clutch);
+                } else {
+                    recorded = null;
+                }
+            }
+            return clutch;
+        }
+
+        @Override
+        public void close() {
+            recorded = null;
+            child.close();
+        }
+    }
+
+    // EXPLAIN ANALYZE wrapper: counts the clutches an operator returns and the time and memory
+    // spent inside its next() calls, children included. Plans only contain these when profiling.
+    public static class Profiled extends QueryOperator {
+        private final QueryOperator inner;
+        @Getter private boolean started;
+        @Getter private long rows;
+        @Getter private long nanos;
+        @Getter private long allocatedBytes;
+
+        public Profiled(QueryOperator inner) {
+            this.inner = inner;
+        }
+
+        @Override
+        public Clutch next() {
+            started = true;
+            long bytesBefore = PlanNode.currentThreadAllocatedBytes();
+            long start = System.nanoTime();
+            Clutch clutch = inner.next();
+            nanos += System.nanoTime() - start;
+            if (bytesBefore >= 0) {
+                allocatedBytes += PlanNode.currentThreadAllocatedBytes() - bytesBefore;
+            } else {
+                allocatedBytes = -1;
+            }
+            if (clutch != null) {
+                rows++;
+            }
+            return clutch;
+        }
+
+        @Override
+        public void close() {
+            inner.close();
+        }
+
+        @Override
+        public String describe() {
+            return inner.describe();
+        }
+
+        @Override
+        public List<QueryOperator> getChildren() {
+            return inner.getChildren();
+        }
+
+        @Override
+        public long getEstimatedRows() {
+            return inner.getEstimatedRows();
+        }
+    }
+}
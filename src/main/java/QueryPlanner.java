@@ -0,0 +1,477 @@
+import lombok.Getter;
+import lombok.Setter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.UnaryOperator;
+
+// Turns a parsed PICK into a chain of QueryOperators over a nest
+public class QueryPlanner {
+    // Optional; when null every PICK runs against the nest
+    @Getter @Setter private QueryCache queryCache;
+    // Shared with UpdateExecutor so FIND and UPDATE with the same WHILE clause reuse one class
+    @Getter @Setter private PredicateCompiler predicateCompiler = new PredicateCompiler();
+    // Aggregates over at least parallelFlockRows clutches without a usable index are computed
+    // in this many partitions at once; 1 turns parallel aggregation off
+    @Getter @Setter private int parallelism = Runtime.getRuntime().availableProcessors();
+    @Getter @Setter private long parallelFlockRows = 100_000;
+    // Evaluate FIND conditions and aggregates on INTEGER and MIGRATIONDATE columns; vector
+    // kernels when the JVM can load them, scalar ones otherwise
+    @Getter @Setter private NumericKernels kernels = NumericKernels.get();
+
+    public QueryPlanner(QueryCache queryCache) {
+        this.queryCache = queryCache;
+    }
+
+    public EggCursor plan(PickQuery query, Tree tree) {
+        return plan(query, tree, null);
+    }
+
+    // token, when given, lets CANCEL and --perch-timeout stop the query between batches
+    public EggCursor plan(PickQuery query, Tree tree, CancellationToken token) {
+        Nest nest = tree.getNest(query.getNestName());
+        if (nest == null) {
+            throw new IllegalArgumentException("NESTNOTFOUNDEXCEPTION: Nest not found: " + query.getNestName());
+        }
+
+        // --no-cache bypasses both the result cache and the decoded egg cache. A replayed page
+        // wouldn't come with a continuation token, so paged queries skip the result cache too.
+        boolean useCache = !query.hasFlag("--no-cache");
+        QueryCache cache = useCache && !query.isKeyset() ? queryCache : null;
+        String cacheKey = cache == null ? null : QueryCache.keyFor(tree, query);
+        if (cache != null) {
+            List<Clutch> cached = cache.get(cacheKey, nest);
+            if (cached != null) {
+                EggCursor cursor = new EggCursor(new QueryOperator.Replay(cached), resolveEggNames(query, nest));
+                cursor.setCancellationToken(token);
+                return cursor;
+            }
+        }
+        long version = nest.getVersion();
+        QueryOperator root = buildOperators(query, nest, tree, useCache, false, token);
+
+        if (cache != null) {
+            root = new QueryOperator.Recording(root, cache.getMaxClutchesPerEntry(),
+                clutches -> cache.put(cacheKey, nest, version, clutches));
+        }
+
+        EggCursor cursor = new EggCursor(root, resolveEggNames(query, nest));
+        cursor.setCancellationToken(token);
+        cursor.setContinuation(findContinuation(root));
+        return cursor;
+    }
+
+    private static QueryOperator.Continuation findContinuation(QueryOperator operator) {
+        if (operator instanceof QueryOperator.Continuation) {
+            return (QueryOperator.Continuation) operator;
+        }
+        for (QueryOperator child : operator.getChildren()) {
+            QueryOperator.Continuation continuation = findContinuation(child);
+            if (continuation != null) {
+                return continuation;
+            }
+        }
+        return null;
+    }
+
+    // EXPLAIN [ANALYZE] for a PICK: the operator tree with estimates and, when analyze is set,
+    // the actual rows, time and memory of each operator after running the query to completion.
+    // Always runs against the nest; the query cache is neither read nor filled.
+    public PlanNode explain(PickQuery query, Tree tree, boolean analyze, CancellationToken token) {
+        Nest nest = tree.getNest(query.getNestName());
+        if (nest == null) {
+            throw new IllegalArgumentException("NESTNOTFOUNDEXCEPTION: Nest not found: " + query.getNestName());
+        }
+        QueryOperator root = buildOperators(query, nest, tree, !query.hasFlag("--no-cache"), analyze, token);
+        if (analyze) {
+            try {
+                while (root.next() != null) {
+                    // drain
+                }
+            } finally {
+                root.close();
+            }
+        }
+        return PlanNode.of(root);
+    }
+
+    // Everything between the scan and the limit. With profile set each operator is wrapped in
+    // a Profiled so EXPLAIN ANALYZE can report on it.
+    private QueryOperator buildOperators(PickQuery query, Nest nest, Tree tree, boolean useCache, boolean profile,
+                                         CancellationToken token) {
+        UnaryOperator<Clutch> decoder = clutch -> tree.decode(clutch, useCache);
+        FindCondition indexed = chooseIndexedCondition(nest, query.getConditions());
+        List<FindCondition> conditions = orderBySelectivity(nest, query.getConditions());
+        long rows = nest.getClutchCount();
+        ContinuationToken after = query.getAfter() == null ? null : ContinuationToken.decode(query.getAfter(), query);
+
+        // A page of a sorted, limited PICK reads a sorted index on the SORT BY egg in order and
+        // stops once the page is full, unless a condition's index narrows the nest first
+        SortedEggIndex ordered = query.isKeyset() && indexed == null ? findSortedIndex(nest, query.getSortEgg()) : null;
+
+        // Conditions that can run on a column, unless an index is cheaper
+        List<FindCondition> columnConditions = indexed == null && ordered == null ?
+            columnConditions(nest, conditions) : new ArrayList<>();
+
+        QueryOperator root = query.isAggregate() ? sketchLookup(query, nest) : null;
+        if (root != null) {
+            rows = 1;
+            root = stage(root, rows, profile, token);
+        } else if (query.isAggregate() && indexed == null && columnConditions.size() == conditions.size() &&
+                   columnar(nest, query)) {
+            rows = 1;
+            root = stage(new QueryOperator.ColumnFlock(nest, decoder, conditions, resolveConditions(nest, conditions),
+                query.getAggregates(), aggregatePositions(query, nest), resultDataTypes(query, nest), kernels), rows, profile, token);
+        } else if (query.isAggregate() && indexed == null && parallelism > 1 && rows >= parallelFlockRows) {
+            ClutchPredicate predicate = null;
+            if (!conditions.isEmpty()) {
+                predicate = predicateCompiler.predicateFor(conditions, resolveConditions(nest, conditions), rows);
+                for (FindCondition condition : conditions) {
+                    rows = estimateMatches(nest, condition, rows);
+                }
+            }
+            rows = estimateGroups(nest, query.getGroupEggs(), rows);
+            root = stage(flock(query, nest, null, decoder, predicate), rows, profile, token);
+        } else {
+            List<FindCondition> filtered = conditions;
+            if (!columnConditions.isEmpty()) {
+                for (FindCondition condition : columnConditions) {
+                    rows = estimateMatches(nest, condition, rows);
+                }
+                root = stage(new QueryOperator.ColumnScan(nest, columnConditions, resolveConditions(nest, columnConditions),
+                    decoder, kernels), rows, profile, token);
+                // The column conditions are exact, so only the rest need a Filter
+                filtered = new ArrayList<>(conditions);
+                filtered.removeAll(columnConditions);
+            } else if (ordered != null) {
+                root = stage(new QueryOperator.IndexOrderScan(ordered, query.isSortDescending(), after, decoder), rows, profile, token);
+            } else if (indexed == null) {
+                root = stage(new QueryOperator.NestScan(nest, decoder), rows, profile, token);
+            } else {
+                rows = estimateMatches(nest, indexed, rows);
+                root = stage(new QueryOperator.IndexScan(nest.findIndex(indexed), indexed, decoder), rows, profile, token);
+            }
+
+            if (!filtered.isEmpty()) {
+                long scanned = rows;
+                for (FindCondition condition : filtered) {
+                    if (condition != indexed) {
+                        rows = estimateMatches(nest, condition, rows);
+                    }
+                }
+                ClutchPredicate predicate = predicateCompiler.predicateFor(filtered, resolveConditions(nest, filtered), scanned);
+                root = stage(new QueryOperator.Filter(root, filtered, predicate), rows, profile, token);
+            }
+
+            if (after != null) {
+                root = stage(new QueryOperator.Seek(root, resolveEgg(nest, query.getSortEgg()), query.isSortDescending(), after),
+                    rows, profile, token);
+            }
+
+            if (query.isAggregate()) {
+                rows = estimateGroups(nest, query.getGroupEggs(), rows);
+                root = stage(flock(query, nest, root, null, null), rows, profile, token);
+            }
+        }
+
+        if (query.isAggregate()) {
+            // The flock returns the FLOCK BY eggs, then the aggregates; sort that, then put it
+            // into egg-list order
+            List<String> flocked = new ArrayList<>(query.getGroupEggs());
+            for (Aggregate aggregate : query.getAggregates()) {
+                flocked.add(aggregate.getName());
+            }
+            if (query.getSortEgg() != null) {
+                root = stage(new QueryOperator.Sort(root, resolveOutput(flocked, query.getSortEgg()), query.isSortDescending()), rows, profile, token);
+            }
+            List<String> outputNames = query.getOutputNames();
+            if (!outputNames.equals(flocked)) {
+                int[] positions = new int[outputNames.size()];
+                for (int i = 0; i < positions.length; i++) {
+                    positions[i] = flocked.indexOf(outputNames.get(i));
+                }
+                root = stage(new QueryOperator.Project(root, positions), rows, profile, token);
+            }
+        } else if (query.getSortEgg() != null) {
+            int position = resolveEgg(nest, query.getSortEgg());
+            if (ordered == null) {
+                root = stage(new QueryOperator.Sort(root, position, query.isSortDescending()), rows, profile, token);
+            }
+            if (query.isKeyset()) {
+                root = stage(new QueryOperator.Continuation(root, position, query, after), rows, profile, token);
+            }
+        }
+
+        if (!query.isPickAll() && !query.isAggregate()) {
+            int[] positions = new int[query.getEggNames().size()];
+            for (int i = 0; i < positions.length; i++) {
+                positions[i] = resolveEgg(nest, query.getEggNames().get(i));
+            }
+            root = stage(new QueryOperator.Project(root, positions), rows, profile, token);
+        }
+
+        if (query.isSpecific()) {
+            root = stage(new QueryOperator.Specific(root), rows, profile, token);
+        }
+
+        if (query.getOffset() > 0 || query.getLimit() != Integer.MAX_VALUE) {
+            rows = Math.min(Math.max(0, rows - query.getOffset()), query.getLimit());
+            root = stage(new QueryOperator.Limit(root, query.getOffset(), query.getLimit()), rows, profile, token);
+        }
+        return root;
+    }
+
+    private int[] resolveConditions(Nest nest, List<FindCondition> conditions) {
+        int[] positions = new int[conditions.size()];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = resolveEgg(nest, conditions.get(i).getEggName());
+        }
+        return positions;
+    }
+
+    // Comparisons of an INTEGER or MIGRATIONDATE egg with a literal its NumericColumn can hold
+    private static List<FindCondition> columnConditions(Nest nest, List<FindCondition> conditions) {
+        List<FindCondition> columnConditions = new ArrayList<>();
+        for (FindCondition condition : conditions) {
+            if (NumericKernels.Comparison.of(condition.getOperator()) == null) {
+                continue;
+            }
+            NumericColumn column = nest.getNumericColumn(nest.getEggPosition(condition.getEggName()));
+            if (column != null && column.encode(condition.getLiteral()) != null) {
+                columnConditions.add(condition);
+            }
+        }
+        return columnConditions;
+    }
+
+    // Whether ColumnFlock can compute every aggregate: no FLOCK BY, and COUNTFEATHER, MIN and MAX
+    // of column eggs, SWARM and AVIANAVG of INTEGER ones
+    private static boolean columnar(Nest nest, PickQuery query) {
+        if (!query.getGroupEggs().isEmpty()) {
+            return false;
+        }
+        for (Aggregate aggregate : query.getAggregates()) {
+            Aggregate.Function function = aggregate.getFunction();
+            if (aggregate.getEggName() == null) {
+                continue;
+            }
+            NumericColumn column = nest.getNumericColumn(nest.getEggPosition(aggregate.getEggName()));
+            if (column == null || function.isApproximate() ||
+                ((function == Aggregate.Function.SWARM || function == Aggregate.Function.AVIANAVG) && column.getType() != EggType.INTEGER)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // A SketchLookup when every aggregate can come from the nest's SKETCH indexes (or its clutch
+    // count) without reading a clutch: no FIND, no FLOCK BY and at least one APPROX aggregate
+    private QueryOperator sketchLookup(PickQuery query, Nest nest) {
+        if (!query.getConditions().isEmpty() || !query.getGroupEggs().isEmpty()) {
+            return null;
+        }
+        List<Aggregate> aggregates = query.getAggregates();
+        SketchEggIndex[] sketches = new SketchEggIndex[aggregates.size()];
+        boolean approximate = false;
+        for (int i = 0; i < sketches.length; i++) {
+            Aggregate aggregate = aggregates.get(i);
+            if (aggregate.getFunction().isApproximate()) {
+                sketches[i] = findSketch(nest, aggregate.getEggName());
+                if (sketches[i] == null) {
+                    return null;
+                }
+                approximate = true;
+            } else if (aggregate.getFunction() != Aggregate.Function.COUNTFEATHER || aggregate.getEggName() != null) {
+                return null;
+            }
+        }
+        return approximate ? new QueryOperator.SketchLookup(nest, aggregates, sketches, resultDataTypes(query, nest)) : null;
+    }
+
+    private static SortedEggIndex findSortedIndex(Nest nest, String eggName) {
+        for (EggIndex index : nest.getIndexes().values()) {
+            if (index instanceof SortedEggIndex && index.getEggName().equals(eggName)) {
+                return (SortedEggIndex) index;
+            }
+        }
+        return null;
+    }
+
+    private static SketchEggIndex findSketch(Nest nest, String eggName) {
+        for (EggIndex index : nest.getIndexes().values()) {
+            if (index instanceof SketchEggIndex && index.getEggName().equals(eggName)) {
+                return (SketchEggIndex) index;
+            }
+        }
+        return null;
+    }
+
+    // input is null for a ParallelFlock, which scans and filters the nest itself
+    private QueryOperator flock(PickQuery query, Nest nest, QueryOperator input, UnaryOperator<Clutch> decoder,
+                                ClutchPredicate predicate) {
+        List<String> groupEggs = query.getGroupEggs();
+        int[] groupPositions = new int[groupEggs.size()];
+        for (int i = 0; i < groupPositions.length; i++) {
+            groupPositions[i] = resolveEgg(nest, groupEggs.get(i));
+        }
+        List<Aggregate> aggregates = query.getAggregates();
+        int[] aggregatePositions = aggregatePositions(query, nest);
+        String[] groupNames = groupEggs.toArray(new String[0]);
+        if (input == null) {
+            return new QueryOperator.ParallelFlock(nest, decoder, predicate, parallelism, groupPositions, groupNames,
+                aggregates, aggregatePositions, resultDataTypes(query, nest));
+        }
+        return new QueryOperator.Flock(input, groupPositions, groupNames, aggregates, aggregatePositions,
+            resultDataTypes(query, nest));
+    }
+
+    // Position of each aggregate's egg; -1 for COUNTFEATHER(*)
+    private int[] aggregatePositions(PickQuery query, Nest nest) {
+        List<Aggregate> aggregates = query.getAggregates();
+        int[] aggregatePositions = new int[aggregates.size()];
+        for (int i = 0; i < aggregatePositions.length; i++) {
+            Aggregate aggregate = aggregates.get(i);
+            aggregatePositions[i] = aggregate.getEggName() == null ? -1 : resolveEgg(nest, aggregate.getEggName());
+        }
+        return aggregatePositions;
+    }
+
+    private String[] resultDataTypes(PickQuery query, Nest nest) {
+        List<Aggregate> aggregates = query.getAggregates();
+        String[] resultDataTypes = new String[aggregates.size()];
+        for (int i = 0; i < resultDataTypes.length; i++) {
+            Aggregate aggregate = aggregates.get(i);
+            Egg definition = aggregate.getEggName() == null ? null : nest.getEgg(aggregate.getEggName());
+            resultDataTypes[i] = aggregate.resultDataType(definition == null ? null : definition.getDataType());
+        }
+        return resultDataTypes;
+    }
+
+    // Number of FLOCK BY groups: the product of the eggs' distinct counts when ANALYZE NEST has
+    // them, otherwise a tenth of the rows
+    private static long estimateGroups(Nest nest, List<String> groupEggs, long inputRows) {
+        if (groupEggs.isEmpty()) {
+            return 1;
+        }
+        NestStatistics statistics = nest.getStatistics();
+        double groups = 1;
+        for (String eggName : groupEggs) {
+            EggStatistics egg = statistics == null ? null : statistics.getEgg(eggName);
+            groups *= egg == null ? Math.max(1, inputRows / 10.0) : Math.max(1, egg.getDistinctValues());
+        }
+        return Math.max(1, Math.min(inputRows, Math.round(groups)));
+    }
+
+    private static QueryOperator stage(QueryOperator operator, long estimatedRows, boolean profile, CancellationToken token) {
+        operator.setEstimatedRows(estimatedRows);
+        operator.setCancellationToken(token);
+        return profile ? new QueryOperator.Profiled(operator) : operator;
+    }
+
+    // Relative costs for choosing between a scan and an index: a scan reads and tests every
+    // clutch once; an index pays a probe, then a copy and a re-test for every clutch it returns
+    private static final double SCAN_ROW_COST = 1.0;
+    private static final double INDEX_PROBE_COST = 1.0;
+    private static final double INDEX_ROW_COST = 3.0;
+
+    public static long estimateMatches(Nest nest, FindCondition condition, long inputRows) {
+        return Math.round(inputRows * selectivity(nest, condition));
+    }
+
+    // Fraction of clutches expected to pass the condition. Uses ANALYZE NEST statistics when
+    // the nest has them, otherwise an index's distinct-value count for equality and fixed
+    // fractions for everything else.
+    public static double selectivity(Nest nest, FindCondition condition) {
+        NestStatistics statistics = nest.getStatistics();
+        EggStatistics egg = statistics == null ? null : statistics.getEgg(condition.getEggName());
+        if (egg != null) {
+            return egg.selectivity(condition);
+        }
+        switch (condition.getOperator()) {
+            case "=":
+                EggIndex index = nest.findIndex(condition);
+                return index != null && index.getDistinctValues() > 0 ? 1.0 / index.getDistinctValues() : 0.1;
+            case "!=":
+                return 0.9;
+            case "MATCHES":
+            case "SEARCH":
+                return 0.1;
+            default:
+                return 1.0 / 3;
+        }
+    }
+
+    // Picks the condition to drive an index scan, or null to scan the nest. A full-text SEARCH
+    // always wins so results come back ranked. With statistics the choice is cost-based and may
+    // prefer a scan; without them equality beats anything else an index supports.
+    public static FindCondition chooseIndexedCondition(Nest nest, List<FindCondition> conditions) {
+        NestStatistics statistics = nest.getFreshStatistics();
+        FindCondition equality = null;
+        FindCondition range = null;
+        FindCondition cheapest = null;
+        long rows = nest.getClutchCount();
+        double cheapestCost = rows * SCAN_ROW_COST;
+
+        for (FindCondition condition : conditions) {
+            if (nest.findIndex(condition) == null) {
+                continue;
+            }
+            if (condition.getOperator().equals("SEARCH")) {
+                return condition;
+            }
+            if (condition.getOperator().equals("=")) {
+                if (equality == null) {
+                    equality = condition;
+                }
+            } else if (range == null) {
+                range = condition;
+            }
+            double cost = INDEX_PROBE_COST * (Math.log(rows + 2) / Math.log(2)) +
+                          rows * selectivity(nest, condition) * INDEX_ROW_COST;
+            if (cost < cheapestCost) {
+                cheapest = condition;
+                cheapestCost = cost;
+            }
+        }
+        if (statistics != null) {
+            return cheapest;
+        }
+        return equality != null ? equality : range;
+    }
+
+    // Most selective conditions first so the Filter's AND gives up on a clutch as early as it can
+    private static List<FindCondition> orderBySelectivity(Nest nest, List<FindCondition> conditions) {
+        List<FindCondition> ordered = new ArrayList<>(conditions);
+        if (nest.getStatistics() != null) {
+            ordered.sort(Comparator.comparingDouble(condition -> selectivity(nest, condition)));
+        }
+        return ordered;
+    }
+
+    private List<String> resolveEggNames(PickQuery query, Nest nest) {
+        if (!query.isPickAll()) {
+            return query.getOutputNames();
+        }
+        List<String> eggNames = new ArrayList<>();
+        for (Egg egg : nest.getEggs()) {
+            eggNames.add(egg.getName());
+        }
+        return eggNames;
+    }
+
+    private static int resolveOutput(List<String> names, String eggName) {
+        int position = names.indexOf(eggName);
+        if (position < 0) {
+            throw new IllegalArgumentException("EGGNOTFOUNDEXCEPTION: Egg " + eggName + " is not in the FLOCK BY result");
+        }
+        return position;
+    }
+
+    private int resolveEgg(Nest nest, String eggName) {
+        int position = nest.getEggPosition(eggName);
+        if (position < 0) {
+            throw new IllegalArgumentException("EGGNOTFOUNDEXCEPTION: Egg " + eggName + " not found in nest " + nest.getName());
+        }
+        return position;
+    }
+}
@@ -3,6 +3,7 @@ import java.util.concurrent.*;
 import java.security.SecureRandom;
 import javax.crypto.SecretKey;
 import java.util.stream.Collectors;
+import java.nio.file.Path;
 
 public class SecurityOperations {
     private final UserDatabase userDatabase;
@@ -125,29 +126,24 @@ public class SecurityOperations {
 
     // Additional security features
     public void rotateUserKeys(String username) throws Exception {
-        User user = userDatabase.getUser(username);
-        if (user == null) return;
-
-        // Generate new encryption key
-        SecretKey newKey = encryptor.generateAESKey();
-
-        // Re-encrypt user data with new key
-        User reencryptedUser = encryptor.encryptUserData(user, newKey.toString());
-        userDatabase.updateUser(username, reencryptedUser);
+        // New data key for the user; their fields are re-encrypted in place and the old key retired
+        if (!userDatabase.rotateUserDataKey(username)) return;
 
         securityLogger.logSecurityEvent(username, "KEY_ROTATION",
             "User encryption keys rotated successfully");
     }
 
-    public void bulkRotateKeys() {
-        userDatabase.getUsers().values().forEach(user -> {
-            try {
-                rotateUserKeys(user.getUsername());
-            } catch (Exception e) {
-                securityLogger.logSecurityEvent(user.getUsername(), "KEY_ROTATION_FAILURE",
-                    "Failed to rotate user keys: " + e.getMessage());
-            }
-        });
+    // Rotates every user's data key in parallel batches on the executor and waits for it. Resumes
+    // from the checkpoint of a run that didn't finish.
+    public KeyRotationJob bulkRotateKeys() throws Exception {
+        KeyRotationJob job = startKeyRotation(KeyRotationJob.DEFAULT_CHECKPOINT);
+        job.await();
+        return job;
+    }
+
+    // The same, returning as soon as the batches are queued; poll the job for throughput and ETA
+    public KeyRotationJob startKeyRotation(Path checkpointFile) throws Exception {
+        return new KeyRotationJob(userDatabase, executorService, securityLogger, checkpointFile).start();
     }
 
     public void lockInactiveUsers(long inactivityThreshold) {
@@ -0,0 +1,76 @@
+import java.util.List;
+
+// Approximate-aggregate sketches kept for one egg (CREATE NEW INDEX ... USING SKETCH): a
+// HyperLogLog for APPROXCOUNTFEATHER and, over INTEGER values, a t-digest for APPROXPERCENTILE.
+// Both are updated as clutches are laid, so the planner can answer those aggregates over the
+// whole nest without reading it. Neither sketch can forget a value; after an UPDATE or REMOVE
+// touches the egg the sketches are marked stale and rebuilt by the next query that uses them.
+public class SketchEggIndex extends EggIndex {
+    private static final long serialVersionUID = 1L;
+    private HyperLogLog distinct = new HyperLogLog();
+    private TDigest digest = new TDigest();
+    private boolean stale;
+
+    public SketchEggIndex(String name, String eggName, int position) {
+        super(name, eggName, position);
+    }
+
+    @Override
+    public Kind getKind() {
+        return Kind.SKETCH;
+    }
+
+    @Override
+    public void add(Clutch clutch) {
+        Egg egg = eggOf(clutch);
+        if (egg != null && !egg.isNull()) {
+            distinct.add(egg.getValue());
+            if (egg.isIntegral()) {
+                digest.add(egg.getLong());
+            }
+        }
+        size++;
+    }
+
+    @Override
+    public void remove(Object oldValue, Clutch clutch) {
+        stale = true;
+        size--;
+    }
+
+    @Override
+    public void clear() {
+        distinct = new HyperLogLog();
+        digest = new TDigest();
+        stale = false;
+        size = 0;
+    }
+
+    public boolean isStale() {
+        return stale;
+    }
+
+    public HyperLogLog getDistinct() {
+        return distinct;
+    }
+
+    public TDigest getDigest() {
+        return digest;
+    }
+
+    // Sketches never narrow a scan
+    @Override
+    public boolean supports(FindCondition condition) {
+        return false;
+    }
+
+    @Override
+    public List<Clutch> lookup(FindCondition condition) {
+        throw new IllegalArgumentException("Index " + name + " cannot serve condition " + condition);
+    }
+
+    @Override
+    public int getDistinctValues() {
+        return (int) Math.min(Integer.MAX_VALUE, distinct.estimate());
+    }
+}
@@ -0,0 +1,255 @@
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+
+// Sorted secondary index over one egg of a nest (CREATE NEW INDEX). Maps each value to the
+// clutches holding it, so equality and range conditions can skip a full scan.
+public class SortedEggIndex extends EggIndex {
+    private static final long serialVersionUID = 1L;
+    private final TreeMap<Object, List<Clutch>> entries = new TreeMap<>(new ValueComparator());
+    private final List<Clutch> nullEntries = new ArrayList<>();
+    // Bloom filter over the indexed values so equality lookups on absent values skip the tree.
+    // Values that leave the index stay in the filter until enough pile up to rebuild it.
+    private BloomFilter valueFilter;
+    private int staleValues;
+
+    private static class ValueComparator implements Comparator<Object>, Serializable {
+        private static final long serialVersionUID = 1L;
+        @Override
+        public int compare(Object left, Object right) {
+            return FindCondition.compareValues(left, right);
+        }
+    }
+
+    public SortedEggIndex(String name, String eggName, int position) {
+        super(name, eggName, position);
+    }
+
+    @Override
+    public Kind getKind() {
+        return Kind.SORTED;
+    }
+
+    @Override
+    public void add(Clutch clutch) {
+        Object value = keyOf(clutch);
+        if (value == null) {
+            nullEntries.add(clutch);
+        } else {
+            List<Clutch> bucket = entries.get(value);
+            if (bucket == null) {
+                bucket = new ArrayList<>(1);
+                entries.put(value, bucket);
+                addToFilter(value);
+            }
+            bucket.add(clutch);
+        }
+        size++;
+    }
+
+    @Override
+    public void remove(Object oldValue, Clutch clutch) {
+        List<Clutch> bucket = oldValue == null ? nullEntries : entries.get(oldValue);
+        if (bucket == null) {
+            return;
+        }
+        for (int i = 0; i < bucket.size(); i++) {
+            if (bucket.get(i) == clutch) {
+                bucket.remove(i);
+                size--;
+                break;
+            }
+        }
+        if (bucket.isEmpty() && oldValue != null) {
+            entries.remove(oldValue);
+            if (++staleValues > entries.size()) {
+                rebuildFilter();
+            }
+        }
+    }
+
+    @Override
+    public void clear() {
+        entries.clear();
+        nullEntries.clear();
+        size = 0;
+        rebuildFilter();
+    }
+
+    @Override
+    public boolean mightContain(Object value) {
+        if (value == null) {
+            return !nullEntries.isEmpty();
+        }
+        return getValueFilter().mightContain(value);
+    }
+
+    @Override
+    public BloomFilter getValueFilter() {
+        if (valueFilter == null) {
+            rebuildFilter();
+        }
+        return valueFilter;
+    }
+
+    @Override
+    public void setFalsePositiveRate(double falsePositiveRate) {
+        super.setFalsePositiveRate(falsePositiveRate);
+        rebuildFilter();
+    }
+
+    private void addToFilter(Object value) {
+        BloomFilter filter = getValueFilter();
+        if (filter.isSaturated()) {
+            rebuildFilter();
+        } else {
+            filter.put(value);
+        }
+    }
+
+    // Sized for twice the current distinct values so steady growth doesn't rebuild constantly
+    private void rebuildFilter() {
+        BloomFilter rebuilt = new BloomFilter(Math.max(1024, entries.size() * 2L), falsePositiveRate);
+        for (Object value : entries.keySet()) {
+            rebuilt.put(value);
+        }
+        valueFilter = rebuilt;
+        staleValues = 0;
+    }
+
+    @Override
+    public boolean supports(FindCondition condition) {
+        if (!condition.getEggName().equals(eggName)) {
+            return false;
+        }
+        switch (condition.getOperator()) {
+            case "=":
+                return true;
+            case "<":
+            case "<=":
+            case ">":
+            case ">=":
+                return condition.getLiteral() != null;
+            default:
+                return false;
+        }
+    }
+
+    // Clutches that may satisfy the condition, in index order
+    @Override
+    public List<Clutch> lookup(FindCondition condition) {
+        Object literal = condition.getLiteral();
+        if (condition.getOperator().equals("=")) {
+            if (literal == null) {
+                return new ArrayList<>(nullEntries);
+            }
+            BloomFilter filter = getValueFilter();
+            if (!filter.mightContain(literal)) {
+                return new ArrayList<>();
+            }
+            List<Clutch> bucket = entries.get(literal);
+            if (bucket == null) {
+                filter.recordFalsePositive();
+                return new ArrayList<>();
+            }
+            return new ArrayList<>(bucket);
+        }
+
+        NavigableMap<Object, List<Clutch>> range;
+        switch (condition.getOperator()) {
+            case "<":
+                range = entries.headMap(literal, false);
+                break;
+            case "<=":
+                range = entries.headMap(literal, true);
+                break;
+            case ">":
+                range = entries.tailMap(literal, false);
+                break;
+            case ">=":
+                range = entries.tailMap(literal, true);
+                break;
+            default:
+                throw new IllegalArgumentException("Index " + name + " cannot serve operator " + condition.getOperator());
+        }
+        List<Clutch> result = new ArrayList<>();
+        for (Map.Entry<Object, List<Clutch>> entry : range.entrySet()) {
+            result.addAll(entry.getValue());
+        }
+        return result;
+    }
+
+    // Clutches in SORT BY order, read lazily so a caller that stops early only pays for what it
+    // took: ascending puts null values first, descending last. With seek set the walk starts at
+    // the clutches holding from, or at the null values when from is null.
+    public Iterator<Clutch> inOrder(boolean descending, boolean seek, Object from) {
+        List<Iterator<Clutch>> parts = new ArrayList<>(2);
+        if (!descending) {
+            if (!seek || from == null) {
+                parts.add(nullEntries.iterator());
+            }
+            parts.add(flatten(seek && from != null ? entries.tailMap(from, true) : entries));
+        } else {
+            if (!seek || from != null) {
+                parts.add(flatten(seek ? entries.headMap(from, true).descendingMap() : entries.descendingMap()));
+            }
+            parts.add(nullEntries.iterator());
+        }
+        return flattenIterators(parts.iterator());
+    }
+
+    private static Iterator<Clutch> flatten(NavigableMap<Object, List<Clutch>> range) {
+        Iterator<List<Clutch>> buckets = range.values().iterator();
+        return flattenIterators(new Iterator<Iterator<Clutch>>() {
+            @Override
+            public boolean hasNext() {
+                return buckets.hasNext();
+            }
+
+            @Override
+            public Iterator<Clutch> next() {
+                return buckets.next().iterator();
+            }
+        });
+    }
+
+    private static Iterator<Clutch> flattenIterators(Iterator<Iterator<Clutch>> parts) {
+        return new Iterator<Clutch>() {
+            private Iterator<Clutch> current = Collections.emptyIterator();
+
+            @Override
+            public boolean hasNext() {
+                while (!current.hasNext() && parts.hasNext()) {
+                    current = parts.next();
+                }
+                return current.hasNext();
+            }
+
+            @Override
+            public Clutch next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return current.next();
+            }
+        };
+    }
+
+    @Override
+    public int getDistinctValues() {
+        return entries.size() + (nullEntries.isEmpty() ? 0 : 1);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("SortedEggIndex[name=%s, egg=%s, entries=%d, distinct=%d, filterFpp=%.4f]",
+            name, eggName, size, getDistinctValues(), getValueFilter().getMeasuredFalsePositiveRate());
+    }
+}
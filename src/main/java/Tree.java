@@ -1,10 +1,14 @@
 import lombok.Getter;
 import lombok.Setter;
 import java.util.*;
+import java.util.function.UnaryOperator;
 import java.time.LocalDateTime;
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 
 public class Tree implements Serializable {
+    private static final long serialVersionUID = -5573539155801509681L;
     @Getter @Setter private String name;
     @Getter @Setter private String description;
     @Getter @Setter private String owner;
@@ -16,8 +20,23 @@ public class Tree implements Serializable {
     @Getter @Setter private Map<String, Branch> branchIndex;
     @Getter @Setter private boolean isLocked;
     @Getter @Setter private String encryptionKey;
+    // ENCRYPT TREE: the nests' data keys, wrapped under the passphrase; null while the tree
+    // holds no encrypted eggs
+    @Getter @Setter private KeyRing keyRing;
+    // ROTATE TREE KEY --reencrypt, while it runs and after, for its progress
+    @Getter @Setter private transient TreeEncryption.Reencryption reencryption;
     @Getter @Setter private List<String> adminUsers;
-    @Setter private Map<String, Nest> nests;  // Removed @Getter since we have a custom getNests() method
+    private Map<String, Nest> nests;  // No Lombok accessors: custom getNests() and setNests() below
+    // Turns a stored (encrypted/serialized) egg into a readable copy; required once any egg is encrypted
+    @Getter private transient UnaryOperator<Egg> eggDecoder;
+    private transient EggCache eggCache;
+    // Rejects names of nests that don't exist before the nest map is probed; rebuilt on demand
+    private transient BloomFilter nestFilter;
+    // Change-data-capture feed for -w/--watch; starts empty each time the tree is loaded
+    private transient ChangeFeed changeFeed;
+    // CREATE MATERIALIZED VIEW; each view keeps its rows in a nest of the same name
+    private Map<String, MaterializedView> materializedViews;
+    @Getter private double bloomFalsePositiveRate = BloomFilter.DEFAULT_FALSE_POSITIVE_RATE;
 
     public Tree(String name, String description, String owner, int maxNests,
                 int maxEggsPerNest, int maxUsers, String encryptionKey) {
@@ -32,6 +51,7 @@ public class Tree implements Serializable {
         this.rootBranch = new Branch(name, owner, null);
         this.branchIndex = new HashMap<>();
         this.nests = new HashMap<>();
+        this.materializedViews = new LinkedHashMap<>();
         this.adminUsers = new ArrayList<>();
         this.adminUsers.add(owner);
         this.isLocked = false;
@@ -50,6 +70,7 @@ public class Tree implements Serializable {
         Branch newBranch = new Branch(name, owner, parentBranch);
         parentBranch.addSubBranch(newBranch);
         branchIndex.put(newBranch.getFullPath(), newBranch);
+        getChangeFeed().publish(ChangeEvent.Type.BRANCH_ADDED, newBranch.getFullPath(), null);
         return newBranch;
     }
 
@@ -71,17 +92,82 @@ public class Tree implements Serializable {
         }
 
         branch.addNest(nest);
+        nests.put(nest.getName(), nest);
+        if (nestFilter != null) {
+            nestFilter.put(nest.getName());
+        }
+        nest.setEggDecoder(eggDecoder);
+        ChangeFeed feed = getChangeFeed();
+        nest.setChangeFeed(feed);
+        feed.publish(ChangeEvent.Type.NEST_ADDED, nest.getName(), null);
     }
 
     public void removeNest(String nestName) {
         if (isLocked) {
             throw new IllegalStateException("Tree is locked");
         }
-        nests.remove(nestName);
+        Nest removed = nests.remove(nestName);
+        // Bloom filters can't forget a key; rebuild on next use
+        nestFilter = null;
+        if (removed != null) {
+            for (Branch branch : branchesHolding(removed)) {
+                branch.removeNest(nestName);
+            }
+            removed.setChangeFeed(null);
+            getChangeFeed().publish(ChangeEvent.Type.NEST_REMOVED, nestName, null);
+        }
+    }
+
+    private List<Branch> branchesHolding(Nest nest) {
+        List<Branch> holding = new ArrayList<>();
+        List<Branch> branches = new ArrayList<>(branchIndex.values());
+        branches.add(rootBranch);
+        for (Branch branch : branches) {
+            if (branch.getNest(nest.getName()) == nest) {
+                holding.add(branch);
+            }
+        }
+        return holding;
+    }
+
+    // Adds the view's nest under branchPath, then fills it from the base nest
+    public void addMaterializedView(String branchPath, MaterializedView view) {
+        addNest(branchPath, view.getNest());
+        materializedViews.put(view.getName(), view);
+        try {
+            view.refresh(this);
+        } catch (RuntimeException e) {
+            removeMaterializedView(view.getName());
+            throw e;
+        }
+    }
+
+    public void removeMaterializedView(String viewName) {
+        MaterializedView view = materializedViews.remove(viewName);
+        if (view != null) {
+            view.detach();
+            removeNest(viewName);
+        }
+    }
+
+    public MaterializedView getMaterializedView(String viewName) {
+        return materializedViews.get(viewName);
+    }
+
+    public Collection<MaterializedView> getMaterializedViews() {
+        return Collections.unmodifiableCollection(materializedViews.values());
     }
 
     public Nest getNest(String nestName) {
-        return nests.get(nestName);
+        BloomFilter filter = getNestFilter();
+        if (!filter.mightContain(nestName)) {
+            return null;
+        }
+        Nest nest = nests.get(nestName);
+        if (nest == null) {
+            filter.recordFalsePositive();
+        }
+        return nest;
     }
 
     public Collection<Nest> getNests() {
@@ -89,7 +175,82 @@ public class Tree implements Serializable {
     }
 
     public boolean hasNest(String nestName) {
-        return nests.containsKey(nestName);
+        return getNest(nestName) != null;
+    }
+
+    public synchronized BloomFilter getNestFilter() {
+        if (nestFilter == null || nestFilter.isSaturated()) {
+            BloomFilter rebuilt = new BloomFilter(Math.max(64, nests.size() * 2L), bloomFalsePositiveRate);
+            for (String nestName : nests.keySet()) {
+                rebuilt.put(nestName);
+            }
+            nestFilter = rebuilt;
+        }
+        return nestFilter;
+    }
+
+    public void setNests(Map<String, Nest> nests) {
+        this.nests = nests;
+        nestFilter = null;
+        for (Nest nest : nests.values()) {
+            nest.setEggDecoder(eggDecoder);
+        }
+    }
+
+    // Nests need it too: their indexes file encrypted eggs under the plaintext
+    public void setEggDecoder(UnaryOperator<Egg> eggDecoder) {
+        this.eggDecoder = eggDecoder;
+        for (Nest nest : nests.values()) {
+            nest.setEggDecoder(eggDecoder);
+        }
+    }
+
+    public void setBloomFalsePositiveRate(double bloomFalsePositiveRate) {
+        this.bloomFalsePositiveRate = bloomFalsePositiveRate;
+        nestFilter = null;
+    }
+
+    // Created on first use, at which point every nest already in the tree starts reporting to it
+    public synchronized ChangeFeed getChangeFeed() {
+        if (changeFeed == null) {
+            changeFeed = new ChangeFeed();
+            for (Nest nest : nests.values()) {
+                nest.setChangeFeed(changeFeed);
+            }
+        }
+        return changeFeed;
+    }
+
+    public synchronized EggCache getEggCache() {
+        if (eggCache == null) {
+            eggCache = new EggCache();
+        }
+        return eggCache;
+    }
+
+    // Returns the clutch as readers should see it. Plain eggs pass through untouched; encrypted
+    // eggs are decoded, going through the egg cache unless useCache is false (--no-cache).
+    public Clutch decode(Clutch clutch, boolean useCache) {
+        Egg[] decoded = null;
+        for (int i = 0; i < clutch.size(); i++) {
+            Egg egg = decoded == null ? clutch.getEgg(i) : decoded[i];
+            if (egg == null || !egg.isEncrypted()) {
+                continue;
+            }
+            if (decoded == null) {
+                // From the first encrypted egg on, work on one snapshot of the slots
+                decoded = clutch.getEggs();
+                egg = decoded[i];
+                if (egg == null || !egg.isEncrypted()) {
+                    continue;
+                }
+            }
+            if (eggDecoder == null) {
+                throw new IllegalStateException("Egg " + egg.getName() + " is encrypted but tree " + name + " has no decoder");
+            }
+            decoded[i] = useCache ? getEggCache().get(egg, eggDecoder) : eggDecoder.apply(egg);
+        }
+        return decoded == null ? clutch : new Clutch(decoded);
     }
 
     public void lock() {
@@ -139,6 +300,15 @@ public class Tree implements Serializable {
         }
     }
 
+    // Trees saved before materialized views and bloom filters get their defaults
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        if (materializedViews == null) {
+            materializedViews = new LinkedHashMap<>();
+            bloomFalsePositiveRate = BloomFilter.DEFAULT_FALSE_POSITIVE_RATE;
+        }
+    }
+
     @Override
     public String toString() {
         return String.format("Tree[name=%s, nests=%d, owner=%s, locked=%b]",
@@ -0,0 +1,584 @@
+import lombok.Getter;
+import lombok.Setter;
+import javax.crypto.SecretKey;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+
+// ENCRYPT TREE / DECRYPT TREE: rewrites every egg of every nest in a tree between plain and
+// encrypted form. Each nest is encrypted under its own random data key, kept wrapped in the
+// tree's KeyRing under a key derived from the passphrase. Each egg becomes the id of its data
+// key followed by its own AES-GCM frame, the same frame Encryptor.encryptGCM writes, holding a
+// type tag and the value. Eggs stay individually readable: Tree.decode opens them through the
+// eggDecoder this class installs, which finds the data key by the id.
+//
+// Nests are cut into chunks of clutches and the chunks run in parallel. A chunk swaps each
+// clutch's eggs for rewritten copies one at a time, so at no point does a nest exist twice in
+// memory in plain and in encrypted form. Null eggs have no value and are left as they are.
+//
+// A run can stop part way, through CANCEL, --perch-timeout or a failure, and then leaves a mix
+// of plain and encrypted eggs that reads correctly. Running the same statement again resumes:
+// eggs already in the target form are skipped. The key ring keeps a check frame made with the
+// passphrase, so a resumed ENCRYPT or a DECRYPT with a different one is turned away before
+// anything is touched.
+//
+// ROTATE TREE KEY changes the passphrase by re-wrapping the data keys, one small frame per nest,
+// without touching the eggs. Replacing the data keys themselves means rewriting the eggs; that
+// is the Reencryption below, which runs in the background at a capped rate.
+public class TreeEncryption {
+    public static final int DEFAULT_CHUNK_CLUTCHES = 4096;
+    public static final long DEFAULT_PROGRESS_INTERVAL_MILLIS = 1000;
+    public static final long DEFAULT_REENCRYPT_EGGS_PER_SECOND = 10_000;
+
+    // Value tags at the front of each frame's plaintext
+    private static final byte INT = 'I';
+    private static final byte LONG = 'L';
+    private static final byte BOOLEAN = 'B';
+    private static final byte STRING = 'S';
+    private static final byte OBJECT = 'O';
+
+    public enum Direction { ENCRYPT, DECRYPT }
+
+    @Getter private final Tree tree;
+    @Getter private final Direction direction;
+    private final Encryptor encryptor;
+    private final KeyRing keyRing;
+
+    @Getter @Setter private int parallelism = Runtime.getRuntime().availableProcessors();
+    @Getter @Setter private int chunkClutches = DEFAULT_CHUNK_CLUTCHES;
+    @Getter @Setter private long progressIntervalMillis = DEFAULT_PROGRESS_INTERVAL_MILLIS;
+    // Checked between clutches; clutches done before a cancellation stay done
+    @Getter @Setter private CancellationToken cancellationToken;
+    // Gets a progress line every progressIntervalMillis and whenever a nest finishes
+    @Setter private Consumer<String> progressListener;
+
+    @Getter private long totalClutches;
+    private final AtomicLong clutchesDone = new AtomicLong();
+    private final AtomicLong eggsRewritten = new AtomicLong();
+    private final AtomicLong eggsSkipped = new AtomicLong();
+    private final AtomicInteger nestsDone = new AtomicInteger();
+    private int totalNests;
+    private long startNanos;
+
+    // Per worker thread: the plaintext of the egg in hand, grown as needed
+    private static final ThreadLocal<ByteBuffer> PLAINTEXT = ThreadLocal.withInitial(() -> ByteBuffer.allocate(256));
+
+    private TreeEncryption(Tree tree, Direction direction, Encryptor encryptor, KeyRing keyRing) {
+        this.tree = tree;
+        this.direction = direction;
+        this.encryptor = encryptor;
+        this.keyRing = keyRing;
+    }
+
+    // Unlocks the tree's key ring with the passphrase; the first ENCRYPT creates the ring
+    public static TreeEncryption prepare(Tree tree, Direction direction, String passphrase, Encryptor encryptor)
+            throws GeneralSecurityException {
+        requireIdle(tree);
+        if (tree.getKeyRing() == null) {
+            if (direction == Direction.DECRYPT) {
+                throw new IllegalStateException("Tree " + tree.getName() + " is not encrypted");
+            }
+            if (passphrase == null || passphrase.isEmpty()) {
+                throw new IllegalArgumentException("Encryption key cannot be empty");
+            }
+            tree.setKeyRing(KeyRing.create(passphrase, encryptor));
+        } else {
+            unlock(tree, passphrase, encryptor);
+        }
+        return new TreeEncryption(tree, direction, encryptor, tree.getKeyRing());
+    }
+
+    // ROTATE TREE KEY: re-wraps the tree's data keys under newPassphrase. The eggs are untouched,
+    // so this costs the same for an empty tree and a full one. Returns the number of keys.
+    public static int rotate(Tree tree, String oldPassphrase, String newPassphrase, Encryptor encryptor)
+            throws GeneralSecurityException {
+        if (tree.getKeyRing() == null) {
+            throw new IllegalStateException("Tree " + tree.getName() + " is not encrypted");
+        }
+        if (newPassphrase == null || newPassphrase.isEmpty()) {
+            throw new IllegalArgumentException("Encryption key cannot be empty");
+        }
+        unlock(tree, oldPassphrase, encryptor);
+        return tree.getKeyRing().rewrap(newPassphrase, encryptor);
+    }
+
+    private static void unlock(Tree tree, String passphrase, Encryptor encryptor) throws GeneralSecurityException {
+        try {
+            tree.getKeyRing().unlock(passphrase, encryptor);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Wrong encryption key for tree " + tree.getName());
+        }
+        // The ring is only unlocked in memory, so a tree loaded from disk gets its decoder here
+        if (tree.getEggDecoder() == null) {
+            tree.setEggDecoder(decoder(tree.getKeyRing(), encryptor));
+        }
+    }
+
+    private static void requireIdle(Tree tree) {
+        Reencryption running = tree.getReencryption();
+        if (running != null && running.isRunning()) {
+            throw new IllegalStateException("Tree " + tree.getName() + " is being re-encrypted in the background (" +
+                running.progressLine() + "); wait for it to finish");
+        }
+    }
+
+    // What Tree.decode uses once any egg is encrypted: opens each egg with the data key its id names
+    public static UnaryOperator<Egg> decoder(KeyRing keyRing, Encryptor encryptor) {
+        return egg -> decryptEgg(egg, keyRing, encryptor);
+    }
+
+    public Egg decryptEgg(Egg egg) {
+        return decryptEgg(egg, keyRing, encryptor);
+    }
+
+    private static Egg decryptEgg(Egg egg, KeyRing keyRing, Encryptor encryptor) {
+        if (!egg.isEncrypted()) {
+            return egg;
+        }
+        try {
+            ByteBuffer frame = ByteBuffer.wrap((byte[]) egg.getValue());
+            // Pinned, so re-encryption retiring the key can't zero it mid-decrypt
+            SecretKey key = keyRing.acquireDataKey(frame.getInt(), encryptor);
+            ByteBuffer plain = plaintextBuffer(frame.remaining());
+            try {
+                encryptor.decryptGCM(frame, plain, key);
+            } finally {
+                keyRing.release(key);
+            }
+            plain.flip();
+            return copy(egg, readValue(plain), false);
+        } catch (GeneralSecurityException | IOException | ClassNotFoundException | ClassCastException |
+                 IllegalStateException e) {
+            throw new IllegalStateException("Egg " + egg.getName() + " could not be decrypted: " + e.getMessage(), e);
+        }
+    }
+
+    // The id of the data key an encrypted egg was sealed with
+    private static int keyId(Egg egg) {
+        return ByteBuffer.wrap((byte[]) egg.getValue()).getInt();
+    }
+
+    public Result run() throws InterruptedException, GeneralSecurityException {
+        List<Nest> nests = new ArrayList<>(tree.getNests());
+        List<Chunk> chunks = new ArrayList<>();
+        Map<Nest, AtomicInteger> chunksLeft = new IdentityHashMap<>();
+        for (Nest nest : nests) {
+            if (direction == Direction.ENCRYPT && nest.getDataKeyId() == 0) {
+                nest.setDataKeyId(keyRing.newDataKey(encryptor));
+            }
+            // A snapshot of references only; clutches laid from here on are left for the next run
+            List<Clutch> clutches = new ArrayList<>(nest.getClutches());
+            totalClutches += clutches.size();
+            int count = 0;
+            for (int from = 0; from < clutches.size(); from += chunkClutches) {
+                chunks.add(new Chunk(nest, clutches, from, Math.min(clutches.size(), from + chunkClutches)));
+                count++;
+            }
+            chunksLeft.put(nest, new AtomicInteger(count));
+            if (count == 0) {
+                nestsDone.incrementAndGet();
+            }
+        }
+        totalNests = nests.size();
+        startNanos = System.nanoTime();
+
+        // Readers need it while the run is under way in either direction
+        tree.setEggDecoder(decoder(keyRing, encryptor));
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(parallelism, chunks.size())));
+        List<Future<?>> futures = new ArrayList<>(chunks.size());
+        for (Chunk chunk : chunks) {
+            futures.add(pool.submit(() -> {
+                process(chunk);
+                if (chunksLeft.get(chunk.nest).decrementAndGet() == 0) {
+                    nestsDone.incrementAndGet();
+                    report("nest " + chunk.nest.getName() + " done");
+                }
+                return null;
+            }));
+        }
+        pool.shutdown();
+
+        Throwable failure = null;
+        try {
+            for (Future<?> future : futures) {
+                while (true) {
+                    try {
+                        future.get(progressIntervalMillis, TimeUnit.MILLISECONDS);
+                        break;
+                    } catch (TimeoutException e) {
+                        report(null);
+                    }
+                }
+            }
+        } catch (ExecutionException e) {
+            failure = e.getCause();
+        } finally {
+            pool.shutdownNow();
+            pool.awaitTermination(1, TimeUnit.MINUTES);
+            // Stored eggs changed under every derived structure: indexes are refiled from the
+            // plaintext, numeric columns and cached results are dropped
+            for (Nest nest : nests) {
+                nest.rebuildIndexes();
+                nest.markModified();
+            }
+            tree.getEggCache().clear();
+        }
+
+        Result result = new Result();
+        if (failure instanceof CancellationException) {
+            throw (CancellationException) failure;
+        }
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        }
+        if (failure != null) {
+            throw new IllegalStateException(failure.getMessage(), failure);
+        }
+        if (direction == Direction.DECRYPT && !hasEncryptedEggs()) {
+            // Nothing left under these keys, so the next ENCRYPT may choose a new passphrase
+            for (Nest nest : tree.getNests()) {
+                nest.setDataKeyId(0);
+            }
+            tree.setKeyRing(null);
+            tree.setEggDecoder(null);
+            keyRing.lock();
+        }
+        return result;
+    }
+
+    private void process(Chunk chunk) throws GeneralSecurityException, IOException {
+        int keyId = chunk.nest.getDataKeyId();
+        SecretKey key = direction == Direction.ENCRYPT ? keyRing.getDataKey(keyId, encryptor) : null;
+        for (int i = chunk.from; i < chunk.to; i++) {
+            if (cancellationToken != null && (i & 255) == 0) {
+                cancellationToken.throwIfCancelled();
+            }
+            if (Thread.currentThread().isInterrupted()) {
+                return;
+            }
+            Clutch clutch = chunk.clutches.get(i);
+            // Held against UPDATE NEST, which writes eggs in place under the same monitor
+            synchronized (clutch) {
+                for (int position = 0; position < clutch.size(); position++) {
+                    Egg egg = clutch.getEgg(position);
+                    if (egg == null || egg.isNull() || egg.isEncrypted() == (direction == Direction.ENCRYPT)) {
+                        eggsSkipped.incrementAndGet();
+                        continue;
+                    }
+                    clutch.setEgg(position, direction == Direction.ENCRYPT ? encryptEgg(egg, keyId, key, encryptor) : decryptEgg(egg));
+                    eggsRewritten.incrementAndGet();
+                }
+            }
+            clutchesDone.incrementAndGet();
+        }
+    }
+
+    private static Egg encryptEgg(Egg egg, int keyId, SecretKey key, Encryptor encryptor)
+            throws GeneralSecurityException, IOException {
+        ByteBuffer plain = writeValue(egg);
+        ByteBuffer frame = ByteBuffer.allocate(4 + Encryptor.gcmFrameLength(plain.remaining()));
+        frame.putInt(keyId);
+        encryptor.encryptGCM(plain, frame, key);
+        return copy(egg, frame.array(), true);
+    }
+
+    private static Egg copy(Egg egg, Object value, boolean encrypted) {
+        Egg copy = new Egg(egg.getName(), value, egg.getDataType(), egg.getConstraints());
+        copy.setEncrypted(encrypted);
+        copy.setCreatorId(egg.getCreatorId());
+        copy.setLastModified(egg.getLastModified());
+        return copy;
+    }
+
+    // Tag and value of the egg, flipped and ready to read
+    private static ByteBuffer writeValue(Egg egg) throws IOException {
+        ByteBuffer plain;
+        switch (egg.getValueKind()) {
+            case INT:
+                plain = plaintextBuffer(5).put(INT).putInt(egg.getInt());
+                break;
+            case LONG:
+                plain = plaintextBuffer(9).put(LONG).putLong(egg.getLong());
+                break;
+            case BOOLEAN:
+                plain = plaintextBuffer(2).put(BOOLEAN).put((byte) (egg.getBoolean() ? 1 : 0));
+                break;
+            default:
+                Object value = egg.getValue();
+                byte[] bytes;
+                byte tag;
+                if (value instanceof String) {
+                    bytes = ((String) value).getBytes(StandardCharsets.UTF_8);
+                    tag = STRING;
+                } else {
+                    ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+                    try (ObjectOutputStream out = new ObjectOutputStream(serialized)) {
+                        out.writeObject(value);
+                    }
+                    bytes = serialized.toByteArray();
+                    tag = OBJECT;
+                }
+                plain = plaintextBuffer(1 + bytes.length).put(tag).put(bytes);
+        }
+        plain.flip();
+        return plain;
+    }
+
+    private static Object readValue(ByteBuffer plain) throws IOException, ClassNotFoundException {
+        byte tag = plain.get();
+        switch (tag) {
+            case INT: return plain.getInt();
+            case LONG: return plain.getLong();
+            case BOOLEAN: return plain.get() != 0;
+            case STRING: return new String(plain.array(), plain.position(), plain.remaining(), StandardCharsets.UTF_8);
+            case OBJECT:
+                try (ObjectInputStream in = new ObjectInputStream(
+                        new ByteArrayInputStream(plain.array(), plain.position(), plain.remaining()))) {
+                    return in.readObject();
+                }
+            default:
+                throw new IOException("Unknown value tag " + tag);
+        }
+    }
+
+    // This thread's buffer, cleared and at least capacity bytes
+    private static ByteBuffer plaintextBuffer(int capacity) {
+        ByteBuffer buffer = PLAINTEXT.get();
+        if (buffer.capacity() < capacity) {
+            buffer = ByteBuffer.allocate(Math.max(capacity, buffer.capacity() * 2));
+            PLAINTEXT.set(buffer);
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    private boolean hasEncryptedEggs() {
+        for (Nest nest : tree.getNests()) {
+            for (Clutch clutch : nest.getClutches()) {
+                for (Egg egg : clutch.getEggs()) {
+                    if (egg != null && egg.isEncrypted()) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    private void report(String event) {
+        if (progressListener != null) {
+            progressListener.accept(progressLine(event));
+        }
+    }
+
+    private String progressLine(String event) {
+        long done = clutchesDone.get();
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        double rate = seconds > 0 ? done / seconds : 0;
+        String eta = rate > 0 ? String.format("%.1fs", (totalClutches - done) / rate) : "-";
+        return String.format("%s tree %s: %d/%d nest(s), %d/%d clutch(es) (%.0f%%), %.0f clutches/s, ETA %s%s",
+            direction == Direction.ENCRYPT ? "Encrypting" : "Decrypting", tree.getName(), nestsDone.get(), totalNests,
+            done, totalClutches, totalClutches == 0 ? 100.0 : 100.0 * done / totalClutches, rate, eta,
+            event == null ? "" : " - " + event);
+    }
+
+    private static class Chunk {
+        private final Nest nest;
+        private final List<Clutch> clutches;
+        private final int from;
+        private final int to;
+
+        private Chunk(Nest nest, List<Clutch> clutches, int from, int to) {
+            this.nest = nest;
+            this.clutches = clutches;
+            this.from = from;
+            this.to = to;
+        }
+    }
+
+    public class Result {
+        @Getter private final long clutches = clutchesDone.get();
+        @Getter private final long eggsChanged = eggsRewritten.get();
+        @Getter private final long eggsUnchanged = eggsSkipped.get();
+        @Getter private final double seconds = (System.nanoTime() - startNanos) / 1e9;
+
+        @Override
+        public String toString() {
+            return String.format("%s tree '%s': %d egg(s) in %d clutch(es) across %d nest(s) in %.2fs (%d already %s)",
+                direction == Direction.ENCRYPT ? "Encrypted" : "Decrypted", tree.getName(), eggsChanged, clutches,
+                totalNests, seconds, eggsUnchanged, direction == Direction.ENCRYPT ? "encrypted or null" : "plain");
+        }
+    }
+
+    // ROTATE TREE KEY --reencrypt: gives every encrypted nest a fresh data key and rewrites its
+    // eggs under it on a daemon thread, at most eggsPerSecond eggs a second (0 for no cap) so
+    // readers and writers keep most of the machine. Readers see a mix of old and new frames while
+    // it runs; both open, since each names its key. The old keys are retired once no egg uses
+    // them. ENCRYPT, DECRYPT and another re-encryption of the tree wait until it is done.
+    public static Reencryption startReencryption(Tree tree, Encryptor encryptor, long eggsPerSecond) {
+        KeyRing keyRing = tree.getKeyRing();
+        if (keyRing == null || !keyRing.isUnlocked()) {
+            throw new IllegalStateException("Tree " + tree.getName() + " is not encrypted or its key ring is locked");
+        }
+        requireIdle(tree);
+        Reencryption reencryption = new Reencryption(tree, keyRing, encryptor, eggsPerSecond);
+        tree.setReencryption(reencryption);
+        Thread thread = new Thread(reencryption, "reencrypt-" + tree.getName());
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+        return reencryption;
+    }
+
+    public static class Reencryption implements Runnable {
+        @Getter private final Tree tree;
+        private final KeyRing keyRing;
+        private final Encryptor encryptor;
+        @Getter private final long eggsPerSecond;
+
+        private volatile boolean running = true;
+        private volatile boolean cancelled;
+        @Getter private volatile String failure;
+        private volatile long totalClutches;
+        private final AtomicLong clutchesDone = new AtomicLong();
+        private final AtomicLong eggsRewritten = new AtomicLong();
+        @Getter private volatile int keysRetired;
+        private final long startNanos = System.nanoTime();
+        private volatile long endNanos;
+
+        private Reencryption(Tree tree, KeyRing keyRing, Encryptor encryptor, long eggsPerSecond) {
+            this.tree = tree;
+            this.keyRing = keyRing;
+            this.encryptor = encryptor;
+            this.eggsPerSecond = eggsPerSecond;
+        }
+
+        @Override
+        public void run() {
+            List<Nest> nests = new ArrayList<>(tree.getNests());
+            try {
+                for (Nest nest : nests) {
+                    totalClutches += nest.getClutches().size();
+                }
+                for (Nest nest : nests) {
+                    if (cancelled) {
+                        break;
+                    }
+                    if (nest.getDataKeyId() != 0) {
+                        rekey(nest);
+                    }
+                }
+                if (!cancelled) {
+                    // Every egg is now under its nest's current key; the rest are unused
+                    Set<Integer> inUse = new HashSet<>();
+                    for (Nest nest : tree.getNests()) {
+                        inUse.add(nest.getDataKeyId());
+                    }
+                    for (int id : keyRing.getKeyIds()) {
+                        if (!inUse.contains(id)) {
+                            keyRing.retire(id);
+                            keysRetired++;
+                        }
+                    }
+                }
+            } catch (Exception e) {
+                failure = e.getMessage();
+            } finally {
+                tree.getEggCache().clear();
+                endNanos = System.nanoTime();
+                running = false;
+            }
+        }
+
+        private void rekey(Nest nest) throws GeneralSecurityException, IOException, InterruptedException {
+            int keyId = keyRing.newDataKey(encryptor);
+            SecretKey key = keyRing.getDataKey(keyId, encryptor);
+            // From here on ENCRYPT seals this nest's eggs under the new key as well
+            nest.setDataKeyId(keyId);
+            for (Clutch clutch : new ArrayList<>(nest.getClutches())) {
+                if (cancelled) {
+                    break;
+                }
+                int rewritten = 0;
+                synchronized (clutch) {
+                    for (int position = 0; position < clutch.size(); position++) {
+                        Egg egg = clutch.getEgg(position);
+                        if (egg == null || !egg.isEncrypted() || keyId(egg) == keyId) {
+                            continue;
+                        }
+                        clutch.setEgg(position, encryptEgg(decryptEgg(egg, keyRing, encryptor), keyId, key, encryptor));
+                        rewritten++;
+                    }
+                }
+                // Outside the monitor, so UPDATE NEST never waits out the throttle
+                throttle(eggsRewritten.addAndGet(rewritten));
+                clutchesDone.incrementAndGet();
+            }
+            nest.markModified();
+        }
+
+        // Sleeps off whatever the eggs so far are ahead of eggsPerSecond
+        private void throttle(long eggs) throws InterruptedException {
+            if (eggsPerSecond <= 0) {
+                return;
+            }
+            long aheadNanos = eggs * 1_000_000_000L / eggsPerSecond - (System.nanoTime() - startNanos);
+            if (aheadNanos >= 10_000_000L) {
+                TimeUnit.NANOSECONDS.sleep(aheadNanos);
+            }
+        }
+
+        // Stops after the egg in hand; eggs done so far stay under the new key and read correctly
+        public void cancel() {
+            cancelled = true;
+        }
+
+        public boolean isRunning() {
+            return running;
+        }
+
+        public long getEggsRewritten() {
+            return eggsRewritten.get();
+        }
+
+        public String progressLine() {
+            long done = clutchesDone.get();
+            double seconds = ((running ? System.nanoTime() : endNanos) - startNanos) / 1e9;
+            double rate = seconds > 0 ? eggsRewritten.get() / seconds : 0;
+            double clutchRate = seconds > 0 ? done / seconds : 0;
+            String state = running ? (clutchRate > 0 ? String.format("ETA %.1fs", (totalClutches - done) / clutchRate) : "ETA -")
+                : failure != null ? "failed: " + failure : cancelled ? "cancelled" : "done, " + keysRetired + " old key(s) retired";
+            return String.format("re-encryption of tree %s: %d/%d clutch(es), %d egg(s) rewritten, %.0f eggs/s (cap %s), %s",
+                tree.getName(), done, totalClutches, eggsRewritten.get(), rate,
+                eggsPerSecond > 0 ? String.valueOf(eggsPerSecond) : "none", state);
+        }
+
+        @Override
+        public String toString() {
+            return progressLine();
+        }
+    }
+}
@@ -0,0 +1,138 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Trigram index over one STRINGLIT egg (CREATE NEW INDEX ... USING TRIGRAM). Every clutch is filed
+// under each case-folded 3-character run of its value, so a MATCHES pattern only has to be checked
+// against clutches that contain all of the pattern's trigrams.
+public class TrigramEggIndex extends EggIndex {
+    private static final long serialVersionUID = 1L;
+    // Patterns shorter than a trigram can't be narrowed and fall back to a scan
+    public static final int GRAM_LENGTH = 3;
+
+    private final Map<Long, List<Clutch>> postings = new HashMap<>();
+
+    public TrigramEggIndex(String name, String eggName, int position) {
+        super(name, eggName, position);
+    }
+
+    @Override
+    public Kind getKind() {
+        return Kind.TRIGRAM;
+    }
+
+    @Override
+    public void add(Clutch clutch) {
+        for (long gram : trigrams(keyOf(clutch))) {
+            postings.computeIfAbsent(gram, g -> new ArrayList<>(1)).add(clutch);
+        }
+        size++;
+    }
+
+    @Override
+    public void remove(Object oldValue, Clutch clutch) {
+        for (long gram : trigrams(oldValue)) {
+            List<Clutch> posting = postings.get(gram);
+            if (posting == null) continue;
+            for (int i = 0; i < posting.size(); i++) {
+                if (posting.get(i) == clutch) {
+                    posting.remove(i);
+                    break;
+                }
+            }
+            if (posting.isEmpty()) {
+                postings.remove(gram);
+            }
+        }
+        size--;
+    }
+
+    @Override
+    public void clear() {
+        postings.clear();
+        size = 0;
+    }
+
+    @Override
+    public boolean supports(FindCondition condition) {
+        return condition.getEggName().equals(eggName) &&
+               condition.getOperator().equals("MATCHES") &&
+               condition.getLiteral() != null &&
+               condition.getLiteral().toString().length() >= GRAM_LENGTH;
+    }
+
+    // Clutches holding every trigram of the pattern, in lay order of the rarest trigram
+    @Override
+    public List<Clutch> lookup(FindCondition condition) {
+        if (!supports(condition)) {
+            throw new IllegalArgumentException("Index " + name + " cannot serve condition " + condition);
+        }
+        List<List<Clutch>> lists = new ArrayList<>();
+        for (long gram : trigrams(condition.getLiteral())) {
+            List<Clutch> posting = postings.get(gram);
+            if (posting == null) {
+                return new ArrayList<>();
+            }
+            lists.add(posting);
+        }
+        lists.sort((left, right) -> Integer.compare(left.size(), right.size()));
+
+        // Intersect starting from the shortest posting list
+        Set<Clutch> candidates = Collections.newSetFromMap(new IdentityHashMap<>());
+        candidates.addAll(lists.get(0));
+        for (int i = 1; i < lists.size() && !candidates.isEmpty(); i++) {
+            Set<Clutch> next = Collections.newSetFromMap(new IdentityHashMap<>());
+            for (Clutch clutch : lists.get(i)) {
+                if (candidates.contains(clutch)) {
+                    next.add(clutch);
+                }
+            }
+            candidates = next;
+        }
+
+        List<Clutch> result = new ArrayList<>(candidates.size());
+        for (Clutch clutch : lists.get(0)) {
+            if (candidates.remove(clutch)) {
+                result.add(clutch);
+            }
+        }
+        return result;
+    }
+
+    // Number of distinct trigrams
+    @Override
+    public int getDistinctValues() {
+        return postings.size();
+    }
+
+    // Distinct trigrams of a value, each packed as three 16-bit case-folded chars
+    private static Set<Long> trigrams(Object value) {
+        if (value == null) {
+            return Collections.emptySet();
+        }
+        String text = value.toString();
+        Set<Long> grams = new LinkedHashSet<>();
+        for (int i = 0; i + GRAM_LENGTH <= text.length(); i++) {
+            grams.add(((long) fold(text.charAt(i)) << 32) |
+                      ((long) fold(text.charAt(i + 1)) << 16) |
+                      fold(text.charAt(i + 2)));
+        }
+        return grams;
+    }
+
+    // Same folding String.regionMatches(true, ...) uses, so the index never drops a real match
+    private static char fold(char c) {
+        return Character.toLowerCase(Character.toUpperCase(c));
+    }
+
+    @Override
+    public String toString() {
+        return String.format("TrigramEggIndex[name=%s, egg=%s, entries=%d, trigrams=%d]",
+            name, eggName, size, getDistinctValues());
+    }
+}
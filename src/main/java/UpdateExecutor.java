@@ -0,0 +1,209 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+// Runs UPDATE NEST (and REMOVE EGG) statements. Target clutches come from an index when a WHILE condition can use
+// one, otherwise from a scan; matching eggs are then rewritten in place (or replaced, when the new
+// value is of another kind) and only the indexes on updated eggs are adjusted.
+public class UpdateExecutor {
+    private final PredicateCompiler predicateCompiler;
+
+    public UpdateExecutor() {
+        this(new PredicateCompiler());
+    }
+
+    public UpdateExecutor(PredicateCompiler predicateCompiler) {
+        this.predicateCompiler = predicateCompiler;
+    }
+
+    // Returns how many clutches matched (and, unless dryRun, were updated)
+    public int execute(UpdateStatement statement, Nest nest, boolean dryRun) {
+        return execute(statement, nest, dryRun, null);
+    }
+
+    // token, when given, can stop the statement while it looks for targets; once clutches
+    // start changing the update runs to completion so it is never left half applied
+    public int execute(UpdateStatement statement, Nest nest, boolean dryRun, CancellationToken token) {
+        return run(statement, nest, dryRun, null, token);
+    }
+
+    // EXPLAIN [ANALYZE] for an UPDATE: the access path to the target clutches and the write step.
+    // With analyze the update really runs, as it does for EXPLAIN ANALYZE of a PICK.
+    public PlanNode explain(UpdateStatement statement, Nest nest, boolean analyze, CancellationToken token) {
+        PlanNode[] plan = plan(statement, nest);
+        if (analyze) {
+            run(statement, nest, false, plan, token);
+        }
+        return plan[2];
+    }
+
+    // UPDATE --dry-run: finds the targets once, recording the actual figures on the plan, and
+    // writes nothing. The update step's actual rows are the clutches that would be updated.
+    public PlanNode dryRun(UpdateStatement statement, Nest nest, CancellationToken token) {
+        PlanNode[] plan = plan(statement, nest);
+        run(statement, nest, true, plan, token);
+        return plan[2];
+    }
+
+    // {scan, filter, update} with the planner's estimates
+    private PlanNode[] plan(UpdateStatement statement, Nest nest) {
+        if (nest == null) {
+            throw new IllegalArgumentException("NESTNOTFOUNDEXCEPTION: Nest not found: " + statement.getNestName());
+        }
+        List<FindCondition> conditions = statement.getConditions();
+        FindCondition indexed = QueryPlanner.chooseIndexedCondition(nest, conditions);
+        long rows = nest.getClutchCount();
+        PlanNode scan;
+        if (indexed == null) {
+            scan = new PlanNode("NestScan on " + nest.getName(), rows);
+        } else {
+            EggIndex index = nest.findIndex(indexed);
+            rows = QueryPlanner.estimateMatches(nest, indexed, rows);
+            scan = new PlanNode(index.getClass().getSimpleName() + " scan using " + index.getName() + " (" + indexed + ")", rows);
+        }
+        for (FindCondition condition : conditions) {
+            if (condition != indexed) {
+                rows = QueryPlanner.estimateMatches(nest, condition, rows);
+            }
+        }
+        PlanNode filter = new PlanNode("Filter " + (conditions.isEmpty() ? "(none)" : joinConditions(conditions)), rows, scan);
+
+        List<String> maintained = new ArrayList<>();
+        for (EggIndex index : nest.getIndexes().values()) {
+            if (statement.getAssignments().containsKey(index.getEggName())) {
+                maintained.add(index.getName());
+            }
+        }
+        PlanNode update = new PlanNode("Update " + nest.getName() + " SET " + String.join(", ", statement.getAssignments().keySet()) +
+            (maintained.isEmpty() ? "" : " (maintains " + String.join(", ", maintained) + ")"), rows, filter);
+        return new PlanNode[] {scan, filter, update};
+    }
+
+    private static String joinConditions(List<FindCondition> conditions) {
+        StringBuilder text = new StringBuilder();
+        for (FindCondition condition : conditions) {
+            text.append(text.length() == 0 ? "" : " AND ").append(condition);
+        }
+        return text.toString();
+    }
+
+    // profile, when given, is {scan, filter, update}; each gets its actual rows, time and memory
+    private int run(UpdateStatement statement, Nest nest, boolean dryRun, PlanNode[] profile, CancellationToken token) {
+        if (nest == null) {
+            throw new IllegalArgumentException("NESTNOTFOUNDEXCEPTION: Nest not found: " + statement.getNestName());
+        }
+        if (nest.isLocked() && !dryRun) {
+            throw new IllegalStateException("Cannot modify locked nest");
+        }
+        long startNanos = System.nanoTime();
+        long startBytes = PlanNode.currentThreadAllocatedBytes();
+
+        List<FindCondition> conditions = statement.getConditions();
+        int[] conditionPositions = new int[conditions.size()];
+        for (int i = 0; i < conditionPositions.length; i++) {
+            conditionPositions[i] = resolveEgg(nest, conditions.get(i).getEggName());
+        }
+
+        // Resolve and validate every assignment before touching any clutch
+        int[] setPositions = new int[statement.getAssignments().size()];
+        Object[] setValues = new Object[setPositions.length];
+        int i = 0;
+        for (Map.Entry<String, Object> assignment : statement.getAssignments().entrySet()) {
+            setPositions[i] = resolveEgg(nest, assignment.getKey());
+            nest.getSchema().validateValue(setPositions[i], assignment.getValue());
+            setValues[i++] = assignment.getValue();
+        }
+
+        List<Clutch> targets = findTargets(nest, conditions, conditionPositions, profile, token);
+        if (!dryRun && !targets.isEmpty()) {
+            List<List<EggIndex>> affectedIndexes = new ArrayList<>(setPositions.length);
+            for (int position : setPositions) {
+                List<EggIndex> onEgg = new ArrayList<>();
+                for (EggIndex index : nest.getIndexes().values()) {
+                    if (index.getPosition() == position) {
+                        onEgg.add(index);
+                    }
+                }
+                affectedIndexes.add(onEgg);
+            }
+
+            for (Clutch clutch : targets) {
+                // ENCRYPT TREE and re-encryption swap eggs under the same monitor
+                synchronized (clutch) {
+                    for (int s = 0; s < setPositions.length; s++) {
+                        Egg egg = clutch.getEgg(setPositions[s]);
+                        // The key the indexes filed it under: the plaintext, even for an encrypted egg
+                        Object oldValue = affectedIndexes.get(s).isEmpty() ? null : nest.valueOf(clutch, setPositions[s]);
+                        if (!egg.update(setValues[s])) {
+                            clutch.setEgg(setPositions[s], egg.withValue(setValues[s]));
+                        }
+                        for (EggIndex index : affectedIndexes.get(s)) {
+                            index.move(oldValue, clutch);
+                        }
+                    }
+                }
+            }
+            nest.markUpdated(targets);
+        }
+
+        if (profile != null) {
+            profile[2].record(targets.size(), System.nanoTime() - startNanos, allocatedSince(startBytes));
+        }
+        return targets.size();
+    }
+
+    // Runs REMOVE EGG FROM nest [WHILE condition]; returns how many clutches were removed
+    public int remove(Nest nest, List<FindCondition> conditions, CancellationToken token) {
+        if (nest.isLocked()) {
+            throw new IllegalStateException("Cannot modify locked nest");
+        }
+        int[] positions = new int[conditions.size()];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = resolveEgg(nest, conditions.get(i).getEggName());
+        }
+        List<Clutch> targets = findTargets(nest, conditions, positions, null, token);
+        nest.removeClutches(targets);
+        return targets.size();
+    }
+
+    private List<Clutch> findTargets(Nest nest, List<FindCondition> conditions, int[] positions, PlanNode[] profile,
+                                     CancellationToken token) {
+        long startNanos = System.nanoTime();
+        long startBytes = PlanNode.currentThreadAllocatedBytes();
+        FindCondition indexed = QueryPlanner.chooseIndexedCondition(nest, conditions);
+        List<Clutch> candidates = indexed == null ? nest.getClutches() : nest.findIndex(indexed).lookup(indexed);
+        long scanNanos = System.nanoTime() - startNanos;
+        long scanBytes = allocatedSince(startBytes);
+
+        ClutchPredicate predicate = predicateCompiler.predicateFor(conditions, positions, candidates.size());
+        List<Clutch> targets = new ArrayList<>();
+        int checked = 0;
+        for (Clutch clutch : candidates) {
+            if (token != null && ++checked % QueryOperator.CANCEL_CHECK_INTERVAL == 0) {
+                token.throwIfCancelled();
+            }
+            // Conditions compare plaintext, so eggs sealed by ENCRYPT TREE are opened first
+            if (predicate.test(nest.decode(clutch))) {
+                targets.add(clutch);
+            }
+        }
+
+        if (profile != null) {
+            profile[0].record(candidates.size(), scanNanos, scanBytes);
+            profile[1].record(targets.size(), System.nanoTime() - startNanos, allocatedSince(startBytes));
+        }
+        return targets;
+    }
+
+    private static long allocatedSince(long startBytes) {
+        return startBytes < 0 ? -1 : PlanNode.currentThreadAllocatedBytes() - startBytes;
+    }
+
+    private int resolveEgg(Nest nest, String eggName) {
+        int position = nest.getEggPosition(eggName);
+        if (position < 0) {
+            throw new IllegalArgumentException("EGGNOTFOUNDEXCEPTION: Egg " + eggName + " not found in nest " + nest.getName());
+        }
+        return position;
+    }
+}
@@ -0,0 +1,97 @@
+import lombok.Getter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Parsed form of: UPDATE NEST nest_name [FLAGS] SET egg1 = value1, egg2 = value2 [WHILE condition]
+public class UpdateStatement {
+    @Getter private final String nestName;
+    @Getter private final Map<String, Object> assignments;
+    @Getter private final List<FindCondition> conditions;
+    @Getter private final Set<String> flags;
+
+    private static final Pattern UPDATE_PATTERN = Pattern.compile(
+        "\\s*UPDATE\\s+NEST\\s+'?(\\w+)'?(.*?)\\s+SET\\s+(.+?)(?:\\s+(?:WHILE|PERCH|WHERE)\\s+(.+?))?\\s*",
+        Pattern.CASE_INSENSITIVE | Pattern.DOTALL
+    );
+    private static final Pattern ASSIGNMENT_PATTERN = Pattern.compile(
+        "\\s*(\\w+)\\s*=\\s*('[^']*'|[^,\\s]+)\\s*(,|$)");
+
+    public UpdateStatement(String nestName, Map<String, Object> assignments,
+                           List<FindCondition> conditions, Set<String> flags) {
+        this.nestName = nestName;
+        this.assignments = assignments;
+        this.conditions = conditions;
+        this.flags = flags;
+    }
+
+    public boolean hasFlag(String flag) {
+        return flags.contains(flag);
+    }
+
+    public static UpdateStatement parse(String command) {
+        Matcher matcher = UPDATE_PATTERN.matcher(command);
+        if (!matcher.matches()) {
+            throw new IllegalArgumentException("Invalid UPDATE command format. Expected: UPDATE NEST nest_name SET egg1 = value1 [WHILE condition]");
+        }
+
+        Set<String> flags = new LinkedHashSet<>();
+        for (String flag : matcher.group(2).trim().split("\\s+")) {
+            if (flag.isEmpty()) continue;
+            if (!flag.startsWith("-")) {
+                throw new IllegalArgumentException("Unexpected token in UPDATE command: " + flag);
+            }
+            flags.add(flag.toLowerCase());
+        }
+
+        // Trailing flags after SET/WHILE are allowed too (UPDATE NEST n SET a = 1 --dry-run)
+        String setClause = stripFlags(matcher.group(3), flags);
+        String whileClause = matcher.group(4) == null ? null : stripFlags(matcher.group(4), flags);
+
+        Map<String, Object> assignments = new LinkedHashMap<>();
+        Matcher assignment = ASSIGNMENT_PATTERN.matcher(setClause);
+        int position = 0;
+        while (position < setClause.length()) {
+            assignment.region(position, setClause.length());
+            if (!assignment.lookingAt()) {
+                throw new IllegalArgumentException("Invalid SET clause near: " + setClause.substring(position));
+            }
+            assignments.put(assignment.group(1), FindCondition.parseLiteral(assignment.group(2)));
+            position = assignment.end();
+        }
+        if (assignments.isEmpty()) {
+            throw new IllegalArgumentException("UPDATE requires at least one egg = value assignment");
+        }
+
+        List<FindCondition> conditions = whileClause == null ? new ArrayList<>() : FindCondition.parseAll(whileClause);
+        return new UpdateStatement(matcher.group(1), assignments, conditions, flags);
+    }
+
+    private static String stripFlags(String clause, Set<String> flags) {
+        StringBuilder kept = new StringBuilder();
+        boolean inQuotes = false;
+        int i = 0;
+        while (i < clause.length()) {
+            char c = clause.charAt(i);
+            boolean atTokenStart = i == 0 || Character.isWhitespace(clause.charAt(i - 1));
+            if (c == '\'') {
+                inQuotes = !inQuotes;
+            } else if (!inQuotes && c == '-' && atTokenStart && i + 1 < clause.length() &&
+                       (clause.charAt(i + 1) == '-' || Character.isLetter(clause.charAt(i + 1)))) {
+                int end = i;
+                while (end < clause.length() && !Character.isWhitespace(clause.charAt(end))) end++;
+                flags.add(clause.substring(i, end).toLowerCase());
+                i = end;
+                continue;
+            }
+            kept.append(c);
+            i++;
+        }
+        return kept.toString().trim();
+    }
+}
@@ -4,17 +4,11 @@ import lombok.Setter;
 import java.security.*;
 import java.io.Serializable;
 import javax.crypto.SecretKey;
-import net.bytebuddy.ByteBuddy;
-import net.bytebuddy.implementation.MethodDelegation;
-import net.bytebuddy.implementation.bind.annotation.*;
-import net.bytebuddy.matcher.ElementMatchers;
-import net.bytebuddy.dynamic.loading.ClassLoadingStrategy;
-import java.lang.reflect.Method;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import javax.crypto.spec.GCMParameterSpec;
 
 public class UserDatabase implements Serializable {
+    private static final long serialVersionUID = -8174144487397468055L;
     @Getter @Setter private Map<String, User> users;
     @Getter @Setter private Map<String, String> userPasswords;
     @Getter @Setter private Map<String, String> userHosts;
@@ -23,10 +17,14 @@ public class UserDatabase implements Serializable {
     @Getter @Setter private Map<String, String> userCreationDates;
     @Getter @Setter private Map<String, String> userCreatorIds;
     @Getter @Setter private Map<String, byte[]> userSalts;
+    // Id of each user's data key in keyRing; users added before data keys have none and are
+    // read with the per-user PBKDF2 key derived from userSalts
+    @Getter @Setter private Map<String, Integer> userDataKeyIds;
+    // Per-user data keys wrapped under MASTER_KEY, so rotating the master key re-wraps one key
+    // per user instead of re-encrypting their data; created on first use
+    private KeyRing keyRing;
     private final Encryptor encryptor;
     private static final String MASTER_KEY = System.getenv("BDL_MASTER_KEY");
-    private final ByteBuddy byteBuddy;
-    private transient Class<?> secureUserClass;
     private final SecurityLogger securityLogger;
     private final SecurityOperations securityOps;
     private final Map<String, Long> failedLoginAttempts;
@@ -44,8 +42,8 @@ public class UserDatabase implements Serializable {
         userCreationDates = new HashMap<>();
         userCreatorIds = new HashMap<>();
         userSalts = new HashMap<>();
+        userDataKeyIds = new HashMap<>();
         this.encryptor = new Encryptor();
-        this.byteBuddy = new ByteBuddy();
         this.failedLoginAttempts = new ConcurrentHashMap<>();
         this.lastActivityTime = new ConcurrentHashMap<>();
         try {
@@ -54,89 +52,6 @@ public class UserDatabase implements Serializable {
         } catch (Exception e) {
             throw new RuntimeException("Failed to initialize security components", e);
         }
-        initializeSecureUserClass();
-    }
-
-    private void initializeSecureUserClass() {
-        try {
-            // Create a secure user class with ByteBuddy that intercepts all sensitive operations
-            secureUserClass = byteBuddy
-                .subclass(User.class)
-                .method(ElementMatchers.any())
-                .intercept(MethodDelegation.to(new SecurityInterceptor()))
-                .make()
-                .load(getClass().getClassLoader(), ClassLoadingStrategy.Default.WRAPPER)
-                .getLoaded();
-        } catch (Exception e) {
-            throw new RuntimeException("Failed to initialize secure user class", e);
-        }
-    }
-
-    // Security interceptor for ByteBuddy
-    public class SecurityInterceptor {
-        @RuntimeType
-        public Object intercept(@This Object proxy, @Origin Method method, @AllArguments Object[] args) throws Exception {
-            String methodName = method.getName();
-
-            // Intercept getters/setters for sensitive data
-            if (methodName.contains("Password") || methodName.contains("Host")) {
-                if (methodName.startsWith("set")) {
-                    return handleSensitiveDataSet(proxy, method, args);
-                } else if (methodName.startsWith("get")) {
-                    return handleSensitiveDataGet(proxy, method, args);
-                }
-            }
-
-            // Log sensitive operations
-            if (isSensitiveOperation(methodName)) {
-                logSecurityEvent(methodName, proxy);
-            }
-
-            return method.invoke(proxy, args);
-        }
-
-        private Object handleSensitiveDataSet(Object proxy, Method method, Object[] args) throws Exception {
-            if (args == null || args.length == 0) return null;
-
-            String value = (String) args[0];
-            byte[] salt = generateSalt();
-            SecretKey key = encryptor.getAESKeyFromPassword(MASTER_KEY, salt);
-
-            // Encrypt with AES-GCM
-            String encrypted = encryptor.encryptGCM(value, key);
-            args[0] = encrypted;
-
-            return method.invoke(proxy, args);
-        }
-
-        private Object handleSensitiveDataGet(Object proxy, Method method, Object[] args) throws Exception {
-            Object encryptedValue = method.invoke(proxy, args);
-            if (encryptedValue == null) return null;
-
-            User user = (User) proxy;
-            byte[] salt = userSalts.get(user.getUsername());
-            if (salt == null) return encryptedValue;
-
-            SecretKey key = encryptor.getAESKeyFromPassword(MASTER_KEY, salt);
-            return encryptor.decryptGCM((String) encryptedValue, key);
-        }
-    }
-
-    private byte[] generateSalt() {
-        byte[] salt = new byte[16];
-        new SecureRandom().nextBytes(salt);
-        return salt;
-    }
-
-    private boolean isSensitiveOperation(String methodName) {
-        return methodName.contains("Password") ||
-               methodName.contains("Permission") ||
-               methodName.contains("Lock") ||
-               methodName.contains("Auth");
-    }
-
-    private void logSecurityEvent(String operation, Object user) {
-        // Implement secure logging here
     }
 
     public void addUser(User user) throws Exception {
@@ -145,63 +60,90 @@ public class UserDatabase implements Serializable {
         }
 
         String username = user.getUsername();
-        byte[] salt = generateSalt();
-        userSalts.put(username, salt);
 
         // Track user creation
         lastActivityTime.put(user.getUsername(), System.currentTimeMillis());
         securityLogger.logSecurityEvent(user.getUsername(), "USER_CREATED",
             "New user created with role: " + Arrays.toString(user.getPermissions()));
 
-        // Create encrypted user using both ByteBuddy proxy and direct encryption
-        User secureUser = createSecureProxy(user);
-        User encryptedUser = encryptor.encryptUserData(secureUser, MASTER_KEY);
-
-        users.put(user.getUsername(), encryptedUser);
-        SecretKey userKey = encryptor.getAESKeyFromPassword(MASTER_KEY + username, salt);
-        userPasswords.put(username, encryptor.encryptGCM(user.getPassword(), userKey));
-        userHosts.put(username, encryptor.encryptGCM(user.getHost(), userKey));
+        // Sensitive fields are encrypted under the user's own data key
+        storeSensitiveData(username, user.getPassword(), user.getHost(), user.getPermissions(), user.isLock(),
+            user.getCreationDate(), user.getCreator_id(), null);
         userPermissions.put(username, user.getPermissions());
         userLocks.put(username, user.isLock());
         userCreationDates.put(username, user.getCreationDate());
         userCreatorIds.put(username, user.getCreator_id());
     }
 
-    private User createSecureProxy(User user) throws Exception {
-        return (User) secureUserClass
-            .getDeclaredConstructor(String.class, String.class, String.class,
-                                  String[].class, boolean.class, String.class, String.class)
-            .newInstance(user.getUsername(), user.getPassword(), user.getHost(),
-                        user.getPermissions(), user.isLock(),
-                        user.getCreationDate(), user.getCreator_id());
+    // Encrypts password and host under a fresh data key for the user, then retires the key they
+    // were under before, if any. With expected set, only that stored User is replaced: if the user
+    // was removed or replaced meanwhile, nothing changes and false is returned. The encryption runs
+    // outside the lock so bulk rotation can run in parallel.
+    private boolean storeSensitiveData(String username, String password, String host, String[] permissions,
+                                       boolean lock, String creationDate, String creatorId, User expected) throws Exception {
+        KeyRing ring = keyRing();
+        int keyId = ring.newDataKey(encryptor);
+        SecretKey dataKey = ring.getDataKey(keyId, encryptor);
+        String encryptedPassword = encryptor.encryptGCM(password, dataKey);
+        String encryptedHost = encryptor.encryptGCM(host, dataKey);
+        Integer previous;
+        byte[] legacySalt;
+        synchronized (this) {
+            if (expected != null && users.get(username) != expected) {
+                ring.retire(keyId);
+                return false;
+            }
+            users.put(username, new User(username, encryptedPassword, encryptedHost, permissions, lock, creationDate, creatorId));
+            userPasswords.put(username, encryptedPassword);
+            userHosts.put(username, encryptedHost);
+            previous = userDataKeyIds.put(username, keyId);
+            legacySalt = userSalts.remove(username);
+        }
+        // Readers that pinned the previous key before the swap keep it until they release it;
+        // none can get it from here on
+        if (previous != null) {
+            ring.retire(previous);
+        }
+        if (legacySalt != null) {
+            encryptor.getDerivedKeyCache().invalidate(legacySalt);
+        }
+        return true;
+    }
+
+    // Unlocked with MASTER_KEY the first time it is needed after a start
+    private synchronized KeyRing keyRing() throws GeneralSecurityException {
+        if (MASTER_KEY == null) {
+            throw new SecurityException("Master encryption key not found");
+        }
+        if (keyRing == null) {
+            keyRing = KeyRing.create(MASTER_KEY, encryptor);
+        } else if (!keyRing.isUnlocked()) {
+            keyRing.unlock(MASTER_KEY, encryptor);
+        }
+        return keyRing;
     }
 
     public User getUser(String username) {
         try {
-            User user = users.get(username);
-            if (user == null) {
+            StoredUser stored = storedUser(username);
+            if (stored == null) {
                 return null;
             }
 
             // Update last activity time
             lastActivityTime.put(username, System.currentTimeMillis());
 
-            // Get the user's salt and create their key
-            byte[] salt = userSalts.get(username);
-            if (salt == null) {
-                throw new SecurityException("No salt found for user: " + username);
-            }
-            SecretKey key = encryptor.getAESKeyFromPassword(MASTER_KEY, salt);
+            String[] decrypted = decrypt(stored);
 
             // Create a new user with decrypted data
             User decryptedUser = new User(
                 username,
-                encryptor.decryptGCM(user.getPassword(), key),
-                encryptor.decryptGCM(user.getHost(), key),
-                userPermissions.get(username),
-                userLocks.get(username),
-                userCreationDates.get(username),
-                userCreatorIds.get(username)
+                decrypted[0],
+                decrypted[1],
+                stored.permissions,
+                stored.lock,
+                stored.creationDate,
+                stored.creatorId
             );
 
             return decryptedUser;
@@ -213,6 +155,90 @@ public class UserDatabase implements Serializable {
         }
     }
 
+    // A user's ciphertext together with the key it is under, read in one go so a rotation can't
+    // pair the old ciphertext with the new key. The data key is pinned until decrypt is done.
+    private static class StoredUser {
+        User user;
+        SecretKey key;
+        byte[] salt;
+        String[] permissions;
+        Boolean lock;
+        String creationDate;
+        String creatorId;
+    }
+
+    private synchronized StoredUser storedUser(String username) throws GeneralSecurityException {
+        User user = users.get(username);
+        if (user == null) {
+            return null;
+        }
+        StoredUser stored = new StoredUser();
+        stored.user = user;
+        Integer keyId = userDataKeyIds.get(username);
+        if (keyId != null) {
+            // Under the same lock the id is swapped in, so the key can't have been retired yet
+            stored.key = keyRing().acquireDataKey(keyId, encryptor);
+        }
+        stored.salt = userSalts.get(username);
+        stored.permissions = userPermissions.get(username);
+        stored.lock = userLocks.get(username);
+        stored.creationDate = userCreationDates.get(username);
+        stored.creatorId = userCreatorIds.get(username);
+        return stored;
+    }
+
+    // Password and host, decrypted under the pinned data key, which is released afterwards
+    private String[] decrypt(StoredUser stored) throws Exception {
+        try {
+            SecretKey key = userKey(stored);
+            return new String[] {encryptor.decryptGCM(stored.user.getPassword(), key),
+                encryptor.decryptGCM(stored.user.getHost(), key)};
+        } finally {
+            if (stored.key != null) {
+                keyRing.release(stored.key);
+            }
+        }
+    }
+
+    // The user's data key, or for users from before data keys their PBKDF2 key
+    private SecretKey userKey(StoredUser stored) throws GeneralSecurityException {
+        if (stored.key != null) {
+            return stored.key;
+        }
+        if (stored.salt == null) {
+            throw new SecurityException("No data key or salt found for user: " + stored.user.getUsername());
+        }
+        return encryptor.getAESKeyFromPassword(MASTER_KEY, stored.salt);
+    }
+
+    // Replaces the user's data key: their fields are re-encrypted under a new key and the old one
+    // is retired. Users from before data keys move onto one. In place, unlike updateUser, and
+    // safe to run for different users in parallel. A user replaced meanwhile by updateUser is
+    // rotated again from their new data; false if there is no such user.
+    public boolean rotateUserDataKey(String username) throws Exception {
+        while (true) {
+            StoredUser stored = storedUser(username);
+            if (stored == null) {
+                return false;
+            }
+            String[] decrypted = decrypt(stored);
+            if (storeSensitiveData(username, decrypted[0], decrypted[1], stored.permissions,
+                    Boolean.TRUE.equals(stored.lock), stored.creationDate, stored.creatorId, stored.user)) {
+                return true;
+            }
+        }
+    }
+
+    // Master key rotation: re-wraps every user's data key under newMasterKey without touching
+    // the data they protect. Returns the number of keys re-wrapped. BDL_MASTER_KEY must be set to
+    // newMasterKey before the next start, or the key ring can't be unlocked.
+    public int rotateMasterKey(String newMasterKey) throws Exception {
+        int keys = keyRing().rewrap(newMasterKey, encryptor);
+        securityLogger.logSecurityEvent("SYSTEM", "MASTER_KEY_ROTATION",
+            "Re-wrapped " + keys + " user data key(s) under a new master key");
+        return keys;
+    }
+
     public void updateUser(String username, User updatedUser) throws Exception {
         removeUser(username);
         addUser(updatedUser);
@@ -225,7 +251,7 @@ public class UserDatabase implements Serializable {
         switch (authType) {
             case PASSWORD:
                 String storedHash = userPasswords.get(username);
-                return encryptor.verifyPassword(password, storedHash);
+                return encryptor.verifyPassword(password, storedHash, username);
 
             case AUTH_KEY:
                 return encryptor.verifyAuthKey(password, user.getPassword());
@@ -239,8 +265,17 @@ public class UserDatabase implements Serializable {
         }
     }
 
-    public void removeUser(String username) {
+    public synchronized void removeUser(String username) {
+        byte[] salt = userSalts.get(username);
+        if (salt != null) {
+            encryptor.getDerivedKeyCache().invalidate(salt);
+        }
+        Integer keyId = userDataKeyIds.remove(username);
+        if (keyId != null && keyRing != null) {
+            keyRing.retire(keyId);
+        }
         users.remove(username);
+        userSalts.remove(username);
         userPasswords.remove(username);
         userHosts.remove(username);
         userPermissions.remove(username);
@@ -344,8 +379,16 @@ public class UserDatabase implements Serializable {
         });
     }
 
-    public void rotateUserKeys() {
-        securityOps.bulkRotateKeys();
+    public KeyRotationJob rotateUserKeys() throws Exception {
+        KeyRotationJob job = securityOps.bulkRotateKeys();
+        invalidateDerivedKeys();
+        return job;
+    }
+
+    // Zeroes every cached PBKDF2 key so the next lookup derives it again; call after changing
+    // key material
+    public void invalidateDerivedKeys() {
+        encryptor.getDerivedKeyCache().invalidateAll();
     }
 
     public void shutdown() {
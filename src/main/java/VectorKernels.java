@@ -0,0 +1,176 @@
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+// NumericKernels on the JDK Vector API, a full 64-row mask word at a time. Only loaded through
+// NumericKernels.get(), which falls back to the scalar kernels if this class can't be.
+//
+// On JDK 17 VectorMask.toLong() and fromLong() aren't compiled to vector instructions, so masks
+// go to and from bits another way: lane i of WEIGHTS holds 1 << i, a comparison blends those
+// into zero and an OR across the lanes packs the result; going back, the mask word is ANDed
+// with WEIGHTS and compared against zero.
+public class VectorKernels extends NumericKernels {
+    private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+    private static final int LANES = SPECIES.length();
+    private static final IntVector WEIGHTS = IntVector.fromArray(SPECIES, laneWeights(), 0);
+    private static final IntVector ZERO = IntVector.zero(SPECIES);
+    // sum() adds each value's low 16 bits into int lanes, which take 32767 of them before they
+    // could overflow; this many mask words keep each lane under that
+    private static final int SUM_FLUSH_WORDS = 32767 / (64 / LANES);
+
+    // Below one row in SPARSE_ROWS selected, visiting just the set bits beats reading every lane
+    private static final int SPARSE_ROWS = 8;
+
+    private final Scalar scalar = new Scalar();
+
+    public VectorKernels() {
+        // Below 128 bits the API runs in Java, slower than the scalar loops
+        if (SPECIES.vectorBitSize() < 128 || 64 % LANES != 0) {
+            throw new UnsupportedOperationException("No usable vector shape: " + SPECIES);
+        }
+    }
+
+    private static int[] laneWeights() {
+        int[] weights = new int[SPECIES.length()];
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] = 1 << i;
+        }
+        return weights;
+    }
+
+    @Override
+    public String getName() {
+        return "vector, " + LANES + " lanes";
+    }
+
+    @Override
+    public void compare(int[] values, int length, Comparison comparison, int operand, long[] mask) {
+        int full = length & ~63;
+        for (int base = 0; base < full; base += 64) {
+            long word = 0;
+            for (int j = 0; j < 64; j += LANES) {
+                VectorMask<Integer> matches = compare(IntVector.fromArray(SPECIES, values, base + j), comparison, operand);
+                word |= (ZERO.blend(WEIGHTS, matches).reduceLanes(VectorOperators.OR) & 0xFFFFFFFFL) << j;
+            }
+            mask[base >>> 6] = word;
+        }
+        if (full < length) {
+            long word = 0;
+            for (int j = 0; full + j < length; j++) {
+                if (comparison.test(values[full + j], operand)) {
+                    word |= 1L << j;
+                }
+            }
+            mask[full >>> 6] = word;
+        }
+    }
+
+    @Override
+    public long sum(int[] values, long[] mask, int length) {
+        if (sparse(mask, length)) {
+            return scalar.sum(values, mask, length);
+        }
+        int fullWords = length >>> 6;
+        long sum = 0;
+        // A chunk at a time, so the lanes are summed into a long before they can overflow
+        for (int chunk = 0; chunk < fullWords; chunk += SUM_FLUSH_WORDS) {
+            sum += sumWords(values, mask, chunk, Math.min(fullWords, chunk + SUM_FLUSH_WORDS));
+        }
+        for (long word = tailWord(mask, length); word != 0; word &= word - 1) {
+            sum += values[(fullWords << 6) + Long.numberOfTrailingZeros(word)];
+        }
+        return sum;
+    }
+
+    // Each value's low 16 bits and its high 16 bits go into separate int lanes
+    private static long sumWords(int[] values, long[] mask, int fromWord, int toWord) {
+        IntVector low = IntVector.zero(SPECIES);
+        IntVector high = IntVector.zero(SPECIES);
+        for (int w = fromWord; w < toWord; w++) {
+            long word = mask[w];
+            int base = w << 6;
+            for (int j = 0; j < 64; j += LANES) {
+                IntVector value = ZERO.blend(IntVector.fromArray(SPECIES, values, base + j), lanes(word, j));
+                low = low.add(value.and(0xFFFF));
+                high = high.add(value.lanewise(VectorOperators.ASHR, 16));
+            }
+        }
+        long lowSum = 0;
+        long highSum = 0;
+        for (int i = 0; i < LANES; i++) {
+            lowSum += low.lane(i);
+            highSum += high.lane(i);
+        }
+        return (highSum << 16) + lowSum;
+    }
+
+    @Override
+    public int min(int[] values, long[] mask, int length) {
+        if (sparse(mask, length)) {
+            return scalar.min(values, mask, length);
+        }
+        int fullWords = length >>> 6;
+        IntVector min = IntVector.broadcast(SPECIES, Integer.MAX_VALUE);
+        for (int w = 0; w < fullWords; w++) {
+            long word = mask[w];
+            int base = w << 6;
+            for (int j = 0; j < 64; j += LANES) {
+                min = min.lanewise(VectorOperators.MIN, IntVector.fromArray(SPECIES, values, base + j), lanes(word, j));
+            }
+        }
+        int result = min.reduceLanes(VectorOperators.MIN);
+        for (long word = tailWord(mask, length); word != 0; word &= word - 1) {
+            result = Math.min(result, values[(fullWords << 6) + Long.numberOfTrailingZeros(word)]);
+        }
+        return result;
+    }
+
+    @Override
+    public int max(int[] values, long[] mask, int length) {
+        if (sparse(mask, length)) {
+            return scalar.max(values, mask, length);
+        }
+        int fullWords = length >>> 6;
+        IntVector max = IntVector.broadcast(SPECIES, Integer.MIN_VALUE);
+        for (int w = 0; w < fullWords; w++) {
+            long word = mask[w];
+            int base = w << 6;
+            for (int j = 0; j < 64; j += LANES) {
+                max = max.lanewise(VectorOperators.MAX, IntVector.fromArray(SPECIES, values, base + j), lanes(word, j));
+            }
+        }
+        int result = max.reduceLanes(VectorOperators.MAX);
+        for (long word = tailWord(mask, length); word != 0; word &= word - 1) {
+            result = Math.max(result, values[(fullWords << 6) + Long.numberOfTrailingZeros(word)]);
+        }
+        return result;
+    }
+
+    private boolean sparse(long[] mask, int length) {
+        return count(mask, length) * SPARSE_ROWS < length;
+    }
+
+    // The lanes of rows j to j + LANES - 1 of a mask word
+    private static VectorMask<Integer> lanes(long word, int j) {
+        return WEIGHTS.and((int) (word >>> j)).compare(VectorOperators.NE, 0);
+    }
+
+    // The mask word of the rows after the last full 64, handled a row at a time; 0 if none
+    private static long tailWord(long[] mask, int length) {
+        return (length & 63) == 0 ? 0 : mask[length >>> 6];
+    }
+
+    // The operator has to be a constant where compare() is called for it to become a vector
+    // instruction, hence a call per case rather than a lookup
+    private static VectorMask<Integer> compare(IntVector values, Comparison comparison, int operand) {
+        switch (comparison) {
+            case EQ: return values.compare(VectorOperators.EQ, operand);
+            case NE: return values.compare(VectorOperators.NE, operand);
+            case LT: return values.compare(VectorOperators.LT, operand);
+            case LE: return values.compare(VectorOperators.LE, operand);
+            case GT: return values.compare(VectorOperators.GT, operand);
+            default: return values.compare(VectorOperators.GE, operand);
+        }
+    }
+}
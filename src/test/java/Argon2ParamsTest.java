@@ -0,0 +1,69 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.Base64;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class Argon2ParamsTest {
+    private static byte[] bytes(int length, int seed) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) (seed + i);
+        }
+        return bytes;
+    }
+
+    @Test
+    void phcStringRoundTrips() {
+        Argon2Params params = new Argon2Params(19456, 2, 1);
+        byte[] salt = bytes(16, 1);
+        byte[] hash = bytes(32, 100);
+
+        String encoded = params.encode(salt, hash);
+        Argon2Params.Stored stored = Argon2Params.decode(encoded);
+
+        assertTrue(encoded.startsWith("$argon2id$v=19$m=19456,t=2,p=1$"), encoded);
+        assertEquals(params, stored.getParams());
+        assertArrayEquals(salt, stored.getSalt());
+        assertArrayEquals(hash, stored.getHash());
+    }
+
+    @Test
+    void legacyHashDecodesWithLegacyParams() {
+        byte[] salt = bytes(16, 7);
+        byte[] hash = bytes(32, 50);
+        byte[] combined = new byte[48];
+        System.arraycopy(salt, 0, combined, 0, 16);
+        System.arraycopy(hash, 0, combined, 16, 32);
+
+        Argon2Params.Stored stored = Argon2Params.decode(Base64.getEncoder().encodeToString(combined));
+
+        assertEquals(Argon2Params.LEGACY, stored.getParams());
+        assertArrayEquals(salt, stored.getSalt());
+        assertArrayEquals(hash, stored.getHash());
+    }
+
+    @Test
+    void truncatedLegacyHashIsRejected() {
+        String tooShort = Base64.getEncoder().encodeToString(bytes(16, 0));
+
+        assertThrows(IllegalArgumentException.class, () -> Argon2Params.decode(tooShort));
+    }
+
+    @Test
+    void invalidParametersAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> new Argon2Params(64, 0, 1));
+        assertThrows(IllegalArgumentException.class, () -> new Argon2Params(64, 1, 0));
+        assertThrows(IllegalArgumentException.class, () -> new Argon2Params(31, 1, 4));
+    }
+
+    @Test
+    void weakerParamsNeedRehash() {
+        Argon2Params strong = new Argon2Params(65536, 3, 4);
+
+        assertTrue(new Argon2Params(19456, 3, 4).isWeakerThan(strong));
+        assertTrue(new Argon2Params(65536, 2, 4).isWeakerThan(strong));
+        assertFalse(strong.isWeakerThan(strong));
+        assertFalse(new Argon2Params(131072, 3, 4).isWeakerThan(strong));
+    }
+}
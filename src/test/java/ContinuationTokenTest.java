@@ -0,0 +1,58 @@
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ContinuationTokenTest {
+    private static PickQuery query(String text) {
+        return PickQuery.parse(text.split("\\s+"));
+    }
+
+    private static final PickQuery PAGE = query("PICK EGG id FROM n SORT BY id LIMIT BY 0, 5");
+
+    @Test
+    void roundTripsEveryKeyType() {
+        for (Object key : new Object[] {42, 1L << 40, true, "O'Brien|with|pipes", null}) {
+            String token = new ContinuationToken(key, 3).encode(PAGE);
+            ContinuationToken decoded = ContinuationToken.decode(token, PAGE);
+
+            assertEquals(key, decoded.getKey());
+            assertEquals(3, decoded.getDuplicates());
+        }
+    }
+
+    @Test
+    void tokenIsUrlSafe() {
+        String token = new ContinuationToken("??>>~~", 1).encode(PAGE);
+
+        assertTrue(token.matches("[A-Za-z0-9_-]+"), token);
+    }
+
+    @Test
+    void laterPagesOfTheSameQueryAcceptTheToken() {
+        String token = new ContinuationToken(7, 1).encode(PAGE);
+        PickQuery nextPage = query("PICK EGG id FROM n SORT BY id LIMIT BY 0, 5 AFTER '" + token + "'");
+
+        assertEquals(7, ContinuationToken.decode(token, nextPage).getKey());
+    }
+
+    @Test
+    void differentQueryIsRejected() {
+        String token = new ContinuationToken(7, 1).encode(PAGE);
+        PickQuery other = query("PICK EGG id FROM n SORT BY id DESCO LIMIT BY 0, 5");
+
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+            () -> ContinuationToken.decode(token, other));
+        assertTrue(e.getMessage().contains("different query"));
+    }
+
+    @Test
+    void garbageIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> ContinuationToken.decode("not a token!", PAGE));
+        assertThrows(IllegalArgumentException.class, () -> ContinuationToken.decode("aGVsbG8", PAGE));
+    }
+
+    @Test
+    void unsupportedKeyTypeHasNoToken() {
+        assertNull(new ContinuationToken(new Object(), 1).encode(PAGE));
+    }
+}
@@ -0,0 +1,110 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.UnaryOperator;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EggCacheTest {
+    private final AtomicInteger decodes = new AtomicInteger();
+    private final UnaryOperator<Egg> decoder = egg -> {
+        decodes.incrementAndGet();
+        return new Egg(egg.getName(), "decoded-" + egg.getValue());
+    };
+
+    @Test
+    void secondLookupIsAHit() {
+        EggCache cache = new EggCache();
+        Egg stored = new Egg("s", "a");
+
+        Egg first = cache.get(stored, decoder);
+        Egg second = cache.get(stored, decoder);
+
+        assertSame(first, second);
+        assertEquals(1, decodes.get());
+        assertEquals(1, cache.getHits());
+    }
+
+    @Test
+    void eggsAreKeyedByIdentityNotValue() {
+        EggCache cache = new EggCache();
+        cache.get(new Egg("s", "a"), decoder);
+        cache.get(new Egg("s", "a"), decoder);
+
+        assertEquals(2, decodes.get());
+    }
+
+    @Test
+    void invalidatedEggIsDecodedAgain() {
+        EggCache cache = new EggCache();
+        Egg stored = new Egg("s", "a");
+        cache.get(stored, decoder);
+
+        cache.invalidate(stored);
+        cache.get(stored, decoder);
+
+        assertEquals(2, decodes.get());
+    }
+
+    @Test
+    void weightStaysWithinBudget() {
+        EggCache cache = new EggCache(4096);
+        for (int i = 0; i < 1000; i++) {
+            cache.get(new Egg("s", "value-" + i), decoder);
+        }
+
+        assertTrue(cache.getWeightedSize() <= cache.getMaxWeight(), cache.toString());
+        assertTrue(cache.getEvictions() + cache.getRejections() > 0, cache.toString());
+    }
+
+    @Test
+    void oneHitWondersDoNotEvictFrequentlyReadEggs() {
+        EggCache cache = new EggCache(4096);
+        List<Egg> hot = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            hot.add(new Egg("s", "hot-" + i));
+        }
+        for (int round = 0; round < 20; round++) {
+            for (Egg egg : hot) {
+                cache.get(egg, decoder);
+            }
+        }
+        // A scan of eggs read once each: TinyLFU admission keeps them out of the main area
+        for (int i = 0; i < 2000; i++) {
+            cache.get(new Egg("s", "cold-" + i), decoder);
+        }
+
+        int before = decodes.get();
+        for (Egg egg : hot) {
+            cache.get(egg, decoder);
+        }
+        assertTrue(decodes.get() - before <= 2, "hot eggs decoded again: " + (decodes.get() - before));
+        assertTrue(cache.getRejections() > 0);
+    }
+
+    @Test
+    void entryLargerThanMainAreaIsRejected() {
+        EggCache cache = new EggCache(200);
+        StringBuilder big = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            big.append('x');
+        }
+        cache.get(new Egg("s", big.toString()), decoder);
+        cache.get(new Egg("s", "small"), decoder);
+
+        assertTrue(cache.getWeightedSize() <= cache.getMaxWeight());
+        assertEquals(1, cache.getRejections());
+    }
+
+    @Test
+    void clearEmptiesTheCache() {
+        EggCache cache = new EggCache();
+        cache.get(new Egg("s", "a"), decoder);
+        cache.clear();
+
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getWeightedSize());
+    }
+}
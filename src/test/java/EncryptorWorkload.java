@@ -0,0 +1,64 @@
+import javax.crypto.SecretKey;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.IntSupplier;
+
+// benchmarks.EncryptorBenchmark: Encryptor's AES calls on messages of messageBytes bytes under
+// one AES-256 key. Every operation is safe to run from many threads at once.
+public class EncryptorWorkload implements Function<String, IntSupplier> {
+    private final Encryptor encryptor = new Encryptor();
+    private final SecretKey key;
+    private final String message;
+    private final String gcmFrame;
+    private final List<String> batch;
+    private final ThreadLocal<ByteBuffer[]> buffers;
+
+    public EncryptorWorkload(Map<String, String> params) throws Exception {
+        int messageBytes = Integer.parseInt(params.getOrDefault("messageBytes", "100"));
+        int batchSize = Integer.parseInt(params.getOrDefault("batchSize", "100"));
+        key = encryptor.generateAESKey();
+        StringBuilder text = new StringBuilder();
+        while (text.length() < messageBytes) {
+            text.append((char) ('a' + text.length() % 26));
+        }
+        message = text.toString();
+        gcmFrame = encryptor.encryptGCM(message, key);
+        batch = Collections.nCopies(batchSize, message);
+        byte[] plain = message.getBytes(StandardCharsets.UTF_8);
+        buffers = ThreadLocal.withInitial(() -> new ByteBuffer[] {
+            ByteBuffer.wrap(plain), ByteBuffer.allocate(Encryptor.gcmFrameLength(plain.length))});
+    }
+
+    @Override
+    public IntSupplier apply(String operation) {
+        switch (operation) {
+            case "encryptGCM": return () -> call(() -> encryptor.encryptGCM(message, key).length());
+            case "decryptGCM": return () -> call(() -> encryptor.decryptGCM(gcmFrame, key).length());
+            case "encryptCBC": return () -> call(() -> encryptor.encryptCBC(message, key).length());
+            case "encryptGCMBuffer": return () -> call(() -> {
+                ByteBuffer[] pair = buffers.get();
+                pair[0].rewind();
+                pair[1].clear();
+                return encryptor.encryptGCM(pair[0], pair[1], key);
+            });
+            case "encryptGCMBatch": return () -> call(() -> encryptor.encryptGCMBatch(batch, key).size());
+            default: throw new IllegalArgumentException("Unknown operation " + operation);
+        }
+    }
+
+    private interface Call {
+        int run() throws Exception;
+    }
+
+    private static int call(Call call) {
+        try {
+            return call.run();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+import com.itextpdf.text.pdf.PdfReader;
+import com.itextpdf.text.pdf.parser.PdfTextExtractor;
+import org.apache.poi.xssf.usermodel.XSSFSheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.apache.poi.xwpf.usermodel.XWPFTable;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ExporterTest {
+    @TempDir Path directory;
+    private final Exporter exporter = new Exporter();
+
+    private static Nest nest() {
+        Nest nest = new Nest("birds", "owner");
+        nest.layClutch(new Clutch(new Egg("id", 1, "INTEGER", null), new Egg("name", "Robin", "STRING", null)));
+        nest.layClutch(new Clutch(new Egg("id", 2, "INTEGER", null), new Egg("name", "Wren, \"Jenny\"", "STRING", null)));
+        nest.layClutch(new Clutch(new Egg("id", 3, "INTEGER", null), new Egg("name", null, "STRING", null)));
+        return nest;
+    }
+
+    @Test
+    void csvHasHeaderAndOneLinePerClutch() throws Exception {
+        Path file = directory.resolve("birds.csv");
+        exporter.exportNest(nest(), file.toString(), "csv");
+
+        List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        assertEquals(List.of("id,name", "1,Robin", "2,\"Wren, \"\"Jenny\"\"\"", "3,"), lines);
+    }
+
+    @Test
+    void excelHasHeaderAndOneRowPerClutch() throws Exception {
+        Path file = directory.resolve("birds.xlsx");
+        exporter.exportNest(nest(), file.toString(), "excel");
+
+        try (InputStream in = Files.newInputStream(file); XSSFWorkbook workbook = new XSSFWorkbook(in)) {
+            XSSFSheet sheet = workbook.getSheet("birds");
+            assertEquals(3, sheet.getLastRowNum());
+            assertEquals("name", sheet.getRow(0).getCell(1).getStringCellValue());
+            assertEquals("2", sheet.getRow(2).getCell(0).getStringCellValue());
+            assertEquals("Wren, \"Jenny\"", sheet.getRow(2).getCell(1).getStringCellValue());
+        }
+    }
+
+    @Test
+    void wordTableHasHeaderAndOneRowPerClutch() throws Exception {
+        Path file = directory.resolve("birds.docx");
+        exporter.exportNest(nest(), file.toString(), "word");
+
+        try (InputStream in = Files.newInputStream(file); XWPFDocument document = new XWPFDocument(in)) {
+            XWPFTable table = document.getTables().get(0);
+            assertEquals(4, table.getNumberOfRows());
+            assertEquals("id", table.getRow(0).getCell(0).getText());
+            assertEquals("Robin", table.getRow(1).getCell(1).getText());
+        }
+    }
+
+    @Test
+    void pdfContainsTheValues() throws Exception {
+        Path file = directory.resolve("birds.pdf");
+        exporter.exportNest(nest(), file.toString(), "pdf");
+
+        PdfReader reader = new PdfReader(file.toString());
+        try {
+            String text = PdfTextExtractor.getTextFromPage(reader, 1);
+            assertTrue(text.contains("Robin"), text);
+            assertTrue(text.contains("Wren"), text);
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    void emptyNestExportsOnlyTheHeader() throws Exception {
+        Nest nest = new Nest("empty", "owner");
+        nest.addEgg(new Egg("id", null, "INTEGER", null));
+        Path file = directory.resolve("empty.csv");
+        exporter.exportNest(nest, file.toString(), "csv");
+
+        assertEquals(List.of("id"), Files.readAllLines(file, StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,43 @@
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Function;
+import java.util.function.IntSupplier;
+
+// benchmarks.KernelBenchmark: the column kernels over one int column, scalar or on the Vector
+// API. compare turns the column into a mask; sum and max then aggregate the rows it selected.
+public class KernelWorkload implements Function<String, IntSupplier> {
+    private final NumericKernels kernels;
+    private final int[] values;
+    private final long[] mask;
+    private final int operand;
+
+    public KernelWorkload(Map<String, String> params) {
+        int rows = Integer.parseInt(params.getOrDefault("rows", "1000000"));
+        double selectivity = Double.parseDouble(params.getOrDefault("selectivity", "0.5"));
+        String kernel = params.getOrDefault("kernel", "scalar");
+        kernels = kernel.equals("vector") ? new VectorKernels() : new NumericKernels.Scalar();
+
+        values = new int[rows];
+        Random random = new Random(42);
+        for (int i = 0; i < rows; i++) {
+            values[i] = random.nextInt(1_000_000);
+        }
+        // values < operand selects about selectivity of the rows
+        operand = (int) (1_000_000 * selectivity);
+        mask = new long[NumericKernels.words(rows)];
+        kernels.compare(values, rows, NumericKernels.Comparison.LT, operand, mask);
+    }
+
+    @Override
+    public IntSupplier apply(String operation) {
+        switch (operation) {
+            case "compare": return () -> {
+                kernels.compare(values, values.length, NumericKernels.Comparison.LT, operand, mask);
+                return (int) mask[mask.length - 1];
+            };
+            case "sum": return () -> (int) kernels.sum(values, mask, values.length);
+            case "max": return () -> kernels.max(values, mask, values.length);
+            default: throw new IllegalArgumentException("Unknown operation " + operation);
+        }
+    }
+}
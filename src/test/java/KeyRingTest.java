@@ -0,0 +1,134 @@
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.SecretKey;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class KeyRingTest {
+    private final Encryptor encryptor = new Encryptor();
+
+    private static KeyRing reload(KeyRing ring) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(ring);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            return (KeyRing) in.readObject();
+        }
+    }
+
+    @Test
+    void dataKeySurvivesReloadAndUnlock() throws Exception {
+        KeyRing ring = KeyRing.create("secret", encryptor);
+        int id = ring.newDataKey(encryptor);
+        String ciphertext = encryptor.encryptGCM("payload", ring.getDataKey(id, encryptor));
+
+        KeyRing loaded = reload(ring);
+        assertFalse(loaded.isUnlocked());
+        assertThrows(IllegalStateException.class, () -> loaded.getDataKey(id, encryptor));
+
+        loaded.unlock("secret", encryptor);
+        assertEquals("payload", encryptor.decryptGCM(ciphertext, loaded.getDataKey(id, encryptor)));
+    }
+
+    @Test
+    void wrongSecretIsRejected() throws Exception {
+        KeyRing ring = reload(KeyRing.create("secret", encryptor));
+
+        assertThrows(IllegalArgumentException.class, () -> ring.unlock("not the secret", encryptor));
+        assertFalse(ring.isUnlocked());
+    }
+
+    @Test
+    void rewrapKeepsDataKeysAndChangesTheSecret() throws Exception {
+        KeyRing ring = KeyRing.create("old", encryptor);
+        int first = ring.newDataKey(encryptor);
+        int second = ring.newDataKey(encryptor);
+        String firstCiphertext = encryptor.encryptGCM("one", ring.getDataKey(first, encryptor));
+        String secondCiphertext = encryptor.encryptGCM("two", ring.getDataKey(second, encryptor));
+
+        assertEquals(2, ring.rewrap("new", encryptor));
+        assertEquals(1, ring.getRotations());
+
+        KeyRing loaded = reload(ring);
+        assertThrows(IllegalArgumentException.class, () -> loaded.unlock("old", encryptor));
+        loaded.unlock("new", encryptor);
+        assertEquals("one", encryptor.decryptGCM(firstCiphertext, loaded.getDataKey(first, encryptor)));
+        assertEquals("two", encryptor.decryptGCM(secondCiphertext, loaded.getDataKey(second, encryptor)));
+    }
+
+    @Test
+    void retiredKeyIsGone() throws Exception {
+        KeyRing ring = KeyRing.create("secret", encryptor);
+        int kept = ring.newDataKey(encryptor);
+        int retired = ring.newDataKey(encryptor);
+        SecretKey handedOut = ring.getDataKey(retired, encryptor);
+
+        ring.retire(retired);
+
+        assertEquals(1, ring.size());
+        assertEquals(kept, (int) ring.getKeyIds().get(0));
+        assertThrows(IllegalStateException.class, () -> ring.getDataKey(retired, encryptor));
+        assertTrue(handedOut.isDestroyed());
+        assertEquals(1, reload(ring).size());
+    }
+
+    @Test
+    void acquiredKeyOutlivesRetireUntilReleased() throws Exception {
+        KeyRing ring = KeyRing.create("secret", encryptor);
+        int id = ring.newDataKey(encryptor);
+        String ciphertext = encryptor.encryptGCM("payload", ring.getDataKey(id, encryptor));
+        SecretKey pinned = ring.acquireDataKey(id, encryptor);
+
+        ring.retire(id);
+
+        assertFalse(pinned.isDestroyed());
+        assertEquals("payload", encryptor.decryptGCM(ciphertext, pinned));
+        assertThrows(IllegalStateException.class, () -> ring.acquireDataKey(id, encryptor));
+        ring.release(pinned);
+        assertTrue(pinned.isDestroyed());
+    }
+
+    @Test
+    void keyIsDestroyedOnlyAfterItsLastReader() throws Exception {
+        KeyRing ring = KeyRing.create("secret", encryptor);
+        int id = ring.newDataKey(encryptor);
+        SecretKey first = ring.acquireDataKey(id, encryptor);
+        SecretKey second = ring.acquireDataKey(id, encryptor);
+
+        ring.lock();
+        ring.release(first);
+
+        assertFalse(second.isDestroyed());
+        ring.release(second);
+        assertTrue(second.isDestroyed());
+    }
+
+    @Test
+    void lockForgetsUnwrappedKeys() throws Exception {
+        KeyRing ring = KeyRing.create("secret", encryptor);
+        int id = ring.newDataKey(encryptor);
+        SecretKey handedOut = ring.getDataKey(id, encryptor);
+
+        ring.lock();
+
+        assertFalse(ring.isUnlocked());
+        assertTrue(handedOut.isDestroyed());
+        assertThrows(IllegalStateException.class, () -> ring.getDataKey(id, encryptor));
+        ring.unlock("secret", encryptor);
+        assertFalse(ring.getDataKey(id, encryptor).isDestroyed());
+    }
+
+    @Test
+    void idsAreNotReused() throws Exception {
+        KeyRing ring = KeyRing.create("secret", encryptor);
+        int first = ring.newDataKey(encryptor);
+        ring.retire(first);
+
+        assertNotEquals(first, ring.newDataKey(encryptor));
+    }
+}
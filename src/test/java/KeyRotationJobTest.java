@@ -0,0 +1,164 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class KeyRotationJobTest {
+    @TempDir Path directory;
+    private ExecutorService executor;
+    private SecurityLogger securityLogger;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        executor = Executors.newFixedThreadPool(4);
+        securityLogger = new SecurityLogger(new Encryptor());
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        executor.shutdownNow();
+        securityLogger.close();
+    }
+
+    private static UserDatabase database(int users) throws Exception {
+        UserDatabase database = new UserDatabase();
+        for (int i = 0; i < users; i++) {
+            database.addUser(new User(String.format("user%02d", i), "password" + i, "host" + i,
+                new String[] {"READ"}, false, "2024-01-01", "admin"));
+        }
+        return database;
+    }
+
+    private static List<Integer> keyIds(UserDatabase database, int from, int to) {
+        List<Integer> ids = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            ids.add(database.getUserDataKeyIds().get(String.format("user%02d", i)));
+        }
+        return ids;
+    }
+
+    @Test
+    void resumesAfterCheckpointAndDeletesIt() throws Exception {
+        UserDatabase database = database(10);
+        Path checkpoint = directory.resolve("key_rotation.checkpoint");
+        Properties properties = new Properties();
+        properties.setProperty("lastUser", "user03");
+        properties.setProperty("usersDone", "4");
+        try (OutputStream out = Files.newOutputStream(checkpoint)) {
+            properties.store(out, null);
+        }
+        List<Integer> doneBefore = keyIds(database, 0, 4);
+        List<Integer> leftBefore = keyIds(database, 4, 10);
+
+        KeyRotationJob job = new KeyRotationJob(database, executor, securityLogger, checkpoint);
+        job.setBatchSize(2);
+        job.start().await();
+
+        assertTrue(job.isDone());
+        assertEquals(4, job.getResumedFrom());
+        assertEquals(6, job.getTotal());
+        assertEquals(6, job.getRotated());
+        assertEquals(doneBefore, keyIds(database, 0, 4));
+        List<Integer> leftAfter = keyIds(database, 4, 10);
+        for (int i = 0; i < leftAfter.size(); i++) {
+            assertNotEquals(leftBefore.get(i), leftAfter.get(i));
+        }
+        assertFalse(Files.exists(checkpoint));
+        assertEquals("password7", database.getUser("user07").getPassword());
+    }
+
+    @Test
+    void failedUsersStayInTheCheckpointForTheNextJob() throws Exception {
+        UserDatabase database = database(10);
+        Path checkpoint = directory.resolve("key_rotation.checkpoint");
+        // Neither a data key nor a salt: rotating user03 fails
+        Integer keyId = database.getUserDataKeyIds().remove("user03");
+
+        KeyRotationJob job = new KeyRotationJob(database, executor, securityLogger, checkpoint);
+        job.setBatchSize(3);
+        job.start().await();
+
+        assertTrue(job.isDone());
+        assertEquals(List.of("user03"), job.getFailedUsers());
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(checkpoint)) {
+            properties.load(in);
+        }
+        assertEquals("user09", properties.getProperty("lastUser"));
+        assertEquals("9", properties.getProperty("usersDone"));
+
+        database.getUserDataKeyIds().put("user03", keyId);
+        List<Integer> before = keyIds(database, 0, 10);
+        KeyRotationJob retry = new KeyRotationJob(database, executor, securityLogger, checkpoint);
+        retry.start().await();
+
+        assertEquals(9, retry.getResumedFrom());
+        assertEquals(1, retry.getTotal());
+        assertEquals(1, retry.getRotated());
+        List<Integer> after = keyIds(database, 0, 10);
+        assertNotEquals(before.get(3), after.get(3));
+        assertEquals(before.subList(4, 10), after.subList(4, 10));
+        assertFalse(Files.exists(checkpoint));
+        assertEquals("password3", database.getUser("user03").getPassword());
+    }
+
+    @Test
+    void usersCanBeReadWhileTheirKeysRotate() throws Exception {
+        UserDatabase database = database(1);
+        AtomicBoolean rotating = new AtomicBoolean(true);
+        List<String> failures = Collections.synchronizedList(new ArrayList<>());
+        Thread reader = new Thread(() -> {
+            while (rotating.get()) {
+                User user = database.getUser("user00");
+                if (user == null || !"password0".equals(user.getPassword())) {
+                    failures.add(user == null ? "null" : user.getPassword());
+                }
+            }
+        });
+        reader.start();
+        for (int i = 0; i < 200; i++) {
+            assertTrue(database.rotateUserDataKey("user00"));
+        }
+        rotating.set(false);
+        reader.join();
+
+        assertEquals(List.of(), failures);
+        assertEquals("host0", database.getUser("user00").getHost());
+    }
+
+    @Test
+    void rotationDoesNotUndoAConcurrentUpdate() throws Exception {
+        UserDatabase database = database(1);
+        Thread rotator = new Thread(() -> {
+            try {
+                for (int i = 0; i < 100; i++) {
+                    database.rotateUserDataKey("user00");
+                }
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        rotator.start();
+        for (int i = 0; i < 50; i++) {
+            database.updateUser("user00", new User("user00", "changed" + i, "host", new String[] {"READ"},
+                false, "2024-01-01", "admin"));
+        }
+        rotator.join();
+
+        assertEquals("changed49", database.getUser("user00").getPassword());
+    }
+}
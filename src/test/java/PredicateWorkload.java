@@ -0,0 +1,71 @@
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.IntSupplier;
+
+// benchmarks.PredicateBenchmark: counts the clutches of a scan that pass a WHILE clause, through
+// the interpreter or through the class PredicateCompiler generates for it. The scan holds rows
+// references into a pool of distinct clutches, so 10M rows fit in a small heap.
+public class PredicateWorkload implements Function<String, IntSupplier> {
+    private final Clutch[] scan;
+    private final ClutchPredicate interpreted;
+    private final ClutchPredicate compiled;
+
+    public PredicateWorkload(Map<String, String> params) {
+        int rows = Integer.parseInt(params.getOrDefault("rows", "10000000"));
+        int distinct = Integer.parseInt(params.getOrDefault("distinct", "65536"));
+        String condition = params.getOrDefault("condition", "age > 30");
+
+        Clutch[] pool = new Clutch[distinct];
+        for (int i = 0; i < distinct; i++) {
+            pool[i] = new Clutch(
+                new Egg("name", "bird-" + (i % 10), "STRING", null),
+                new Egg("age", i % 90, "INTEGER", null),
+                new Egg("active", i % 3 != 0, "FLIGHTMODE", null));
+        }
+        // Scattered rather than sequential, like clutches laid over time
+        scan = new Clutch[rows];
+        for (int i = 0; i < rows; i++) {
+            scan[i] = pool[(int) ((i * 2654435761L) % distinct)];
+        }
+
+        List<FindCondition> conditions = FindCondition.parseAll(condition);
+        int[] positions = new int[conditions.size()];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = position(pool[0], conditions.get(i).getEggName());
+        }
+        interpreted = new PredicateCompiler.Interpreted(conditions.toArray(new FindCondition[0]), positions);
+        compiled = new PredicateCompiler().predicateFor(conditions, positions, rows);
+        if (!compiled.isCompiled()) {
+            throw new IllegalStateException("WHILE " + condition + " did not compile");
+        }
+    }
+
+    private static int position(Clutch clutch, String eggName) {
+        for (int p = 0; p < clutch.size(); p++) {
+            if (clutch.getEgg(p).getName().equals(eggName)) {
+                return p;
+            }
+        }
+        throw new IllegalArgumentException("No egg " + eggName);
+    }
+
+    @Override
+    public IntSupplier apply(String operation) {
+        switch (operation) {
+            case "interpreted": return () -> count(interpreted);
+            case "compiled": return () -> count(compiled);
+            default: throw new IllegalArgumentException("Unknown operation " + operation);
+        }
+    }
+
+    private int count(ClutchPredicate predicate) {
+        int matches = 0;
+        for (Clutch clutch : scan) {
+            if (predicate.test(clutch)) {
+                matches++;
+            }
+        }
+        return matches;
+    }
+}
@@ -0,0 +1,96 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class QueryCacheTest {
+    private static List<Clutch> rows(int count) {
+        List<Clutch> rows = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            rows.add(new Clutch(new Egg("id", i, "INTEGER", null)));
+        }
+        return rows;
+    }
+
+    @Test
+    void hitWhileNestUnchanged() {
+        QueryCache cache = new QueryCache();
+        Nest nest = new Nest("n", "owner");
+        List<Clutch> result = rows(3);
+        cache.put("q", nest, nest.getVersion(), result);
+
+        assertEquals(result, cache.get("q", nest));
+        assertEquals(1, cache.getHits());
+    }
+
+    @Test
+    void writeToNestInvalidatesEntry() {
+        QueryCache cache = new QueryCache();
+        Nest nest = new Nest("n", "owner");
+        cache.put("q", nest, nest.getVersion(), rows(3));
+
+        nest.markModified();
+
+        assertNull(cache.get("q", nest));
+        assertEquals(1, cache.getInvalidations());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void resultReadBeforeConcurrentWriteIsNotCached() {
+        QueryCache cache = new QueryCache();
+        Nest nest = new Nest("n", "owner");
+        long versionBeforeQuery = nest.getVersion();
+        nest.markModified();
+
+        cache.put("q", nest, versionBeforeQuery, rows(3));
+
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void sameQueryOnAnotherNestMisses() {
+        QueryCache cache = new QueryCache();
+        Nest nest = new Nest("n", "owner");
+        cache.put("q", nest, nest.getVersion(), rows(1));
+
+        assertNull(cache.get("q", new Nest("n", "owner")));
+    }
+
+    @Test
+    void oversizedResultIsNotCached() {
+        QueryCache cache = new QueryCache(4, 2);
+        Nest nest = new Nest("n", "owner");
+        cache.put("q", nest, nest.getVersion(), rows(3));
+
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void leastRecentlyUsedEntryIsEvicted() {
+        QueryCache cache = new QueryCache(2, 10);
+        Nest nest = new Nest("n", "owner");
+        cache.put("a", nest, nest.getVersion(), rows(1));
+        cache.put("b", nest, nest.getVersion(), rows(1));
+        cache.get("a", nest);
+        cache.put("c", nest, nest.getVersion(), rows(1));
+
+        assertNotNull(cache.get("a", nest));
+        assertNull(cache.get("b", nest));
+        assertNotNull(cache.get("c", nest));
+        assertEquals(1, cache.getEvictions());
+    }
+
+    @Test
+    void cachedResultIsReadOnly() {
+        QueryCache cache = new QueryCache();
+        Nest nest = new Nest("n", "owner");
+        cache.put("q", nest, nest.getVersion(), rows(1));
+
+        assertThrows(UnsupportedOperationException.class, () -> cache.get("q", nest).add(new Clutch()));
+        assertNotSame(Collections.emptyList(), cache.get("q", nest));
+    }
+}
@@ -0,0 +1,69 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SerializationTest {
+    @SuppressWarnings("unchecked")
+    private static <T> T roundTrip(T object) throws IOException, ClassNotFoundException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(object);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            return (T) in.readObject();
+        }
+    }
+
+    @Test
+    void eggsKeepTheirValueKindAndTimestamp() throws Exception {
+        for (Object value : new Object[] {42, 1L << 40, true, "Robin", null}) {
+            Egg egg = new Egg("e", value);
+            egg.setCreatorId("alice");
+            egg.setLastModified(1_709_296_215_250L);
+
+            Egg copy = roundTrip(egg);
+
+            assertEquals(egg, copy);
+            assertEquals(egg.getValueKind(), copy.getValueKind());
+            assertEquals(egg.getType(), copy.getType());
+            assertEquals("alice", copy.getCreatorId());
+            assertEquals(1_709_296_215_250L, copy.getLastModified());
+        }
+    }
+
+    // baseline-tree.ser was written by the tree before typed egg storage and clutches: a tree
+    // with one nest whose eggs name=Robin (NOT NULL) and age=3 were its only row
+    @Test
+    void treeSavedBeforeClutchesStillLoads() throws Exception {
+        Tree tree;
+        try (InputStream resource = getClass().getResourceAsStream("/baseline-tree.ser");
+             ObjectInputStream in = new ObjectInputStream(resource)) {
+            tree = (Tree) in.readObject();
+        }
+        Nest nest = tree.getNest("birds");
+
+        assertEquals("garden", tree.getName());
+        assertEquals(2, nest.getEggs().size());
+        assertTrue(nest.getEggs().get(0).isNull());
+        assertArrayEquals(new String[] {"NOT NULL"}, nest.getEggs().get(0).getConstraints());
+        assertEquals(1, nest.getClutches().size());
+        Clutch row = nest.getClutches().get(0);
+        assertEquals("Robin", row.getValue(0));
+        assertEquals(3, row.getEgg(1).getInt());
+        assertEquals(LocalDateTime.parse("2024-03-01T12:30:15.250").atZone(ZoneId.systemDefault()).toInstant().toEpochMilli(),
+            row.getEgg(1).getLastModified());
+        assertNotNull(nest.getIndexes());
+        assertEquals(BloomFilter.DEFAULT_FALSE_POSITIVE_RATE, nest.getBloomFalsePositiveRate());
+        assertEquals(Nest.DEFAULT_AUTO_ANALYZE_FRACTION, nest.getAutoAnalyzeFraction());
+        assertEquals(BloomFilter.DEFAULT_FALSE_POSITIVE_RATE, tree.getBloomFalsePositiveRate());
+    }
+}
@@ -0,0 +1,93 @@
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TreeEncryptionTest {
+    private final Encryptor encryptor = new Encryptor();
+    private final UpdateExecutor updateExecutor = new UpdateExecutor();
+    private Tree tree;
+    private Nest nest;
+
+    @BeforeEach
+    void setUp() {
+        tree = new Tree("t", "test tree", "admin", 10, 100, 10, null);
+        nest = new Nest("birds", "admin");
+        tree.addNest("/", nest);
+        List<Clutch> rows = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            rows.add(new Clutch(new Egg("id", i, "INTEGER", null), new Egg("name", "bird-" + i, "STRINGLIT", null)));
+        }
+        nest.layClutches(rows);
+    }
+
+    private void run(TreeEncryption.Direction direction) throws Exception {
+        TreeEncryption.prepare(tree, direction, "passphrase", encryptor).run();
+    }
+
+    private List<Object> ids(EggIndex index, FindCondition condition) {
+        List<Object> ids = new ArrayList<>();
+        for (Clutch clutch : index.lookup(condition)) {
+            ids.add(tree.decode(clutch, false).getValue(0));
+        }
+        return ids;
+    }
+
+    @Test
+    void indexKeepsPlaintextKeysThroughEncryption() throws Exception {
+        nest.createIndex("by_id", "id");
+        run(TreeEncryption.Direction.ENCRYPT);
+
+        assertTrue(nest.getClutches().get(0).getEgg(0).isEncrypted());
+        FindCondition seven = new FindCondition("id", "=", 7);
+        assertEquals(List.of(7), ids(nest.findIndex(seven), seven));
+    }
+
+    @Test
+    void removedAndUpdatedClutchesLeaveTheirOldKeys() throws Exception {
+        nest.createIndex("by_id", "id");
+        nest.createIndex("by_name", "name", EggIndex.Kind.TRIGRAM);
+        run(TreeEncryption.Direction.ENCRYPT);
+
+        updateExecutor.remove(nest, FindCondition.parseAll("id = 3"), null);
+        updateExecutor.execute(UpdateStatement.parse("UPDATE NEST birds SET id = 100 WHILE id = 5"), nest, false);
+
+        FindCondition three = new FindCondition("id", "=", 3);
+        FindCondition five = new FindCondition("id", "=", 5);
+        FindCondition hundred = new FindCondition("id", "=", 100);
+        EggIndex byId = nest.getIndexes().get("by_id");
+        assertEquals(List.of(), ids(byId, three));
+        assertEquals(List.of(), ids(byId, five));
+        assertEquals(List.of(100), ids(byId, hundred));
+        assertEquals(19, byId.getSize());
+        assertEquals(19, nest.getIndexes().get("by_name").getSize());
+    }
+
+    @Test
+    void indexCreatedOnAnEncryptedNestUsesPlaintext() throws Exception {
+        run(TreeEncryption.Direction.ENCRYPT);
+        nest.createIndex("by_id", "id");
+
+        FindCondition twelve = new FindCondition("id", "=", 12);
+        assertEquals(List.of(12), ids(nest.findIndex(twelve), twelve));
+        assertEquals(20, nest.analyze().getEgg("id").getDistinctValues(), 1);
+    }
+
+    @Test
+    void pickThroughTheIndexSkipsRemovedRowsAfterDecrypt() throws Exception {
+        nest.createIndex("by_id", "id");
+        run(TreeEncryption.Direction.ENCRYPT);
+        updateExecutor.remove(nest, FindCondition.parseAll("id >= 10"), null);
+        run(TreeEncryption.Direction.DECRYPT);
+
+        CommandProcessor processor = new CommandProcessor(null);
+        processor.setCurrentTree(tree);
+        String result = processor.processCommand("PICK EGG id FROM birds FIND id = 15");
+
+        assertTrue(result.contains("0 clutch(es) picked"), result);
+        assertEquals(10, nest.getIndexes().get("by_id").getSize());
+    }
+}
@@ -0,0 +1,71 @@
+import javax.crypto.SecretKey;
+import java.security.SecureRandom;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.IntSupplier;
+
+// benchmarks.UserLookupBenchmark: UserDatabase.getUser for users from before data keys, whose
+// fields are under a PBKDF2 key of the master key and their salt. "uncached" empties the derived
+// key cache first, so every lookup pays the 65,536 iterations as getUser did before the cache;
+// "cached" is the same lookup once the key is cached. "dataKey" looks up a user created through
+// addUser, whose key comes from the key ring instead.
+public class UserLookupWorkload implements Function<String, IntSupplier> {
+    private final UserDatabase userDatabase;
+    private final String[] legacyUsers;
+    private final String dataKeyUser = "datakey_user";
+    private int next;
+
+    public UserLookupWorkload(Map<String, String> params) throws Exception {
+        int users = Integer.parseInt(params.getOrDefault("users", "16"));
+        String masterKey = System.getenv("BDL_MASTER_KEY");
+        if (masterKey == null) {
+            throw new IllegalStateException("Set BDL_MASTER_KEY, as the benchmarks profile does");
+        }
+        userDatabase = new UserDatabase();
+        Encryptor encryptor = new Encryptor();
+        SecureRandom random = new SecureRandom();
+        legacyUsers = new String[users];
+        for (int i = 0; i < users; i++) {
+            String username = "legacy_user_" + i;
+            byte[] salt = new byte[16];
+            random.nextBytes(salt);
+            SecretKey key = encryptor.getAESKeyFromPassword(masterKey, salt);
+            userDatabase.getUsers().put(username, new User(username, encryptor.encryptGCM("password-" + i, key),
+                encryptor.encryptGCM("localhost", key), new String[] {"READ"}, false, "2024-01-01", "SYSTEM"));
+            userDatabase.getUserSalts().put(username, salt);
+            userDatabase.getUserPermissions().put(username, new String[] {"READ"});
+            userDatabase.getUserLocks().put(username, false);
+            userDatabase.getUserCreationDates().put(username, "2024-01-01");
+            userDatabase.getUserCreatorIds().put(username, "SYSTEM");
+            legacyUsers[i] = username;
+        }
+        userDatabase.addUser(new User(dataKeyUser, "password", "localhost", new String[] {"READ"},
+            false, "2024-01-01", "SYSTEM"));
+    }
+
+    @Override
+    public IntSupplier apply(String operation) {
+        switch (operation) {
+            case "uncached": return () -> {
+                userDatabase.invalidateDerivedKeys();
+                return lookup(nextLegacyUser());
+            };
+            case "cached": return () -> lookup(nextLegacyUser());
+            case "dataKey": return () -> lookup(dataKeyUser);
+            default: throw new IllegalArgumentException("Unknown operation " + operation);
+        }
+    }
+
+    private String nextLegacyUser() {
+        next = (next + 1) % legacyUsers.length;
+        return legacyUsers[next];
+    }
+
+    private int lookup(String username) {
+        User user = userDatabase.getUser(username);
+        if (user == null) {
+            throw new IllegalStateException("getUser failed for " + username);
+        }
+        return user.getPassword().length();
+    }
+}
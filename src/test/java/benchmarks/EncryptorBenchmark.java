@@ -0,0 +1,105 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.IntSupplier;
+
+// Encryptor throughput on 100-byte messages, ops/s summed over all threads. main runs the set
+// once per thread count and prints one row per operation:
+//   mvn -P benchmarks test-compile exec:exec -Dbenchmark.main=benchmarks.EncryptorBenchmark -Dbenchmark=1,2,4,8
+// See EncryptorWorkload.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EncryptorBenchmark {
+    private static final int BATCH_SIZE = 100;
+
+    private IntSupplier encryptGCM;
+    private IntSupplier decryptGCM;
+    private IntSupplier encryptCBC;
+    private IntSupplier encryptGCMBuffer;
+    private IntSupplier encryptGCMBatch;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Function<String, IntSupplier> workload = Workloads.load("EncryptorWorkload",
+            "messageBytes", "100", "batchSize", String.valueOf(BATCH_SIZE));
+        encryptGCM = workload.apply("encryptGCM");
+        decryptGCM = workload.apply("decryptGCM");
+        encryptCBC = workload.apply("encryptCBC");
+        encryptGCMBuffer = workload.apply("encryptGCMBuffer");
+        encryptGCMBatch = workload.apply("encryptGCMBatch");
+    }
+
+    @Benchmark
+    public int encryptGCM() {
+        return encryptGCM.getAsInt();
+    }
+
+    @Benchmark
+    public int decryptGCM() {
+        return decryptGCM.getAsInt();
+    }
+
+    @Benchmark
+    public int encryptCBC() {
+        return encryptCBC.getAsInt();
+    }
+
+    @Benchmark
+    public int encryptGCMBuffer() {
+        return encryptGCMBuffer.getAsInt();
+    }
+
+    // Scored per message, so it compares with the single-message calls
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public int encryptGCMBatch() {
+        return encryptGCMBatch.getAsInt();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        String[] counts = (args.length == 0 ? "1,2,4,8" : args[0]).split(",");
+        Map<String, StringBuilder> rows = new TreeMap<>();
+        StringBuilder header = new StringBuilder(String.format("%-18s", "ops/s  threads:"));
+        for (String count : counts) {
+            int threads = Integer.parseInt(count.trim());
+            header.append(String.format("%12d", threads));
+            for (RunResult result : new Runner(new OptionsBuilder()
+                    .include(EncryptorBenchmark.class.getName())
+                    .threads(threads)
+                    .build()).run()) {
+                String benchmark = result.getParams().getBenchmark();
+                rows.computeIfAbsent(benchmark.substring(benchmark.lastIndexOf('.') + 1),
+                        name -> new StringBuilder(String.format("%-18s", name)))
+                    .append(String.format("%12.0f", result.getPrimaryResult().getScore()));
+            }
+        }
+        System.out.println(header);
+        for (StringBuilder row : rows.values()) {
+            System.out.println(row);
+        }
+    }
+}
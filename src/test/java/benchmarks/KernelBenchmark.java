@@ -0,0 +1,64 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.IntSupplier;
+
+// Scalar vs Vector API column kernels (NumericKernels.Scalar, VectorKernels). See KernelWorkload.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class KernelBenchmark {
+    @Param({"scalar", "vector"})
+    private String kernel;
+
+    @Param("1000000")
+    private String rows;
+
+    @Param({"0.01", "0.5"})
+    private String selectivity;
+
+    private IntSupplier compare;
+    private IntSupplier sum;
+    private IntSupplier max;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Function<String, IntSupplier> workload = Workloads.load("KernelWorkload",
+            "kernel", kernel, "rows", rows, "selectivity", selectivity);
+        compare = workload.apply("compare");
+        sum = workload.apply("sum");
+        max = workload.apply("max");
+    }
+
+    @Benchmark
+    public int compare() {
+        return compare.getAsInt();
+    }
+
+    @Benchmark
+    public int sum() {
+        return sum.getAsInt();
+    }
+
+    @Benchmark
+    public int max() {
+        return max.getAsInt();
+    }
+}
@@ -0,0 +1,58 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.IntSupplier;
+
+// Interpreted vs generated WHILE predicates (PredicateCompiler), one full scan of rows clutches
+// per operation. See PredicateWorkload.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class PredicateBenchmark {
+    @Param("10000000")
+    private String rows;
+
+    @Param("65536")
+    private String distinct;
+
+    @Param({"age > 30 AND name = 'bird-7' AND active = true", "age >= 18"})
+    private String condition;
+
+    private IntSupplier interpreted;
+    private IntSupplier compiled;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Function<String, IntSupplier> workload = Workloads.load("PredicateWorkload",
+            "rows", rows, "distinct", distinct, "condition", condition);
+        interpreted = workload.apply("interpreted");
+        compiled = workload.apply("compiled");
+    }
+
+    @Benchmark
+    public int interpreted() {
+        return interpreted.getAsInt();
+    }
+
+    @Benchmark
+    public int compiled() {
+        return compiled.getAsInt();
+    }
+}
@@ -0,0 +1,54 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.IntSupplier;
+
+// getUser with and without the derived key cache (DerivedKeyCache), and with a data key. See
+// UserLookupWorkload.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UserLookupBenchmark {
+    private IntSupplier uncached;
+    private IntSupplier cached;
+    private IntSupplier dataKey;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Function<String, IntSupplier> workload = Workloads.load("UserLookupWorkload");
+        uncached = workload.apply("uncached");
+        cached = workload.apply("cached");
+        dataKey = workload.apply("dataKey");
+    }
+
+    @Benchmark
+    public int uncached() {
+        return uncached.getAsInt();
+    }
+
+    @Benchmark
+    public int cached() {
+        return cached.getAsInt();
+    }
+
+    @Benchmark
+    public int dataKey() {
+        return dataKey.getAsInt();
+    }
+}
@@ -0,0 +1,34 @@
+package benchmarks;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.IntSupplier;
+
+// JMH won't generate benchmarks in the default package, and code in a package can't name the
+// default-package classes it measures. So each benchmark loads a workload from the default package
+// (src/test/java/*Workload.java) by name and gets its operations as IntSuppliers; the workload
+// does the real work, and its int result goes to JMH so nothing is optimized away.
+//
+// A workload has a public constructor taking its parameters as a Map<String, String> and
+// implements Function<String, IntSupplier>, mapping an operation name to the operation.
+final class Workloads {
+    private Workloads() {
+    }
+
+    @SuppressWarnings("unchecked")
+    static Function<String, IntSupplier> load(String workload, String... params) {
+        if (params.length % 2 != 0) {
+            throw new IllegalArgumentException("Workload parameters come in name/value pairs");
+        }
+        Map<String, String> values = new HashMap<>();
+        for (int i = 0; i < params.length; i += 2) {
+            values.put(params[i], params[i + 1]);
+        }
+        try {
+            return (Function<String, IntSupplier>) Class.forName(workload).getConstructor(Map.class).newInstance(values);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot load workload " + workload, e);
+        }
+    }
+}